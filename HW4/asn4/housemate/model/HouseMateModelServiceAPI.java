@@ -62,7 +62,7 @@ public class HouseMateModelServiceAPI implements IHouseMateModelServiceAPI {
 	public void createRoom(String authToken, String identifier, int floor, String roomType, String houseIdentifier) throws HouseMateModelException {
 		validateAuthToken(authToken);
 		validateIdentifier(identifier);
-		House house = (House) knowledgeGraph.getExistingNodeById(houseIdentifier.toLowerCase()); // This must exist or else an error is thrown.
+		House house = (House) knowledgeGraph.getExistingNodeById(houseIdentifier); // This must exist or else an error is thrown.
 		Room tempRoom = new Room(houseIdentifier + ":" + identifier, identifier, roomType, floor);
 		knowledgeGraph.validateIdentifierDoesNotExist(tempRoom.getIdentifier());
 		house.addRoom(tempRoom);
@@ -94,8 +94,8 @@ public class HouseMateModelServiceAPI implements IHouseMateModelServiceAPI {
 	 * @throws HouseMateModelException when there is an error creating the occupant.
 	 */
 	public void addOccupant(String authToken, String occupantIdentifier, String houseIdentifier, String relation) throws HouseMateModelException {
-		Occupant occupant = (Occupant) knowledgeGraph.getExistingNodeById(occupantIdentifier.toLowerCase());
-		House house = (House) knowledgeGraph.getExistingNodeById(houseIdentifier.toLowerCase());
+		Occupant occupant = (Occupant) knowledgeGraph.getExistingNodeById(occupantIdentifier);
+		House house = (House) knowledgeGraph.getExistingNodeById(houseIdentifier);
 		house.addOccupant(occupant, relation);
 	}
 
@@ -110,7 +110,7 @@ public class HouseMateModelServiceAPI implements IHouseMateModelServiceAPI {
 	public void createSensor(String authToken, String identifier, String type, String roomIdentifier) throws HouseMateModelException {
 		validateAuthToken(authToken);
 		validateIdentifier(identifier);
-		Room room = (Room) knowledgeGraph.getExistingNodeById(roomIdentifier.toLowerCase());
+		Room room = (Room) knowledgeGraph.getExistingNodeById(roomIdentifier);
 		Sensor tempSensor = new Sensor(roomIdentifier + ":" + identifier, identifier, type);
 		knowledgeGraph.validateIdentifierDoesNotExist(tempSensor.getIdentifier());
 		room.addSensor(tempSensor);
@@ -127,7 +127,7 @@ public class HouseMateModelServiceAPI implements IHouseMateModelServiceAPI {
 	public void createAppliance(String authToken, String identifier, String type, String roomIdentifier) throws HouseMateModelException {
 		validateAuthToken(authToken);
 		validateIdentifier(identifier);
-		Room room = (Room) knowledgeGraph.getExistingNodeById(roomIdentifier.toLowerCase());
+		Room room = (Room) knowledgeGraph.getExistingNodeById(roomIdentifier);
 		Appliance tempAppliance = new Appliance(roomIdentifier + ":" + identifier, identifier, type);
 		knowledgeGraph.validateIdentifierDoesNotExist(tempAppliance.getIdentifier());
 		room.addAppliance(tempAppliance);
@@ -144,7 +144,7 @@ public class HouseMateModelServiceAPI implements IHouseMateModelServiceAPI {
 	public void setStatus(String authToken, String identifier, String statusName, String statusValue) throws HouseMateModelException {
 		validateAuthToken(authToken);
 		validateIdentifier(statusName);
-		HouseMateNode node = (HouseMateNode) knowledgeGraph.getExistingNodeById(identifier.toLowerCase());
+		HouseMateNode node = (HouseMateNode) knowledgeGraph.getExistingNodeById(identifier);
 		Status tempStatus = new Status(identifier + ":" + statusName, statusName, statusValue);
 		node.setStatus(tempStatus);
 	}
@@ -152,28 +152,35 @@ public class HouseMateModelServiceAPI implements IHouseMateModelServiceAPI {
 	/**
 	 * Shows the configuration for a given identifier. If identifier is null, then the entire configuration is displayed. 
 	 * The more specific show method is called based off the type of the identifier.
+	 * The knowledge graph version is pinned for the whole walk, so the output is consistent
+	 * even while statuses are being updated.
 	 * @param authToken Authorization token.
 	 * @param identifier The identifier of the 
 	 * @throws HouseMateModelException on error showing configuration
 	 */
 	public void showConfiguration(String authToken, String identifier) throws HouseMateModelException {
-		if(identifier == null){
-			Set<House> houses = getHouses();
-			for(Node house1 : houses){
-				House house = (House) house1;
-				showHouseConfig(house);
-	        }
-		}else{
-			HouseMateNode node = (HouseMateNode) knowledgeGraph.getExistingNodeById(identifier.toLowerCase());
-			
-			switch(node.getClass().getSimpleName()){
-				case "House": showHouseConfig((House) node); break;
-				case "Room": showRoomConfig((Room) node, ""); break;
-				case "Appliance": showApplianceConfig((Appliance) node, ""); break;
-				case "Sensor": showSensorConfig((Sensor) node, ""); break;
-				case "Occupant": showOccupantConfig((Occupant) node, ""); break;
-				case "Status": showStatusConfig((Status) node, ""); break;
+		knowledgeGraph.pinVersion();
+		try{
+			if(identifier == null){
+				Set<House> houses = getHouses();
+				for(Node house1 : houses){
+					House house = (House) house1;
+					showHouseConfig(house);
+		        }
+			}else{
+				HouseMateNode node = (HouseMateNode) knowledgeGraph.getExistingNodeById(identifier);
+				
+				switch(node.getClass().getSimpleName()){
+					case "House": showHouseConfig((House) node); break;
+					case "Room": showRoomConfig((Room) node, ""); break;
+					case "Appliance": showApplianceConfig((Appliance) node, ""); break;
+					case "Sensor": showSensorConfig((Sensor) node, ""); break;
+					case "Occupant": showOccupantConfig((Occupant) node, ""); break;
+					case "Status": showStatusConfig((Status) node, ""); break;
+				}
 			}
+		}finally{
+			knowledgeGraph.releaseVersion();
 		}
 	}
 	
@@ -187,7 +194,7 @@ public class HouseMateModelServiceAPI implements IHouseMateModelServiceAPI {
 	 */
 	public void setStatusOptions(String authToken, String identifier, Map<String, String> params) throws HouseMateModelException {
 		validateAuthToken(authToken);
-		Status status = (Status) knowledgeGraph.getExistingNodeById(identifier.toLowerCase());
+		Status status = (Status) knowledgeGraph.getExistingNodeById(identifier);
 		status.setOptions(params);
 	}
 
@@ -202,6 +209,17 @@ public class HouseMateModelServiceAPI implements IHouseMateModelServiceAPI {
 		queryEngine.executeQuery(query);
 		
 	}
+
+	/**
+	 * Starts keeping the history of status values, so they can be queried as of a past time.
+	 * The history grows with every status change, so it is only kept once this is called.
+	 * @param authToken Authorization token.
+	 * @throws HouseMateModelException on an invalid authorization token.
+	 */
+	public void keepStatusHistory(String authToken) throws HouseMateModelException {
+		validateAuthToken(authToken);
+		knowledgeGraph.trackHistory("has_value");
+	}
 	
 	
 	
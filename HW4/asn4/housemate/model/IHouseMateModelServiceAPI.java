@@ -105,5 +105,12 @@ public interface IHouseMateModelServiceAPI {
 	 * @throws HouseMateModelException on invalid identifier.
 	 */
 	public void query(String authToken, String query) throws HouseMateModelException;
+
+	/**
+	 * Starts keeping the history of status values, so they can be queried as of a past time.
+	 * @param authToken Authorization token.
+	 * @throws HouseMateModelException on an invalid authorization token.
+	 */
+	public void keepStatusHistory(String authToken) throws HouseMateModelException;
 }
 
@@ -1,6 +1,5 @@
 package cscie97.asn4.housemate.model;
 
-import java.util.Set;
 import cscie97.asn4.knowledge.engine.KnowledgeGraph;
 import cscie97.asn4.knowledge.engine.Node;
 import cscie97.asn4.knowledge.engine.TripleLiteral;
@@ -34,9 +33,9 @@ public class Occupant extends HouseMateNode {
 	 * @return the relationship
 	 */
 	public String getRelation(House house) {
-		Set<Node> relationships = KnowledgeGraph.getInstance().getObjectsFromQuery(new TripleLiteral(getRelationshipNodeIdentifier(house), "has_relationship", "?"));
-		for(Node node : relationships){
-            return node.getIdentifier().toLowerCase(); // return the first one.
+		Node relationship = KnowledgeGraph.getInstance().getFirstObject(new TripleLiteral(getRelationshipNodeIdentifier(house), "has_relationship", "?"));
+		if(relationship != null){
+            return relationship.getIdentifier().toLowerCase(); // return the first one.
         }
 		return "unknown"; // None found, return unknown.
 	}
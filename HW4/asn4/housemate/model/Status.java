@@ -49,9 +49,8 @@ public class Status extends HouseMateNode {
 		}else{
 			valueToSave = this.optionsBehavior.setValue(newValue, value); // The current value is needed for incrementing and decrementing.
 		}
-		KnowledgeGraph.getInstance().deleteTriple(this, "has_value", new Node(value));
+		KnowledgeGraph.getInstance().replaceTriple(this, "has_value", new Node(value), new Node(valueToSave));
 		value = valueToSave;
-		KnowledgeGraph.getInstance().importTriple(this, "has_value", new Node(value));
 	}
 
 	/**
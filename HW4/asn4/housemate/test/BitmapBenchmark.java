@@ -0,0 +1,158 @@
+package cscie97.asn4.housemate.test;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import cscie97.asn4.knowledge.engine.BindingTable;
+import cscie97.asn4.knowledge.engine.KnowledgeGraph;
+import cscie97.asn4.knowledge.engine.TripleLiteral;
+
+/**
+ * Benchmark of the conjunctive queries the KnowledgeGraph answers with bitmap joins, against
+ * answering them from the QueryMapSetGraph it replaced, by intersecting the sets of each pattern's
+ * matches.
+ *
+ * @author Gerald Trotman
+ * @version 1.0
+ */
+public class BitmapBenchmark {
+
+    private static final int ROOMS = 4;
+    private static final int SENSORS = 5;
+    private static final String[] TYPES = { "light", "door", "thermostat", "camera", "smoke_detector" };
+
+    /**
+     * Loads the same fleet of houses into a QueryMapSetGraph and into the KnowledgeGraph, then runs
+     * two queries on each: every light that is on, and every light that is on in a random room. It
+     * prints the microseconds per query of each store, with the query cache of the KnowledgeGraph
+     * on and off, and checks that the stores give the same answers. Command-line arguments should
+     * be:
+     * <ol>
+     *      <li>the number of houses</li>
+     *      <li>the number of times to run each query</li>
+     * </ol>
+     * @param args the number of houses and of queries.
+     */
+    public static void main(String[] args) throws Exception {
+        if (args.length != 2) {
+            System.out.println("Arguments to BitmapBenchmark should be the number of houses and the number of queries");
+            System.exit(1);
+        }
+        int houses = Integer.parseInt(args[0]);
+        int queries = Integer.parseInt(args[1]);
+        QueryMapSetGraph mapSetGraph = new QueryMapSetGraph();
+        KnowledgeGraph graph = KnowledgeGraph.getInstance();
+        for (int house = 0; house < houses; house++) {
+            List<TripleLiteral> triples = createHouse(house);
+            for (TripleLiteral triple : triples) {
+                mapSetGraph.importTriple(triple.getSubject(), triple.getPredicate(), triple.getObject());
+            }
+            graph.importTriples(triples);
+        }
+
+        /** Warm up the JIT before measuring. */
+        for (int i = 0; i < 3; i++) {
+            run(mapSetGraph, null, houses, queries / 10 + 1);
+            run(null, graph, houses, queries / 10 + 1);
+        }
+        System.out.println((long) houses * (ROOMS + ROOMS * SENSORS * 3) + " triples, " + queries + " queries");
+        System.out.println("store                      all lights on  lights on in a room");
+        long[] mapSet = run(mapSetGraph, null, houses, queries);
+        System.out.println(String.format("QueryMapSetGraph           %13.1f  %19.1f", mapSet[0] / 1e3 / queries, mapSet[1] / 1e3 / queries));
+        long[] cached = run(null, graph, houses, queries);
+        System.out.println(String.format("KnowledgeGraph, cached     %13.1f  %19.1f", cached[0] / 1e3 / queries, cached[1] / 1e3 / queries));
+        graph.setQueryCacheCapacity(0);
+        long[] uncached = run(null, graph, houses, queries);
+        System.out.println(String.format("KnowledgeGraph, uncached   %13.1f  %19.1f", uncached[0] / 1e3 / queries, uncached[1] / 1e3 / queries));
+        System.out.println("microseconds per query");
+    }
+
+    /**
+     * Runs each query on one of the stores, and checks its answers against the other store's.
+     * @return the nanoseconds taken by each query.
+     */
+    private static long[] run(QueryMapSetGraph mapSetGraph, KnowledgeGraph graph, int houses, int queries) {
+        long[] nanos = new long[2];
+        Random random = new Random(1);
+        long start = System.nanoTime();
+        for (int i = 0; i < queries; i++) {
+            check(i, mapSetGraph == null ? lightsOn(graph).size() : lightsOn(mapSetGraph).size(), houses * ROOMS / 2);
+        }
+        nanos[0] = System.nanoTime() - start;
+        start = System.nanoTime();
+        for (int i = 0; i < queries; i++) {
+            int house = random.nextInt(houses);
+            int room = random.nextInt(ROOMS);
+            Set<String> found = mapSetGraph == null ? lightsOn(graph, house, room) : lightsOn(mapSetGraph, house, room);
+            check(i, found.size(), (house + room) % 2 == 0 ? 1 : 0);
+        }
+        nanos[1] = System.nanoTime() - start;
+        return nanos;
+    }
+
+    private static void check(int query, int found, int expected) {
+        if (found != expected) {
+            throw new IllegalStateException("Query " + query + " found " + found + " sensors, not " + expected + ".");
+        }
+    }
+
+    private static Set<String> lightsOn(QueryMapSetGraph mapSetGraph) {
+        Set<String> sensors = mapSetGraph.getSubjects("? is_a light");
+        sensors.retainAll(mapSetGraph.getSubjects("? has_status on"));
+        return sensors;
+    }
+
+    private static Set<String> lightsOn(QueryMapSetGraph mapSetGraph, int house, int room) {
+        Set<String> sensors = mapSetGraph.getObjects("house" + house + ":room" + room + " contains_sensor ?");
+        sensors.retainAll(mapSetGraph.getSubjects("? is_a light"));
+        sensors.retainAll(mapSetGraph.getSubjects("? has_status on"));
+        return sensors;
+    }
+
+    private static List<TripleLiteral> lightsOnPatterns() {
+        List<TripleLiteral> patterns = new ArrayList<TripleLiteral>();
+        patterns.add(new TripleLiteral("?s", "is_a", "light"));
+        patterns.add(new TripleLiteral("?s", "has_status", "on"));
+        return patterns;
+    }
+
+    private static Set<String> lightsOn(KnowledgeGraph graph) {
+        return sensors(graph.executeQuery(lightsOnPatterns()));
+    }
+
+    private static Set<String> lightsOn(KnowledgeGraph graph, int house, int room) {
+        List<TripleLiteral> patterns = lightsOnPatterns();
+        patterns.add(new TripleLiteral("house" + house + ":room" + room, "contains_sensor", "?s"));
+        return sensors(graph.executeQuery(patterns));
+    }
+
+    private static Set<String> sensors(BindingTable table) {
+        Set<String> sensors = new HashSet<String>();
+        for (int row = 0; row < table.size(); row++) {
+            sensors.add(table.getValue(row, "?s"));
+        }
+        return sensors;
+    }
+
+    /**
+     * @return the triples of a house. The first sensor of each room is a light, on in every other
+     * room.
+     */
+    private static List<TripleLiteral> createHouse(int house) {
+        List<TripleLiteral> triples = new ArrayList<TripleLiteral>();
+        for (int r = 0; r < ROOMS; r++) {
+            String room = "house" + house + ":room" + r;
+            triples.add(new TripleLiteral("house" + house, "contains_room", room));
+            for (int s = 0; s < SENSORS; s++) {
+                String sensor = room + ":sensor" + s;
+                triples.add(new TripleLiteral(room, "contains_sensor", sensor));
+                triples.add(new TripleLiteral(sensor, "has_status", (house + r + s) % 2 == 0 ? "on" : "off"));
+                triples.add(new TripleLiteral(sensor, "is_a", TYPES[s]));
+            }
+        }
+        return triples;
+    }
+}
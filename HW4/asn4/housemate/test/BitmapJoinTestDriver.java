@@ -0,0 +1,192 @@
+package cscie97.asn4.housemate.test;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import cscie97.asn4.knowledge.engine.BindingTable;
+import cscie97.asn4.knowledge.engine.KnowledgeGraph;
+import cscie97.asn4.knowledge.engine.Node;
+import cscie97.asn4.knowledge.engine.TripleLiteral;
+
+/**
+ * Tests of the bitmap intersection joins of the KnowledgeGraph: a variable shared by several
+ * patterns is narrowed by intersecting their posting lists, which EXPLAIN reports, unless the
+ * planner finds binding it cheaper, and the solutions are those of intersecting the matches by
+ * hand, before and after changes.
+ *
+ * @author Gerald Trotman
+ * @version 1.0
+ */
+public class BitmapJoinTestDriver {
+
+    private static final KnowledgeGraph knowledgeGraph = KnowledgeGraph.getInstance();
+    /** Enough sensors for the posting lists to need more than a small array of ids. */
+    private static final int SENSORS = 6000;
+
+    /**
+     * Runs the tests and prints whether they all passed.
+     * @param args not used.
+     */
+    public static void main(String[] args) throws Exception {
+        System.out.println("\n\nRUNNING BITMAP JOIN TESTS:");
+        try {
+            loadSensors();
+            starQueryIntersectsPostingLists();
+            objectVariableIsIntersected();
+            boundVariableIsFiltered();
+            emptyIntersectionHasNoSolutions();
+            fewRowsAreBoundNotIntersected();
+            intersectionFollowsChanges();
+        } catch (Exception e) {
+            System.out.println("TESTS FAILED: " + e.getMessage());
+            System.exit(1);
+        }
+        System.out.println("\nTESTS ALL PASSED!");
+    }
+
+    private static void throwError() throws Exception {
+        throw new Exception(Thread.currentThread().getStackTrace()[2].getMethodName());
+    }
+
+    /**
+     * Loads sensors of three kinds, on or off, in one of seven rooms, so that each attribute
+     * selects a different fraction of them.
+     */
+    private static void loadSensors() {
+        List<TripleLiteral> triples = new ArrayList<TripleLiteral>();
+        for (int s = 0; s < SENSORS; s++) {
+            String sensor = "bj:sensor" + s;
+            triples.add(new TripleLiteral("bj:room" + (s % 7), "contains_sensor", sensor));
+            triples.add(new TripleLiteral(sensor, "is_a", s % 3 == 0 ? "bj_light" : s % 3 == 1 ? "bj_camera" : "bj_thermostat"));
+            triples.add(new TripleLiteral(sensor, "has_status", s % 2 == 0 ? "on" : "off"));
+        }
+        for (int i = 0; i < 20; i++) {
+            triples.add(new TripleLiteral("bj:ann", "owns", "bj:item" + i));
+            if (i % 4 == 0) {
+                triples.add(new TripleLiteral("bj:bob", "owns", "bj:item" + i));
+            }
+        }
+        knowledgeGraph.importTriples(triples);
+    }
+
+    private static List<TripleLiteral> patterns(String... texts) {
+        List<TripleLiteral> patterns = new ArrayList<TripleLiteral>();
+        for (String text : texts) {
+            String[] terms = text.split(" ");
+            patterns.add(new TripleLiteral(terms[0], terms[1], terms[2]));
+        }
+        return patterns;
+    }
+
+    private static Set<String> values(BindingTable table, String variable) {
+        Set<String> values = new HashSet<String>();
+        for (int row = 0; row < table.size(); row++) {
+            values.add(table.getValue(row, variable).toLowerCase());
+        }
+        return values;
+    }
+
+    /**
+     * @return the sensors loaded in a room, or in any room if it is negative, with a status and kind.
+     */
+    private static Set<String> expectedSensors(int room, boolean on, int kind) {
+        Set<String> sensors = new HashSet<String>();
+        for (int s = 0; s < SENSORS; s++) {
+            if ((room < 0 || s % 7 == room) && (s % 2 == 0) == on && s % 3 == kind) {
+                sensors.add("bj:sensor" + s);
+            }
+        }
+        return sensors;
+    }
+
+    private static boolean usesPostingLists(List<String> plan) {
+        for (String line : plan) {
+            if (line.contains("bitmap intersection") && line.contains("using posting lists")) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static void starQueryIntersectsPostingLists() throws Exception {
+        List<TripleLiteral> query = patterns("?s is_a bj_light", "?s has_status on", "bj:room3 contains_sensor ?s");
+        BindingTable table = knowledgeGraph.executeQuery(query);
+        if (table.size() != expectedSensors(3, true, 0).size() || !values(table, "?s").equals(expectedSensors(3, true, 0))) {
+            throwError();
+        }
+        if (!usesPostingLists(knowledgeGraph.explainQuery(query))) {
+            throwError();
+        }
+    }
+
+    private static void objectVariableIsIntersected() throws Exception {
+        List<TripleLiteral> query = patterns("bj:ann owns ?item", "bj:bob owns ?item");
+        Set<String> expected = new HashSet<String>();
+        for (int i = 0; i < 20; i += 4) {
+            expected.add("bj:item" + i);
+        }
+        if (!values(knowledgeGraph.executeQuery(query), "?item").equals(expected) || !usesPostingLists(knowledgeGraph.explainQuery(query))) {
+            throwError();
+        }
+    }
+
+    private static void boundVariableIsFiltered() throws Exception {
+        List<TripleLiteral> query = patterns("?r contains_sensor ?s", "?s is_a bj_camera", "?s has_status off");
+        BindingTable table = knowledgeGraph.executeQuery(query);
+        Set<String> expected = expectedSensors(-1, false, 1);
+        if (table.size() != expected.size() || !values(table, "?s").equals(expected)) {
+            throwError();
+        }
+        for (int row = 0; row < table.size(); row++) {
+            int sensor = Integer.parseInt(table.getValue(row, "?s").substring("bj:sensor".length()));
+            if (!table.getValue(row, "?r").equalsIgnoreCase("bj:room" + sensor % 7)) {
+                throwError();
+            }
+        }
+    }
+
+    private static void emptyIntersectionHasNoSolutions() throws Exception {
+        if (knowledgeGraph.executeQuery(patterns("?s is_a bj_light", "?s is_a bj_camera")).size() != 0
+                || knowledgeGraph.executeQuery(patterns("?s is_a bj_light", "?s is_a bj_unknown_kind")).size() != 0) {
+            throwError();
+        }
+        List<String> plan = knowledgeGraph.explainQuery(patterns("?s is_a bj_light", "?s is_a bj_camera", "?s has_status on"));
+        if (!plan.get(2).contains("actual 0 rows")) {
+            throwError();
+        }
+    }
+
+    private static void fewRowsAreBoundNotIntersected() throws Exception {
+        knowledgeGraph.importTriple(new Node("bj:ann"), "watches", new Node("bj:sensor42"));
+        List<TripleLiteral> query = patterns("?s is_a bj_light", "?s has_status on", "bj:ann watches ?s");
+        Set<String> expected = new HashSet<String>();
+        expected.add("bj:sensor42");
+        if (!values(knowledgeGraph.executeQuery(query), "?s").equals(expected)) {
+            throwError();
+        }
+        List<String> plan = knowledgeGraph.explainQuery(query);
+        if (!plan.get(0).contains("bj:ann watches ?s") || !plan.get(1).startsWith("2. bind join") || !plan.get(2).startsWith("3. bind join")) {
+            throwError();
+        }
+    }
+
+    private static void intersectionFollowsChanges() throws Exception {
+        List<TripleLiteral> query = patterns("?s is_a bj_thermostat", "?s has_status on", "bj:room5 contains_sensor ?s");
+        Set<String> expected = expectedSensors(5, true, 2);
+        if (!values(knowledgeGraph.executeQuery(query), "?s").equals(expected)) {
+            throwError();
+        }
+        String removed = expected.iterator().next();
+        knowledgeGraph.replaceTriple(new Node(removed), "has_status", new Node("on"), new Node("off"));
+        knowledgeGraph.importTriple(new Node("bj:room5"), "contains_sensor", new Node("bj:sensor_new"));
+        knowledgeGraph.importTriple(new Node("bj:sensor_new"), "is_a", new Node("bj_thermostat"));
+        knowledgeGraph.importTriple(new Node("bj:sensor_new"), "has_status", new Node("on"));
+        expected.remove(removed);
+        expected.add("bj:sensor_new");
+        if (!values(knowledgeGraph.executeQuery(query), "?s").equals(expected)) {
+            throwError();
+        }
+    }
+}
@@ -0,0 +1,134 @@
+package cscie97.asn4.housemate.test;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+
+import cscie97.asn4.knowledge.engine.Importer;
+import cscie97.asn4.knowledge.engine.KnowledgeGraph;
+import cscie97.asn4.knowledge.engine.TripleLiteral;
+
+/**
+ * Benchmark of the time to load an N-Triple file with the bulk load against the number of parsing
+ * threads, and against the line by line import.
+ *
+ * @author Gerald Trotman
+ * @version 1.0
+ */
+public class BulkLoadBenchmark {
+
+    private static final int[] THREAD_COUNTS = { 1, 2, 4, 8, 16 };
+    private static final int ROOMS = 4;
+    private static final int SENSORS = 5;
+    private static final String[] TYPES = { "light", "door", "thermostat", "camera", "smoke_detector" };
+
+    /**
+     * Writes a file of houses, then loads it once with importTripleFile and once with
+     * bulkImportTripleFile on 1, 2, 4, 8 and 16 threads, each in a new JVM started with the same
+     * options as this one, and prints the time of each load and its speedup over the line by line
+     * import and over one thread. Command-line arguments should be:
+     * <ol>
+     *      <li>the number of houses, of 64 triples each</li>
+     * </ol>
+     * @param args the number of houses.
+     */
+    public static void main(String[] args) throws Exception {
+        if (args.length == 3 && args[0].equals("measure")) {
+            System.out.println(measure(args[1], Integer.parseInt(args[2])));
+            return;
+        }
+        if (args.length != 1) {
+            System.out.println("Arguments to BulkLoadBenchmark should be the number of houses");
+            System.exit(1);
+        }
+        File file = writeFile(Integer.parseInt(args[0]));
+        long lineByLine = run(file, 0);
+        System.out.println("processors " + Runtime.getRuntime().availableProcessors() + ", " + file.length() / (1024 * 1024) + " MB");
+        System.out.println("load                  millis  speedup  over 1 thread");
+        System.out.println(String.format("importTripleFile  %10d  %7.2f", lineByLine, 1.0));
+        long oneThread = 0;
+        for (int threads : THREAD_COUNTS) {
+            long millis = run(file, threads);
+            if (threads == 1) {
+                oneThread = millis;
+            }
+            System.out.println(String.format("bulk, %2d threads  %10d  %7.2f  %13.2f", threads, millis,
+                    (double) lineByLine / millis, (double) oneThread / millis));
+        }
+    }
+
+    /**
+     * Loads the file in a new JVM.
+     * @param threads the number of threads of the bulk load, or 0 for the line by line import.
+     * @return the milliseconds the load took.
+     */
+    private static long run(File file, int threads) throws Exception {
+        String java = System.getProperty("java.home") + File.separator + "bin" + File.separator + "java";
+        List<String> command = new ArrayList<String>();
+        command.add(java);
+        command.addAll(ManagementFactory.getRuntimeMXBean().getInputArguments());
+        command.add("-cp");
+        command.add(System.getProperty("java.class.path"));
+        command.add(BulkLoadBenchmark.class.getName());
+        command.add("measure");
+        command.add(file.getPath());
+        command.add(String.valueOf(threads));
+        Process process = new ProcessBuilder(command).redirectErrorStream(true).start();
+        BufferedReader output = new BufferedReader(new InputStreamReader(process.getInputStream(), "UTF-8"));
+        String last = null;
+        for (String line = output.readLine(); line != null; line = output.readLine()) {
+            last = line;
+        }
+        if (process.waitFor() != 0) {
+            throw new IllegalStateException("The load failed: " + last);
+        }
+        return Long.parseLong(last);
+    }
+
+    /**
+     * Loads the file and checks that every triple was loaded.
+     * @return the milliseconds the load took.
+     */
+    private static long measure(String filename, int threads) throws Exception {
+        long start = System.nanoTime();
+        if (threads == 0) {
+            new Importer().importTripleFile(filename);
+        } else {
+            new Importer().bulkImportTripleFile(filename, threads);
+        }
+        long millis = (System.nanoTime() - start) / 1000000;
+        if (KnowledgeGraph.getInstance().countMatches(new TripleLiteral("?", "?", "?")) == 0) {
+            throw new IllegalStateException("Nothing was loaded.");
+        }
+        return millis;
+    }
+
+    private static File writeFile(int houses) throws Exception {
+        File file = File.createTempFile("bulkload", ".nt");
+        file.deleteOnExit();
+        Writer writer = new OutputStreamWriter(new FileOutputStream(file), "UTF-8");
+        try {
+            for (int house = 0; house < houses; house++) {
+                for (int r = 0; r < ROOMS; r++) {
+                    String room = "house" + house + ":room" + r;
+                    writer.write("house" + house + " contains_room " + room + ".\n");
+                    for (int s = 0; s < SENSORS; s++) {
+                        String sensor = room + ":sensor" + s;
+                        writer.write(room + " contains_sensor " + sensor + ".\n");
+                        writer.write(sensor + " has_status " + ((house + r + s) % 2 == 0 ? "on" : "off") + ".\n");
+                        writer.write(sensor + " is_a " + TYPES[s] + ".\n");
+                    }
+                }
+            }
+        } finally {
+            writer.close();
+        }
+        return file;
+    }
+}
@@ -0,0 +1,152 @@
+package cscie97.asn4.housemate.test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+
+import cscie97.asn4.housemate.exception.ImportException;
+import cscie97.asn4.knowledge.engine.Importer;
+import cscie97.asn4.knowledge.engine.KnowledgeGraph;
+import cscie97.asn4.knowledge.engine.TripleLiteral;
+
+/**
+ * Tests of the bulk load of N-Triple files: a file split into several chunks loads the same triples
+ * as the line by line import, and an invalid line is reported with its line number in the file
+ * and stops every line after it from being loaded, whichever chunk the line is in.
+ *
+ * @author Gerald Trotman
+ * @version 1.0
+ */
+public class BulkLoadTestDriver {
+
+    private static final KnowledgeGraph knowledgeGraph = KnowledgeGraph.getInstance();
+    /** More lines than fit in one chunk of the bulk load. */
+    private static final int LINES = 100000;
+
+    /**
+     * Runs the tests and prints whether they all passed.
+     * @param args not used.
+     */
+    public static void main(String[] args) throws Exception {
+        System.out.println("\n\nRUNNING BULK LOAD TESTS:");
+        try {
+            bulkLoadMatchesLineByLineImport();
+            bulkLoadReadsMultibyteIdentifiers();
+            invalidLineIsReportedWithItsNumber();
+            linesAfterInvalidLineAreNotLoaded();
+        } catch (Exception e) {
+            System.out.println("TESTS FAILED: " + e.getMessage());
+            System.exit(1);
+        }
+        System.out.println("\nTESTS ALL PASSED!");
+    }
+
+    private static void throwError() throws Exception {
+        throw new Exception(Thread.currentThread().getStackTrace()[2].getMethodName());
+    }
+
+    /**
+     * Writes the lines of a house's sensors to a new file, with the blank lines, extra whitespace
+     * and missing periods the import allows.
+     * @param invalidLine the number of the line to write with a reserved token, or 0 for none.
+     */
+    private static File writeFile(String house, int lines, int invalidLine) throws IOException {
+        File file = File.createTempFile(house, ".nt");
+        file.deleteOnExit();
+        Writer writer = new OutputStreamWriter(new FileOutputStream(file), "UTF-8");
+        try {
+            for (int line = 1; line <= lines; line++) {
+                if (line == invalidLine) {
+                    writer.write(house + ":sensor" + line + " has_status ?.\n");
+                } else if (line % 1000 == 0) {
+                    writer.write("\n");
+                } else if (line % 7 == 0) {
+                    writer.write("  " + house + ":sensor" + line + "\thas_status   " + (line % 2 == 0 ? "on" : "off") + "  \n");
+                } else {
+                    writer.write(house + ":sensor" + line + " has_status " + (line % 2 == 0 ? "on" : "off") + ".\n");
+                }
+            }
+        } finally {
+            writer.close();
+        }
+        return file;
+    }
+
+    private static int count(String subject, String predicate, String object) {
+        return knowledgeGraph.countMatches(new TripleLiteral(subject, predicate, object));
+    }
+
+    private static void bulkLoadMatchesLineByLineImport() throws Exception {
+        new Importer().importTripleFile(writeFile("bl1", LINES, 0).getPath());
+        new Importer().bulkImportTripleFile(writeFile("bl2", LINES, 0).getPath());
+        int loaded = 0;
+        for (int line = 1; line <= LINES; line++) {
+            if (line % 1000 == 0) {
+                continue;
+            }
+            String status = line % 2 == 0 ? "on" : "off";
+            if (count("bl1:sensor" + line, "has_status", status) != 1 || count("bl2:sensor" + line, "has_status", status) != 1) {
+                throwError();
+            }
+            loaded++;
+        }
+        if (count("?", "has_status", "?") != 2 * loaded) {
+            throwError();
+        }
+    }
+
+    private static void bulkLoadReadsMultibyteIdentifiers() throws Exception {
+        /** A German kitchen and a Greek living room that is open. */
+        String kitchen = "bl3:k\u00FCche";
+        String livingRoom = "bl3:\u03C3\u03B1\u03BB\u03CC\u03BD\u03B9";
+        String open = "\u03B1\u03BD\u03BF\u03B9\u03C7\u03C4\u03CC";
+        File file = File.createTempFile("bl3", ".nt");
+        file.deleteOnExit();
+        Writer writer = new OutputStreamWriter(new FileOutputStream(file), "UTF-8");
+        try {
+            writer.write(kitchen + " has_status an.\n" + livingRoom + " has_status " + open + ".\n");
+        } finally {
+            writer.close();
+        }
+        new Importer().bulkImportTripleFile(file.getPath());
+        if (count(kitchen, "has_status", "an") != 1 || count(livingRoom, "has_status", open) != 1) {
+            throwError();
+        }
+    }
+
+    private static void invalidLineIsReportedWithItsNumber() throws Exception {
+        int invalidLine = LINES - 10;
+        try {
+            new Importer().bulkImportTripleFile(writeFile("bl4", LINES, invalidLine).getPath());
+            throwError();
+        } catch (ImportException e) {
+            if (e.getLineIndexWhereFailed() != invalidLine) {
+                throwError();
+            }
+        }
+    }
+
+    /**
+     * Loads a file of several chunks on four threads, with an invalid line near the end of its
+     * second chunk, so that the later chunks have batches ready by the time it is found.
+     */
+    private static void linesAfterInvalidLineAreNotLoaded() throws Exception {
+        int lines = 4 * LINES;
+        int invalidLine = 64000;
+        try {
+            new Importer().bulkImportTripleFile(writeFile("bl5", lines, invalidLine).getPath(), 4);
+            throwError();
+        } catch (ImportException e) {
+            if (e.getLineIndexWhereFailed() != invalidLine) {
+                throwError();
+            }
+        }
+        for (int line = invalidLine; line <= lines; line++) {
+            if (count("bl5:sensor" + line, "?", "?") != 0) {
+                throwError();
+            }
+        }
+    }
+}
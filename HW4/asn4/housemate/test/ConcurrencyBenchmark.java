@@ -0,0 +1,137 @@
+package cscie97.asn4.housemate.test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import cscie97.asn4.knowledge.engine.KnowledgeGraph;
+import cscie97.asn4.knowledge.engine.Node;
+import cscie97.asn4.knowledge.engine.TripleLiteral;
+
+/**
+ * Benchmark of the throughput of the KnowledgeGraph against the number of threads, on a mix of
+ * dashboard reads and sensor updates.
+ *
+ * @author Gerald Trotman
+ * @version 1.0
+ */
+public class ConcurrencyBenchmark {
+
+    private static final int[] THREAD_COUNTS = { 1, 2, 4, 8, 16, 32 };
+    private static final int ROOMS = 4;
+    private static final int SENSORS = 5;
+
+    /**
+     * Loads a fleet of houses into the KnowledgeGraph, then runs the mix with 1, 2, 4, 8, 16 and 32
+     * threads and prints the reads and writes done per second. A read looks up the status of a
+     * sensor, or the sensors of a room; a write changes the status of a sensor. Each thread writes
+     * only its own share of the sensors. Command-line arguments should be:
+     * <ol>
+     *      <li>the number of houses</li>
+     *      <li>the percentage of operations that are reads</li>
+     *      <li>the number of milliseconds each thread count is run for</li>
+     * </ol>
+     * @param args the number of houses, the read percentage and the run time.
+     */
+    public static void main(String[] args) throws Exception {
+        if (args.length != 3) {
+            System.out.println("Arguments to ConcurrencyBenchmark should be the number of houses, the read percentage and the milliseconds per run");
+            System.exit(1);
+        }
+        int houses = Integer.parseInt(args[0]);
+        int readPercentage = Integer.parseInt(args[1]);
+        long millis = Long.parseLong(args[2]);
+
+        KnowledgeGraph graph = KnowledgeGraph.getInstance();
+        graph.importTriples(createFleet(houses));
+        Node[] sensors = new Node[houses * ROOMS * SENSORS];
+        for (int i = 0; i < sensors.length; i++) {
+            sensors[i] = graph.getNode(getSensor(i));
+        }
+
+        /** Warm up the JIT before measuring. */
+        run(graph, sensors, 1, readPercentage, millis);
+        System.out.println("processors " + Runtime.getRuntime().availableProcessors() + ", " + readPercentage + "% reads");
+        System.out.println("threads     reads/s    writes/s     total/s");
+        for (int threads : THREAD_COUNTS) {
+            long[] done = run(graph, sensors, threads, readPercentage, millis);
+            System.out.println(String.format("%7d  %10d  %10d  %10d", threads, done[0] * 1000 / millis, done[1] * 1000 / millis,
+                    (done[0] + done[1]) * 1000 / millis));
+        }
+    }
+
+    /**
+     * Runs the mix on a number of threads for a time.
+     * @return the number of reads and of writes done.
+     */
+    private static long[] run(final KnowledgeGraph graph, final Node[] sensors, final int threads, final int readPercentage,
+            long millis) throws InterruptedException {
+        final long deadline = System.nanoTime() + millis * 1000000L;
+        final long[][] done = new long[threads][2];
+        Thread[] workers = new Thread[threads];
+        for (int t = 0; t < threads; t++) {
+            final int thread = t;
+            workers[t] = new Thread() {
+                @Override
+                public void run() {
+                    Random random = new Random(thread);
+                    Node on = new Node("on");
+                    Node off = new Node("off");
+                    int share = (sensors.length - thread + threads - 1) / threads;
+                    long reads = 0;
+                    long writes = 0;
+                    while (System.nanoTime() < deadline) {
+                        if (random.nextInt(100) < readPercentage) {
+                            int sensor = random.nextInt(sensors.length);
+                            if (random.nextBoolean()) {
+                                graph.executeQuery(new TripleLiteral(getSensor(sensor), "has_status", "?"));
+                            } else {
+                                graph.executeQuery(new TripleLiteral(getRoom(sensor), "contains_sensor", "?"));
+                            }
+                            reads++;
+                        } else if (share > 0) {
+                            Node sensor = sensors[random.nextInt(share) * threads + thread];
+                            boolean isOn = graph.getFirstMatch(new TripleLiteral(sensor.getIdentifier(), "has_status", "on")) != null;
+                            graph.replaceTriple(sensor, "has_status", isOn ? on : off, isOn ? off : on);
+                            writes++;
+                        }
+                    }
+                    done[thread][0] = reads;
+                    done[thread][1] = writes;
+                }
+            };
+            workers[t].start();
+        }
+        long[] total = new long[2];
+        for (int t = 0; t < threads; t++) {
+            workers[t].join();
+            total[0] += done[t][0];
+            total[1] += done[t][1];
+        }
+        return total;
+    }
+
+    private static String getSensor(int index) {
+        return getRoom(index) + ":sensor" + index % SENSORS;
+    }
+
+    private static String getRoom(int index) {
+        return "house" + index / (ROOMS * SENSORS) + ":room" + index / SENSORS % ROOMS;
+    }
+
+    /**
+     * @return the triples of a fleet of houses, each with rooms of sensors that are on or off.
+     */
+    private static List<TripleLiteral> createFleet(int houses) {
+        Random random = new Random(1);
+        List<TripleLiteral> fleet = new ArrayList<TripleLiteral>();
+        for (int i = 0; i < houses * ROOMS * SENSORS; i++) {
+            if (i % SENSORS == 0) {
+                fleet.add(new TripleLiteral("house" + i / (ROOMS * SENSORS), "contains_room", getRoom(i)));
+            }
+            fleet.add(new TripleLiteral(getRoom(i), "contains_sensor", getSensor(i)));
+            fleet.add(new TripleLiteral(getSensor(i), "has_status", random.nextBoolean() ? "on" : "off"));
+        }
+        return fleet;
+    }
+}
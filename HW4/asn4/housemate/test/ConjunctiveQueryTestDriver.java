@@ -0,0 +1,175 @@
+package cscie97.asn4.housemate.test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import cscie97.asn4.knowledge.engine.BindingTable;
+import cscie97.asn4.knowledge.engine.KnowledgeGraph;
+import cscie97.asn4.knowledge.engine.Node;
+import cscie97.asn4.knowledge.engine.Triple;
+import cscie97.asn4.knowledge.engine.TripleLiteral;
+
+/**
+ * Tests of the conjunctive queries of the KnowledgeGraph: the solutions of a join are those found by
+ * joining the matches of each pattern by hand, variables are bound consistently, and misused
+ * variables are refused.
+ *
+ * @author Gerald Trotman
+ * @version 1.0
+ */
+public class ConjunctiveQueryTestDriver {
+
+    private static final KnowledgeGraph knowledgeGraph = KnowledgeGraph.getInstance();
+
+    /**
+     * Runs the tests and prints whether they all passed.
+     * @param args not used.
+     */
+    public static void main(String[] args) throws Exception {
+        System.out.println("\n\nRUNNING CONJUNCTIVE QUERY TESTS:");
+        try {
+            loadHouses();
+            twoPatternJoinMatchesHandJoin();
+            threePatternJoinMatchesHandJoin();
+            anonymousVariablesAreNotReported();
+            repeatedVariableMustBindTheSameTerm();
+            predicateVariableIsBound();
+            queryWithoutSolutionsIsEmpty();
+            variableUsedAsPredicateAndNodeIsRefused();
+        } catch (Exception e) {
+            System.out.println("TESTS FAILED: " + e.getMessage());
+            System.exit(1);
+        }
+        System.out.println("\nTESTS ALL PASSED!");
+    }
+
+    private static void throwError() throws Exception {
+        throw new Exception(Thread.currentThread().getStackTrace()[2].getMethodName());
+    }
+
+    private static void add(String subject, String predicate, String object) {
+        knowledgeGraph.importTriple(new Node(subject), predicate, new Node(object));
+    }
+
+    private static void loadHouses() {
+        for (int h = 1; h <= 2; h++) {
+            String house = "cq" + h;
+            for (int r = 0; r < 3; r++) {
+                String room = house + ":room" + r;
+                add(house, "contains_room", room);
+                for (int s = 0; s < 4; s++) {
+                    String sensor = room + ":sensor" + s;
+                    add(room, "contains_sensor", sensor);
+                    add(sensor, "has_status", (r + s) % 3 == 0 ? "off" : "on");
+                    add(sensor, "is_a", s % 2 == 0 ? "light" : "camera");
+                }
+            }
+        }
+        add("cq:ann", "knows", "cq:ann");
+        add("cq:ann", "knows", "cq:bob");
+        add("cq:bob", "knows", "cq:ann");
+    }
+
+    private static List<TripleLiteral> patterns(String... texts) {
+        List<TripleLiteral> patterns = new ArrayList<TripleLiteral>();
+        for (String text : texts) {
+            String[] terms = text.split(" ");
+            patterns.add(new TripleLiteral(terms[0], terms[1], terms[2]));
+        }
+        return patterns;
+    }
+
+    /**
+     * @return each row of the table as its variables' values, in the order given.
+     */
+    private static Set<String> rows(BindingTable table, String... variables) {
+        Set<String> rows = new HashSet<String>();
+        for (int row = 0; row < table.size(); row++) {
+            StringBuilder values = new StringBuilder();
+            for (String variable : variables) {
+                values.append(table.getValue(row, variable).toLowerCase()).append(' ');
+            }
+            rows.add(values.toString().trim());
+        }
+        return rows;
+    }
+
+    private static Set<Triple> match(String subject, String predicate, String object) {
+        return knowledgeGraph.executeQuery(new TripleLiteral(subject, predicate, object));
+    }
+
+    private static void twoPatternJoinMatchesHandJoin() throws Exception {
+        Set<String> expected = new HashSet<String>();
+        for (Triple contains : match("?", "contains_sensor", "?")) {
+            String sensor = contains.getObject().getIdentifier();
+            if (!match(sensor, "has_status", "on").isEmpty()) {
+                expected.add((contains.getSubject().getIdentifier() + " " + sensor).toLowerCase());
+            }
+        }
+        BindingTable table = knowledgeGraph.executeQuery(patterns("?r contains_sensor ?s", "?s has_status on"));
+        if (expected.isEmpty() || table.size() != expected.size() || !rows(table, "?r", "?s").equals(expected)) {
+            throwError();
+        }
+    }
+
+    private static void threePatternJoinMatchesHandJoin() throws Exception {
+        Set<String> expected = new HashSet<String>();
+        for (Triple room : match("cq2", "contains_room", "?")) {
+            for (Triple sensor : match(room.getObject().getIdentifier(), "contains_sensor", "?")) {
+                String id = sensor.getObject().getIdentifier();
+                if (!match(id, "is_a", "light").isEmpty() && !match(id, "has_status", "off").isEmpty()) {
+                    expected.add((room.getObject().getIdentifier() + " " + id).toLowerCase());
+                }
+            }
+        }
+        BindingTable table = knowledgeGraph.executeQuery(
+                patterns("cq2 contains_room ?r", "?r contains_sensor ?s", "?s is_a light", "?s has_status off"));
+        if (expected.isEmpty() || !rows(table, "?r", "?s").equals(expected)) {
+            throwError();
+        }
+    }
+
+    private static void anonymousVariablesAreNotReported() throws Exception {
+        BindingTable table = knowledgeGraph.executeQuery(patterns("cq1 contains_room ?r", "?r contains_sensor ?"));
+        if (!table.getVariables().equals(Arrays.asList("?r")) || rows(table, "?r").size() != 3) {
+            throwError();
+        }
+    }
+
+    private static void repeatedVariableMustBindTheSameTerm() throws Exception {
+        BindingTable table = knowledgeGraph.executeQuery(patterns("?x knows ?x"));
+        if (table.size() != 1 || !table.getValue(0, "?x").equalsIgnoreCase("cq:ann")) {
+            throwError();
+        }
+        BindingTable mutual = knowledgeGraph.executeQuery(patterns("?x knows ?y", "?y knows ?x"));
+        if (!rows(mutual, "?x", "?y").equals(new HashSet<String>(Arrays.asList("cq:ann cq:ann", "cq:ann cq:bob", "cq:bob cq:ann")))) {
+            throwError();
+        }
+    }
+
+    private static void predicateVariableIsBound() throws Exception {
+        BindingTable table = knowledgeGraph.executeQuery(patterns("cq1:room0:sensor1 ?p ?o"));
+        if (!rows(table, "?p", "?o").equals(new HashSet<String>(Arrays.asList("has_status on", "is_a camera")))) {
+            throwError();
+        }
+    }
+
+    private static void queryWithoutSolutionsIsEmpty() throws Exception {
+        if (knowledgeGraph.executeQuery(patterns("?s is_a light", "?s is_a camera")).size() != 0
+                || knowledgeGraph.executeQuery(patterns("?s is_a cq_unknown_kind", "?s has_status on")).size() != 0) {
+            throwError();
+        }
+    }
+
+    private static void variableUsedAsPredicateAndNodeIsRefused() throws Exception {
+        try {
+            knowledgeGraph.executeQuery(patterns("?x ?p ?y", "?p is_a light"));
+            throwError();
+        } catch (IllegalArgumentException e) {
+            /** Expected. */
+        }
+    }
+}
@@ -0,0 +1,144 @@
+package cscie97.asn4.housemate.test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import cscie97.asn4.knowledge.engine.KnowledgeGraph;
+import cscie97.asn4.knowledge.engine.Node;
+import cscie97.asn4.knowledge.engine.TripleLiteral;
+
+/**
+ * Tests of the COUNT and ASK queries of the KnowledgeGraph: countMatches gives the size of the
+ * result executeQuery would return for every shape of pattern and for conjunctive queries, follows
+ * changes, and ask agrees with it.
+ *
+ * @author Gerald Trotman
+ * @version 1.0
+ */
+public class CountQueryTestDriver {
+
+    private static final KnowledgeGraph knowledgeGraph = KnowledgeGraph.getInstance();
+
+    /**
+     * Runs the tests and prints whether they all passed.
+     * @param args not used.
+     */
+    public static void main(String[] args) throws Exception {
+        System.out.println("\n\nRUNNING COUNT QUERY TESTS:");
+        try {
+            loadHouse();
+            countMatchesExecuteQuery();
+            countFollowsChanges();
+            unknownIdentifierCountsZero();
+            conjunctiveCountMatchesExecuteQuery();
+            askAgreesWithCount();
+        } catch (Exception e) {
+            System.out.println("TESTS FAILED: " + e.getMessage());
+            System.exit(1);
+        }
+        System.out.println("\nTESTS ALL PASSED!");
+    }
+
+    private static void throwError() throws Exception {
+        throw new Exception(Thread.currentThread().getStackTrace()[2].getMethodName());
+    }
+
+    private static void add(String subject, String predicate, String object) {
+        knowledgeGraph.importTriple(new Node(subject), predicate, new Node(object));
+    }
+
+    private static void loadHouse() {
+        for (int r = 0; r < 4; r++) {
+            String room = "cnt1:room" + r;
+            add("cnt1", "contains_room", room);
+            for (int s = 0; s < 5; s++) {
+                String sensor = room + ":sensor" + s;
+                add(room, "contains_sensor", sensor);
+                add(sensor, "has_status", (r + s) % 3 == 0 ? "on" : "off");
+            }
+        }
+        add("cnt:ann", "knows", "cnt:ann");
+        add("cnt:ann", "knows", "cnt:bob");
+        add("cnt:bob", "knows", "cnt:ann");
+    }
+
+    private static List<TripleLiteral> patterns(String... texts) {
+        List<TripleLiteral> patterns = new ArrayList<TripleLiteral>();
+        for (String text : texts) {
+            String[] terms = text.split(" ");
+            patterns.add(new TripleLiteral(terms[0], terms[1], terms[2]));
+        }
+        return patterns;
+    }
+
+    private static boolean countIsExact(String subject, String predicate, String object) {
+        TripleLiteral query = new TripleLiteral(subject, predicate, object);
+        return knowledgeGraph.countMatches(query) == knowledgeGraph.executeQuery(query).size();
+    }
+
+    private static void countMatchesExecuteQuery() throws Exception {
+        String[] subjects = { "cnt1:room2:sensor3", "?" };
+        String[] predicates = { "has_status", "?" };
+        String[] objects = { "off", "?" };
+        for (String subject : subjects) {
+            for (String predicate : predicates) {
+                for (String object : objects) {
+                    if (!countIsExact(subject, predicate, object)) {
+                        throwError();
+                    }
+                }
+            }
+        }
+        if (knowledgeGraph.countMatches(new TripleLiteral("cnt1:room1", "contains_sensor", "?")) != 5) {
+            throwError();
+        }
+    }
+
+    private static void countFollowsChanges() throws Exception {
+        TripleLiteral query = new TripleLiteral("?", "contains_sensor", "?");
+        int before = knowledgeGraph.countMatches(query);
+        add("cnt1:room0", "contains_sensor", "cnt1:room0:sensor9");
+        knowledgeGraph.deleteTriple(new Node("cnt1:room3"), "contains_sensor", new Node("cnt1:room3:sensor0"));
+        knowledgeGraph.deleteTriple(new Node("cnt1:room3"), "contains_sensor", new Node("cnt1:room3:sensor1"));
+        if (knowledgeGraph.countMatches(query) != before - 1 || !countIsExact("?", "contains_sensor", "?")
+                || knowledgeGraph.countMatches(new TripleLiteral("cnt1:room3", "contains_sensor", "?")) != 3) {
+            throwError();
+        }
+    }
+
+    private static void unknownIdentifierCountsZero() throws Exception {
+        if (knowledgeGraph.countMatches(new TripleLiteral("cnt1:attic", "?", "?")) != 0
+                || knowledgeGraph.countMatches(new TripleLiteral("?", "cnt_unknown_predicate", "?")) != 0
+                || knowledgeGraph.countMatches(patterns("?s cnt_unknown_predicate ?o", "?s has_status on")) != 0) {
+            throwError();
+        }
+    }
+
+    private static void conjunctiveCountMatchesExecuteQuery() throws Exception {
+        List<List<TripleLiteral>> queries = new ArrayList<List<TripleLiteral>>();
+        queries.add(patterns("?r contains_sensor ?s", "?s has_status on"));
+        queries.add(patterns("cnt1 contains_room ?r", "?r contains_sensor ?s", "?s has_status off"));
+        queries.add(patterns("?s has_status ?status"));
+        queries.add(patterns("?s ?p on"));
+        queries.add(patterns("?x knows ?x"));
+        queries.add(patterns("?x knows ?"));
+        queries.add(patterns("?x knows ?y", "?y knows ?x"));
+        for (List<TripleLiteral> query : queries) {
+            if (knowledgeGraph.countMatches(query) != knowledgeGraph.executeQuery(query).size()) {
+                throwError();
+            }
+        }
+        if (knowledgeGraph.countMatches(patterns("?x knows ?x")) != 1 || knowledgeGraph.countMatches(patterns("?x knows ?")) != 2) {
+            throwError();
+        }
+    }
+
+    private static void askAgreesWithCount() throws Exception {
+        if (!knowledgeGraph.ask(new TripleLiteral("cnt1", "contains_room", "cnt1:room3"))
+                || knowledgeGraph.ask(new TripleLiteral("cnt1:room3", "contains_sensor", "cnt1:room3:sensor0"))
+                || !knowledgeGraph.ask(patterns("?x knows ?y", "?y knows ?x"))
+                || knowledgeGraph.ask(patterns("?x knows cnt:bob", "?x has_status on"))) {
+            throwError();
+        }
+    }
+}
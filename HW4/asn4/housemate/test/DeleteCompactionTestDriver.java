@@ -0,0 +1,207 @@
+package cscie97.asn4.housemate.test;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import cscie97.asn4.knowledge.engine.KnowledgeGraph;
+import cscie97.asn4.knowledge.engine.Node;
+import cscie97.asn4.knowledge.engine.Triple;
+import cscie97.asn4.knowledge.engine.TripleCursor;
+import cscie97.asn4.knowledge.engine.TripleLiteral;
+
+/**
+ * Tests of deletes and compaction in the KnowledgeGraph: a batch of deletes or a deleted node is
+ * one change, and compacting the tombstones deletes leave, now or in the background, changes
+ * neither the results of queries nor the version number, nor what a pinned version reads.
+ *
+ * @author Gerald Trotman
+ * @version 1.0
+ */
+public class DeleteCompactionTestDriver {
+
+    private static final KnowledgeGraph knowledgeGraph = KnowledgeGraph.getInstance();
+    private static final int SENSORS = 500;
+
+    /**
+     * Runs the tests and prints whether they all passed.
+     * @param args not used.
+     */
+    public static void main(String[] args) throws Exception {
+        System.out.println("\n\nRUNNING DELETE AND COMPACTION TESTS:");
+        try {
+            knowledgeGraph.setCompactionDelay(60000);
+            loadSensors();
+            deleteTriplesIsOneChange();
+            deleteNodeRemovesEveryTriple();
+            compactionKeepsResults();
+            pinnedVersionOutlivesCompaction();
+            backgroundCompactionKeepsResults();
+            negativeDelayIsRefused();
+        } catch (Exception e) {
+            System.out.println("TESTS FAILED: " + e.getMessage());
+            System.exit(1);
+        }
+        System.out.println("\nTESTS ALL PASSED!");
+    }
+
+    private static void throwError() throws Exception {
+        throw new Exception(Thread.currentThread().getStackTrace()[2].getMethodName());
+    }
+
+    private static void loadSensors() {
+        List<TripleLiteral> triples = new ArrayList<TripleLiteral>();
+        for (int s = 0; s < SENSORS; s++) {
+            String sensor = "dc:sensor" + s;
+            triples.add(new TripleLiteral("dc:room" + (s % 10), "contains_sensor", sensor));
+            triples.add(new TripleLiteral(sensor, "has_status", s % 2 == 0 ? "on" : "off"));
+            triples.add(new TripleLiteral(sensor, "is_a", "dc_light"));
+        }
+        knowledgeGraph.importTriples(triples);
+    }
+
+    private static int count(String subject, String predicate, String object) {
+        return knowledgeGraph.countMatches(new TripleLiteral(subject, predicate, object));
+    }
+
+    /**
+     * @return the matches of a query, each found by executeQuery, by a cursor and in order, so
+     * that every way of reading the indexes is compared.
+     */
+    private static List<Set<String>> read(String subject, String predicate, String object) {
+        TripleLiteral query = new TripleLiteral(subject, predicate, object);
+        List<Set<String>> reads = new ArrayList<Set<String>>();
+        Set<String> matches = new HashSet<String>();
+        for (Triple triple : knowledgeGraph.executeQuery(query)) {
+            matches.add(triple.getIdentifier());
+        }
+        reads.add(matches);
+        matches = new HashSet<String>();
+        TripleCursor cursor = knowledgeGraph.openCursor(query);
+        while (cursor.next()) {
+            matches.add(cursor.getTriple().getIdentifier());
+        }
+        reads.add(matches);
+        matches = new HashSet<String>();
+        for (Triple triple : knowledgeGraph.executeQuery(query, KnowledgeGraph.ORDER_BY_OBJECT, 0, Integer.MAX_VALUE)) {
+            matches.add(triple.getIdentifier());
+        }
+        reads.add(matches);
+        return reads;
+    }
+
+    private static List<List<Set<String>>> readAll() {
+        List<List<Set<String>>> reads = new ArrayList<List<Set<String>>>();
+        reads.add(read("?", "?", "?"));
+        reads.add(read("?", "contains_sensor", "?"));
+        reads.add(read("dc:room3", "contains_sensor", "?"));
+        reads.add(read("?", "has_status", "on"));
+        reads.add(read("dc:sensor42", "?", "?"));
+        reads.add(read("?", "?", "dc_light"));
+        return reads;
+    }
+
+    private static void deleteTriplesIsOneChange() throws Exception {
+        List<TripleLiteral> deletes = new ArrayList<TripleLiteral>();
+        deletes.add(new TripleLiteral("dc:room0", "contains_sensor", "dc:sensor0"));
+        deletes.add(new TripleLiteral("dc:sensor0", "has_status", "on"));
+        deletes.add(new TripleLiteral("dc:sensor0", "is_a", "dc_light"));
+        deletes.add(new TripleLiteral("dc:sensor0", "is_a", "dc_camera"));
+        deletes.add(new TripleLiteral("dc:sensor_unknown", "is_a", "dc_light"));
+        long version = knowledgeGraph.getVersion();
+        knowledgeGraph.deleteTriples(deletes);
+        if (knowledgeGraph.getVersion() != version + 1 || count("dc:sensor0", "?", "?") != 0 || count("?", "?", "dc:sensor0") != 0) {
+            throwError();
+        }
+        knowledgeGraph.deleteTriples(deletes);
+        if (knowledgeGraph.getVersion() != version + 1) {
+            throwError();
+        }
+    }
+
+    private static void deleteNodeRemovesEveryTriple() throws Exception {
+        knowledgeGraph.importTriple(new Node("dc:sensor1"), "monitors", new Node("dc:sensor1"));
+        int triples = count("?", "?", "?");
+        long version = knowledgeGraph.getVersion();
+        if (knowledgeGraph.deleteNode(new Node("dc:sensor1")) != 4 || knowledgeGraph.getVersion() != version + 1
+                || count("dc:sensor1", "?", "?") != 0 || count("?", "?", "dc:sensor1") != 0 || count("?", "?", "?") != triples - 4) {
+            throwError();
+        }
+        if (knowledgeGraph.deleteNode(new Node("dc:sensor1")) != 0 || knowledgeGraph.deleteNode(new Node("dc:sensor_unknown")) != 0) {
+            throwError();
+        }
+        knowledgeGraph.importTriple(new Node("dc:room1"), "contains_sensor", new Node("dc:sensor1"));
+        if (count("?", "contains_sensor", "dc:sensor1") != 1) {
+            throwError();
+        }
+    }
+
+    private static void compactionKeepsResults() throws Exception {
+        List<TripleLiteral> deletes = new ArrayList<TripleLiteral>();
+        for (int s = 2; s < SENSORS; s += 3) {
+            deletes.add(new TripleLiteral("dc:sensor" + s, "has_status", s % 2 == 0 ? "on" : "off"));
+            deletes.add(new TripleLiteral("dc:room" + (s % 10), "contains_sensor", "dc:sensor" + s));
+        }
+        knowledgeGraph.deleteTriples(deletes);
+        List<List<Set<String>>> before = readAll();
+        long version = knowledgeGraph.getVersion();
+        knowledgeGraph.compact();
+        if (!readAll().equals(before) || knowledgeGraph.getVersion() != version) {
+            throwError();
+        }
+        for (List<Set<String>> reads : before) {
+            if (!reads.get(0).equals(reads.get(1)) || !reads.get(0).equals(reads.get(2))) {
+                throwError();
+            }
+        }
+    }
+
+    private static void pinnedVersionOutlivesCompaction() throws Exception {
+        knowledgeGraph.pinVersion();
+        try {
+            int pinned = count("?", "is_a", "dc_light");
+            Thread other = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    for (int s = 100; s < 200; s++) {
+                        knowledgeGraph.deleteTriple(new Node("dc:sensor" + s), "is_a", new Node("dc_light"));
+                    }
+                    knowledgeGraph.compact();
+                }
+            });
+            other.start();
+            other.join();
+            if (count("?", "is_a", "dc_light") != pinned || read("?", "is_a", "dc_light").get(1).size() != pinned) {
+                throwError();
+            }
+        } finally {
+            knowledgeGraph.releaseVersion();
+        }
+        if (count("?", "is_a", "dc_light") != SENSORS - 2 - 100) {
+            throwError();
+        }
+    }
+
+    private static void backgroundCompactionKeepsResults() throws Exception {
+        knowledgeGraph.setCompactionDelay(10);
+        for (int s = 300; s < 400; s++) {
+            knowledgeGraph.deleteNode(new Node("dc:sensor" + s));
+        }
+        List<List<Set<String>>> before = readAll();
+        long version = knowledgeGraph.getVersion();
+        Thread.sleep(500);
+        if (!readAll().equals(before) || knowledgeGraph.getVersion() != version || count("dc:sensor350", "?", "?") != 0) {
+            throwError();
+        }
+    }
+
+    private static void negativeDelayIsRefused() throws Exception {
+        try {
+            knowledgeGraph.setCompactionDelay(-1);
+            throwError();
+        } catch (IllegalArgumentException e) {
+            /** Expected. */
+        }
+    }
+}
@@ -0,0 +1,164 @@
+package cscie97.asn4.housemate.test;
+
+import java.util.HashSet;
+import java.util.Set;
+
+import cscie97.asn4.knowledge.engine.KnowledgeGraph;
+import cscie97.asn4.knowledge.engine.Node;
+import cscie97.asn4.knowledge.engine.Predicate;
+import cscie97.asn4.knowledge.engine.Triple;
+import cscie97.asn4.knowledge.engine.TripleLiteral;
+
+/**
+ * Tests of the dictionary encoded KnowledgeGraph: each identifier gets one Node or Predicate
+ * whatever its case, a triple is stored once, queries of every shape return the triples that
+ * match, and the Nodes the queries return are the ones that were imported.
+ *
+ * @author Gerald Trotman
+ * @version 1.0
+ */
+public class DictionaryEncodingTestDriver {
+
+    private static final KnowledgeGraph knowledgeGraph = KnowledgeGraph.getInstance();
+
+    /**
+     * Runs the tests and prints whether they all passed.
+     * @param args not used.
+     */
+    public static void main(String[] args) throws Exception {
+        System.out.println("\n\nRUNNING DICTIONARY ENCODING TESTS:");
+        try {
+            loadHouse();
+            termsAreSharedInAnyCase();
+            triplesAreStoredOnce();
+            everyShapeOfPatternMatches();
+            importedNodesAreReturned();
+            deletedTripleMatchesNoPattern();
+            unknownIdentifierHasNoMatches();
+            equalTriplesAreEqual();
+        } catch (Exception e) {
+            System.out.println("TESTS FAILED: " + e.getMessage());
+            System.exit(1);
+        }
+        System.out.println("\nTESTS ALL PASSED!");
+    }
+
+    private static void throwError() throws Exception {
+        throw new Exception(Thread.currentThread().getStackTrace()[2].getMethodName());
+    }
+
+    private static void add(String subject, String predicate, String object) {
+        knowledgeGraph.importTriple(new Node(subject), predicate, new Node(object));
+    }
+
+    private static void loadHouse() {
+        for (int r = 0; r < 2; r++) {
+            String room = "de1:room" + r;
+            add("de1", "contains_room", room);
+            for (int s = 0; s < 3; s++) {
+                String sensor = room + ":sensor" + s;
+                add(room, "contains_sensor", sensor);
+                add(sensor, "has_status", s == 0 ? "on" : "off");
+            }
+        }
+    }
+
+    private static Set<String> query(String subject, String predicate, String object) {
+        Set<String> matches = new HashSet<String>();
+        for (Triple triple : knowledgeGraph.executeQuery(new TripleLiteral(subject, predicate, object))) {
+            matches.add(triple.getIdentifier());
+        }
+        return matches;
+    }
+
+    private static void termsAreSharedInAnyCase() throws Exception {
+        if (knowledgeGraph.getNode("DE1:Room0") != knowledgeGraph.getNode("de1:room0")
+                || knowledgeGraph.getPredicate("Has_Status") != knowledgeGraph.getPredicate("has_status")
+                || !knowledgeGraph.getNode("DE1:ROOM0").getIdentifier().equals("de1:room0")) {
+            throwError();
+        }
+    }
+
+    private static void triplesAreStoredOnce() throws Exception {
+        add("de1:room0:sensor0", "has_status", "on");
+        add("DE1:Room0:Sensor0", "HAS_STATUS", "ON");
+        if (query("de1:room0:sensor0", "?", "?").size() != 1 || query("?", "has_status", "on").size() != 2) {
+            throwError();
+        }
+    }
+
+    private static void everyShapeOfPatternMatches() throws Exception {
+        String s = "de1:room1:sensor1";
+        String[][] patterns = {
+            { s, "has_status", "off" }, { s, "has_status", "?" }, { s, "?", "off" }, { s, "?", "?" },
+            { "?", "has_status", "off" }, { "?", "has_status", "?" }, { "?", "?", "off" }, { "?", "?", "?" }
+        };
+        int[] sizes = { 1, 1, 1, 1, 4, 6, 4, 14 };
+        for (int i = 0; i < patterns.length; i++) {
+            Set<String> matches = query(patterns[i][0], patterns[i][1], patterns[i][2]);
+            if (!matches.contains(s + " has_status off") || matches.size() != sizes[i]) {
+                throwError();
+            }
+        }
+        if (query("?", "contains_sensor", "?").size() != 6 || query("de1", "contains_room", "?").size() != 2) {
+            throwError();
+        }
+    }
+
+    /**
+     * An instance of a subclass of Node, which queries must return as itself.
+     */
+    private static final class Appliance extends Node {
+
+        Appliance(String identifier) {
+            super(identifier);
+        }
+    }
+
+    private static void importedNodesAreReturned() throws Exception {
+        Appliance oven = new Appliance("de1:room0:oven");
+        knowledgeGraph.importTriple(knowledgeGraph.getNode("de1:room0"), "contains_appliance", oven);
+        Set<Node> appliances = knowledgeGraph.getObjectsFromQuery(new TripleLiteral("de1:room0", "contains_appliance", "?"));
+        if (appliances.size() != 1 || appliances.iterator().next() != oven || knowledgeGraph.getExistingNodeById("DE1:ROOM0:OVEN") != oven) {
+            throwError();
+        }
+        Triple triple = knowledgeGraph.executeQuery(new TripleLiteral("?", "contains_appliance", "de1:room0:oven")).iterator().next();
+        if (triple.getObject() != oven || triple.getSubject() != knowledgeGraph.getNode("de1:room0")) {
+            throwError();
+        }
+    }
+
+    private static void deletedTripleMatchesNoPattern() throws Exception {
+        knowledgeGraph.deleteTriple(new Node("DE1:ROOM1:SENSOR2"), "Has_Status", new Node("Off"));
+        String s = "de1:room1:sensor2";
+        String[][] patterns = {
+            { s, "has_status", "off" }, { s, "has_status", "?" }, { s, "?", "off" }, { s, "?", "?" },
+            { "?", "has_status", "off" }, { "?", "has_status", "?" }, { "?", "?", "off" }, { "?", "?", "?" }
+        };
+        for (String[] pattern : patterns) {
+            if (query(pattern[0], pattern[1], pattern[2]).contains(s + " has_status off")) {
+                throwError();
+            }
+        }
+        add(s, "has_status", "off");
+        if (query(s, "?", "?").size() != 1) {
+            throwError();
+        }
+    }
+
+    private static void unknownIdentifierHasNoMatches() throws Exception {
+        if (!query("de1:attic", "?", "?").isEmpty() || !query("?", "de_unknown", "?").isEmpty()
+                || !knowledgeGraph.getObjectsFromQuery(new TripleLiteral("?", "?", "de1:attic")).isEmpty()) {
+            throwError();
+        }
+    }
+
+    private static void equalTriplesAreEqual() throws Exception {
+        Set<Triple> matches = knowledgeGraph.executeQuery(new TripleLiteral("de1:room0:sensor0", "has_status", "?"));
+        Triple triple = new Triple(new Node("DE1:Room0:Sensor0"), new Predicate("has_status"), new Node("On"));
+        if (!matches.contains(triple) || !matches.iterator().next().equals(triple)
+                || matches.iterator().next().hashCode() != triple.hashCode()) {
+            throwError();
+        }
+    }
+}
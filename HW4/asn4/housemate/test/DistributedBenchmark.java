@@ -0,0 +1,118 @@
+package cscie97.asn4.housemate.test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import cscie97.asn4.knowledge.engine.DistributedKnowledgeGraph;
+import cscie97.asn4.knowledge.engine.LoopbackTransport;
+import cscie97.asn4.knowledge.engine.TripleLiteral;
+
+/**
+ * Benchmark of query latency against the number of storage nodes of a DistributedKnowledgeGraph.
+ * The cluster runs on a LoopbackTransport, whose latency stands in for the network.
+ *
+ * @author Gerald Trotman
+ * @version 1.0
+ */
+public class DistributedBenchmark {
+
+    private static final int[] NODE_COUNTS = { 1, 2, 4, 8 };
+    private static final int ROOMS = 4;
+    private static final int SENSORS = 5;
+
+    /**
+     * Loads the same fleet of houses into clusters of 1, 2, 4 and 8 nodes and prints the mean
+     * latency of each kind of query in microseconds. Command-line arguments should be:
+     * <ol>
+     *      <li>the number of houses</li>
+     *      <li>the simulated network latency of a request, in microseconds</li>
+     *      <li>the number of times each query is run</li>
+     * </ol>
+     * @param args the number of houses, the latency and the number of runs.
+     */
+    public static void main(String[] args) {
+        if (args.length != 3) {
+            System.out.println("Arguments to DistributedBenchmark should be the number of houses, the latency in microseconds and the number of runs");
+            System.exit(1);
+        }
+        int houses = Integer.parseInt(args[0]);
+        long latency = Long.parseLong(args[1]);
+        int runs = Integer.parseInt(args[2]);
+        List<TripleLiteral> fleet = createFleet(houses);
+
+        System.out.println("nodes  house lookup  wildcard  count  single house join  cross house join");
+        for (int nodes : NODE_COUNTS) {
+            LoopbackTransport transport = new LoopbackTransport(nodes);
+            DistributedKnowledgeGraph graph = new DistributedKnowledgeGraph(transport);
+            graph.importTriples(fleet);
+            transport.setLatency(latency);
+
+            Random random = new Random(nodes);
+            long lookup = 0;
+            long wildcard = 0;
+            long count = 0;
+            long houseJoin = 0;
+            long crossJoin = 0;
+            for (int run = 0; run < runs; run++) {
+                String house = "house" + random.nextInt(houses);
+
+                long start = System.nanoTime();
+                graph.executeQuery(new TripleLiteral(house + ":room0", "contains_sensor", "?"));
+                lookup += System.nanoTime() - start;
+
+                start = System.nanoTime();
+                graph.executeQuery(new TripleLiteral("?", "has_status", "on"));
+                wildcard += System.nanoTime() - start;
+
+                start = System.nanoTime();
+                graph.countMatches(new TripleLiteral("?", "is_a", "light"));
+                count += System.nanoTime() - start;
+
+                start = System.nanoTime();
+                graph.executeQuery(patterns(house + ":room0 contains_sensor ?s", house + ":room1 contains_sensor ?s2"));
+                houseJoin += System.nanoTime() - start;
+
+                start = System.nanoTime();
+                graph.executeQuery(patterns("?o is_occupant_of " + house, "?o is_occupant_of ?h", "?h contains_room ?r"));
+                crossJoin += System.nanoTime() - start;
+            }
+            System.out.println(String.format("%5d  %12d  %8d  %5d  %17d  %16d", nodes, lookup / runs / 1000, wildcard / runs / 1000,
+                    count / runs / 1000, houseJoin / runs / 1000, crossJoin / runs / 1000));
+        }
+    }
+
+    /**
+     * @return the triples of a fleet of houses, each with rooms of sensors and two occupants, one of
+     * whom also lives in the next house.
+     */
+    private static List<TripleLiteral> createFleet(int houses) {
+        Random random = new Random(1);
+        List<TripleLiteral> fleet = new ArrayList<TripleLiteral>();
+        for (int h = 0; h < houses; h++) {
+            String house = "house" + h;
+            for (int r = 0; r < ROOMS; r++) {
+                String room = house + ":room" + r;
+                fleet.add(new TripleLiteral(house, "contains_room", room));
+                for (int s = 0; s < SENSORS; s++) {
+                    String sensor = room + ":sensor" + s;
+                    fleet.add(new TripleLiteral(room, "contains_sensor", sensor));
+                    fleet.add(new TripleLiteral(sensor, "is_a", random.nextBoolean() ? "light" : "thermostat"));
+                    fleet.add(new TripleLiteral(sensor, "has_status", random.nextBoolean() ? "on" : "off"));
+                }
+            }
+            fleet.add(new TripleLiteral("occupant" + h, "is_occupant_of", house));
+            fleet.add(new TripleLiteral("occupant" + h, "is_occupant_of", "house" + ((h + 1) % houses)));
+        }
+        return fleet;
+    }
+
+    private static List<TripleLiteral> patterns(String... texts) {
+        List<TripleLiteral> patterns = new ArrayList<TripleLiteral>();
+        for (String text : texts) {
+            String[] terms = text.split(" ");
+            patterns.add(new TripleLiteral(terms[0], terms[1], terms[2]));
+        }
+        return patterns;
+    }
+}
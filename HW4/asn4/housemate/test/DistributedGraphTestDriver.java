@@ -0,0 +1,227 @@
+package cscie97.asn4.housemate.test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+
+import cscie97.asn4.knowledge.engine.BindingTable;
+import cscie97.asn4.knowledge.engine.DistributedKnowledgeGraph;
+import cscie97.asn4.knowledge.engine.KnowledgeGraph;
+import cscie97.asn4.knowledge.engine.LoopbackTransport;
+import cscie97.asn4.knowledge.engine.Node;
+import cscie97.asn4.knowledge.engine.Transport;
+import cscie97.asn4.knowledge.engine.Triple;
+import cscie97.asn4.knowledge.engine.TripleLiteral;
+
+/**
+ * Tests of the DistributedKnowledgeGraph over a LoopbackTransport: with the same triples loaded,
+ * it answers queries, counts and joins across nodes exactly as one KnowledgeGraph does, changes
+ * reach the node that holds them, and failures on a node or in the transport are reported.
+ *
+ * @author Gerald Trotman
+ * @version 1.0
+ */
+public class DistributedGraphTestDriver {
+
+    private static final KnowledgeGraph knowledgeGraph = KnowledgeGraph.getInstance();
+    private static final LoopbackTransport transport = new LoopbackTransport(3);
+    private static final DistributedKnowledgeGraph distributedGraph = new DistributedKnowledgeGraph(transport);
+    private static final int HOUSES = 30;
+
+    /**
+     * Runs the tests and prints whether they all passed.
+     * @param args not used.
+     */
+    public static void main(String[] args) throws Exception {
+        System.out.println("\n\nRUNNING DISTRIBUTED GRAPH TESTS:");
+        try {
+            transport.setLatency(50);
+            loadHouses();
+            singlePatternsMatchOneGraph();
+            objectsAreReportedOnce();
+            joinsAcrossNodesMatchOneGraph();
+            changesReachTheirNode();
+            identifiersTravelIntact();
+            nodeFailureIsReported();
+            unreachableNodeIsReported();
+        } catch (Exception e) {
+            System.out.println("TESTS FAILED: " + e.getMessage());
+            System.exit(1);
+        }
+        System.out.println("\nTESTS ALL PASSED!");
+    }
+
+    private static void throwError() throws Exception {
+        throw new Exception(Thread.currentThread().getStackTrace()[2].getMethodName());
+    }
+
+    /**
+     * Loads houses into both graphs, with an occupant in each house who is also a guest of the
+     * next house, so that some joins need triples from several nodes.
+     */
+    private static void loadHouses() {
+        List<TripleLiteral> triples = new ArrayList<TripleLiteral>();
+        for (int h = 0; h < HOUSES; h++) {
+            String house = "dk" + h;
+            for (int r = 0; r < 3; r++) {
+                String room = house + ":room" + r;
+                triples.add(new TripleLiteral(house, "contains_room", room));
+                for (int s = 0; s < 3; s++) {
+                    String sensor = room + ":sensor" + s;
+                    triples.add(new TripleLiteral(room, "contains_sensor", sensor));
+                    triples.add(new TripleLiteral(sensor, "has_status", (h + r + s) % 2 == 0 ? "on" : "off"));
+                }
+            }
+            triples.add(new TripleLiteral(house, "contains_occupant", house + ":occupant"));
+            triples.add(new TripleLiteral(house + ":occupant", "is_guest_of", "dk" + (h + 1) % HOUSES));
+        }
+        knowledgeGraph.importTriples(triples);
+        distributedGraph.importTriples(triples);
+    }
+
+    private static List<TripleLiteral> patterns(String... texts) {
+        List<TripleLiteral> patterns = new ArrayList<TripleLiteral>();
+        for (String text : texts) {
+            String[] terms = text.split(" ");
+            patterns.add(new TripleLiteral(terms[0], terms[1], terms[2]));
+        }
+        return patterns;
+    }
+
+    private static Set<String> identifiers(Iterable<Triple> triples) {
+        Set<String> identifiers = new HashSet<String>();
+        for (Triple triple : triples) {
+            identifiers.add(triple.getIdentifier());
+        }
+        return identifiers;
+    }
+
+    private static Set<String> rows(BindingTable table, String... variables) {
+        Set<String> rows = new HashSet<String>();
+        for (int row = 0; row < table.size(); row++) {
+            StringBuilder values = new StringBuilder();
+            for (String variable : variables) {
+                values.append(table.getValue(row, variable).toLowerCase()).append(' ');
+            }
+            rows.add(values.toString().trim());
+        }
+        return rows;
+    }
+
+    private static boolean matchesOneGraph(TripleLiteral query) {
+        Set<String> expected = identifiers(knowledgeGraph.executeQuery(query));
+        return identifiers(distributedGraph.executeQuery(query)).equals(expected) && distributedGraph.countMatches(query) == expected.size()
+                && distributedGraph.ask(query) == !expected.isEmpty();
+    }
+
+    private static void singlePatternsMatchOneGraph() throws Exception {
+        String[] subjects = { "dk4:room2:sensor0", "dk4", "?" };
+        String[] predicates = { "has_status", "contains_room", "?" };
+        String[] objects = { "off", "dk5", "?" };
+        for (String subject : subjects) {
+            for (String predicate : predicates) {
+                for (String object : objects) {
+                    if (!matchesOneGraph(new TripleLiteral(subject, predicate, object))) {
+                        throwError();
+                    }
+                }
+            }
+        }
+        if (!matchesOneGraph(new TripleLiteral("dk4", "contains_room/contains_sensor", "?"))) {
+            throwError();
+        }
+    }
+
+    private static void objectsAreReportedOnce() throws Exception {
+        Set<Node> statuses = distributedGraph.getObjectsFromQuery(new TripleLiteral("?", "has_status", "?"));
+        Set<String> identifiers = new HashSet<String>();
+        for (Node status : statuses) {
+            identifiers.add(status.getIdentifier());
+        }
+        if (statuses.size() != 2 || !identifiers.contains("on") || !identifiers.contains("off")) {
+            throwError();
+        }
+    }
+
+    private static void joinsAcrossNodesMatchOneGraph() throws Exception {
+        List<List<TripleLiteral>> queries = new ArrayList<List<TripleLiteral>>();
+        queries.add(patterns("?h contains_occupant ?o", "?o is_guest_of ?g", "?g contains_room ?r"));
+        queries.add(patterns("?o is_guest_of ?g", "?g contains_room ?r", "?r contains_sensor ?s", "?s has_status on"));
+        queries.add(patterns("dk2 contains_room ?r", "?r contains_sensor ?s"));
+        queries.add(patterns("dk2:occupant is_guest_of ?g", "?g contains_occupant ?o", "?o is_guest_of ?next"));
+        for (List<TripleLiteral> query : queries) {
+            BindingTable expected = knowledgeGraph.executeQuery(query);
+            String[] variables = expected.getVariables().toArray(new String[0]);
+            if (expected.size() == 0 || !rows(distributedGraph.executeQuery(query), variables).equals(rows(expected, variables))
+                    || distributedGraph.countMatches(query) != expected.size() || !distributedGraph.ask(query)) {
+                throwError();
+            }
+        }
+    }
+
+    private static void changesReachTheirNode() throws Exception {
+        distributedGraph.replaceTriple(new Node("dk6:room0:sensor0"), "has_status", new Node("on"), new Node("off"));
+        if (!distributedGraph.ask(new TripleLiteral("dk6:room0:sensor0", "has_status", "off"))
+                || distributedGraph.ask(new TripleLiteral("dk6:room0:sensor0", "has_status", "on"))) {
+            throwError();
+        }
+        distributedGraph.deleteTriple(new Node("dk6"), "contains_room", new Node("dk6:room1"));
+        if (distributedGraph.countMatches(new TripleLiteral("dk6", "contains_room", "?")) != 2) {
+            throwError();
+        }
+        /** dk7 is the subject of its house's triples and the object of a triple of dk6. */
+        if (distributedGraph.deleteNode(new Node("dk7")) != 3 + 1 + 1 || distributedGraph.ask(new TripleLiteral("?", "?", "dk7"))
+                || distributedGraph.ask(new TripleLiteral("dk7", "?", "?"))) {
+            throwError();
+        }
+    }
+
+    private static void identifiersTravelIntact() throws Exception {
+        distributedGraph.importTriple(new Node("dk8:K\u00FCche"), "contains_sensor", new Node("dk8:K\u00FCche:Rauchmelder"));
+        Set<Triple> matches = distributedGraph.executeQuery(new TripleLiteral("DK8:K\u00DCCHE", "contains_sensor", "?"));
+        if (matches.size() != 1 || !matches.iterator().next().getObject().getIdentifier().equals("dk8:K\u00FCche:Rauchmelder")) {
+            throwError();
+        }
+    }
+
+    private static void nodeFailureIsReported() throws Exception {
+        try {
+            distributedGraph.executeQuery(new TripleLiteral("?", "(contains_room", "?"));
+            throwError();
+        } catch (IllegalArgumentException e) {
+            /** Expected. */
+        }
+    }
+
+    private static void unreachableNodeIsReported() throws Exception {
+        DistributedKnowledgeGraph unreachable = new DistributedKnowledgeGraph(new Transport() {
+            @Override
+            public int getNodeCount() {
+                return 2;
+            }
+
+            @Override
+            public Future<byte[]> send(int node, byte[] request) {
+                FutureTask<byte[]> failed = new FutureTask<byte[]>(new Callable<byte[]>() {
+                    @Override
+                    public byte[] call() throws Exception {
+                        throw new IOException("Connection refused");
+                    }
+                });
+                failed.run();
+                return failed;
+            }
+        });
+        try {
+            unreachable.countMatches(new TripleLiteral("?", "has_status", "on"));
+            throwError();
+        } catch (IllegalStateException e) {
+            /** Expected. */
+        }
+    }
+}
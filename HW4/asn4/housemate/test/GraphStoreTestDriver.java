@@ -0,0 +1,180 @@
+package cscie97.asn4.housemate.test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+import cscie97.asn4.housemate.exception.KnowledgeException;
+import cscie97.asn4.knowledge.engine.KnowledgeGraph;
+import cscie97.asn4.knowledge.engine.Node;
+import cscie97.asn4.knowledge.engine.TripleLiteral;
+
+/**
+ * Tests of the durability of the KnowledgeGraph: the changes a process logs to a store before it
+ * stops without closing it are recovered from the snapshot and the log, and a frame only partly
+ * written to the log is dropped. The writing process is a second run of this driver.
+ *
+ * @author Gerald Trotman
+ * @version 1.0
+ */
+public class GraphStoreTestDriver {
+
+    private static final KnowledgeGraph knowledgeGraph = KnowledgeGraph.getInstance();
+    private static final int SENSORS = 200;
+
+    /**
+     * Runs the tests and prints whether they all passed. Run with "write" and a directory, it only
+     * writes the changes the tests recover to a store in the directory and stops without closing it.
+     * @param args none, or "write" and the directory of the store.
+     */
+    public static void main(String[] args) throws Exception {
+        if (args.length == 2 && args[0].equals("write")) {
+            write(args[1]);
+            Runtime.getRuntime().halt(0);
+        }
+        System.out.println("\n\nRUNNING GRAPH STORE TESTS:");
+        try {
+            checkpointWithoutStoreIsRefused();
+            File directory = createDirectory();
+            runWriter(directory);
+            appendTornFrame(directory);
+            changesAreRecovered(directory);
+            secondStoreIsRefused(directory);
+            laterChangesAreLogged(directory);
+        } catch (Exception e) {
+            System.out.println("TESTS FAILED: " + e.getMessage());
+            System.exit(1);
+        }
+        System.out.println("\nTESTS ALL PASSED!");
+    }
+
+    private static void throwError() throws Exception {
+        throw new Exception(Thread.currentThread().getStackTrace()[2].getMethodName());
+    }
+
+    /**
+     * Logs changes to a store: the sensors are added and some switched on before a checkpoint, and
+     * some switched off and some removed after it, so recovery needs both the snapshot and the log.
+     */
+    private static void write(String directory) throws KnowledgeException {
+        knowledgeGraph.openStore(directory);
+        for (int s = 0; s < SENSORS; s++) {
+            knowledgeGraph.importTriple(new Node("gs:sensor" + s), "has_status", new Node("off"));
+        }
+        for (int s = 0; s < SENSORS; s += 2) {
+            knowledgeGraph.replaceTriple(new Node("gs:sensor" + s), "has_status", new Node("off"), new Node("on"));
+        }
+        knowledgeGraph.checkpoint();
+        for (int s = 0; s < SENSORS; s += 4) {
+            knowledgeGraph.replaceTriple(new Node("gs:sensor" + s), "has_status", new Node("on"), new Node("off"));
+        }
+        for (int s = 1; s < SENSORS; s += 10) {
+            knowledgeGraph.deleteNode(new Node("gs:sensor" + s));
+        }
+    }
+
+    /**
+     * @return the status the writer left a sensor with, or null if it was removed.
+     */
+    private static String getExpectedStatus(int sensor) {
+        if (sensor % 10 == 1) {
+            return null;
+        }
+        return sensor % 2 == 0 && sensor % 4 != 0 ? "on" : "off";
+    }
+
+    private static File createDirectory() throws IOException {
+        File directory = File.createTempFile("graphstore", "");
+        if (!directory.delete() || !directory.mkdir()) {
+            throw new IOException("Cannot create " + directory);
+        }
+        return directory;
+    }
+
+    private static void runWriter(File directory) throws Exception {
+        String java = System.getProperty("java.home") + File.separator + "bin" + File.separator + "java";
+        Process writer = new ProcessBuilder(java, "-cp", System.getProperty("java.class.path"),
+                GraphStoreTestDriver.class.getName(), "write", directory.getPath()).inheritIO().start();
+        if (writer.waitFor() != 0) {
+            throwError();
+        }
+    }
+
+    /**
+     * Appends the start of a frame to the last log segment, as if the writer stopped while writing it.
+     */
+    private static void appendTornFrame(File directory) throws Exception {
+        File last = null;
+        long lastSegment = -1;
+        for (String name : directory.list()) {
+            if (name.startsWith("log-") && name.endsWith(".wal")) {
+                long segment = Long.parseLong(name.substring(4, name.length() - 4));
+                if (segment > lastSegment) {
+                    last = new File(directory, name);
+                    lastSegment = segment;
+                }
+            }
+        }
+        if (last == null) {
+            throwError();
+        }
+        FileOutputStream output = new FileOutputStream(last, true);
+        try {
+            output.write(new byte[] { 0, 0, 0, 40, 1, 2, 3, 4, 3, 1, 1 });
+        } finally {
+            output.close();
+        }
+    }
+
+    private static void checkpointWithoutStoreIsRefused() throws Exception {
+        try {
+            knowledgeGraph.checkpoint();
+            throwError();
+        } catch (KnowledgeException e) {
+            /** Expected. */
+        }
+    }
+
+    private static void changesAreRecovered(File directory) throws Exception {
+        knowledgeGraph.openStore(directory.getPath());
+        int expectedCount = 0;
+        for (int s = 0; s < SENSORS; s++) {
+            String status = getExpectedStatus(s);
+            int found = knowledgeGraph.countMatches(new TripleLiteral("gs:sensor" + s, "has_status", "?"));
+            if (status == null ? found != 0 : found != 1
+                    || !knowledgeGraph.ask(new TripleLiteral("gs:sensor" + s, "has_status", status))) {
+                throwError();
+            }
+            expectedCount += found;
+        }
+        if (knowledgeGraph.countMatches(new TripleLiteral("?", "?", "?")) != expectedCount) {
+            throwError();
+        }
+    }
+
+    private static void secondStoreIsRefused(File directory) throws Exception {
+        try {
+            knowledgeGraph.openStore(directory.getPath());
+            throwError();
+        } catch (KnowledgeException e) {
+            /** Expected. */
+        }
+    }
+
+    private static void laterChangesAreLogged(File directory) throws Exception {
+        knowledgeGraph.importTriple(new Node("gs:sensor1"), "has_status", new Node("on"));
+        knowledgeGraph.checkpoint();
+        knowledgeGraph.deleteTriple(new Node("gs:sensor0"), "has_status", new Node("off"));
+        knowledgeGraph.closeStore();
+        /** Changes after closing are not logged, so reopening the store brings the triple back. */
+        int before = knowledgeGraph.countMatches(new TripleLiteral("?", "?", "?"));
+        knowledgeGraph.deleteNode(new Node("gs:sensor2"));
+        knowledgeGraph.openStore(directory.getPath());
+        knowledgeGraph.closeStore();
+        if (knowledgeGraph.countMatches(new TripleLiteral("?", "?", "?")) != before
+                || !knowledgeGraph.ask(new TripleLiteral("gs:sensor1", "has_status", "on"))
+                || knowledgeGraph.ask(new TripleLiteral("gs:sensor0", "has_status", "?"))) {
+            throwError();
+        }
+    }
+}
@@ -0,0 +1,100 @@
+package cscie97.asn4.housemate.test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import cscie97.asn4.knowledge.engine.KnowledgeGraph;
+import cscie97.asn4.knowledge.engine.TripleLiteral;
+
+/**
+ * Benchmark of the heap used per triple by the dictionary encoded KnowledgeGraph, against the
+ * QueryMapSetGraph it replaced.
+ *
+ * @author Gerald Trotman
+ * @version 1.0
+ */
+public class HeapBenchmark {
+
+    private static final int ROOMS = 4;
+    private static final int SENSORS = 5;
+    private static final String[] TYPES = { "light", "door", "thermostat", "camera", "smoke_detector" };
+
+    /**
+     * Loads the same fleet of houses into a QueryMapSetGraph and into the KnowledgeGraph, and prints
+     * the heap each uses per triple. The triples are made a house at a time, so that the heap
+     * measured holds only what each store keeps. Command-line arguments should be:
+     * <ol>
+     *      <li>the number of houses</li>
+     * </ol>
+     * @param args the number of houses.
+     */
+    public static void main(String[] args) throws Exception {
+        if (args.length != 1) {
+            System.out.println("Arguments to HeapBenchmark should be the number of houses");
+            System.exit(1);
+        }
+        int houses = Integer.parseInt(args[0]);
+        long triples = (long) houses * (ROOMS + ROOMS * SENSORS * 3);
+
+        long before = usedHeap();
+        QueryMapSetGraph mapSetGraph = new QueryMapSetGraph();
+        for (int house = 0; house < houses; house++) {
+            for (TripleLiteral triple : createHouse(house)) {
+                mapSetGraph.importTriple(triple.getSubject(), triple.getPredicate(), triple.getObject());
+            }
+        }
+        long mapSetBytes = usedHeap() - before;
+        if (mapSetGraph.count("? ? ?") != triples) {
+            throw new IllegalStateException("The QueryMapSetGraph did not load every triple.");
+        }
+        mapSetGraph = null;
+
+        before = usedHeap();
+        KnowledgeGraph graph = KnowledgeGraph.getInstance();
+        for (int house = 0; house < houses; house++) {
+            graph.importTriples(createHouse(house));
+        }
+        long encodedBytes = usedHeap() - before;
+        if (graph.executeQuery(new TripleLiteral("?", "?", "?")).size() != triples) {
+            throw new IllegalStateException("The KnowledgeGraph did not load every triple.");
+        }
+
+        System.out.println(triples + " triples");
+        System.out.println("store              bytes/triple");
+        System.out.println(String.format("QueryMapSetGraph   %12d", mapSetBytes / triples));
+        System.out.println(String.format("KnowledgeGraph     %12d", encodedBytes / triples));
+        System.out.println(String.format("ratio              %12.1f", (double) mapSetBytes / encodedBytes));
+    }
+
+    /**
+     * @return the heap in use once the garbage collector has settled.
+     */
+    private static long usedHeap() throws InterruptedException {
+        Runtime runtime = Runtime.getRuntime();
+        long used = Long.MAX_VALUE;
+        for (int i = 0; i < 5; i++) {
+            System.gc();
+            Thread.sleep(100);
+            used = Math.min(used, runtime.totalMemory() - runtime.freeMemory());
+        }
+        return used;
+    }
+
+    /**
+     * @return the triples of a house, with rooms of sensors that are on or off.
+     */
+    private static List<TripleLiteral> createHouse(int house) {
+        List<TripleLiteral> triples = new ArrayList<TripleLiteral>();
+        for (int r = 0; r < ROOMS; r++) {
+            String room = "house" + house + ":room" + r;
+            triples.add(new TripleLiteral("house" + house, "contains_room", room));
+            for (int s = 0; s < SENSORS; s++) {
+                String sensor = room + ":sensor" + s;
+                triples.add(new TripleLiteral(room, "contains_sensor", sensor));
+                triples.add(new TripleLiteral(sensor, "has_status", (house + r + s) % 2 == 0 ? "on" : "off"));
+                triples.add(new TripleLiteral(sensor, "is_a", TYPES[s]));
+            }
+        }
+        return triples;
+    }
+}
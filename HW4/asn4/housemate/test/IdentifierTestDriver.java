@@ -0,0 +1,143 @@
+package cscie97.asn4.housemate.test;
+
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+
+import cscie97.asn4.housemate.exception.KnowledgeException;
+import cscie97.asn4.knowledge.engine.Identifier;
+import cscie97.asn4.knowledge.engine.KnowledgeGraph;
+import cscie97.asn4.knowledge.engine.Node;
+import cscie97.asn4.knowledge.engine.TripleLiteral;
+
+/**
+ * Tests of the case-insensitive identifiers of the KnowledgeGraph: Identifiers that differ only in
+ * case are equal, and looking up a Node, a predicate or a triple in any case finds the one that was
+ * added, with the case it was added in.
+ *
+ * @author Gerald Trotman
+ * @version 1.0
+ */
+public class IdentifierTestDriver {
+
+    private static final KnowledgeGraph knowledgeGraph = KnowledgeGraph.getInstance();
+
+    /**
+     * Runs the tests and prints whether they all passed.
+     * @param args not used.
+     */
+    public static void main(String[] args) throws Exception {
+        System.out.println("\n\nRUNNING IDENTIFIER TESTS:");
+        try {
+            identifiersIgnoreCase();
+            nodeIsFoundInAnyCase();
+            sharedIdentifierIsKept();
+            predicatesAndTriplesIgnoreCase();
+            existingIdentifierIsRefusedInAnyCase();
+            unknownNodeIsReported();
+            lookupsIgnoreDefaultLocale();
+        } catch (Exception e) {
+            System.out.println("TESTS FAILED: " + e.getMessage());
+            System.exit(1);
+        }
+        System.out.println("\nTESTS ALL PASSED!");
+    }
+
+    private static void throwError() throws Exception {
+        throw new Exception(Thread.currentThread().getStackTrace()[2].getMethodName());
+    }
+
+    private static void identifiersIgnoreCase() throws Exception {
+        Identifier upper = new Identifier("ID1:Kitchen:Oven");
+        Identifier lower = new Identifier("id1:kitchen:oven");
+        if (!upper.equals(lower) || upper.hashCode() != lower.hashCode() || !upper.getKey().equals("id1:kitchen:oven")
+                || !upper.getIdentifier().equals("ID1:Kitchen:Oven") || upper.equals(new Identifier("id1:kitchen:oven2"))) {
+            throwError();
+        }
+        if (!new Identifier("ID1:K\u00DCCHE").equals(new Identifier("id1:k\u00FCche"))) {
+            throwError();
+        }
+        Map<Identifier, String> map = new HashMap<Identifier, String>();
+        map.put(upper, "oven");
+        if (!"oven".equals(map.get(new Identifier("Id1:KITCHEN:oven")))) {
+            throwError();
+        }
+    }
+
+    private static void nodeIsFoundInAnyCase() throws Exception {
+        Node oven = new Node("ID2:Kitchen:Oven");
+        knowledgeGraph.importTriple(oven, "has_temperature", new Node("180"));
+        String[] lookups = { "ID2:Kitchen:Oven", "id2:kitchen:oven", "ID2:KITCHEN:OVEN", "iD2:kItChEn:oVeN" };
+        for (String lookup : lookups) {
+            if (knowledgeGraph.getExistingNodeById(lookup) != oven || knowledgeGraph.getNode(lookup) != oven
+                    || knowledgeGraph.getExistingNodeById(new Identifier(lookup)) != oven) {
+                throwError();
+            }
+        }
+        if (!knowledgeGraph.getExistingNodeById("id2:kitchen:oven").getIdentifier().equals("ID2:Kitchen:Oven")) {
+            throwError();
+        }
+    }
+
+    private static void sharedIdentifierIsKept() throws Exception {
+        Identifier identifier = new Identifier("ID3:Hall:Light");
+        Node light = knowledgeGraph.getNode(identifier);
+        if (light.getKey() != identifier || knowledgeGraph.getNode("id3:hall:light") != light) {
+            throwError();
+        }
+    }
+
+    private static void predicatesAndTriplesIgnoreCase() throws Exception {
+        knowledgeGraph.importTriple(new Node("ID4:Room"), "Has_Status", new Node("ON"));
+        knowledgeGraph.importTriple(new Node("id4:room"), "has_status", new Node("on"));
+        if (knowledgeGraph.countMatches(new TripleLiteral("id4:ROOM", "HAS_STATUS", "On")) != 1
+                || knowledgeGraph.countMatches(new TripleLiteral("?", "has_STATUS", "?")) != 1) {
+            throwError();
+        }
+        knowledgeGraph.deleteTriple(new Node("ID4:ROOM"), "HAS_status", new Node("on"));
+        if (knowledgeGraph.ask(new TripleLiteral("id4:room", "?", "?"))) {
+            throwError();
+        }
+    }
+
+    private static void existingIdentifierIsRefusedInAnyCase() throws Exception {
+        knowledgeGraph.importTriple(new Node("ID5:Garage"), "contains_sensor", new Node("ID5:Garage:Door"));
+        try {
+            knowledgeGraph.validateIdentifierDoesNotExist("id5:GARAGE:door");
+            throwError();
+        } catch (KnowledgeException e) {
+            /** Expected. */
+        }
+        knowledgeGraph.validateIdentifierDoesNotExist("id5:garage:window");
+    }
+
+    private static void unknownNodeIsReported() throws Exception {
+        try {
+            knowledgeGraph.getExistingNodeById("ID6:Attic");
+            throwError();
+        } catch (KnowledgeException e) {
+            /** Expected. */
+        }
+    }
+
+    /**
+     * Under a Turkish locale "I" lower cases to a dotless i, which must not change the keys.
+     */
+    private static void lookupsIgnoreDefaultLocale() throws Exception {
+        Locale locale = Locale.getDefault();
+        Locale.setDefault(new Locale("tr", "TR"));
+        try {
+            Node light = new Node("ID7:LIVING:LIGHT");
+            knowledgeGraph.importTriple(light, "HAS_STATUS", new Node("ON"));
+            if (!new Identifier("ID7:LIVING:LIGHT").getKey().equals("id7:living:light")
+                    || knowledgeGraph.getExistingNodeById("id7:living:light") != light
+                    || knowledgeGraph.getExistingNodeById(new Identifier("Id7:Living:Light")) != light
+                    || knowledgeGraph.countMatches(new TripleLiteral("ID7:LIVING:LIGHT", "has_status", "on")) != 1
+                    || knowledgeGraph.getNodesWithPrefix("ID7:LIV").size() != 1) {
+                throwError();
+            }
+        } finally {
+            Locale.setDefault(locale);
+        }
+    }
+}
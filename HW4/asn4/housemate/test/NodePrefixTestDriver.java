@@ -0,0 +1,125 @@
+package cscie97.asn4.housemate.test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import cscie97.asn4.knowledge.engine.KnowledgeGraph;
+import cscie97.asn4.knowledge.engine.Node;
+
+/**
+ * Tests of the prefix lookups of the KnowledgeGraph: getNodesWithPrefix returns exactly the Nodes
+ * whose identifiers start with the prefix, ignoring case and sorted, whether the identifiers are
+ * on the heap, moved off it, or added after the move.
+ *
+ * @author Gerald Trotman
+ * @version 1.0
+ */
+public class NodePrefixTestDriver {
+
+    private static final KnowledgeGraph knowledgeGraph = KnowledgeGraph.getInstance();
+    /** Every identifier added by the tests, to find the expected matches by brute force. */
+    private static final List<String> identifiers = new ArrayList<String>();
+
+    /**
+     * Runs the tests and prints whether they all passed.
+     * @param args not used.
+     */
+    public static void main(String[] args) throws Exception {
+        System.out.println("\n\nRUNNING NODE PREFIX TESTS:");
+        try {
+            loadHouses(0, 12);
+            prefixesMatchBruteForce();
+            houseDoesNotMatchLongerHouses();
+            unknownPrefixHasNoMatches();
+            knowledgeGraph.moveOffHeap();
+            prefixesMatchBruteForce();
+            loadHouses(12, 15);
+            prefixesMatchBruteForce();
+            nonAsciiPrefixIgnoresCase();
+        } catch (Exception e) {
+            System.out.println("TESTS FAILED: " + e.getMessage());
+            System.exit(1);
+        }
+        System.out.println("\nTESTS ALL PASSED!");
+    }
+
+    private static void throwError() throws Exception {
+        throw new Exception(Thread.currentThread().getStackTrace()[2].getMethodName());
+    }
+
+    private static void add(String subject, String predicate, String object) {
+        knowledgeGraph.importTriple(new Node(subject), predicate, new Node(object));
+        identifiers.add(subject);
+        identifiers.add(object);
+    }
+
+    private static void loadHouses(int first, int end) {
+        for (int h = first; h < end; h++) {
+            String house = "NP" + h;
+            for (int r = 0; r < 3; r++) {
+                String room = house + ":Room" + r;
+                add(house, "contains_room", room);
+                for (int s = 0; s < 3; s++) {
+                    add(room, "contains_sensor", room + ":Sensor" + s);
+                }
+            }
+        }
+    }
+
+    /**
+     * @return the identifiers starting with the prefix, ignoring case, sorted as getNodesWithPrefix sorts them.
+     */
+    private static List<String> expected(String prefix) {
+        List<String> matches = new ArrayList<String>();
+        for (String identifier : identifiers) {
+            if (identifier.toLowerCase().startsWith(prefix.toLowerCase()) && !matches.contains(identifier)) {
+                matches.add(identifier);
+            }
+        }
+        Collections.sort(matches, String.CASE_INSENSITIVE_ORDER);
+        return matches;
+    }
+
+    private static List<String> found(String prefix) {
+        List<String> found = new ArrayList<String>();
+        for (Node node : knowledgeGraph.getNodesWithPrefix(prefix)) {
+            found.add(node.getIdentifier());
+        }
+        return found;
+    }
+
+    private static void prefixesMatchBruteForce() throws Exception {
+        String[] prefixes = { "np", "NP1", "np1:", "np3:room1", "Np3:ROOM1:", "np11:room2:sensor2", "np1:room0:sensor" };
+        for (String prefix : prefixes) {
+            List<String> expected = expected(prefix);
+            if (expected.isEmpty() || !found(prefix).equals(expected)) {
+                throwError();
+            }
+        }
+    }
+
+    private static void houseDoesNotMatchLongerHouses() throws Exception {
+        for (String identifier : found("np1:")) {
+            if (!identifier.startsWith("NP1:")) {
+                throwError();
+            }
+        }
+        if (found("np1").size() <= found("np1:").size() + 1) {
+            throwError();
+        }
+    }
+
+    private static void unknownPrefixHasNoMatches() throws Exception {
+        if (!found("np_unknown").isEmpty() || !found("np1:room0:sensor0:part").isEmpty()) {
+            throwError();
+        }
+    }
+
+    private static void nonAsciiPrefixIgnoresCase() throws Exception {
+        add("NP20:K\u00FCche", "contains_sensor", "NP20:K\u00FCche:\u00D6fen");
+        if (!found("np20:K\u00DCCHE:\u00F6").equals(expected("np20:k\u00FCche:\u00F6")) || found("np20:k\u00FCche:\u00F6").size() != 1) {
+            throwError();
+        }
+    }
+}
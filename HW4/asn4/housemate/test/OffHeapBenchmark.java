@@ -0,0 +1,181 @@
+package cscie97.asn4.housemate.test;
+
+import java.io.File;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import cscie97.asn4.knowledge.engine.KnowledgeGraph;
+import cscie97.asn4.knowledge.engine.Node;
+import cscie97.asn4.knowledge.engine.TripleLiteral;
+
+/**
+ * Benchmark of the garbage collection pauses of the KnowledgeGraph with its indexes on the Java
+ * heap and after moveOffHeap, and of how long readers wait while the move runs, against the
+ * number of triples.
+ *
+ * @author Gerald Trotman
+ * @version 1.0
+ */
+public class OffHeapBenchmark {
+
+    private static final int ROOMS = 4;
+    private static final int SENSORS = 5;
+    private static final String[] TYPES = { "light", "door", "thermostat", "camera", "smoke_detector" };
+    /** The triples of one house: its rooms, and each sensor's room, status and type. */
+    private static final int HOUSE_TRIPLES = ROOMS + ROOMS * SENSORS * 3;
+    /** The number of sensor updates and reads made to measure the collections they cause. */
+    private static final int CHURN = 200000;
+
+    /**
+     * Measures each number of triples in a new JVM, started with the same options as this one, so
+     * that a run is not slowed by the garbage of the one before. For each it prints how long a full
+     * collection pauses with the indexes on the heap and off it, the time spent collecting during
+     * a mix of sensor updates and reads with the indexes on the heap and off it, how long the move
+     * took, and the longest a cached read took while the move ran. Give the JVM a heap of about
+     * 400 bytes per triple, for instance -Xmx48g for 100000000 triples. Command-line arguments
+     * should be:
+     * <ol>
+     *      <li>the numbers of triples to measure, such as 1000000 10000000 100000000</li>
+     * </ol>
+     * @param args the numbers of triples.
+     */
+    public static void main(String[] args) throws Exception {
+        if (args.length == 2 && args[0].equals("measure")) {
+            measure(Long.parseLong(args[1]));
+            return;
+        }
+        if (args.length == 0) {
+            System.out.println("Arguments to OffHeapBenchmark should be the numbers of triples to measure");
+            System.exit(1);
+        }
+        System.out.println("milliseconds; GC is the time collecting during " + CHURN + " updates and reads");
+        System.out.println("    triples  full GC on  full GC off  GC on heap  GC off heap       move  longest read");
+        String java = System.getProperty("java.home") + File.separator + "bin" + File.separator + "java";
+        for (String triples : args) {
+            List<String> command = new ArrayList<String>();
+            command.add(java);
+            command.addAll(ManagementFactory.getRuntimeMXBean().getInputArguments());
+            command.add("-cp");
+            command.add(System.getProperty("java.class.path"));
+            command.add(OffHeapBenchmark.class.getName());
+            command.add("measure");
+            command.add(triples);
+            if (new ProcessBuilder(command).inheritIO().start().waitFor() != 0) {
+                System.exit(1);
+            }
+        }
+    }
+
+    /**
+     * Loads about a number of triples, measures them on the heap, moves them off it while a reader
+     * reads, measures them again and prints a row.
+     */
+    private static void measure(long triples) throws Exception {
+        KnowledgeGraph graph = KnowledgeGraph.getInstance();
+        int houses = (int) Math.max(1, triples / HOUSE_TRIPLES);
+        for (int house = 0; house < houses; house++) {
+            graph.importTriples(createHouse(house));
+        }
+        /** Warm up the JIT before measuring. */
+        churn(graph, houses, new Random(0));
+
+        long fullOn = fullCollection();
+        long churnOn = churn(graph, houses, new Random(1));
+
+        final KnowledgeGraph reader = graph;
+        final AtomicBoolean moving = new AtomicBoolean(true);
+        final AtomicLong longestRead = new AtomicLong();
+        Thread readerThread = new Thread() {
+            @Override
+            public void run() {
+                TripleLiteral query = new TripleLiteral("house0:room0:sensor0", "has_status", "?");
+                while (moving.get()) {
+                    long start = System.nanoTime();
+                    reader.executeQuery(query);
+                    longestRead.set(Math.max(longestRead.get(), System.nanoTime() - start));
+                }
+            }
+        };
+        readerThread.start();
+        /** Let the reader reach its loop before the move starts. */
+        Thread.sleep(100);
+        long start = System.nanoTime();
+        graph.moveOffHeap();
+        long move = System.nanoTime() - start;
+        moving.set(false);
+        readerThread.join();
+
+        long fullOff = fullCollection();
+        long churnOff = churn(graph, houses, new Random(1));
+        System.out.println(String.format("%11d  %10d  %11d  %10d  %11d  %9d  %12.2f", (long) houses * HOUSE_TRIPLES, fullOn, fullOff,
+                churnOn, churnOff, move / 1000000, longestRead.get() / 1e6));
+    }
+
+    /**
+     * @return the shortest of three full collections, in milliseconds.
+     */
+    private static long fullCollection() {
+        long shortest = Long.MAX_VALUE;
+        for (int i = 0; i < 3; i++) {
+            long start = System.nanoTime();
+            System.gc();
+            shortest = Math.min(shortest, (System.nanoTime() - start) / 1000000);
+        }
+        return shortest;
+    }
+
+    /**
+     * @return the milliseconds the collectors report they spent so far.
+     */
+    private static long collectionTime() {
+        long total = 0;
+        for (GarbageCollectorMXBean collector : ManagementFactory.getGarbageCollectorMXBeans()) {
+            total += Math.max(0, collector.getCollectionTime());
+        }
+        return total;
+    }
+
+    /**
+     * Flips the status of random sensors and reads the sensors of random rooms.
+     * @return the milliseconds spent collecting meanwhile.
+     */
+    private static long churn(KnowledgeGraph graph, int houses, Random random) {
+        Node on = new Node("on");
+        Node off = new Node("off");
+        long before = collectionTime();
+        for (int i = 0; i < CHURN; i++) {
+            String room = "house" + random.nextInt(houses) + ":room" + random.nextInt(ROOMS);
+            if (i % 2 == 0) {
+                Node sensor = new Node(room + ":sensor" + random.nextInt(SENSORS));
+                boolean isOn = graph.ask(new TripleLiteral(sensor.getIdentifier(), "has_status", "on"));
+                graph.replaceTriple(sensor, "has_status", isOn ? on : off, isOn ? off : on);
+            } else {
+                graph.executeQuery(new TripleLiteral(room, "contains_sensor", "?"));
+            }
+        }
+        return collectionTime() - before;
+    }
+
+    /**
+     * @return the triples of a house, with rooms of sensors that are on or off.
+     */
+    private static List<TripleLiteral> createHouse(int house) {
+        List<TripleLiteral> triples = new ArrayList<TripleLiteral>();
+        for (int r = 0; r < ROOMS; r++) {
+            String room = "house" + house + ":room" + r;
+            triples.add(new TripleLiteral("house" + house, "contains_room", room));
+            for (int s = 0; s < SENSORS; s++) {
+                String sensor = room + ":sensor" + s;
+                triples.add(new TripleLiteral(room, "contains_sensor", sensor));
+                triples.add(new TripleLiteral(sensor, "has_status", (house + r + s) % 2 == 0 ? "on" : "off"));
+                triples.add(new TripleLiteral(sensor, "is_a", TYPES[s]));
+            }
+        }
+        return triples;
+    }
+}
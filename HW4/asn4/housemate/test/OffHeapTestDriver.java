@@ -0,0 +1,231 @@
+package cscie97.asn4.housemate.test;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import cscie97.asn4.knowledge.engine.BindingTable;
+import cscie97.asn4.knowledge.engine.KnowledgeGraph;
+import cscie97.asn4.knowledge.engine.Node;
+import cscie97.asn4.knowledge.engine.Triple;
+import cscie97.asn4.knowledge.engine.TripleListener;
+import cscie97.asn4.knowledge.engine.TripleLiteral;
+
+/**
+ * Tests of moving the KnowledgeGraph off the Java heap: every kind of query returns the same
+ * results before and after the move and while it runs, changes after it are kept above the moved
+ * indexes, and subscriptions, history and the model's own Nodes carry on as before.
+ *
+ * @author Gerald Trotman
+ * @version 1.0
+ */
+public class OffHeapTestDriver {
+
+    private static final KnowledgeGraph knowledgeGraph = KnowledgeGraph.getInstance();
+    private static final int HOUSES = 30;
+
+    /**
+     * Runs the tests and prints whether they all passed.
+     * @param args not used.
+     */
+    public static void main(String[] args) throws Exception {
+        System.out.println("\n\nRUNNING OFF HEAP TESTS:");
+        try {
+            loadHouses();
+            moveKeepsResults();
+            changesAfterMoveAreKept();
+            subscriptionsAndHistoryCarryOn();
+            modelNodesAreKept();
+            readersSeeTheSameResultsDuringMove();
+        } catch (Exception e) {
+            System.out.println("TESTS FAILED: " + e.getMessage());
+            System.exit(1);
+        }
+        System.out.println("\nTESTS ALL PASSED!");
+    }
+
+    private static void throwError() throws Exception {
+        throw new Exception(Thread.currentThread().getStackTrace()[2].getMethodName());
+    }
+
+    /**
+     * A Node of the model, which must be returned as itself rather than as a plain Node.
+     */
+    private static final class Appliance extends Node {
+
+        Appliance(String identifier) {
+            super(identifier);
+        }
+    }
+
+    private static void add(String subject, String predicate, String object) {
+        knowledgeGraph.importTriple(new Node(subject), predicate, new Node(object));
+    }
+
+    private static void loadHouses() {
+        List<TripleLiteral> triples = new ArrayList<TripleLiteral>();
+        for (int h = 0; h < HOUSES; h++) {
+            String house = "oh" + h;
+            for (int r = 0; r < 3; r++) {
+                String room = house + ":Room" + r;
+                triples.add(new TripleLiteral(house, "contains_room", room));
+                for (int s = 0; s < 4; s++) {
+                    String sensor = room + ":Sensor" + s;
+                    triples.add(new TripleLiteral(room, "contains_sensor", sensor));
+                    triples.add(new TripleLiteral(sensor, "has_status", (h + r + s) % 3 == 0 ? "on" : "off"));
+                }
+            }
+        }
+        knowledgeGraph.importTriples(triples);
+    }
+
+    private static List<TripleLiteral> patterns(String... texts) {
+        List<TripleLiteral> patterns = new ArrayList<TripleLiteral>();
+        for (String text : texts) {
+            String[] terms = text.split(" ");
+            patterns.add(new TripleLiteral(terms[0], terms[1], terms[2]));
+        }
+        return patterns;
+    }
+
+    /**
+     * @return the results of a set of queries covering each index, ordered pages, joins, paths,
+     * counts and prefixes, as strings in the order they were returned where the order matters.
+     */
+    private static List<Object> readAll() {
+        List<Object> reads = new ArrayList<Object>();
+        String[] queries = { "oh4:Room1:Sensor2 has_status ?", "oh4:room1 ? ?", "? has_status on", "? ? oh7:room2", "? ? ?" };
+        for (String query : queries) {
+            Set<String> matches = new HashSet<String>();
+            for (Triple triple : knowledgeGraph.executeQuery(patterns(query).get(0))) {
+                matches.add(triple.getIdentifier());
+            }
+            reads.add(matches);
+            reads.add(knowledgeGraph.countMatches(patterns(query).get(0)));
+        }
+        List<String> page = new ArrayList<String>();
+        for (Triple triple : knowledgeGraph.executeQuery(new TripleLiteral("?", "contains_sensor", "?"), KnowledgeGraph.ORDER_BY_OBJECT, 40, 20)) {
+            page.add(triple.getIdentifier());
+        }
+        reads.add(page);
+        BindingTable table = knowledgeGraph.executeQuery(patterns("?h contains_room ?r", "?r contains_sensor ?s", "?s has_status on"));
+        Set<String> rows = new HashSet<String>();
+        for (int row = 0; row < table.size(); row++) {
+            rows.add(table.getValue(row, "?h") + " " + table.getValue(row, "?s"));
+        }
+        reads.add(rows);
+        Set<String> reached = new HashSet<String>();
+        for (Triple triple : knowledgeGraph.executeQuery(new TripleLiteral("oh9", "contains_room/contains_sensor", "?"))) {
+            reached.add(triple.getObject().getIdentifier());
+        }
+        reads.add(reached);
+        List<String> prefixed = new ArrayList<String>();
+        for (Node node : knowledgeGraph.getNodesWithPrefix("oh2:room")) {
+            prefixed.add(node.getIdentifier());
+        }
+        reads.add(prefixed);
+        return reads;
+    }
+
+    private static void moveKeepsResults() throws Exception {
+        List<Object> before = readAll();
+        long version = knowledgeGraph.getVersion();
+        knowledgeGraph.moveOffHeap();
+        if (!readAll().equals(before) || knowledgeGraph.getVersion() < version) {
+            throwError();
+        }
+        /** Identifiers keep their case through the move. */
+        Set<Triple> status = knowledgeGraph.executeQuery(new TripleLiteral("oh4:room1:sensor2", "has_status", "?"));
+        if (status.size() != 1 || !status.iterator().next().getSubject().getIdentifier().equals("oh4:Room1:Sensor2")) {
+            throwError();
+        }
+    }
+
+    private static void changesAfterMoveAreKept() throws Exception {
+        add("oh0:Room0", "contains_sensor", "oh0:Room0:Sensor9");
+        knowledgeGraph.deleteTriple(new Node("oh1"), "contains_room", new Node("oh1:room2"));
+        knowledgeGraph.replaceTriple(new Node("oh2:room0:sensor0"), "has_status", new Node("on"), new Node("off"));
+        List<Object> before = readAll();
+        if (knowledgeGraph.countMatches(new TripleLiteral("oh0:room0", "contains_sensor", "?")) != 5
+                || knowledgeGraph.ask(new TripleLiteral("oh1", "contains_room", "oh1:room2"))
+                || !knowledgeGraph.ask(new TripleLiteral("oh2:room0:sensor0", "has_status", "off"))) {
+            throwError();
+        }
+        /** A second move folds the changes into the moved indexes. */
+        knowledgeGraph.moveOffHeap();
+        if (!readAll().equals(before)) {
+            throwError();
+        }
+    }
+
+    private static void subscriptionsAndHistoryCarryOn() throws Exception {
+        final CountDownLatch delivered = new CountDownLatch(1);
+        knowledgeGraph.trackHistory("oh_level");
+        add("oh3:thermostat", "oh_level", "20");
+        knowledgeGraph.subscribe(new TripleLiteral("oh3:thermostat", "oh_level", "?"), new TripleListener() {
+            @Override
+            public void tripleInserted(Triple triple, long version) {
+                if (triple.getObject().getIdentifier().equals("22")) {
+                    delivered.countDown();
+                }
+            }
+
+            @Override
+            public void tripleDeleted(Triple triple, long version) {
+            }
+        });
+        Thread.sleep(2);
+        long beforeMove = System.currentTimeMillis();
+        Thread.sleep(2);
+        knowledgeGraph.moveOffHeap();
+        knowledgeGraph.replaceTriple(new Node("oh3:thermostat"), "oh_level", new Node("20"), new Node("22"));
+        if (!delivered.await(10, TimeUnit.SECONDS)) {
+            throwError();
+        }
+        Set<Triple> then = knowledgeGraph.executeQueryAsOf(new TripleLiteral("oh3:thermostat", "oh_level", "?"), beforeMove);
+        if (then.size() != 1 || !then.iterator().next().getObject().getIdentifier().equals("20")) {
+            throwError();
+        }
+    }
+
+    private static void modelNodesAreKept() throws Exception {
+        Appliance oven = new Appliance("oh5:kitchen:oven");
+        knowledgeGraph.importTriple(oven, "has_temperature", new Node("180"));
+        knowledgeGraph.moveOffHeap();
+        Set<Triple> temperature = knowledgeGraph.executeQuery(new TripleLiteral("oh5:kitchen:oven", "has_temperature", "?"));
+        if (temperature.size() != 1 || temperature.iterator().next().getSubject() != oven
+                || knowledgeGraph.getExistingNodeById("oh5:kitchen:oven") != oven) {
+            throwError();
+        }
+    }
+
+    private static void readersSeeTheSameResultsDuringMove() throws Exception {
+        final TripleLiteral query = new TripleLiteral("?", "has_status", "on");
+        final int expected = knowledgeGraph.countMatches(query);
+        final AtomicBoolean moving = new AtomicBoolean(true);
+        final AtomicBoolean wrong = new AtomicBoolean(false);
+        Thread reader = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                while (moving.get()) {
+                    if (knowledgeGraph.countMatches(query) != expected || knowledgeGraph.executeQuery(query).size() != expected) {
+                        wrong.set(true);
+                    }
+                }
+            }
+        });
+        reader.start();
+        for (int i = 0; i < 5; i++) {
+            knowledgeGraph.moveOffHeap();
+        }
+        moving.set(false);
+        reader.join();
+        if (wrong.get()) {
+            throwError();
+        }
+    }
+}
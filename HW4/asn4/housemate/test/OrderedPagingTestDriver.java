@@ -0,0 +1,228 @@
+package cscie97.asn4.housemate.test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import cscie97.asn4.housemate.exception.QueryEngineException;
+import cscie97.asn4.knowledge.engine.KnowledgeGraph;
+import cscie97.asn4.knowledge.engine.Node;
+import cscie97.asn4.knowledge.engine.QueryEngine;
+import cscie97.asn4.knowledge.engine.Triple;
+import cscie97.asn4.knowledge.engine.TripleLiteral;
+
+/**
+ * Tests of ORDER BY, LIMIT and OFFSET: each page of a query is the slice of all its matches sorted
+ * by hand, for every order and shape of pattern, the unordered pages of a query cover its matches
+ * once, and the QueryEngine prints the same pages for the clauses and refuses malformed ones.
+ *
+ * @author Gerald Trotman
+ * @version 1.0
+ */
+public class OrderedPagingTestDriver {
+
+    private static final KnowledgeGraph knowledgeGraph = KnowledgeGraph.getInstance();
+    private static final QueryEngine queryEngine = new QueryEngine();
+    private static final String LINE_SEPARATOR = System.getProperty("line.separator");
+    private static final int[] ORDERS = { KnowledgeGraph.ORDER_BY_SUBJECT, KnowledgeGraph.ORDER_BY_PREDICATE, KnowledgeGraph.ORDER_BY_OBJECT };
+    /** The positions each order sorts by, in turn: subject, predicate, object are 0, 1, 2. */
+    private static final int[][] SORT_POSITIONS = { { 0, 1, 2 }, { 1, 2, 0 }, { 2, 0, 1 } };
+
+    /**
+     * Runs the tests and prints whether they all passed.
+     * @param args not used.
+     */
+    public static void main(String[] args) throws Exception {
+        System.out.println("\n\nRUNNING ORDERED PAGING TESTS:");
+        try {
+            loadHouses();
+            pagesAreSlicesOfSortedMatches();
+            unorderedPagesCoverMatchesOnce();
+            pagesFollowChanges();
+            invalidPagesAreRefused();
+            queryEnginePrintsPages();
+            malformedClausesAreRefused();
+        } catch (Exception e) {
+            System.out.println("TESTS FAILED: " + e.getMessage());
+            System.exit(1);
+        }
+        System.out.println("\nTESTS ALL PASSED!");
+    }
+
+    private static void throwError() throws Exception {
+        throw new Exception(Thread.currentThread().getStackTrace()[2].getMethodName());
+    }
+
+    /**
+     * Loads houses whose numbers and case are mixed, so that the order of the identifiers differs
+     * from the order they were added in and from the order of their ids.
+     */
+    private static void loadHouses() {
+        List<TripleLiteral> triples = new ArrayList<TripleLiteral>();
+        int[] houses = { 7, 3, 11, 1, 20, 2 };
+        for (int h : houses) {
+            String house = (h % 2 == 0 ? "OP" : "op") + h;
+            for (int r = 3; r >= 0; r--) {
+                String room = house + ":room" + r;
+                triples.add(new TripleLiteral(house, "contains_room", room));
+                for (int s = 0; s < 5; s++) {
+                    String sensor = room + (s % 2 == 0 ? ":Sensor" : ":sensor") + (5 - s);
+                    triples.add(new TripleLiteral(room, "contains_sensor", sensor));
+                    triples.add(new TripleLiteral(sensor, (h + s) % 2 == 0 ? "has_status" : "Has_Level", String.valueOf((h * 7 + r * 3 + s) % 10)));
+                }
+            }
+        }
+        knowledgeGraph.importTriples(triples);
+    }
+
+    private static String term(Triple triple, int position) {
+        Node node = position == 0 ? triple.getSubject() : position == 2 ? triple.getObject() : null;
+        return (node != null ? node.getIdentifier() : triple.getPredicate().getIdentifier()).toLowerCase();
+    }
+
+    /**
+     * @return every match of a query, sorted by hand in an order.
+     */
+    private static List<String> sorted(TripleLiteral query, int orderIndex) {
+        final int[] positions = SORT_POSITIONS[orderIndex];
+        List<Triple> matches = new ArrayList<Triple>(knowledgeGraph.executeQuery(query));
+        Collections.sort(matches, new Comparator<Triple>() {
+            @Override
+            public int compare(Triple a, Triple b) {
+                for (int position : positions) {
+                    int comparison = term(a, position).compareTo(term(b, position));
+                    if (comparison != 0) {
+                        return comparison;
+                    }
+                }
+                return 0;
+            }
+        });
+        return identifiers(matches);
+    }
+
+    private static List<String> identifiers(List<Triple> triples) {
+        List<String> identifiers = new ArrayList<String>();
+        for (Triple triple : triples) {
+            identifiers.add(triple.getIdentifier());
+        }
+        return identifiers;
+    }
+
+    private static List<String> slice(List<String> all, int offset, int limit) {
+        int from = Math.min(offset, all.size());
+        return all.subList(from, Math.min(from + limit, all.size()));
+    }
+
+    private static TripleLiteral[] queries() {
+        return new TripleLiteral[] {
+            new TripleLiteral("?", "?", "?"),
+            new TripleLiteral("?", "contains_sensor", "?"),
+            new TripleLiteral("?", "has_status", "?"),
+            new TripleLiteral("op7:room2", "?", "?"),
+            new TripleLiteral("?", "?", "3"),
+            new TripleLiteral("op3", "contains_room/contains_sensor", "?")
+        };
+    }
+
+    private static void pagesAreSlicesOfSortedMatches() throws Exception {
+        int[][] pages = { { 0, 10 }, { 7, 13 }, { 50, 25 }, { 0, 1000 }, { 119, 3 }, { 5000, 10 }, { 3, 0 } };
+        for (TripleLiteral query : queries()) {
+            for (int o = 0; o < ORDERS.length; o++) {
+                List<String> all = sorted(query, o);
+                for (int[] page : pages) {
+                    List<String> found = identifiers(knowledgeGraph.executeQuery(query, ORDERS[o], page[0], page[1]));
+                    if (!found.equals(slice(all, page[0], page[1]))) {
+                        throwError();
+                    }
+                }
+            }
+        }
+    }
+
+    private static void unorderedPagesCoverMatchesOnce() throws Exception {
+        TripleLiteral query = new TripleLiteral("?", "contains_sensor", "?");
+        List<String> seen = new ArrayList<String>();
+        for (int offset = 0; ; offset += 17) {
+            List<Triple> page = knowledgeGraph.executeQuery(query, KnowledgeGraph.UNORDERED, offset, 17);
+            if (page.isEmpty()) {
+                break;
+            }
+            seen.addAll(identifiers(page));
+        }
+        Set<String> all = new HashSet<String>(identifiers(new ArrayList<Triple>(knowledgeGraph.executeQuery(query))));
+        if (seen.size() != all.size() || !new HashSet<String>(seen).equals(all)) {
+            throwError();
+        }
+    }
+
+    private static void pagesFollowChanges() throws Exception {
+        TripleLiteral query = new TripleLiteral("?", "contains_room", "?");
+        knowledgeGraph.importTriple(new Node("OP0"), "contains_room", new Node("op0:room0"));
+        knowledgeGraph.deleteTriple(new Node("op1"), "contains_room", new Node("op1:room0"));
+        List<String> first = identifiers(knowledgeGraph.executeQuery(query, KnowledgeGraph.ORDER_BY_SUBJECT, 0, 4));
+        if (!first.equals(Arrays.asList("OP0 contains_room op0:room0", "op1 contains_room op1:room1",
+                "op1 contains_room op1:room2", "op1 contains_room op1:room3"))) {
+            throwError();
+        }
+    }
+
+    private static void invalidPagesAreRefused() throws Exception {
+        int[][] invalid = { { 99, 0, 10 }, { KnowledgeGraph.UNORDERED - 1, 0, 10 }, { KnowledgeGraph.ORDER_BY_OBJECT, -1, 10 },
+                { KnowledgeGraph.ORDER_BY_OBJECT, 0, -1 } };
+        for (int[] page : invalid) {
+            try {
+                knowledgeGraph.executeQuery(new TripleLiteral("?", "?", "?"), page[0], page[1], page[2]);
+                throwError();
+            } catch (IllegalArgumentException e) {
+                /** Expected. */
+            }
+        }
+    }
+
+    private static String print(String query) throws Exception {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        PrintStream standardOut = System.out;
+        System.setOut(new PrintStream(output, true, "UTF-8"));
+        try {
+            queryEngine.executeQuery(query);
+        } finally {
+            System.setOut(standardOut);
+        }
+        return output.toString("UTF-8");
+    }
+
+    private static void queryEnginePrintsPages() throws Exception {
+        List<String> all = sorted(new TripleLiteral("?", "has_status", "?"), 2);
+        String[] clauses = { "ORDER BY object LIMIT 5 OFFSET 10", "offset 10 limit 5 order by OBJECT.", "LIMIT 5 ORDER BY object OFFSET 10" };
+        for (String clause : clauses) {
+            String[] lines = print("? has_status ?. " + clause).split(LINE_SEPARATOR);
+            List<String> page = new ArrayList<String>();
+            for (int i = 1; i < lines.length; i++) {
+                page.add(lines[i].substring(0, lines[i].length() - 1));
+            }
+            if (!page.equals(slice(all, 10, 5))) {
+                throwError();
+            }
+        }
+    }
+
+    private static void malformedClausesAreRefused() throws Exception {
+        String[] queries = { "? has_status ?. ORDER BY room", "? has_status ?. LIMIT -1", "? has_status ?. LIMIT 5 LIMIT 6",
+                "? has_status ?. OFFSET", "?r contains_sensor ?s. ORDER BY subject" };
+        for (String query : queries) {
+            try {
+                print(query);
+                throwError();
+            } catch (QueryEngineException e) {
+                /** Expected. */
+            }
+        }
+    }
+}
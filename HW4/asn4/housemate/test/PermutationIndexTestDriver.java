@@ -0,0 +1,183 @@
+package cscie97.asn4.housemate.test;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import cscie97.asn4.knowledge.engine.KnowledgeGraph;
+import cscie97.asn4.knowledge.engine.Node;
+import cscie97.asn4.knowledge.engine.Triple;
+import cscie97.asn4.knowledge.engine.TripleLiteral;
+
+/**
+ * Tests of the permutation indexes of the KnowledgeGraph: after random imports and deletes, every
+ * shape of pattern returns exactly the triples a brute-force search of the stored triples finds,
+ * including patterns over buckets large enough to be split into many chunks.
+ *
+ * @author Gerald Trotman
+ * @version 1.0
+ */
+public class PermutationIndexTestDriver {
+
+    private static final KnowledgeGraph knowledgeGraph = KnowledgeGraph.getInstance();
+    private static final int NODES = 40;
+    private static final int PREDICATES = 4;
+    /** The triples stored, as "subject predicate object", to search by brute force. */
+    private static final Set<String> stored = new HashSet<String>();
+
+    /**
+     * Runs the tests and prints whether they all passed.
+     * @param args not used.
+     */
+    public static void main(String[] args) throws Exception {
+        System.out.println("\n\nRUNNING PERMUTATION INDEX TESTS:");
+        try {
+            Random random = new Random(7);
+            for (int round = 0; round < 5; round++) {
+                changeAtRandom(random, 2000);
+                patternsMatchBruteForce();
+            }
+            largeBucketsMatchBruteForce();
+            deletesFromLargeBucketsMatchBruteForce();
+        } catch (Exception e) {
+            System.out.println("TESTS FAILED: " + e.getMessage());
+            System.exit(1);
+        }
+        System.out.println("\nTESTS ALL PASSED!");
+    }
+
+    private static void throwError() throws Exception {
+        throw new Exception(Thread.currentThread().getStackTrace()[2].getMethodName());
+    }
+
+    private static String node(int i) {
+        return "pi:node" + i;
+    }
+
+    private static String predicate(int i) {
+        return "pi_rel" + i;
+    }
+
+    private static void add(String subject, String predicate, String object) {
+        knowledgeGraph.importTriple(new Node(subject), predicate, new Node(object));
+        stored.add(subject + " " + predicate + " " + object);
+    }
+
+    private static void delete(String subject, String predicate, String object) {
+        knowledgeGraph.deleteTriple(new Node(subject), predicate, new Node(object));
+        stored.remove(subject + " " + predicate + " " + object);
+    }
+
+    /**
+     * Imports or deletes random triples over a small vocabulary, so that terms repeat often and
+     * deletes hit stored triples as often as missing ones.
+     */
+    private static void changeAtRandom(Random random, int changes) {
+        for (int i = 0; i < changes; i++) {
+            String subject = node(random.nextInt(NODES));
+            String predicate = predicate(random.nextInt(PREDICATES));
+            String object = node(random.nextInt(NODES));
+            if (random.nextInt(3) == 0) {
+                delete(subject, predicate, object);
+            } else {
+                add(subject, predicate, object);
+            }
+        }
+    }
+
+    private static Set<String> query(String subject, String predicate, String object) {
+        Set<String> matches = new HashSet<String>();
+        for (Triple triple : knowledgeGraph.executeQuery(new TripleLiteral(subject, predicate, object))) {
+            matches.add(triple.getIdentifier());
+        }
+        return matches;
+    }
+
+    private static Set<String> bruteForce(String subject, String predicate, String object) {
+        Set<String> matches = new HashSet<String>();
+        for (String triple : stored) {
+            String[] terms = triple.split(" ");
+            if ((subject.equals("?") || subject.equals(terms[0])) && (predicate.equals("?") || predicate.equals(terms[1]))
+                    && (object.equals("?") || object.equals(terms[2]))) {
+                matches.add(triple);
+            }
+        }
+        return matches;
+    }
+
+    /**
+     * @return the patterns of every shape over some of the terms in use.
+     */
+    private static List<String[]> patterns() {
+        List<String[]> patterns = new ArrayList<String[]>();
+        String[] subjects = { "?", node(0), node(7), node(NODES - 1) };
+        String[] predicates = { "?", predicate(0), predicate(PREDICATES - 1) };
+        String[] objects = { "?", node(3), node(7) };
+        for (String subject : subjects) {
+            for (String predicate : predicates) {
+                for (String object : objects) {
+                    patterns.add(new String[] { subject, predicate, object });
+                }
+            }
+        }
+        return patterns;
+    }
+
+    private static void patternsMatchBruteForce() throws Exception {
+        for (String[] pattern : patterns()) {
+            if (!query(pattern[0], pattern[1], pattern[2]).equals(bruteForce(pattern[0], pattern[1], pattern[2]))) {
+                throwError();
+            }
+            Set<String> objects = new HashSet<String>();
+            for (Node node : knowledgeGraph.getObjectsFromQuery(new TripleLiteral(pattern[0], pattern[1], pattern[2]))) {
+                objects.add(node.getIdentifier());
+            }
+            Set<String> expected = new HashSet<String>();
+            for (String triple : bruteForce(pattern[0], pattern[1], pattern[2])) {
+                expected.add(triple.split(" ")[2]);
+            }
+            if (!objects.equals(expected)) {
+                throwError();
+            }
+        }
+    }
+
+    /**
+     * Gives one subject, one predicate and one object thousands of triples each, imported in an
+     * order that is not sorted, so that their buckets are split.
+     */
+    private static void largeBucketsMatchBruteForce() throws Exception {
+        List<TripleLiteral> triples = new ArrayList<TripleLiteral>();
+        for (int i = 0; i < 5000; i++) {
+            int scrambled = (i * 7919) % 5000;
+            triples.add(new TripleLiteral("pi:hub", "pi_links", "pi:leaf" + scrambled));
+            triples.add(new TripleLiteral("pi:leaf" + scrambled, "pi_points_to", "pi:sink"));
+            stored.add("pi:hub pi_links pi:leaf" + scrambled);
+            stored.add("pi:leaf" + scrambled + " pi_points_to pi:sink");
+        }
+        knowledgeGraph.importTriples(triples);
+        String[][] patterns = {
+            { "pi:hub", "?", "?" }, { "pi:hub", "pi_links", "?" }, { "pi:hub", "pi_links", "pi:leaf4999" },
+            { "?", "pi_links", "?" }, { "?", "pi_points_to", "pi:sink" }, { "?", "?", "pi:sink" }, { "pi:leaf2500", "?", "?" }
+        };
+        for (String[] pattern : patterns) {
+            if (!query(pattern[0], pattern[1], pattern[2]).equals(bruteForce(pattern[0], pattern[1], pattern[2]))) {
+                throwError();
+            }
+        }
+    }
+
+    private static void deletesFromLargeBucketsMatchBruteForce() throws Exception {
+        for (int i = 0; i < 5000; i += 3) {
+            delete("pi:hub", "pi_links", "pi:leaf" + i);
+            delete("pi:leaf" + (4999 - i), "pi_points_to", "pi:sink");
+        }
+        if (query("pi:hub", "pi_links", "?").size() != 3333 || !query("pi:hub", "?", "?").equals(bruteForce("pi:hub", "?", "?"))
+                || !query("?", "?", "pi:sink").equals(bruteForce("?", "?", "pi:sink"))) {
+            throwError();
+        }
+        patternsMatchBruteForce();
+    }
+}
@@ -0,0 +1,171 @@
+package cscie97.asn4.housemate.test;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+
+import cscie97.asn4.knowledge.engine.KnowledgeGraph;
+import cscie97.asn4.knowledge.engine.Node;
+import cscie97.asn4.knowledge.engine.Triple;
+import cscie97.asn4.knowledge.engine.TripleLiteral;
+
+/**
+ * Tests of the property path queries of the KnowledgeGraph: sequences, alternatives and
+ * repetitions reach the nodes they describe, cycles end, the reached nodes follow changes to the
+ * triples along the path, and paths that are not well formed are refused.
+ *
+ * @author Gerald Trotman
+ * @version 1.0
+ */
+public class PropertyPathTestDriver {
+
+    private static final KnowledgeGraph knowledgeGraph = KnowledgeGraph.getInstance();
+
+    /**
+     * Runs the tests and prints whether they all passed.
+     * @param args not used.
+     */
+    public static void main(String[] args) throws Exception {
+        System.out.println("\n\nRUNNING PROPERTY PATH TESTS:");
+        try {
+            loadHouse();
+            sequenceReachesSensors();
+            repetitionFollowsChains();
+            cycleEnds();
+            alternativeAndOptionalSteps();
+            boundObjectAndWildcardSubject();
+            reachedNodesFollowChanges();
+            malformedPathIsRefused();
+        } catch (Exception e) {
+            System.out.println("TESTS FAILED: " + e.getMessage());
+            System.exit(1);
+        }
+        System.out.println("\nTESTS ALL PASSED!");
+    }
+
+    private static void throwError() throws Exception {
+        throw new Exception(Thread.currentThread().getStackTrace()[2].getMethodName());
+    }
+
+    private static void add(String subject, String predicate, String object) {
+        knowledgeGraph.importTriple(new Node(subject), predicate, new Node(object));
+    }
+
+    /**
+     * Loads a house of two floors of two rooms with two sensors each, and a chain of areas, each
+     * part of the next, ending in a cycle.
+     */
+    private static void loadHouse() {
+        for (int f = 0; f < 2; f++) {
+            String floor = "pp1:floor" + f;
+            add("pp1", "contains_floor", floor);
+            for (int r = 0; r < 2; r++) {
+                String room = floor + ":room" + r;
+                add(floor, "contains_room", room);
+                for (int s = 0; s < 2; s++) {
+                    add(room, "contains_sensor", room + ":sensor" + s);
+                }
+            }
+        }
+        add("pp1:floor0:room0", "contains_appliance", "pp1:floor0:room0:oven");
+        add("pp:area0", "part_of", "pp:area1");
+        add("pp:area1", "part_of", "pp:area2");
+        add("pp:area2", "part_of", "pp:area3");
+        add("pp:loop0", "part_of", "pp:loop1");
+        add("pp:loop1", "part_of", "pp:loop2");
+        add("pp:loop2", "part_of", "pp:loop0");
+    }
+
+    private static Set<String> reached(String subject, String path) {
+        Set<String> objects = new HashSet<String>();
+        for (Triple triple : knowledgeGraph.executeQuery(new TripleLiteral(subject, path, "?"))) {
+            objects.add(triple.getObject().getIdentifier());
+        }
+        return objects;
+    }
+
+    private static Set<String> set(String... identifiers) {
+        return new HashSet<String>(Arrays.asList(identifiers));
+    }
+
+    private static void sequenceReachesSensors() throws Exception {
+        Set<String> sensors = reached("pp1", "contains_floor/contains_room/contains_sensor");
+        if (sensors.size() != 8 || !sensors.contains("pp1:floor1:room0:sensor1")) {
+            throwError();
+        }
+        if (!reached("pp1:floor0", "contains_room/contains_sensor").equals(set("pp1:floor0:room0:sensor0",
+                "pp1:floor0:room0:sensor1", "pp1:floor0:room1:sensor0", "pp1:floor0:room1:sensor1"))) {
+            throwError();
+        }
+    }
+
+    private static void repetitionFollowsChains() throws Exception {
+        if (!reached("pp:area0", "part_of+").equals(set("pp:area1", "pp:area2", "pp:area3"))
+                || !reached("pp:area0", "part_of*").equals(set("pp:area0", "pp:area1", "pp:area2", "pp:area3"))
+                || !reached("pp:area3", "part_of+").isEmpty()) {
+            throwError();
+        }
+        if (reached("pp1", "(contains_floor|contains_room|contains_sensor)+").size() != 2 + 4 + 8) {
+            throwError();
+        }
+    }
+
+    private static void cycleEnds() throws Exception {
+        if (!reached("pp:loop1", "part_of+").equals(set("pp:loop0", "pp:loop1", "pp:loop2"))) {
+            throwError();
+        }
+    }
+
+    private static void alternativeAndOptionalSteps() throws Exception {
+        if (!reached("pp1:floor0:room0", "contains_sensor|contains_appliance").equals(set("pp1:floor0:room0:sensor0",
+                "pp1:floor0:room0:sensor1", "pp1:floor0:room0:oven"))) {
+            throwError();
+        }
+        if (!reached("pp:area0", "part_of/part_of?").equals(set("pp:area1", "pp:area2"))) {
+            throwError();
+        }
+    }
+
+    private static void boundObjectAndWildcardSubject() throws Exception {
+        if (!knowledgeGraph.ask(new TripleLiteral("pp:area0", "part_of+", "pp:area3"))
+                || knowledgeGraph.ask(new TripleLiteral("pp:area3", "part_of+", "pp:area0"))) {
+            throwError();
+        }
+        Set<String> subjects = new HashSet<String>();
+        for (Triple triple : knowledgeGraph.executeQuery(new TripleLiteral("?", "part_of+", "pp:area3"))) {
+            subjects.add(triple.getSubject().getIdentifier());
+        }
+        if (!subjects.equals(set("pp:area0", "pp:area1", "pp:area2"))
+                || knowledgeGraph.countMatches(new TripleLiteral("?", "contains_room/contains_sensor", "?")) != 8) {
+            throwError();
+        }
+    }
+
+    private static void reachedNodesFollowChanges() throws Exception {
+        String path = "contains_floor/contains_room/contains_sensor";
+        reached("pp1", path);
+        add("pp1:floor1:room1", "contains_sensor", "pp1:floor1:room1:sensor2");
+        knowledgeGraph.deleteTriple(new Node("pp1:floor0"), "contains_room", new Node("pp1:floor0:room1"));
+        Set<String> sensors = reached("pp1", path);
+        if (sensors.size() != 8 - 2 + 1 || !sensors.contains("pp1:floor1:room1:sensor2")
+                || sensors.contains("pp1:floor0:room1:sensor0")) {
+            throwError();
+        }
+        add("pp:area3", "part_of", "pp:area4");
+        if (!reached("pp:area0", "part_of+").contains("pp:area4")) {
+            throwError();
+        }
+    }
+
+    private static void malformedPathIsRefused() throws Exception {
+        String[] paths = { "(part_of/part_of", "part_of/", "|part_of", "part_of)+" };
+        for (String path : paths) {
+            try {
+                knowledgeGraph.executeQuery(new TripleLiteral("pp:area0", path, "?"));
+                throwError();
+            } catch (IllegalArgumentException e) {
+                /** Expected. */
+            }
+        }
+    }
+}
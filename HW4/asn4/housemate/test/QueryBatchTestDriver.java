@@ -0,0 +1,174 @@
+package cscie97.asn4.housemate.test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.OutputStreamWriter;
+import java.io.PrintStream;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
+
+import cscie97.asn4.housemate.exception.QueryEngineException;
+import cscie97.asn4.knowledge.engine.KnowledgeGraph;
+import cscie97.asn4.knowledge.engine.Node;
+import cscie97.asn4.knowledge.engine.QueryEngine;
+
+/**
+ * Tests of the batch query execution of the QueryEngine: a file run with executeQueryBatch prints
+ * exactly what executeQueryFile prints for it, in the order of the file, and an invalid query is
+ * reported at the same line after the same output.
+ *
+ * @author Gerald Trotman
+ * @version 1.0
+ */
+public class QueryBatchTestDriver {
+
+    private static final KnowledgeGraph knowledgeGraph = KnowledgeGraph.getInstance();
+    private static final QueryEngine queryEngine = new QueryEngine();
+    private static final int HOUSES = 10;
+
+    /**
+     * Runs the tests and prints whether they all passed.
+     * @param args not used.
+     */
+    public static void main(String[] args) throws Exception {
+        System.out.println("\n\nRUNNING QUERY BATCH TESTS:");
+        try {
+            loadHouses();
+            batchPrintsWhatTheFilePrints();
+            largeBatchKeepsFileOrder();
+            invalidQueryIsReportedAtItsLine();
+            missingFileIsReported();
+        } catch (Exception e) {
+            System.out.println("TESTS FAILED: " + e.getMessage());
+            System.exit(1);
+        }
+        System.out.println("\nTESTS ALL PASSED!");
+    }
+
+    private static void throwError() throws Exception {
+        throw new Exception(Thread.currentThread().getStackTrace()[2].getMethodName());
+    }
+
+    private static void add(String subject, String predicate, String object) {
+        knowledgeGraph.importTriple(new Node(subject), predicate, new Node(object));
+    }
+
+    private static void loadHouses() {
+        for (int h = 0; h < HOUSES; h++) {
+            String house = "qb" + h;
+            for (int r = 0; r < 3; r++) {
+                String room = house + ":room" + r;
+                add(house, "contains_room", room);
+                for (int s = 0; s < 3; s++) {
+                    String sensor = room + ":sensor" + s;
+                    add(room, "contains_sensor", sensor);
+                    add(sensor, "has_status", (h + s) % 2 == 0 ? "on" : "off");
+                }
+            }
+        }
+    }
+
+    private static File writeFile(List<String> lines) throws Exception {
+        File file = File.createTempFile("queries", ".txt");
+        file.deleteOnExit();
+        Writer writer = new OutputStreamWriter(new FileOutputStream(file), "UTF-8");
+        try {
+            for (String line : lines) {
+                writer.write(line + "\n");
+            }
+        } finally {
+            writer.close();
+        }
+        return file;
+    }
+
+    /**
+     * Runs a file of queries and returns what it printed, followed by the line of the error if there was one.
+     */
+    private static String run(File file, boolean batch) throws Exception {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        PrintStream standardOut = System.out;
+        System.setOut(new PrintStream(output, true, "UTF-8"));
+        String error = "";
+        try {
+            if (batch) {
+                queryEngine.executeQueryBatch(file.getPath());
+            } else {
+                queryEngine.executeQueryFile(file.getPath());
+            }
+        } catch (QueryEngineException e) {
+            error = "error at line " + e.getLineIndexWhereFailed();
+        } finally {
+            System.out.flush();
+            System.setOut(standardOut);
+        }
+        return output.toString("UTF-8") + error;
+    }
+
+    private static void batchPrintsWhatTheFilePrints() throws Exception {
+        List<String> lines = new ArrayList<String>();
+        lines.add("qb1 contains_room ?.");
+        lines.add("");
+        lines.add("? has_status on. ORDER BY subject LIMIT 5");
+        lines.add("COUNT ? has_status off.");
+        lines.add("ASK qb2:room1 contains_sensor qb2:room1:sensor2.");
+        lines.add("qb1 contains_room ?r. ?r contains_sensor ?s.");
+        lines.add("qb1 contains_room ?.");
+        lines.add("qb_unknown contains_room ?.");
+        File file = writeFile(lines);
+        String expected = run(file, false);
+        if (expected.isEmpty() || expected.contains("error") || !run(file, true).equals(expected)) {
+            throwError();
+        }
+    }
+
+    private static void largeBatchKeepsFileOrder() throws Exception {
+        List<String> lines = new ArrayList<String>();
+        for (int i = 0; i < 2000; i++) {
+            int h = (i * 7) % HOUSES;
+            switch (i % 4) {
+                case 0:
+                    lines.add("qb" + h + ":room" + (i % 3) + " contains_sensor ?.");
+                    break;
+                case 1:
+                    lines.add("COUNT qb" + h + " contains_room ?r. ?r contains_sensor ?s.");
+                    break;
+                case 2:
+                    lines.add("qb" + h + ":room0:sensor" + (i % 3) + " has_status ?.");
+                    break;
+                default:
+                    lines.add("ASK qb" + h + ":room2:sensor1 has_status on.");
+                    break;
+            }
+        }
+        File file = writeFile(lines);
+        String expected = run(file, false);
+        if (expected.contains("error") || !run(file, true).equals(expected)) {
+            throwError();
+        }
+    }
+
+    private static void invalidQueryIsReportedAtItsLine() throws Exception {
+        List<String> lines = new ArrayList<String>();
+        for (int i = 0; i < 100; i++) {
+            lines.add("qb" + (i % HOUSES) + " contains_room ?.");
+        }
+        lines.set(60, "qb1 contains_room");
+        File file = writeFile(lines);
+        String expected = run(file, false);
+        if (!expected.endsWith("error at line 61") || !run(file, true).equals(expected)) {
+            throwError();
+        }
+    }
+
+    private static void missingFileIsReported() throws Exception {
+        try {
+            queryEngine.executeQueryBatch("qb_missing_queries.txt");
+            throwError();
+        } catch (QueryEngineException e) {
+            /** Expected. */
+        }
+    }
+}
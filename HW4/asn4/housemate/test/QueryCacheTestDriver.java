@@ -0,0 +1,211 @@
+package cscie97.asn4.housemate.test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import cscie97.asn4.knowledge.engine.KnowledgeGraph;
+import cscie97.asn4.knowledge.engine.Node;
+import cscie97.asn4.knowledge.engine.Triple;
+import cscie97.asn4.knowledge.engine.TripleLiteral;
+
+/**
+ * Tests of the query result cache of the KnowledgeGraph: a repeated query is answered from the
+ * cache, a change removes only the results it could affect, readers filling the cache while
+ * writers commit leave no stale result behind, and a cache that is full or turned off still
+ * answers every query correctly.
+ *
+ * @author Gerald Trotman
+ * @version 1.0
+ */
+public class QueryCacheTestDriver {
+
+    private static final KnowledgeGraph knowledgeGraph = KnowledgeGraph.getInstance();
+
+    /**
+     * Runs the tests and prints whether they all passed.
+     * @param args not used.
+     */
+    public static void main(String[] args) throws Exception {
+        System.out.println("\n\nRUNNING QUERY CACHE TESTS:");
+        try {
+            loadHouse();
+            repeatedQueryIsAHit();
+            changeInvalidatesOnlyMatchingResults();
+            concurrentReadersCacheNoStaleResults();
+            fullCacheEvicts();
+            cacheCanBeTurnedOff();
+            negativeCapacityIsRefused();
+        } catch (Exception e) {
+            System.out.println("TESTS FAILED: " + e.getMessage());
+            System.exit(1);
+        }
+        System.out.println("\nTESTS ALL PASSED!");
+    }
+
+    private static void throwError() throws Exception {
+        throw new Exception(Thread.currentThread().getStackTrace()[2].getMethodName());
+    }
+
+    private static void add(String subject, String predicate, String object) {
+        knowledgeGraph.importTriple(new Node(subject), predicate, new Node(object));
+    }
+
+    private static void loadHouse() {
+        for (int r = 0; r < 3; r++) {
+            String room = "qc1:room" + r;
+            add("qc1", "contains_room", room);
+            for (int s = 0; s < 4; s++) {
+                String sensor = room + ":sensor" + s;
+                add(room, "contains_sensor", sensor);
+                add(sensor, "has_status", "off");
+            }
+        }
+    }
+
+    private static Set<Triple> query(String subject, String predicate, String object) {
+        return knowledgeGraph.executeQuery(new TripleLiteral(subject, predicate, object));
+    }
+
+    private static void repeatedQueryIsAHit() throws Exception {
+        long misses = knowledgeGraph.getQueryCacheMisses();
+        Set<Triple> first = query("qc1:room1", "contains_sensor", "?");
+        long hits = knowledgeGraph.getQueryCacheHits();
+        Set<Triple> second = query("qc1:room1", "contains_sensor", "?");
+        if (knowledgeGraph.getQueryCacheMisses() != misses + 1 || knowledgeGraph.getQueryCacheHits() != hits + 1
+                || first.size() != 4 || !second.equals(first)) {
+            throwError();
+        }
+    }
+
+    private static void changeInvalidatesOnlyMatchingResults() throws Exception {
+        query("qc1:room0:sensor1", "has_status", "?");
+        query("qc1:room2", "contains_sensor", "?");
+        long invalidations = knowledgeGraph.getQueryCacheInvalidations();
+        knowledgeGraph.replaceTriple(new Node("qc1:room0:sensor1"), "has_status", new Node("off"), new Node("on"));
+        if (knowledgeGraph.getQueryCacheInvalidations() <= invalidations) {
+            throwError();
+        }
+        long hits = knowledgeGraph.getQueryCacheHits();
+        long misses = knowledgeGraph.getQueryCacheMisses();
+        if (query("qc1:room2", "contains_sensor", "?").size() != 4 || knowledgeGraph.getQueryCacheHits() != hits + 1) {
+            throwError();
+        }
+        Set<Triple> status = query("qc1:room0:sensor1", "has_status", "?");
+        if (knowledgeGraph.getQueryCacheMisses() != misses + 1 || status.size() != 1
+                || !status.iterator().next().getObject().getIdentifier().equals("on")) {
+            throwError();
+        }
+    }
+
+    private static int value(Set<Triple> matches) {
+        return matches.size() != 1 ? -1 : Integer.parseInt(matches.iterator().next().getObject().getIdentifier());
+    }
+
+    /**
+     * Writers count the value of each sensor up while readers query them. A reader that is given a
+     * result stored from an older version sees a value go down.
+     */
+    private static void concurrentReadersCacheNoStaleResults() throws Exception {
+        final int sensors = 4;
+        final int counts = 3000;
+        final AtomicBoolean writing = new AtomicBoolean(true);
+        final AtomicBoolean stale = new AtomicBoolean(false);
+        for (int s = 0; s < sensors; s++) {
+            add("qc2:sensor" + s, "has_value", "0");
+        }
+        List<Thread> readers = new ArrayList<Thread>();
+        for (int r = 0; r < 4; r++) {
+            readers.add(new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    int[] seen = new int[sensors];
+                    while (writing.get()) {
+                        for (int s = 0; s < sensors; s++) {
+                            int value = value(query("qc2:sensor" + s, "has_value", "?"));
+                            if (value < seen[s]) {
+                                stale.set(true);
+                            }
+                            seen[s] = value;
+                        }
+                    }
+                }
+            }));
+        }
+        List<Thread> writers = new ArrayList<Thread>();
+        for (int s = 0; s < sensors; s++) {
+            final Node sensor = new Node("qc2:sensor" + s);
+            writers.add(new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    for (int i = 0; i < counts; i++) {
+                        knowledgeGraph.replaceTriple(sensor, "has_value", new Node(String.valueOf(i)), new Node(String.valueOf(i + 1)));
+                    }
+                }
+            }));
+        }
+        for (Thread reader : readers) {
+            reader.start();
+        }
+        for (Thread writer : writers) {
+            writer.start();
+        }
+        for (Thread writer : writers) {
+            writer.join();
+        }
+        writing.set(false);
+        for (Thread reader : readers) {
+            reader.join();
+        }
+        if (stale.get()) {
+            throwError();
+        }
+        for (int round = 0; round < 2; round++) {
+            for (int s = 0; s < sensors; s++) {
+                if (value(query("qc2:sensor" + s, "has_value", "?")) != counts) {
+                    throwError();
+                }
+            }
+        }
+    }
+
+    private static void fullCacheEvicts() throws Exception {
+        knowledgeGraph.setQueryCacheCapacity(2);
+        long evictions = knowledgeGraph.getQueryCacheEvictions();
+        for (int round = 0; round < 2; round++) {
+            for (int r = 0; r < 3; r++) {
+                if (query("qc1:room" + r, "contains_sensor", "?").size() != 4) {
+                    throwError();
+                }
+            }
+        }
+        if (knowledgeGraph.getQueryCacheEvictions() <= evictions) {
+            throwError();
+        }
+    }
+
+    private static void cacheCanBeTurnedOff() throws Exception {
+        knowledgeGraph.setQueryCacheCapacity(0);
+        long hits = knowledgeGraph.getQueryCacheHits();
+        query("qc1", "contains_room", "?");
+        if (query("qc1", "contains_room", "?").size() != 3 || knowledgeGraph.getQueryCacheHits() != hits) {
+            throwError();
+        }
+        knowledgeGraph.setQueryCacheCapacity(1024);
+        query("qc1", "contains_room", "?");
+        query("qc1", "contains_room", "?");
+        if (knowledgeGraph.getQueryCacheHits() != hits + 1) {
+            throwError();
+        }
+    }
+
+    private static void negativeCapacityIsRefused() throws Exception {
+        try {
+            knowledgeGraph.setQueryCacheCapacity(-1);
+            throwError();
+        } catch (IllegalArgumentException e) {
+            /** Expected. */
+        }
+    }
+}
@@ -0,0 +1,137 @@
+package cscie97.asn4.housemate.test;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * The triple store the KnowledgeGraph used before its terms were dictionary encoded, kept so that
+ * the benchmarks can measure the encoded store against it. Each triple is a Triple object with its
+ * identifier, indexed under the lower cased key of each of the eight patterns that match it.
+ *
+ * @author Gerald Trotman
+ * @version 1.0
+ */
+public class QueryMapSetGraph {
+
+    private final Map<String, Term> nodeMap = new HashMap<String, Term>();
+    private final Map<String, Term> predicateMap = new HashMap<String, Term>();
+    private final Map<String, Triple> tripleMap = new HashMap<String, Triple>();
+    private final Map<String, Set<Triple>> queryMapSet = new HashMap<String, Set<Triple>>();
+
+    /**
+     * Imports a triple, unless it is already stored.
+     * @param subject the identifier of the subject.
+     * @param predicate the identifier of the predicate.
+     * @param object the identifier of the object.
+     */
+    public void importTriple(String subject, String predicate, String object) {
+        Triple triple = new Triple(getTerm(nodeMap, subject), getTerm(predicateMap, predicate), getTerm(nodeMap, object));
+        String key = triple.identifier.toLowerCase(Locale.ROOT);
+        if (tripleMap.containsKey(key)) {
+            return;
+        }
+        String s = triple.subject.identifier;
+        String p = triple.predicate.identifier;
+        String o = triple.object.identifier;
+        pushToMapSet(triple.identifier, triple);
+        pushToMapSet(s + " " + p + " ?", triple);
+        pushToMapSet(s + " ? " + o, triple);
+        pushToMapSet(s + " ? ?", triple);
+        pushToMapSet("? " + p + " " + o, triple);
+        pushToMapSet("? " + p + " ?", triple);
+        pushToMapSet("? ? " + o, triple);
+        pushToMapSet("? ? ?", triple);
+        tripleMap.put(key, triple);
+    }
+
+    /**
+     * @param query the pattern, such as "? has_status on".
+     * @return the identifiers of the subjects of the triples that match the pattern.
+     */
+    public Set<String> getSubjects(String query) {
+        Set<String> subjects = new HashSet<String>();
+        for (Triple triple : getTriples(query)) {
+            subjects.add(triple.subject.identifier);
+        }
+        return subjects;
+    }
+
+    /**
+     * @param query the pattern, such as "house1:room0 contains_sensor ?".
+     * @return the identifiers of the objects of the triples that match the pattern.
+     */
+    public Set<String> getObjects(String query) {
+        Set<String> objects = new HashSet<String>();
+        for (Triple triple : getTriples(query)) {
+            objects.add(triple.object.identifier);
+        }
+        return objects;
+    }
+
+    /**
+     * @param query the pattern, such as "? has_status on".
+     * @return the number of triples that match the pattern.
+     */
+    public int count(String query) {
+        return getTriples(query).size();
+    }
+
+    private Set<Triple> getTriples(String query) {
+        Set<Triple> triples = queryMapSet.get(query.toLowerCase(Locale.ROOT));
+        return triples == null ? Collections.<Triple>emptySet() : triples;
+    }
+
+    private static Term getTerm(Map<String, Term> terms, String identifier) {
+        String key = identifier.toLowerCase(Locale.ROOT);
+        Term term = terms.get(key);
+        if (term == null) {
+            term = new Term(identifier);
+            terms.put(key, term);
+        }
+        return term;
+    }
+
+    private void pushToMapSet(String identifier, Triple triple) {
+        String key = identifier.toLowerCase(Locale.ROOT);
+        Set<Triple> triples = queryMapSet.get(key);
+        if (triples == null) {
+            triples = new HashSet<Triple>();
+            queryMapSet.put(key, triples);
+        }
+        triples.add(triple);
+    }
+
+    /**
+     * A Node or Predicate as it was stored: just its identifier.
+     */
+    private static final class Term {
+
+        private final String identifier;
+
+        Term(String identifier) {
+            this.identifier = identifier;
+        }
+    }
+
+    /**
+     * A Triple as it was stored: its terms and its identifier.
+     */
+    private static final class Triple {
+
+        private final String identifier;
+        private final Term subject;
+        private final Term predicate;
+        private final Term object;
+
+        Triple(Term subject, Term predicate, Term object) {
+            this.subject = subject;
+            this.predicate = predicate;
+            this.object = object;
+            identifier = subject.identifier + " " + predicate.identifier + " " + object.identifier;
+        }
+    }
+}
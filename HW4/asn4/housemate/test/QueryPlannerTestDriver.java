@@ -0,0 +1,135 @@
+package cscie97.asn4.housemate.test;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import cscie97.asn4.knowledge.engine.BindingTable;
+import cscie97.asn4.knowledge.engine.KnowledgeGraph;
+import cscie97.asn4.knowledge.engine.Node;
+import cscie97.asn4.knowledge.engine.TripleLiteral;
+
+/**
+ * Tests of the cost-based join planner of the KnowledgeGraph: the most selective pattern is read
+ * first whatever order the patterns are written in, the order does not change the solutions, and
+ * EXPLAIN reports the predicate statistics as they are after changes.
+ *
+ * @author Gerald Trotman
+ * @version 1.0
+ */
+public class QueryPlannerTestDriver {
+
+    private static final KnowledgeGraph knowledgeGraph = KnowledgeGraph.getInstance();
+    private static final int HOUSES = 50;
+
+    /**
+     * Runs the tests and prints whether they all passed.
+     * @param args not used.
+     */
+    public static void main(String[] args) throws Exception {
+        System.out.println("\n\nRUNNING QUERY PLANNER TESTS:");
+        try {
+            loadHouses();
+            selectivePatternIsReadFirst();
+            patternOrderDoesNotChangeSolutions();
+            scanEstimateIsExact();
+            statisticsFollowChanges();
+        } catch (Exception e) {
+            System.out.println("TESTS FAILED: " + e.getMessage());
+            System.exit(1);
+        }
+        System.out.println("\nTESTS ALL PASSED!");
+    }
+
+    private static void throwError() throws Exception {
+        throw new Exception(Thread.currentThread().getStackTrace()[2].getMethodName());
+    }
+
+    private static void loadHouses() {
+        List<TripleLiteral> triples = new ArrayList<TripleLiteral>();
+        for (int h = 0; h < HOUSES; h++) {
+            String house = "qp" + h;
+            for (int r = 0; r < 4; r++) {
+                String room = house + ":room" + r;
+                triples.add(new TripleLiteral(house, "qp_contains_room", room));
+                for (int s = 0; s < 5; s++) {
+                    String sensor = room + ":sensor" + s;
+                    triples.add(new TripleLiteral(room, "qp_contains_sensor", sensor));
+                    triples.add(new TripleLiteral(sensor, "qp_is_a", s == 0 ? "smoke_detector" : "thermostat"));
+                }
+            }
+        }
+        knowledgeGraph.importTriples(triples);
+    }
+
+    private static List<TripleLiteral> patterns(String... texts) {
+        List<TripleLiteral> patterns = new ArrayList<TripleLiteral>();
+        for (String text : texts) {
+            String[] terms = text.split(" ");
+            patterns.add(new TripleLiteral(terms[0], terms[1], terms[2]));
+        }
+        return patterns;
+    }
+
+    private static Set<String> rows(BindingTable table) {
+        Set<String> rows = new HashSet<String>();
+        for (int row = 0; row < table.size(); row++) {
+            rows.add((table.getValue(row, "?r") + " " + table.getValue(row, "?s")).toLowerCase());
+        }
+        return rows;
+    }
+
+    private static void selectivePatternIsReadFirst() throws Exception {
+        List<String> plan = knowledgeGraph.explainQuery(
+                patterns("?s qp_is_a thermostat", "?r qp_contains_sensor ?s", "qp7 qp_contains_room ?r"));
+        if (!plan.get(0).startsWith("1. scan qp7 qp_contains_room ?r")) {
+            throwError();
+        }
+    }
+
+    private static void patternOrderDoesNotChangeSolutions() throws Exception {
+        String[] texts = { "qp7 qp_contains_room ?r", "?r qp_contains_sensor ?s", "?s qp_is_a smoke_detector" };
+        Set<String> expected = rows(knowledgeGraph.executeQuery(patterns(texts[0], texts[1], texts[2])));
+        if (expected.size() != 4) {
+            throwError();
+        }
+        int[][] orders = { { 0, 2, 1 }, { 1, 0, 2 }, { 1, 2, 0 }, { 2, 0, 1 }, { 2, 1, 0 } };
+        for (int[] order : orders) {
+            if (!rows(knowledgeGraph.executeQuery(patterns(texts[order[0]], texts[order[1]], texts[order[2]]))).equals(expected)) {
+                throwError();
+            }
+        }
+    }
+
+    private static void scanEstimateIsExact() throws Exception {
+        List<String> plan = knowledgeGraph.explainQuery(patterns("?s qp_is_a smoke_detector", "?r qp_contains_sensor ?s"));
+        String expected = "estimated " + HOUSES * 4 + " rows, actual " + HOUSES * 4 + " rows";
+        if (!plan.get(0).startsWith("1. scan ?s qp_is_a smoke_detector") || !plan.get(0).endsWith(expected)) {
+            throwError();
+        }
+    }
+
+    private static void statisticsFollowChanges() throws Exception {
+        String before = "statistics qp_contains_room: " + HOUSES * 4 + " triples, " + HOUSES + " distinct subjects";
+        if (!hasLine(knowledgeGraph.explainQuery(patterns("?h qp_contains_room ?r")), before)) {
+            throwError();
+        }
+        knowledgeGraph.deleteTriple(new Node("qp0"), "qp_contains_room", new Node("qp0:room0"));
+        knowledgeGraph.importTriple(new Node("qp_new"), "qp_contains_room", new Node("qp_new:room0"));
+        knowledgeGraph.importTriple(new Node("qp_new"), "qp_contains_room", new Node("qp_new:room1"));
+        String after = "statistics qp_contains_room: " + (HOUSES * 4 + 1) + " triples, " + (HOUSES + 1) + " distinct subjects";
+        if (!hasLine(knowledgeGraph.explainQuery(patterns("?h qp_contains_room ?r")), after)) {
+            throwError();
+        }
+    }
+
+    private static boolean hasLine(List<String> lines, String prefix) {
+        for (String line : lines) {
+            if (line.startsWith(prefix)) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
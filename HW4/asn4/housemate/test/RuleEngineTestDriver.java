@@ -0,0 +1,130 @@
+package cscie97.asn4.housemate.test;
+
+import java.util.Arrays;
+
+import cscie97.asn4.knowledge.engine.KnowledgeGraph;
+import cscie97.asn4.knowledge.engine.Node;
+import cscie97.asn4.knowledge.engine.Rule;
+import cscie97.asn4.knowledge.engine.TripleLiteral;
+
+/**
+ * Tests of the forward-chaining rules of the KnowledgeGraph: inferred triples follow their
+ * support, and asserted triples are never retracted by a rule.
+ *
+ * @author Gerald Trotman
+ * @version 1.0
+ */
+public class RuleEngineTestDriver {
+
+    private static final KnowledgeGraph knowledgeGraph = KnowledgeGraph.getInstance();
+
+    /**
+     * Runs the tests and prints whether they all passed.
+     * @param args not used.
+     */
+    public static void main(String[] args) throws Exception {
+        System.out.println("\n\nRUNNING RULE ENGINE TESTS:");
+        try {
+            inferredTripleIsRetracted();
+            assertedTripleIsNotRetracted();
+            assertingAnInferredTripleKeepsIt();
+            removingARuleRetractsOnlyInferences();
+        } catch (Exception e) {
+            System.out.println("TESTS FAILED: " + e.getMessage());
+            System.exit(1);
+        }
+        System.out.println("\nTESTS ALL PASSED!");
+    }
+
+    private static void throwError() throws Exception {
+        throw new Exception(Thread.currentThread().getStackTrace()[2].getMethodName());
+    }
+
+    /**
+     * @return a rule that infers a room is occupied from a motion sensor in it that reads true.
+     */
+    private static Rule occupancyRule(String house) {
+        return new Rule(house + "_occupancy",
+                Arrays.asList(new TripleLiteral("?m", house + "_value", "true"), new TripleLiteral("?m", house + "_in", "?r")),
+                Arrays.asList(new TripleLiteral("?r", house + "_occupied", "true")));
+    }
+
+    private static void add(String subject, String predicate, String object) {
+        knowledgeGraph.importTriple(new Node(subject), predicate, new Node(object));
+    }
+
+    private static int count(String subject, String predicate, String object) {
+        return knowledgeGraph.countMatches(new TripleLiteral(subject, predicate, object));
+    }
+
+    private static void inferredTripleIsRetracted() throws Exception {
+        Rule rule = occupancyRule("rt1");
+        knowledgeGraph.addRule(rule);
+        try {
+            add("rt1:m1", "rt1_in", "rt1:room1");
+            add("rt1:m1", "rt1_value", "true");
+            if (count("rt1:room1", "rt1_occupied", "true") != 1) {
+                throwError();
+            }
+            knowledgeGraph.deleteTriple(new Node("rt1:m1"), "rt1_value", new Node("true"));
+            if (count("rt1:room1", "rt1_occupied", "true") != 0) {
+                throwError();
+            }
+        } finally {
+            knowledgeGraph.removeRule(rule);
+        }
+    }
+
+    private static void assertedTripleIsNotRetracted() throws Exception {
+        add("rt2:room1", "rt2_occupied", "true");
+        Rule rule = occupancyRule("rt2");
+        knowledgeGraph.addRule(rule);
+        try {
+            add("rt2:m1", "rt2_in", "rt2:room1");
+            add("rt2:m1", "rt2_value", "true");
+            knowledgeGraph.deleteTriple(new Node("rt2:m1"), "rt2_value", new Node("true"));
+            if (count("rt2:room1", "rt2_occupied", "true") != 1) {
+                throwError();
+            }
+        } finally {
+            knowledgeGraph.removeRule(rule);
+        }
+        if (count("rt2:room1", "rt2_occupied", "true") != 1) {
+            throwError();
+        }
+    }
+
+    private static void assertingAnInferredTripleKeepsIt() throws Exception {
+        Rule rule = occupancyRule("rt3");
+        knowledgeGraph.addRule(rule);
+        try {
+            add("rt3:m1", "rt3_in", "rt3:room1");
+            add("rt3:m1", "rt3_value", "true");
+            /** The user now states what the rule already inferred. */
+            add("rt3:room1", "rt3_occupied", "true");
+            knowledgeGraph.deleteTriple(new Node("rt3:m1"), "rt3_value", new Node("true"));
+            if (count("rt3:room1", "rt3_occupied", "true") != 1) {
+                throwError();
+            }
+        } finally {
+            knowledgeGraph.removeRule(rule);
+        }
+    }
+
+    private static void removingARuleRetractsOnlyInferences() throws Exception {
+        add("rt4:room1", "rt4_occupied", "true");
+        add("rt4:m1", "rt4_in", "rt4:room1");
+        add("rt4:m1", "rt4_value", "true");
+        add("rt4:m2", "rt4_in", "rt4:room2");
+        add("rt4:m2", "rt4_value", "true");
+        Rule rule = occupancyRule("rt4");
+        knowledgeGraph.addRule(rule);
+        if (count("?", "rt4_occupied", "true") != 2) {
+            throwError();
+        }
+        knowledgeGraph.removeRule(rule);
+        if (count("rt4:room1", "rt4_occupied", "true") != 1 || count("rt4:room2", "rt4_occupied", "true") != 0) {
+            throwError();
+        }
+    }
+}
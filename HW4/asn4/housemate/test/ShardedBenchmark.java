@@ -0,0 +1,154 @@
+package cscie97.asn4.housemate.test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import cscie97.asn4.knowledge.engine.Node;
+import cscie97.asn4.knowledge.engine.ShardedKnowledgeGraph;
+import cscie97.asn4.knowledge.engine.TripleLiteral;
+
+/**
+ * Benchmark of the throughput of a ShardedKnowledgeGraph against the number of threads and of
+ * shards, on a mix of dashboard reads and sensor updates.
+ *
+ * @author Gerald Trotman
+ * @version 1.0
+ */
+public class ShardedBenchmark {
+
+    private static final int[] SHARD_COUNTS = { 1, 4, 16 };
+    private static final int[] THREAD_COUNTS = { 1, 2, 4, 8, 16, 32 };
+    private static final int ROOMS = 4;
+    private static final int SENSORS = 5;
+    /** One read in this many counts the sensors that are on across the fleet, visiting every shard. */
+    private static final int FLEET_READS = 50;
+
+    /**
+     * Loads the same fleet of houses into graphs of 1, 4 and 16 shards, runs the mix on each with
+     * 1, 2, 4, 8, 16 and 32 threads, and prints the operations done per second. A read looks up
+     * the status of a sensor or the sensors of a room, which one shard answers, or now and then
+     * counts the sensors that are on in the whole fleet; a write changes the status of a sensor.
+     * Each thread writes only its own share of the sensors. Command-line arguments should be:
+     * <ol>
+     *      <li>the number of houses</li>
+     *      <li>the percentage of operations that are reads</li>
+     *      <li>the number of milliseconds each thread count is run for</li>
+     * </ol>
+     * @param args the number of houses, the read percentage and the run time.
+     */
+    public static void main(String[] args) throws Exception {
+        if (args.length != 3) {
+            System.out.println("Arguments to ShardedBenchmark should be the number of houses, the read percentage and the milliseconds per run");
+            System.exit(1);
+        }
+        int houses = Integer.parseInt(args[0]);
+        int readPercentage = Integer.parseInt(args[1]);
+        long millis = Long.parseLong(args[2]);
+        List<TripleLiteral> fleet = createFleet(houses);
+        Node[] sensors = new Node[houses * ROOMS * SENSORS];
+        for (int i = 0; i < sensors.length; i++) {
+            sensors[i] = new Node(getSensor(i));
+        }
+
+        long[][] throughput = new long[SHARD_COUNTS.length][THREAD_COUNTS.length];
+        for (int s = 0; s < SHARD_COUNTS.length; s++) {
+            ShardedKnowledgeGraph graph = new ShardedKnowledgeGraph(SHARD_COUNTS[s]);
+            graph.importTriples(fleet);
+            /** Warm up the JIT before measuring. */
+            run(graph, sensors, 1, readPercentage, millis);
+            for (int t = 0; t < THREAD_COUNTS.length; t++) {
+                throughput[s][t] = run(graph, sensors, THREAD_COUNTS[t], readPercentage, millis) * 1000 / millis;
+            }
+        }
+
+        System.out.println("processors " + Runtime.getRuntime().availableProcessors() + ", " + readPercentage + "% reads, operations per second");
+        StringBuilder header = new StringBuilder("threads");
+        for (int shards : SHARD_COUNTS) {
+            header.append(String.format("  %10s", shards + " shards"));
+        }
+        System.out.println(header);
+        for (int t = 0; t < THREAD_COUNTS.length; t++) {
+            StringBuilder row = new StringBuilder(String.format("%7d", THREAD_COUNTS[t]));
+            for (int s = 0; s < SHARD_COUNTS.length; s++) {
+                row.append(String.format("  %10d", throughput[s][t]));
+            }
+            System.out.println(row);
+        }
+    }
+
+    /**
+     * Runs the mix on a number of threads for a time.
+     * @return the number of operations done.
+     */
+    private static long run(final ShardedKnowledgeGraph graph, final Node[] sensors, final int threads, final int readPercentage,
+            long millis) throws InterruptedException {
+        final long deadline = System.nanoTime() + millis * 1000000L;
+        final long[] done = new long[threads];
+        Thread[] workers = new Thread[threads];
+        for (int t = 0; t < threads; t++) {
+            final int thread = t;
+            workers[t] = new Thread() {
+                @Override
+                public void run() {
+                    Random random = new Random(thread);
+                    Node on = new Node("on");
+                    Node off = new Node("off");
+                    int share = (sensors.length - thread + threads - 1) / threads;
+                    long operations = 0;
+                    while (System.nanoTime() < deadline) {
+                        if (random.nextInt(100) < readPercentage) {
+                            int sensor = random.nextInt(sensors.length);
+                            int kind = random.nextInt(FLEET_READS);
+                            if (kind == 0) {
+                                graph.countMatches(new TripleLiteral("?", "has_status", "on"));
+                            } else if (kind % 2 == 0) {
+                                graph.executeQuery(new TripleLiteral(getSensor(sensor), "has_status", "?"));
+                            } else {
+                                graph.executeQuery(new TripleLiteral(getRoom(sensor), "contains_sensor", "?"));
+                            }
+                            operations++;
+                        } else if (share > 0) {
+                            Node sensor = sensors[random.nextInt(share) * threads + thread];
+                            boolean isOn = graph.ask(new TripleLiteral(sensor.getIdentifier(), "has_status", "on"));
+                            graph.replaceTriple(sensor, "has_status", isOn ? on : off, isOn ? off : on);
+                            operations++;
+                        }
+                    }
+                    done[thread] = operations;
+                }
+            };
+            workers[t].start();
+        }
+        long total = 0;
+        for (int t = 0; t < threads; t++) {
+            workers[t].join();
+            total += done[t];
+        }
+        return total;
+    }
+
+    private static String getSensor(int index) {
+        return getRoom(index) + ":sensor" + index % SENSORS;
+    }
+
+    private static String getRoom(int index) {
+        return "house" + index / (ROOMS * SENSORS) + ":room" + index / SENSORS % ROOMS;
+    }
+
+    /**
+     * @return the triples of a fleet of houses, each with rooms of sensors that are on or off.
+     */
+    private static List<TripleLiteral> createFleet(int houses) {
+        Random random = new Random(1);
+        List<TripleLiteral> fleet = new ArrayList<TripleLiteral>();
+        for (int i = 0; i < houses * ROOMS * SENSORS; i++) {
+            if (i % SENSORS == 0) {
+                fleet.add(new TripleLiteral("house" + i / (ROOMS * SENSORS), "contains_room", getRoom(i)));
+            }
+            fleet.add(new TripleLiteral(getRoom(i), "contains_sensor", getSensor(i)));
+            fleet.add(new TripleLiteral(getSensor(i), "has_status", random.nextBoolean() ? "on" : "off"));
+        }
+        return fleet;
+    }
+}
@@ -0,0 +1,193 @@
+package cscie97.asn4.housemate.test;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import cscie97.asn4.knowledge.engine.BindingTable;
+import cscie97.asn4.knowledge.engine.KnowledgeGraph;
+import cscie97.asn4.knowledge.engine.Node;
+import cscie97.asn4.knowledge.engine.ShardedKnowledgeGraph;
+import cscie97.asn4.knowledge.engine.Triple;
+import cscie97.asn4.knowledge.engine.TripleLiteral;
+
+/**
+ * Tests of the ShardedKnowledgeGraph: with the same triples loaded, it answers every shape of
+ * query, ordered pages, counts and joins across houses exactly as one KnowledgeGraph does, and a
+ * deleted node is removed from every shard.
+ *
+ * @author Gerald Trotman
+ * @version 1.0
+ */
+public class ShardedGraphTestDriver {
+
+    private static final KnowledgeGraph knowledgeGraph = KnowledgeGraph.getInstance();
+    private static final ShardedKnowledgeGraph shardedGraph = new ShardedKnowledgeGraph(4);
+    private static final int HOUSES = 40;
+
+    /**
+     * Runs the tests and prints whether they all passed.
+     * @param args not used.
+     */
+    public static void main(String[] args) throws Exception {
+        System.out.println("\n\nRUNNING SHARDED GRAPH TESTS:");
+        try {
+            loadHouses();
+            singlePatternsMatchOneGraph();
+            orderedPagesMatchOneGraph();
+            houseIsRoutedIgnoringCase();
+            joinsAcrossHousesMatchOneGraph();
+            deletedNodeIsRemovedFromEveryShard();
+            noShardsIsRefused();
+        } catch (Exception e) {
+            System.out.println("TESTS FAILED: " + e.getMessage());
+            System.exit(1);
+        }
+        System.out.println("\nTESTS ALL PASSED!");
+    }
+
+    private static void throwError() throws Exception {
+        throw new Exception(Thread.currentThread().getStackTrace()[2].getMethodName());
+    }
+
+    /**
+     * Loads houses into both graphs, with an occupant in each house who is also a guest of the
+     * next house, so that some triples link houses in different shards.
+     */
+    private static void loadHouses() {
+        List<TripleLiteral> triples = new ArrayList<TripleLiteral>();
+        for (int h = 0; h < HOUSES; h++) {
+            String house = "sh" + h;
+            for (int r = 0; r < 3; r++) {
+                String room = house + ":room" + r;
+                triples.add(new TripleLiteral(house, "contains_room", room));
+                for (int s = 0; s < 3; s++) {
+                    String sensor = room + ":sensor" + s;
+                    triples.add(new TripleLiteral(room, "contains_sensor", sensor));
+                    triples.add(new TripleLiteral(sensor, "has_status", (h + r + s) % 2 == 0 ? "on" : "off"));
+                }
+            }
+            triples.add(new TripleLiteral(house, "contains_occupant", house + ":occupant"));
+            triples.add(new TripleLiteral(house + ":occupant", "is_guest_of", "sh" + (h + 1) % HOUSES));
+        }
+        knowledgeGraph.importTriples(triples);
+        shardedGraph.importTriples(triples);
+    }
+
+    private static List<TripleLiteral> patterns(String... texts) {
+        List<TripleLiteral> patterns = new ArrayList<TripleLiteral>();
+        for (String text : texts) {
+            String[] terms = text.split(" ");
+            patterns.add(new TripleLiteral(terms[0], terms[1], terms[2]));
+        }
+        return patterns;
+    }
+
+    private static Set<String> identifiers(Iterable<Triple> triples) {
+        Set<String> identifiers = new HashSet<String>();
+        for (Triple triple : triples) {
+            identifiers.add(triple.getIdentifier());
+        }
+        return identifiers;
+    }
+
+    private static List<String> orderedIdentifiers(List<Triple> triples) {
+        List<String> identifiers = new ArrayList<String>();
+        for (Triple triple : triples) {
+            identifiers.add(triple.getIdentifier());
+        }
+        return identifiers;
+    }
+
+    private static Set<String> rows(BindingTable table, String... variables) {
+        Set<String> rows = new HashSet<String>();
+        for (int row = 0; row < table.size(); row++) {
+            StringBuilder values = new StringBuilder();
+            for (String variable : variables) {
+                values.append(table.getValue(row, variable).toLowerCase()).append(' ');
+            }
+            rows.add(values.toString().trim());
+        }
+        return rows;
+    }
+
+    private static void singlePatternsMatchOneGraph() throws Exception {
+        String[] subjects = { "sh7:room1:sensor2", "sh7", "?" };
+        String[] predicates = { "has_status", "contains_room", "?" };
+        String[] objects = { "on", "sh8", "?" };
+        for (String subject : subjects) {
+            for (String predicate : predicates) {
+                for (String object : objects) {
+                    TripleLiteral query = new TripleLiteral(subject, predicate, object);
+                    Set<String> expected = identifiers(knowledgeGraph.executeQuery(query));
+                    if (!identifiers(shardedGraph.executeQuery(query)).equals(expected)
+                            || shardedGraph.countMatches(query) != expected.size()) {
+                        throwError();
+                    }
+                }
+            }
+        }
+    }
+
+    private static void orderedPagesMatchOneGraph() throws Exception {
+        TripleLiteral query = new TripleLiteral("?", "has_status", "?");
+        int[] orders = { KnowledgeGraph.ORDER_BY_SUBJECT, KnowledgeGraph.ORDER_BY_PREDICATE, KnowledgeGraph.ORDER_BY_OBJECT };
+        for (int order : orders) {
+            for (int offset = 0; offset < 300; offset += 97) {
+                List<String> expected = orderedIdentifiers(knowledgeGraph.executeQuery(query, order, offset, 25));
+                if (expected.isEmpty() || !orderedIdentifiers(shardedGraph.executeQuery(query, order, offset, 25)).equals(expected)) {
+                    throwError();
+                }
+            }
+        }
+    }
+
+    private static void houseIsRoutedIgnoringCase() throws Exception {
+        shardedGraph.importTriple(new Node("SH3:Attic"), "contains_sensor", new Node("SH3:Attic:Sensor0"));
+        if (!shardedGraph.ask(new TripleLiteral("sh3:attic", "contains_sensor", "?"))
+                || !shardedGraph.ask(patterns("Sh3 contains_room ?r", "sh3:ATTIC contains_sensor ?s"))) {
+            throwError();
+        }
+        shardedGraph.deleteTriple(new Node("sh3:ATTIC"), "contains_sensor", new Node("sh3:attic:sensor0"));
+        if (shardedGraph.ask(new TripleLiteral("SH3:attic", "?", "?"))) {
+            throwError();
+        }
+    }
+
+    private static void joinsAcrossHousesMatchOneGraph() throws Exception {
+        List<List<TripleLiteral>> queries = new ArrayList<List<TripleLiteral>>();
+        queries.add(patterns("?h contains_occupant ?o", "?o is_guest_of ?g", "?g contains_room ?r"));
+        queries.add(patterns("?o is_guest_of ?g", "?g contains_room ?r", "?r contains_sensor ?s", "?s has_status on"));
+        queries.add(patterns("sh5:occupant is_guest_of ?g", "?g contains_room ?r"));
+        for (List<TripleLiteral> query : queries) {
+            BindingTable expected = knowledgeGraph.executeQuery(query);
+            String[] variables = expected.getVariables().toArray(new String[0]);
+            if (expected.size() == 0 || !rows(shardedGraph.executeQuery(query), variables).equals(rows(expected, variables))
+                    || shardedGraph.countMatches(query) != expected.size()) {
+                throwError();
+            }
+        }
+    }
+
+    private static void deletedNodeIsRemovedFromEveryShard() throws Exception {
+        /** sh9 is the subject of its house's triples, and the object of a triple of sh8, which is stored by sh8's shard. */
+        if (shardedGraph.deleteNode(new Node("sh9")) != knowledgeGraph.deleteNode(new Node("sh9"))
+                || shardedGraph.ask(new TripleLiteral("?", "?", "sh9")) || shardedGraph.ask(new TripleLiteral("sh9", "?", "?"))) {
+            throwError();
+        }
+        TripleLiteral query = new TripleLiteral("?", "is_guest_of", "?");
+        if (!identifiers(shardedGraph.executeQuery(query)).equals(identifiers(knowledgeGraph.executeQuery(query)))) {
+            throwError();
+        }
+    }
+
+    private static void noShardsIsRefused() throws Exception {
+        try {
+            new ShardedKnowledgeGraph(0);
+            throwError();
+        } catch (IllegalArgumentException e) {
+            /** Expected. */
+        }
+    }
+}
@@ -0,0 +1,260 @@
+package cscie97.asn4.housemate.test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import cscie97.asn4.knowledge.engine.KnowledgeGraph;
+import cscie97.asn4.knowledge.engine.Node;
+import cscie97.asn4.knowledge.engine.Subscription;
+import cscie97.asn4.knowledge.engine.Triple;
+import cscie97.asn4.knowledge.engine.TripleListener;
+import cscie97.asn4.knowledge.engine.TripleLiteral;
+
+/**
+ * Tests of the subscriptions of the KnowledgeGraph: a listener is told about exactly the inserts
+ * and deletes that match its pattern and house, in commit order, until it is cancelled, and a slow
+ * or failing listener holds up neither writers nor other listeners. A failing listener's exceptions
+ * are reported to the error handler.
+ *
+ * @author Gerald Trotman
+ * @version 1.0
+ */
+public class SubscriptionTestDriver {
+
+    private static final KnowledgeGraph knowledgeGraph = KnowledgeGraph.getInstance();
+    private static int fences = 0;
+
+    /**
+     * Runs the tests and prints whether they all passed.
+     * @param args not used.
+     */
+    public static void main(String[] args) throws Exception {
+        System.out.println("\n\nRUNNING SUBSCRIPTION TESTS:");
+        try {
+            matchingChangesAreDelivered();
+            replaceIsOneVersion();
+            houseScopesTheSubscription();
+            cancelStopsEvents();
+            failingListenerDoesNotStopOthers();
+            slowListenerDoesNotHoldUpWriters();
+            propertyPathIsRefused();
+        } catch (Exception e) {
+            System.out.println("TESTS FAILED: " + e.getMessage());
+            System.exit(1);
+        }
+        System.out.println("\nTESTS ALL PASSED!");
+    }
+
+    private static void throwError() throws Exception {
+        throw new Exception(Thread.currentThread().getStackTrace()[2].getMethodName());
+    }
+
+    private static void add(String subject, String predicate, String object) {
+        knowledgeGraph.importTriple(new Node(subject), predicate, new Node(object));
+    }
+
+    /**
+     * Records the events a listener is told about, as "+" or "-", the triple and its version.
+     */
+    private static final class Recorder implements TripleListener {
+
+        private final List<String> events = new ArrayList<String>();
+        private final List<Long> versions = new ArrayList<Long>();
+
+        @Override
+        public synchronized void tripleInserted(Triple triple, long version) {
+            events.add("+ " + triple.getIdentifier());
+            versions.add(version);
+        }
+
+        @Override
+        public synchronized void tripleDeleted(Triple triple, long version) {
+            events.add("- " + triple.getIdentifier());
+            versions.add(version);
+        }
+
+        synchronized List<String> getEvents() {
+            return new ArrayList<String>(events);
+        }
+
+        synchronized List<Long> getVersions() {
+            return new ArrayList<Long>(versions);
+        }
+    }
+
+    /**
+     * Waits until every event of the changes committed so far has been delivered. Events are
+     * delivered in commit order, so once a later change reaches its own listener, every earlier
+     * event has been delivered.
+     */
+    private static void awaitDelivery() throws Exception {
+        final CountDownLatch delivered = new CountDownLatch(1);
+        String fence = "sub:fence" + fences++;
+        Subscription subscription = knowledgeGraph.subscribe(new TripleLiteral(fence, "?", "?"), new TripleListener() {
+            @Override
+            public void tripleInserted(Triple triple, long version) {
+                delivered.countDown();
+            }
+
+            @Override
+            public void tripleDeleted(Triple triple, long version) {
+            }
+        });
+        add(fence, "is_a", "fence");
+        if (!delivered.await(10, TimeUnit.SECONDS)) {
+            throwError();
+        }
+        subscription.cancel();
+    }
+
+    private static void matchingChangesAreDelivered() throws Exception {
+        Recorder recorder = new Recorder();
+        Subscription subscription = knowledgeGraph.subscribe(new TripleLiteral("?", "sub_has_status", "?"), recorder);
+        add("sub1:sensor0", "sub_has_status", "on");
+        add("sub1:sensor0", "sub_is_a", "light");
+        add("sub1:sensor1", "sub_has_status", "off");
+        knowledgeGraph.deleteTriple(new Node("sub1:sensor0"), "sub_has_status", new Node("on"));
+        add("sub1:sensor1", "sub_has_status", "off");
+        awaitDelivery();
+        List<String> expected = Arrays.asList("+ sub1:sensor0 sub_has_status on", "+ sub1:sensor1 sub_has_status off",
+                "- sub1:sensor0 sub_has_status on");
+        if (!recorder.getEvents().equals(expected)) {
+            throwError();
+        }
+        List<Long> versions = recorder.getVersions();
+        if (!(versions.get(0) < versions.get(1) && versions.get(1) < versions.get(2)) || versions.get(2) > knowledgeGraph.getVersion()) {
+            throwError();
+        }
+        subscription.cancel();
+    }
+
+    private static void replaceIsOneVersion() throws Exception {
+        add("sub2:sensor0", "sub_has_status", "off");
+        Recorder recorder = new Recorder();
+        Subscription subscription = knowledgeGraph.subscribe(new TripleLiteral("sub2:sensor0", "?status", "?"), recorder);
+        knowledgeGraph.replaceTriple(new Node("sub2:sensor0"), "sub_has_status", new Node("off"), new Node("on"));
+        awaitDelivery();
+        List<Long> versions = recorder.getVersions();
+        if (!new HashSet<String>(recorder.getEvents()).equals(new HashSet<String>(Arrays.asList(
+                "- sub2:sensor0 sub_has_status off", "+ sub2:sensor0 sub_has_status on")))
+                || !versions.get(0).equals(versions.get(1))) {
+            throwError();
+        }
+        subscription.cancel();
+    }
+
+    private static void houseScopesTheSubscription() throws Exception {
+        Recorder recorder = new Recorder();
+        Subscription subscription = knowledgeGraph.subscribe(new TripleLiteral("?", "sub_has_value", "?"), "SUB3", recorder);
+        add("sub3:oven", "sub_has_value", "180");
+        add("sub4:oven", "sub_has_value", "200");
+        add("Sub3:Kitchen:Thermostat", "sub_has_value", "21");
+        add("sub30:oven", "sub_has_value", "160");
+        awaitDelivery();
+        if (!recorder.getEvents().equals(Arrays.asList("+ sub3:oven sub_has_value 180", "+ Sub3:Kitchen:Thermostat sub_has_value 21"))
+                || !subscription.getHouse().equals("SUB3")) {
+            throwError();
+        }
+        subscription.cancel();
+    }
+
+    private static void cancelStopsEvents() throws Exception {
+        Recorder recorder = new Recorder();
+        Subscription subscription = knowledgeGraph.subscribe(new TripleLiteral("sub5:door", "?", "?"), recorder);
+        add("sub5:door", "sub_is", "open");
+        awaitDelivery();
+        subscription.cancel();
+        add("sub5:door", "sub_is", "locked");
+        awaitDelivery();
+        if (!subscription.isCancelled() || !recorder.getEvents().equals(Arrays.asList("+ sub5:door sub_is open"))) {
+            throwError();
+        }
+        subscription.cancel();
+    }
+
+    private static void failingListenerDoesNotStopOthers() throws Exception {
+        final List<Throwable> errors = new ArrayList<Throwable>();
+        knowledgeGraph.setListenerErrorHandler(new Thread.UncaughtExceptionHandler() {
+            @Override
+            public void uncaughtException(Thread thread, Throwable e) {
+                synchronized (errors) {
+                    errors.add(e);
+                }
+            }
+        });
+        Subscription failing = knowledgeGraph.subscribe(new TripleLiteral("sub6:door", "?", "?"), new TripleListener() {
+            @Override
+            public void tripleInserted(Triple triple, long version) {
+                throw new IllegalStateException("listener failed");
+            }
+
+            @Override
+            public void tripleDeleted(Triple triple, long version) {
+                throw new IllegalStateException("listener failed");
+            }
+        });
+        Recorder recorder = new Recorder();
+        Subscription subscription = knowledgeGraph.subscribe(new TripleLiteral("?", "?", "sub6:key"), recorder);
+        add("sub6:door", "sub_opened_by", "sub6:key");
+        add("sub6:window", "sub_opened_by", "sub6:key");
+        awaitDelivery();
+        if (recorder.getEvents().size() != 2) {
+            throwError();
+        }
+        synchronized (errors) {
+            if (errors.size() != 1 || !errors.get(0).getMessage().equals("listener failed")) {
+                throwError();
+            }
+        }
+        knowledgeGraph.setListenerErrorHandler(null);
+        failing.cancel();
+        subscription.cancel();
+    }
+
+    private static void slowListenerDoesNotHoldUpWriters() throws Exception {
+        final CountDownLatch release = new CountDownLatch(1);
+        Recorder recorder = new Recorder();
+        Subscription slow = knowledgeGraph.subscribe(new TripleLiteral("?", "sub_slow", "?"), new TripleListener() {
+            @Override
+            public void tripleInserted(Triple triple, long version) {
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+
+            @Override
+            public void tripleDeleted(Triple triple, long version) {
+            }
+        });
+        Subscription subscription = knowledgeGraph.subscribe(new TripleLiteral("?", "sub_slow", "?"), recorder);
+        /** The first event blocks the notification thread until the writes are done, so at most one reaches the recorder. */
+        for (int i = 0; i < 20; i++) {
+            add("sub7:sensor" + i, "sub_slow", "on");
+        }
+        if (recorder.getEvents().size() > 1) {
+            throwError();
+        }
+        release.countDown();
+        awaitDelivery();
+        if (recorder.getEvents().size() != 20) {
+            throwError();
+        }
+        slow.cancel();
+        subscription.cancel();
+    }
+
+    private static void propertyPathIsRefused() throws Exception {
+        try {
+            knowledgeGraph.subscribe(new TripleLiteral("?", "contains_room/contains_sensor", "?"), new Recorder());
+            throwError();
+        } catch (IllegalArgumentException e) {
+            /** Expected. */
+        }
+    }
+}
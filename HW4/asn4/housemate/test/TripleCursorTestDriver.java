@@ -0,0 +1,168 @@
+package cscie97.asn4.housemate.test;
+
+import java.util.HashSet;
+import java.util.Set;
+
+import cscie97.asn4.knowledge.engine.KnowledgeGraph;
+import cscie97.asn4.knowledge.engine.Node;
+import cscie97.asn4.knowledge.engine.Predicate;
+import cscie97.asn4.knowledge.engine.Triple;
+import cscie97.asn4.knowledge.engine.TripleCursor;
+import cscie97.asn4.knowledge.engine.TripleLiteral;
+
+/**
+ * Tests of the lazily evaluated query results of the KnowledgeGraph: a TripleCursor returns the
+ * same matches as executeQuery for every shape of pattern, stops at its limit, and keeps reading the
+ * version it was opened on. The Triples decoded for results are equal to the imported ones.
+ *
+ * @author Gerald Trotman
+ * @version 1.0
+ */
+public class TripleCursorTestDriver {
+
+    private static final KnowledgeGraph knowledgeGraph = KnowledgeGraph.getInstance();
+
+    /**
+     * Runs the tests and prints whether they all passed.
+     * @param args not used.
+     */
+    public static void main(String[] args) throws Exception {
+        System.out.println("\n\nRUNNING TRIPLE CURSOR TESTS:");
+        try {
+            loadHouse();
+            cursorMatchesExecuteQuery();
+            limitStopsTheCursor();
+            cursorReadsTheVersionItWasOpenedOn();
+            unknownIdentifierHasNoMatches();
+            firstMatchIsFound();
+            resultsHoldEqualTriples();
+        } catch (Exception e) {
+            System.out.println("TESTS FAILED: " + e.getMessage());
+            System.exit(1);
+        }
+        System.out.println("\nTESTS ALL PASSED!");
+    }
+
+    private static void throwError() throws Exception {
+        throw new Exception(Thread.currentThread().getStackTrace()[2].getMethodName());
+    }
+
+    private static void add(String subject, String predicate, String object) {
+        knowledgeGraph.importTriple(new Node(subject), predicate, new Node(object));
+    }
+
+    private static void loadHouse() {
+        for (int r = 0; r < 3; r++) {
+            String room = "tc1:room" + r;
+            add("tc1", "contains_room", room);
+            for (int s = 0; s < 4; s++) {
+                String sensor = room + ":sensor" + s;
+                add(room, "contains_sensor", sensor);
+                add(sensor, "has_status", s % 2 == 0 ? "on" : "off");
+                add(sensor, "is_a", "light");
+            }
+        }
+    }
+
+    private static Set<String> drain(TripleCursor cursor) {
+        Set<String> matches = new HashSet<String>();
+        while (cursor.next()) {
+            matches.add(cursor.getTriple().getIdentifier());
+            if (!cursor.getTriple().getIdentifier().equals(cursor.getSubject().getIdentifier() + " "
+                    + cursor.getPredicate().getIdentifier() + " " + cursor.getObject().getIdentifier())) {
+                matches.add("mismatched getters");
+            }
+        }
+        return matches;
+    }
+
+    private static Set<String> query(TripleLiteral query) {
+        Set<String> matches = new HashSet<String>();
+        for (Triple triple : knowledgeGraph.executeQuery(query)) {
+            matches.add(triple.getIdentifier());
+        }
+        return matches;
+    }
+
+    private static void cursorMatchesExecuteQuery() throws Exception {
+        TripleLiteral[] queries = {
+            new TripleLiteral("tc1:room1:sensor2", "has_status", "on"),
+            new TripleLiteral("tc1:room1:sensor2", "has_status", "?"),
+            new TripleLiteral("tc1:room1:sensor2", "?", "?"),
+            new TripleLiteral("?", "has_status", "off"),
+            new TripleLiteral("?", "contains_sensor", "?"),
+            new TripleLiteral("tc1:room0", "?", "tc1:room0:sensor3"),
+            new TripleLiteral("?", "?", "tc1:room2"),
+            new TripleLiteral("?", "?", "?")
+        };
+        for (TripleLiteral query : queries) {
+            Set<String> expected = query(query);
+            if (expected.isEmpty() || !drain(knowledgeGraph.openCursor(query)).equals(expected)) {
+                throwError();
+            }
+        }
+    }
+
+    private static void limitStopsTheCursor() throws Exception {
+        TripleCursor cursor = knowledgeGraph.openCursor(new TripleLiteral("?", "is_a", "light")).limit(5);
+        if (drain(cursor).size() != 5 || cursor.next()) {
+            throwError();
+        }
+    }
+
+    private static void cursorReadsTheVersionItWasOpenedOn() throws Exception {
+        TripleCursor cursor = knowledgeGraph.openCursor(new TripleLiteral("?", "contains_sensor", "?"));
+        int before = query(new TripleLiteral("?", "contains_sensor", "?")).size();
+        if (!cursor.next()) {
+            throwError();
+        }
+        add("tc1:room1", "contains_sensor", "tc1:room1:sensor9");
+        add("tc1:room2", "contains_sensor", "tc1:room2:sensor9");
+        int seen = 1;
+        while (cursor.next()) {
+            seen++;
+        }
+        if (seen != before || query(new TripleLiteral("?", "contains_sensor", "?")).size() != before + 2) {
+            throwError();
+        }
+    }
+
+    private static void unknownIdentifierHasNoMatches() throws Exception {
+        if (knowledgeGraph.openCursor(new TripleLiteral("tc1:attic", "?", "?")).next()
+                || knowledgeGraph.openCursor(new TripleLiteral("?", "tc1_unknown_predicate", "?")).next()) {
+            throwError();
+        }
+    }
+
+    private static void firstMatchIsFound() throws Exception {
+        Triple first = knowledgeGraph.getFirstMatch(new TripleLiteral("tc1:room0:sensor1", "has_status", "?"));
+        if (first == null || !first.getObject().getIdentifier().equals("off")) {
+            throwError();
+        }
+        Node object = knowledgeGraph.getFirstObject(new TripleLiteral("tc1:room2:sensor0", "has_status", "?"));
+        if (object == null || !object.getIdentifier().equals("on")) {
+            throwError();
+        }
+        if (knowledgeGraph.getFirstMatch(new TripleLiteral("tc1:room0:sensor1", "is_a", "thermostat")) != null) {
+            throwError();
+        }
+    }
+
+    private static void resultsHoldEqualTriples() throws Exception {
+        Triple imported = knowledgeGraph.importTriple(new Node("tc2:Door"), "has_status", new Node("Open"));
+        Set<Triple> bySubject = knowledgeGraph.executeQuery(new TripleLiteral("tc2:door", "?", "?"));
+        Set<Triple> byObject = knowledgeGraph.executeQuery(new TripleLiteral("?", "has_status", "open"));
+        Triple otherCase = new Triple(new Node("TC2:DOOR"), new Predicate("HAS_STATUS"), new Node("open"));
+        if (!bySubject.contains(imported) || !byObject.contains(otherCase) || !imported.equals(otherCase)
+                || imported.hashCode() != otherCase.hashCode() || !new HashSet<Triple>(byObject).contains(imported)) {
+            throwError();
+        }
+        if (bySubject.contains(new Triple(new Node("tc2:door"), new Predicate("has_status"), new Node("closed")))) {
+            throwError();
+        }
+        TripleCursor cursor = knowledgeGraph.openCursor(new TripleLiteral("tc2:door", "has_status", "?"));
+        if (!cursor.next() || !cursor.getTriple().equals(imported) || cursor.next()) {
+            throwError();
+        }
+    }
+}
@@ -0,0 +1,157 @@
+package cscie97.asn4.housemate.test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.nio.file.Files;
+import java.util.Arrays;
+
+import cscie97.asn4.housemate.exception.KnowledgeException;
+import cscie97.asn4.knowledge.engine.KnowledgeGraph;
+import cscie97.asn4.knowledge.engine.Node;
+import cscie97.asn4.knowledge.engine.TripleLiteral;
+
+/**
+ * Tests of the binary TripleFile: a file saved by one process is opened by another and answers the
+ * same queries, changes are kept on top of the file without writing it, and files that are not
+ * TripleFiles are refused. Since a TripleFile is only opened into an empty graph, the file is
+ * saved by a second run of this driver.
+ *
+ * @author Gerald Trotman
+ * @version 1.0
+ */
+public class TripleFileTestDriver {
+
+    private static final KnowledgeGraph knowledgeGraph = KnowledgeGraph.getInstance();
+    private static final int HOUSES = 20;
+    private static final int ROOMS = 3;
+    private static final int SENSORS = 4;
+
+    /**
+     * Runs the tests and prints whether they all passed. Run with "save" and a filename, it only
+     * loads the houses the tests query and saves them to the file.
+     * @param args none, or "save" and the file to save.
+     */
+    public static void main(String[] args) throws Exception {
+        if (args.length == 2 && args[0].equals("save")) {
+            loadHouses();
+            knowledgeGraph.saveTripleFile(args[1]);
+            return;
+        }
+        System.out.println("\n\nRUNNING TRIPLE FILE TESTS:");
+        try {
+            File file = File.createTempFile("houses", ".kgt");
+            file.deleteOnExit();
+            runSaver(file);
+            fileThatIsNotATripleFileIsRefused();
+            openedFileAnswersQueries(file);
+            secondOpenIsRefused(file);
+            changesAreKeptOnTopOfTheFile(file);
+        } catch (Exception e) {
+            System.out.println("TESTS FAILED: " + e.getMessage());
+            System.exit(1);
+        }
+        System.out.println("\nTESTS ALL PASSED!");
+    }
+
+    private static void throwError() throws Exception {
+        throw new Exception(Thread.currentThread().getStackTrace()[2].getMethodName());
+    }
+
+    private static void add(String subject, String predicate, String object) {
+        knowledgeGraph.importTriple(new Node(subject), predicate, new Node(object));
+    }
+
+    private static void loadHouses() {
+        for (int h = 0; h < HOUSES; h++) {
+            String house = "TF" + h;
+            for (int r = 0; r < ROOMS; r++) {
+                String room = house + ":Room" + r;
+                add(house, "contains_room", room);
+                for (int s = 0; s < SENSORS; s++) {
+                    String sensor = room + ":Sensor" + s;
+                    add(room, "contains_sensor", sensor);
+                    add(sensor, "has_status", (h + r + s) % 2 == 0 ? "on" : "off");
+                }
+            }
+        }
+    }
+
+    private static void runSaver(File file) throws Exception {
+        String java = System.getProperty("java.home") + File.separator + "bin" + File.separator + "java";
+        Process saver = new ProcessBuilder(java, "-cp", System.getProperty("java.class.path"),
+                TripleFileTestDriver.class.getName(), "save", file.getPath()).inheritIO().start();
+        if (saver.waitFor() != 0 || file.length() == 0) {
+            throwError();
+        }
+    }
+
+    private static int count(String subject, String predicate, String object) {
+        return knowledgeGraph.countMatches(new TripleLiteral(subject, predicate, object));
+    }
+
+    private static void fileThatIsNotATripleFileIsRefused() throws Exception {
+        File file = File.createTempFile("garbage", ".kgt");
+        file.deleteOnExit();
+        FileOutputStream output = new FileOutputStream(file);
+        try {
+            output.write("house1:room1 contains_sensor house1:room1:sensor1.\n".getBytes("UTF-8"));
+        } finally {
+            output.close();
+        }
+        try {
+            knowledgeGraph.openTripleFile(file.getPath());
+            throwError();
+        } catch (KnowledgeException e) {
+            /** Expected. */
+        }
+    }
+
+    private static void openedFileAnswersQueries(File file) throws Exception {
+        knowledgeGraph.openTripleFile(file.getPath());
+        int on = 0;
+        for (int h = 0; h < HOUSES; h++) {
+            for (int r = 0; r < ROOMS; r++) {
+                for (int s = 0; s < SENSORS; s++) {
+                    String status = (h + r + s) % 2 == 0 ? "on" : "off";
+                    if (!knowledgeGraph.ask(new TripleLiteral("tf" + h + ":room" + r + ":sensor" + s, "has_status", status))) {
+                        throwError();
+                    }
+                    on += status.equals("on") ? 1 : 0;
+                }
+            }
+        }
+        if (count("?", "?", "?") != HOUSES * ROOMS * (1 + 2 * SENSORS) || count("?", "contains_room", "?") != HOUSES * ROOMS
+                || count("?", "has_status", "on") != on) {
+            throwError();
+        }
+        /** Identifiers keep the case they were saved with, and are looked up in any case. */
+        if (!knowledgeGraph.getExistingNodeById("tf3:room1:sensor2").getIdentifier().equals("TF3:Room1:Sensor2")) {
+            throwError();
+        }
+    }
+
+    private static void secondOpenIsRefused(File file) throws Exception {
+        try {
+            knowledgeGraph.openTripleFile(file.getPath());
+            throwError();
+        } catch (KnowledgeException e) {
+            /** Expected. */
+        }
+    }
+
+    private static void changesAreKeptOnTopOfTheFile(File file) throws Exception {
+        byte[] before = Files.readAllBytes(file.toPath());
+        int triples = count("?", "?", "?");
+        add("tf0:room0:sensor9", "has_status", "on");
+        add("tf_new", "contains_room", "tf_new:room0");
+        knowledgeGraph.deleteTriple(new Node("tf1"), "contains_room", new Node("tf1:room2"));
+        knowledgeGraph.deleteNode(new Node("tf2:room0:sensor0"));
+        if (count("?", "?", "?") != triples + 2 - 1 - 2 || count("tf1", "contains_room", "?") != ROOMS - 1
+                || count("?", "?", "tf2:room0:sensor0") != 0 || count("tf_new", "contains_room", "tf_new:room0") != 1) {
+            throwError();
+        }
+        if (!Arrays.equals(before, Files.readAllBytes(file.toPath()))) {
+            throwError();
+        }
+    }
+}
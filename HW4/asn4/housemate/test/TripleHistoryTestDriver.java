@@ -0,0 +1,232 @@
+package cscie97.asn4.housemate.test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+
+import cscie97.asn4.housemate.model.HouseMateModelServiceAPI;
+import cscie97.asn4.knowledge.engine.KnowledgeGraph;
+import cscie97.asn4.knowledge.engine.Node;
+import cscie97.asn4.knowledge.engine.TemporalTriple;
+import cscie97.asn4.knowledge.engine.Triple;
+import cscie97.asn4.knowledge.engine.TripleLiteral;
+
+/**
+ * Tests of the history of the KnowledgeGraph: queries as of a time see the triples of a tracked
+ * predicate as they were then, the history of a triple has an interval for each time it held, and
+ * a store recovers the history with the triples. The history recovered is written by a second run
+ * of this driver, which stops without closing its store.
+ *
+ * @author Gerald Trotman
+ * @version 1.0
+ */
+public class TripleHistoryTestDriver {
+
+    private static final KnowledgeGraph knowledgeGraph = KnowledgeGraph.getInstance();
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+    private static final int STEPS = 6;
+
+    /**
+     * Runs the tests and prints whether they all passed. Run with "write" and a directory, it only
+     * records the history the tests recover to a store in the directory, writes the times of its
+     * steps to a file there, and stops without closing the store.
+     * @param args none, or "write" and the directory of the store.
+     */
+    public static void main(String[] args) throws Exception {
+        if (args.length == 2 && args[0].equals("write")) {
+            knowledgeGraph.openStore(args[1]);
+            long[] times = record("thw", true);
+            List<String> lines = new ArrayList<String>();
+            for (long time : times) {
+                lines.add(String.valueOf(time));
+            }
+            Files.write(new File(args[1], "times.txt").toPath(), lines, UTF8);
+            Runtime.getRuntime().halt(0);
+        }
+        System.out.println("\n\nRUNNING TRIPLE HISTORY TESTS:");
+        try {
+            untrackedPredicateIsRefused();
+            File directory = createDirectory();
+            runWriter(directory);
+            historyIsRecovered(directory);
+            historyIsKeptInMemory();
+            triplesHeldBeforeTrackingStartWhenTracked();
+            wildcardPredicateMatchesOnlyTrackedPredicates();
+            modelKeepsStatusHistoryOnlyWhenAsked();
+        } catch (Exception e) {
+            System.out.println("TESTS FAILED: " + e.getMessage());
+            System.exit(1);
+        }
+        System.out.println("\nTESTS ALL PASSED!");
+    }
+
+    private static void throwError() throws Exception {
+        throw new Exception(Thread.currentThread().getStackTrace()[2].getMethodName());
+    }
+
+    /**
+     * @return the status a sensor is switched to at a step: off before the first, then on and off in turn.
+     */
+    private static String statusAt(int step) {
+        return step % 2 == 1 ? "on" : "off";
+    }
+
+    /**
+     * Waits for the clock to move on, so that changes before and after are committed at different times.
+     * @return the time after the wait.
+     */
+    private static long tick() throws InterruptedException {
+        long start = System.currentTimeMillis();
+        while (System.currentTimeMillis() <= start + 1) {
+            Thread.sleep(1);
+        }
+        return System.currentTimeMillis();
+    }
+
+    /**
+     * Records a history: sensor0 is switched on and off at each step, and sensor1 is added at step
+     * 2 and removed at step 5. With a store, a checkpoint is taken after step 3, so recovery needs
+     * the snapshot and the log.
+     * @return the time after each step, with the time before the first at index 0.
+     */
+    private static long[] record(String prefix, boolean checkpoint) throws Exception {
+        Node sensor = new Node(prefix + ":sensor0");
+        knowledgeGraph.importTriple(sensor, "th_status", new Node(statusAt(0)));
+        knowledgeGraph.trackHistory("th_status");
+        long[] times = new long[STEPS + 1];
+        times[0] = tick();
+        for (int step = 1; step <= STEPS; step++) {
+            tick();
+            knowledgeGraph.replaceTriple(sensor, "th_status", new Node(statusAt(step - 1)), new Node(statusAt(step)));
+            if (step == 2) {
+                knowledgeGraph.importTriple(new Node(prefix + ":sensor1"), "th_status", new Node("on"));
+            } else if (step == 5) {
+                knowledgeGraph.deleteNode(new Node(prefix + ":sensor1"));
+            }
+            if (step == 3 && checkpoint) {
+                knowledgeGraph.checkpoint();
+            }
+            times[step] = tick();
+        }
+        return times;
+    }
+
+    /**
+     * Checks a history written by record against queries as of each step and the intervals of both sensors.
+     */
+    private static void checkHistory(String prefix, long[] times) throws Exception {
+        for (int step = 0; step <= STEPS; step++) {
+            Set<Triple> status = knowledgeGraph.executeQueryAsOf(new TripleLiteral(prefix + ":sensor0", "th_status", "?"), times[step]);
+            if (status.size() != 1 || !status.iterator().next().getObject().getIdentifier().equals(statusAt(step))) {
+                throwError();
+            }
+            boolean added = step >= 2 && step < 5;
+            if (knowledgeGraph.executeQueryAsOf(new TripleLiteral(prefix + ":sensor1", "th_status", "on"), times[step]).isEmpty() == added) {
+                throwError();
+            }
+        }
+        List<TemporalTriple> intervals = knowledgeGraph.executeQueryHistory(
+                new TripleLiteral(prefix + ":sensor0", "th_status", "?"), 0, Long.MAX_VALUE);
+        if (intervals.size() != STEPS + 1 || intervals.get(STEPS).getValidTo() != TemporalTriple.OPEN) {
+            throwError();
+        }
+        for (int i = 0; i < intervals.size(); i++) {
+            TemporalTriple interval = intervals.get(i);
+            if (!interval.getTriple().getObject().getIdentifier().equals(statusAt(i)) || !interval.isValidAt(times[i])
+                    || i > 0 && interval.getValidFrom() != intervals.get(i - 1).getValidTo()) {
+                throwError();
+            }
+        }
+        List<TemporalTriple> added = knowledgeGraph.executeQueryHistory(
+                new TripleLiteral(prefix + ":sensor1", "th_status", "?"), times[1], times[3]);
+        if (added.size() != 1 || added.get(0).isValidAt(times[1]) || !added.get(0).isValidAt(times[4])
+                || added.get(0).isValidAt(times[5])) {
+            throwError();
+        }
+    }
+
+    private static void untrackedPredicateIsRefused() throws Exception {
+        String[] predicates = { "th_untracked", "th_status/th_status" };
+        for (String predicate : predicates) {
+            try {
+                knowledgeGraph.executeQueryAsOf(new TripleLiteral("?", predicate, "?"), System.currentTimeMillis());
+                throwError();
+            } catch (IllegalArgumentException e) {
+                /** Expected. */
+            }
+        }
+    }
+
+    private static File createDirectory() throws IOException {
+        File directory = File.createTempFile("triplehistory", "");
+        if (!directory.delete() || !directory.mkdir()) {
+            throw new IOException("Cannot create " + directory);
+        }
+        return directory;
+    }
+
+    private static void runWriter(File directory) throws Exception {
+        String java = System.getProperty("java.home") + File.separator + "bin" + File.separator + "java";
+        Process writer = new ProcessBuilder(java, "-cp", System.getProperty("java.class.path"),
+                TripleHistoryTestDriver.class.getName(), "write", directory.getPath()).inheritIO().start();
+        if (writer.waitFor() != 0) {
+            throwError();
+        }
+    }
+
+    private static void historyIsRecovered(File directory) throws Exception {
+        List<String> lines = Files.readAllLines(new File(directory, "times.txt").toPath(), UTF8);
+        long[] times = new long[lines.size()];
+        for (int i = 0; i < times.length; i++) {
+            times[i] = Long.parseLong(lines.get(i));
+        }
+        knowledgeGraph.openStore(directory.getPath());
+        try {
+            checkHistory("thw", times);
+        } finally {
+            knowledgeGraph.closeStore();
+        }
+    }
+
+    private static void historyIsKeptInMemory() throws Exception {
+        checkHistory("thm", record("thm", false));
+    }
+
+    private static void triplesHeldBeforeTrackingStartWhenTracked() throws Exception {
+        knowledgeGraph.importTriple(new Node("thx:thermostat"), "th_level", new Node("21"));
+        long before = tick();
+        tick();
+        knowledgeGraph.trackHistory("th_level");
+        long after = tick();
+        TripleLiteral query = new TripleLiteral("thx:thermostat", "th_level", "?");
+        if (!knowledgeGraph.executeQueryAsOf(query, before).isEmpty() || knowledgeGraph.executeQueryAsOf(query, after).size() != 1) {
+            throwError();
+        }
+    }
+
+    private static void wildcardPredicateMatchesOnlyTrackedPredicates() throws Exception {
+        knowledgeGraph.importTriple(new Node("thm:sensor0"), "th_untracked", new Node("thm:room0"));
+        long now = tick();
+        Set<Triple> triples = knowledgeGraph.executeQueryAsOf(new TripleLiteral("thm:sensor0", "?", "?"), now);
+        if (triples.size() != 1 || !triples.iterator().next().getPredicate().getIdentifier().equals("th_status")) {
+            throwError();
+        }
+    }
+
+    private static void modelKeepsStatusHistoryOnlyWhenAsked() throws Exception {
+        HouseMateModelServiceAPI model = HouseMateModelServiceAPI.getInstance();
+        TripleLiteral query = new TripleLiteral("?", "has_value", "?");
+        try {
+            knowledgeGraph.executeQueryAsOf(query, System.currentTimeMillis());
+            throwError();
+        } catch (IllegalArgumentException e) {
+            /** Expected. */
+        }
+        model.keepStatusHistory(null);
+        knowledgeGraph.executeQueryAsOf(query, System.currentTimeMillis());
+    }
+}
@@ -0,0 +1,138 @@
+package cscie97.asn4.housemate.test;
+
+import cscie97.asn4.knowledge.engine.KnowledgeGraph;
+import cscie97.asn4.knowledge.engine.Node;
+import cscie97.asn4.knowledge.engine.TripleLiteral;
+
+/**
+ * Tests of versioned reads of the KnowledgeGraph: a thread that pins a version keeps reading it
+ * while other threads commit changes.
+ *
+ * @author Gerald Trotman
+ * @version 1.0
+ */
+public class VersionPinningTestDriver {
+
+    private static final KnowledgeGraph knowledgeGraph = KnowledgeGraph.getInstance();
+
+    /**
+     * Runs the tests and prints whether they all passed.
+     * @param args not used.
+     */
+    public static void main(String[] args) throws Exception {
+        System.out.println("\n\nRUNNING VERSION PINNING TESTS:");
+        try {
+            versionAdvancesOnlyOnChange();
+            pinnedReadIgnoresLaterCommits();
+            pinnedReadIgnoresCachedNewerResult();
+            nestedPinsReleaseAtTheLast();
+        } catch (Exception e) {
+            System.out.println("TESTS FAILED: " + e.getMessage());
+            System.exit(1);
+        }
+        System.out.println("\nTESTS ALL PASSED!");
+    }
+
+    private static void throwError() throws Exception {
+        throw new Exception(Thread.currentThread().getStackTrace()[2].getMethodName());
+    }
+
+    private static void add(String subject, String predicate, String object) {
+        knowledgeGraph.importTriple(new Node(subject), predicate, new Node(object));
+    }
+
+    /**
+     * Adds a triple from another thread, and waits for it to be committed.
+     */
+    private static void addFromAnotherThread(final String subject, final String predicate, final String object) throws Exception {
+        Thread writer = new Thread() {
+            @Override
+            public void run() {
+                add(subject, predicate, object);
+            }
+        };
+        writer.start();
+        writer.join();
+    }
+
+    private static int count(String subject, String predicate, String object) {
+        return knowledgeGraph.executeQuery(new TripleLiteral(subject, predicate, object)).size();
+    }
+
+    private static void versionAdvancesOnlyOnChange() throws Exception {
+        long before = knowledgeGraph.getVersion();
+        add("vp1:light1", "has_status", "on");
+        long after = knowledgeGraph.getVersion();
+        if (after <= before) {
+            throwError();
+        }
+        /** Importing a triple that is already stored changes nothing. */
+        add("vp1:light1", "has_status", "on");
+        if (knowledgeGraph.getVersion() != after) {
+            throwError();
+        }
+    }
+
+    private static void pinnedReadIgnoresLaterCommits() throws Exception {
+        add("vp2:light1", "has_status", "on");
+        int before = count("?", "has_status", "?");
+        long pinned = knowledgeGraph.pinVersion();
+        try {
+            addFromAnotherThread("vp2:light2", "has_status", "on");
+            if (knowledgeGraph.getVersion() <= pinned) {
+                throwError();
+            }
+            if (count("?", "has_status", "?") != before) {
+                throwError();
+            }
+            if (count("vp2:light2", "has_status", "?") != 0) {
+                throwError();
+            }
+        } finally {
+            knowledgeGraph.releaseVersion();
+        }
+        if (count("vp2:light2", "has_status", "?") != 1) {
+            throwError();
+        }
+    }
+
+    private static void pinnedReadIgnoresCachedNewerResult() throws Exception {
+        add("vp3:light1", "has_status", "on");
+        knowledgeGraph.pinVersion();
+        try {
+            addFromAnotherThread("vp3:light2", "has_status", "on");
+            /** Another thread reads, and may cache, the newer result first. */
+            final int[] seen = new int[1];
+            Thread reader = new Thread() {
+                @Override
+                public void run() {
+                    seen[0] = count("?", "has_status", "on");
+                }
+            };
+            reader.start();
+            reader.join();
+            if (count("?", "has_status", "on") != seen[0] - 1) {
+                throwError();
+            }
+        } finally {
+            knowledgeGraph.releaseVersion();
+        }
+    }
+
+    private static void nestedPinsReleaseAtTheLast() throws Exception {
+        knowledgeGraph.pinVersion();
+        knowledgeGraph.pinVersion();
+        try {
+            addFromAnotherThread("vp4:light1", "has_status", "on");
+            knowledgeGraph.releaseVersion();
+            if (count("vp4:light1", "has_status", "?") != 0) {
+                throwError();
+            }
+        } finally {
+            knowledgeGraph.releaseVersion();
+        }
+        if (count("vp4:light1", "has_status", "?") != 1) {
+            throwError();
+        }
+    }
+}
@@ -0,0 +1,208 @@
+package cscie97.asn4.knowledge.engine;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * A BindJoin evaluates a conjunctive query over triples split between several graphs, such as the
+ * shards of a ShardedKnowledgeGraph or the storage nodes of a DistributedKnowledgeGraph, whose ids
+ * cannot be compared. The terms are joined as identifiers instead.
+ *
+ * The patterns are joined one at a time: the pattern with the most bound terms, preferring a bound
+ * subject, is looked up once per distinct set of values the solutions found so far give its
+ * variables, with those values filled in. Each step hands all of its lookups to the Source at once,
+ * so it can send them to the graphs holding their subjects in one batch per graph.
+ */
+final class BindJoin {
+
+	private BindJoin(){
+
+	}
+
+	/**
+	 * Where the matches of single patterns are read from.
+	 */
+	abstract static class Source {
+
+		/**
+		 * @param patterns patterns with constants and "?" only.
+		 * @return the matches of each pattern, in the order of the patterns.
+		 */
+		abstract List<Collection<Triple>> match(List<TripleLiteral> patterns);
+	}
+
+	/**
+	 * Evaluates a conjunctive query.
+	 * @param patterns the patterns of the query.
+	 * @param source the graphs to read.
+	 * @return the distinct solutions, as identifiers, with a column for each named variable.
+	 * @throws IllegalArgumentException if a variable is used both as a predicate and as a node, or a
+	 * predicate is a PropertyPath.
+	 */
+	static BindingTable join(List<TripleLiteral> patterns, Source source){
+		String[][] tokens = new String[patterns.size()][];
+		List<String> names = new ArrayList<String>();
+		List<Boolean> kinds = new ArrayList<Boolean>();
+		/** The column of each term of each pattern, or -1 for a constant or an anonymous variable. */
+		int[][] columns = new int[patterns.size()][3];
+		for(int i = 0; i < tokens.length; i++){
+			TripleLiteral literal = patterns.get(i);
+			tokens[i] = new String[] { literal.getSubject(), literal.getPredicate(), literal.getObject() };
+			if(PropertyPath.isPath(tokens[i][1])){
+				throw new IllegalArgumentException("The property path " + tokens[i][1] + " can only be used in a single pattern query with unnamed variables.");
+			}
+			for(int position = 0; position < 3; position++){
+				String token = tokens[i][position];
+				columns[i][position] = -1;
+				if(token.length() > 1 && token.startsWith("?")){
+					String name = token.toLowerCase(Locale.ROOT);
+					int column = names.indexOf(name);
+					if(column < 0){
+						column = names.size();
+						names.add(name);
+						kinds.add(position == 1);
+					}else if(kinds.get(column) != (position == 1)){
+						throw new IllegalArgumentException("The variable " + token + " cannot be both a predicate and a node.");
+					}
+					columns[i][position] = column;
+				}
+			}
+		}
+
+		List<String[]> rows = new ArrayList<String[]>();
+		rows.add(new String[names.size()]);
+		boolean[] bound = new boolean[names.size()];
+		boolean[] joined = new boolean[tokens.length];
+		for(int step = 0; step < tokens.length && !rows.isEmpty(); step++){
+			int next = choosePattern(tokens, columns, bound, joined);
+			joined[next] = true;
+			/** Rows that give the pattern's variables the same values share one lookup. */
+			Map<List<String>, Integer> lookups = new HashMap<List<String>, Integer>();
+			List<TripleLiteral> queries = new ArrayList<TripleLiteral>();
+			int[] lookupOfRow = new int[rows.size()];
+			for(int r = 0; r < rows.size(); r++){
+				String[] query = new String[3];
+				for(int position = 0; position < 3; position++){
+					int column = columns[next][position];
+					if(column >= 0){
+						query[position] = rows.get(r)[column] != null ? rows.get(r)[column] : "?";
+					}else{
+						query[position] = tokens[next][position].startsWith("?") ? "?" : tokens[next][position];
+					}
+				}
+				List<String> key = key(query);
+				Integer lookup = lookups.get(key);
+				if(lookup == null){
+					lookup = queries.size();
+					lookups.put(key, lookup);
+					queries.add(new TripleLiteral(query[0], query[1], query[2]));
+				}
+				lookupOfRow[r] = lookup;
+			}
+			List<Collection<Triple>> matches = source.match(queries);
+			List<String[]> joinedRows = new ArrayList<String[]>();
+			Set<List<String>> seen = new HashSet<List<String>>();
+			for(int r = 0; r < rows.size(); r++){
+				for(Triple triple : matches.get(lookupOfRow[r])){
+					String[] values = { triple.getSubject().getIdentifier(), triple.getPredicate().getIdentifier(), triple.getObject().getIdentifier() };
+					String[] joinedRow = bind(rows.get(r), columns[next], values);
+					if(joinedRow != null && seen.add(key(joinedRow))){
+						joinedRows.add(joinedRow);
+					}
+				}
+			}
+			rows = joinedRows;
+			for(int column : columns[next]){
+				if(column >= 0){
+					bound[column] = true;
+				}
+			}
+		}
+
+		String[] variables = names.toArray(new String[names.size()]);
+		boolean[] predicates = new boolean[variables.length];
+		for(int column = 0; column < predicates.length; column++){
+			predicates[column] = kinds.get(column);
+		}
+		BindingTable table = new BindingTable(variables, predicates, rows.size());
+		for(String[] row : rows){
+			table.add(row);
+		}
+		return table;
+	}
+
+	/**
+	 * @return true if a single pattern query can be counted by adding up the counts of each graph:
+	 * its solutions can only repeat across graphs if it leaves out a term, and never if it binds
+	 * the subject, which decides the graph.
+	 */
+	static boolean isCountable(TripleLiteral pattern){
+		boolean anonymous = false;
+		boolean named = false;
+		for(String token : new String[] { pattern.getSubject(), pattern.getPredicate(), pattern.getObject() }){
+			anonymous |= token.equals("?");
+			named |= token.length() > 1 && token.startsWith("?");
+		}
+		return !(anonymous && named) || pattern.getSubject().length() > 1;
+	}
+
+	/**
+	 * @return the pattern to join next: the one with the most constant or bound terms, where a bound
+	 * subject counts twice since it sends each lookup to one graph.
+	 */
+	private static int choosePattern(String[][] tokens, int[][] columns, boolean[] bound, boolean[] joined){
+		int best = -1;
+		int bestScore = -1;
+		for(int i = 0; i < tokens.length; i++){
+			if(joined[i]){
+				continue;
+			}
+			int score = 0;
+			for(int position = 0; position < 3; position++){
+				int column = columns[i][position];
+				if(column >= 0 ? bound[column] : !tokens[i][position].startsWith("?")){
+					score += position == 0 ? 2 : 1;
+				}
+			}
+			if(score > bestScore){
+				best = i;
+				bestScore = score;
+			}
+		}
+		return best;
+	}
+
+	/**
+	 * @return a copy of a row with the variables of a pattern bound to the terms of a match, or null
+	 * if a variable that appears twice in the pattern matched two different terms.
+	 */
+	private static String[] bind(String[] row, int[] columns, String[] values){
+		String[] joinedRow = row.clone();
+		for(int position = 0; position < 3; position++){
+			int column = columns[position];
+			if(column < 0){
+				continue;
+			}
+			if(joinedRow[column] == null){
+				joinedRow[column] = values[position];
+			}else if(!joinedRow[column].equalsIgnoreCase(values[position])){
+				return null;
+			}
+		}
+		return joinedRow;
+	}
+
+	private static List<String> key(String[] row){
+		List<String> key = new ArrayList<String>(row.length);
+		for(String value : row){
+			key.add(value == null ? null : value.toLowerCase(Locale.ROOT));
+		}
+		return key;
+	}
+}
@@ -0,0 +1,177 @@
+package cscie97.asn4.knowledge.engine;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A BindingTable holds the solutions of a conjunctive query, one row of ids per solution and
+ * one column per variable. A column is 0 in rows where its variable is not bound yet, which
+ * only happens while the query is being joined.
+ *
+ * Tables made while joining one query share their columns, so rows can be merged column by column.
+ *
+ * The solutions of a query joined across graphs whose ids cannot be compared, such as the shards
+ * of a ShardedKnowledgeGraph, are held as identifiers instead. Nothing is interned for them, so
+ * their terms are let go with the table.
+ */
+public final class BindingTable {
+
+	private final KnowledgeGraph knowledgeGraph;
+	private final String[] variables;
+	private final boolean[] predicates;
+	private final int width;
+
+	private int[] rows;
+	/** The identifier of each row and column, for a table of identifiers, or null. */
+	private String[] values;
+	private int size = 0;
+	private int sortedBy = -1;
+
+	/**
+	 * @param knowledgeGraph the KnowledgeGraph used to decode the ids.
+	 * @param variables the name of each column, or null for an anonymous variable.
+	 * @param predicates true for each column that holds predicate ids rather than node ids.
+	 * @param capacity the number of rows to make room for.
+	 */
+	BindingTable(KnowledgeGraph knowledgeGraph, String[] variables, boolean[] predicates, int capacity) {
+		this.knowledgeGraph = knowledgeGraph;
+		this.variables = variables;
+		this.predicates = predicates;
+		width = variables.length;
+		rows = new int[Math.max(capacity, 1) * Math.max(width, 1)];
+	}
+
+	/**
+	 * Makes a table of identifiers, which can only be added to and read.
+	 * @param variables the name of each column, or null for an anonymous variable.
+	 * @param predicates true for each column that holds predicates rather than nodes.
+	 * @param capacity the number of rows to make room for.
+	 */
+	BindingTable(String[] variables, boolean[] predicates, int capacity) {
+		knowledgeGraph = null;
+		this.variables = variables;
+		this.predicates = predicates;
+		width = variables.length;
+		values = new String[Math.max(capacity, 1) * Math.max(width, 1)];
+	}
+
+	/**
+	 * @return an empty table with the same columns.
+	 */
+	BindingTable emptyCopy(){
+		return new BindingTable(knowledgeGraph, variables, predicates, 16);
+	}
+
+	/**
+	 * Adds a row.
+	 * @param values the id for each column.
+	 */
+	void add(int[] values){
+		ensureCapacity();
+		System.arraycopy(values, 0, rows, size * width, width);
+		size++;
+	}
+
+	/**
+	 * Adds a row to a table of identifiers.
+	 * @param identifiers the identifier for each column.
+	 */
+	void add(String[] identifiers){
+		ensureCapacity();
+		System.arraycopy(identifiers, 0, values, size * width, width);
+		size++;
+	}
+
+	/**
+	 * Adds the merge of two rows with the same columns, taking each bound column from either row.
+	 */
+	void addMerged(BindingTable left, int leftRow, BindingTable right, int rightRow){
+		ensureCapacity();
+		int offset = size * width;
+		for(int column = 0; column < width; column++){
+			int value = left.get(leftRow, column);
+			rows[offset + column] = value != 0 ? value : right.get(rightRow, column);
+		}
+		size++;
+	}
+
+	int get(int row, int column){
+		return rows[row * width + column];
+	}
+
+	int getWidth(){
+		return width;
+	}
+
+	/**
+	 * @return the column the rows are sorted on in ascending order, or -1 if they are not known to be sorted.
+	 */
+	int getSortedBy(){
+		return sortedBy;
+	}
+
+	void setSortedBy(int column){
+		sortedBy = column;
+	}
+
+	boolean isPredicate(int column){
+		return predicates[column];
+	}
+
+	String getVariable(int column){
+		return variables[column];
+	}
+
+	/**
+	 * @return the number of rows.
+	 */
+	public int size(){
+		return size;
+	}
+
+	/**
+	 * @return the names of the variables, in column order, without the anonymous ones.
+	 */
+	public List<String> getVariables(){
+		List<String> names = new ArrayList<String>();
+		for(String variable : variables){
+			if(variable != null){
+				names.add(variable);
+			}
+		}
+		return Collections.unmodifiableList(names);
+	}
+
+	/**
+	 * @param row the row, from 0 to size() - 1.
+	 * @param variable the name of a variable, such as "?r".
+	 * @return the identifier of the Node or Predicate bound to the variable in the row.
+	 * @throws IllegalArgumentException if the variable is not part of the query.
+	 */
+	public String getValue(int row, String variable){
+		for(int column = 0; column < width; column++){
+			if(variable.equals(variables[column])){
+				if(values != null){
+					return values[row * width + column];
+				}
+				int id = get(row, column);
+				return predicates[column] ? knowledgeGraph.decodePredicate(id).getIdentifier() : knowledgeGraph.decodeNode(id).getIdentifier();
+			}
+		}
+		throw new IllegalArgumentException("Unknown variable " + variable);
+	}
+
+	private void ensureCapacity(){
+		int length = values != null ? values.length : rows.length;
+		if((size + 1) * width > length){
+			int capacity = Math.max(length * 2, (size + 1) * width);
+			if(values != null){
+				values = Arrays.copyOf(values, capacity);
+			}else{
+				rows = Arrays.copyOf(rows, capacity);
+			}
+		}
+	}
+}
@@ -0,0 +1,151 @@
+package cscie97.asn4.knowledge.engine;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The ClusterProtocol is the format of the messages a DistributedKnowledgeGraph exchanges with its
+ * StorageNodes. A request is an operation code followed by its arguments, and a response is a
+ * status followed by the result, or by a message if the request failed. Terms travel as their
+ * identifiers, since every node has its own ids.
+ */
+final class ClusterProtocol {
+
+	/** Imports a list of triples. */
+	static final byte IMPORT = 1;
+	/** Deletes a list of triples. */
+	static final byte DELETE = 2;
+	/** Deletes the triples of a Node, given by its identifier, and returns their number. */
+	static final byte DELETE_NODE = 3;
+	/** Replaces the object of a triple, given the subject, predicate, old object and new object. */
+	static final byte REPLACE = 4;
+	/** Returns the matching triples of each of a list of patterns. */
+	static final byte MATCH = 5;
+	/** Returns the identifiers of the distinct objects of the matches of a pattern. */
+	static final byte OBJECTS = 6;
+	/** Returns the number of matches of a pattern. */
+	static final byte COUNT = 7;
+	/** Returns the variables and then the solutions of a conjunctive query. */
+	static final byte SOLVE = 8;
+	/** Returns the number of solutions of a conjunctive query. */
+	static final byte COUNT_SOLUTIONS = 9;
+
+	/** Statuses. */
+	static final byte OK = 0;
+	/** The request was refused with an IllegalArgumentException, such as for an invalid path. */
+	static final byte INVALID = 1;
+	static final byte FAILED = 2;
+
+	private ClusterProtocol(){
+
+	}
+
+	/**
+	 * Writes a message.
+	 */
+	static final class Writer {
+
+		private final ByteArrayOutputStream bytes = new ByteArrayOutputStream(256);
+		private final DataOutputStream out = new DataOutputStream(bytes);
+
+		Writer(byte code){
+			writeByte(code);
+		}
+
+		void writeByte(byte value){
+			try{
+				out.writeByte(value);
+			}catch(IOException e){
+				throw new IllegalStateException(e);
+			}
+		}
+
+		void writeInt(int value){
+			try{
+				out.writeInt(value);
+			}catch(IOException e){
+				throw new IllegalStateException(e);
+			}
+		}
+
+		void writeString(String value){
+			try{
+				out.writeUTF(value);
+			}catch(IOException e){
+				throw new IllegalStateException(e);
+			}
+		}
+
+		void writeTriple(String subject, String predicate, String object){
+			writeString(subject);
+			writeString(predicate);
+			writeString(object);
+		}
+
+		void writePatterns(List<TripleLiteral> patterns){
+			writeInt(patterns.size());
+			for(TripleLiteral pattern : patterns){
+				writeTriple(pattern.getSubject(), pattern.getPredicate(), pattern.getObject());
+			}
+		}
+
+		byte[] toByteArray(){
+			return bytes.toByteArray();
+		}
+	}
+
+	/**
+	 * Reads a message.
+	 * @throws IllegalArgumentException from every method if the message is cut short.
+	 */
+	static final class Reader {
+
+		private final DataInputStream in;
+
+		Reader(byte[] message){
+			in = new DataInputStream(new ByteArrayInputStream(message));
+		}
+
+		byte readByte(){
+			try{
+				return in.readByte();
+			}catch(IOException e){
+				throw new IllegalArgumentException("The message is truncated.", e);
+			}
+		}
+
+		int readInt(){
+			try{
+				return in.readInt();
+			}catch(IOException e){
+				throw new IllegalArgumentException("The message is truncated.", e);
+			}
+		}
+
+		String readString(){
+			try{
+				return in.readUTF();
+			}catch(IOException e){
+				throw new IllegalArgumentException("The message is truncated.", e);
+			}
+		}
+
+		TripleLiteral readPattern(){
+			return new TripleLiteral(readString(), readString(), readString());
+		}
+
+		List<TripleLiteral> readPatterns(){
+			int count = readInt();
+			List<TripleLiteral> patterns = new ArrayList<TripleLiteral>(count);
+			for(int i = 0; i < count; i++){
+				patterns.add(readPattern());
+			}
+			return patterns;
+		}
+	}
+}
@@ -0,0 +1,100 @@
+package cscie97.asn4.knowledge.engine;
+
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The Compactor reclaims the keys that deletes leave tombstoned in the Buckets of the indexes.
+ *
+ * The KnowledgeGraph tells it about every committed removal, and it notes each Bucket the removal
+ * left tombstones in. A compaction runs in the background delay milliseconds after the first Bucket
+ * is noted, so a burst of deletes is compacted once. It drops the tombstoned keys from the noted
+ * Buckets and publishes the result as a version with the same triples and the same number.
+ */
+final class Compactor {
+
+	static final long DEFAULT_DELAY = 100;
+
+	private final KnowledgeGraph knowledgeGraph;
+	/** The noted Buckets, each as its index order in the high half and its first id in the low half. */
+	private final Set<Long> pending = new LinkedHashSet<Long>();
+	private final ScheduledExecutorService compactor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory(){
+		@Override
+		public Thread newThread(Runnable runnable){
+			Thread thread = new Thread(runnable, "KnowledgeGraph compaction");
+			thread.setDaemon(true);
+			return thread;
+		}
+	});
+
+	private long delay = DEFAULT_DELAY;
+	private boolean compactionScheduled = false;
+
+	Compactor(KnowledgeGraph knowledgeGraph){
+		this.knowledgeGraph = knowledgeGraph;
+	}
+
+	/**
+	 * Notes the Buckets a committed removal left tombstones in, and schedules a compaction.
+	 * @param version the version the removal was committed as.
+	 * @param removed the ids of the removed triples.
+	 * @param count the number of removed triples.
+	 */
+	synchronized void schedule(GraphVersion version, int[] removed, int count){
+		for(int i = 0; i < count; i++){
+			for(int order = TripleCursor.SPO; order <= TripleCursor.OSP; order++){
+				int first = removed[i * 3 + TripleCursor.POSITIONS[order][0]];
+				if(version.getIndex(order).getBucket(first).getTombstoneCount() > 0){
+					pending.add(((long) order << 32) | first);
+				}
+			}
+		}
+		if(!pending.isEmpty() && !compactionScheduled){
+			compactionScheduled = true;
+			compactor.schedule(new Runnable(){
+				@Override
+				public void run(){
+					compactPending();
+				}
+			}, delay, TimeUnit.MILLISECONDS);
+		}
+	}
+
+	/**
+	 * Compacts every noted Bucket now.
+	 */
+	void compactPending(){
+		int[] orders;
+		int[] firsts;
+		synchronized(this){
+			compactionScheduled = false;
+			orders = new int[pending.size()];
+			firsts = new int[pending.size()];
+			Iterator<Long> buckets = pending.iterator();
+			for(int i = 0; i < orders.length; i++){
+				long bucket = buckets.next();
+				orders[i] = (int) (bucket >>> 32);
+				firsts[i] = (int) bucket;
+			}
+			pending.clear();
+		}
+		if(orders.length > 0){
+			knowledgeGraph.compactBuckets(orders, firsts, orders.length);
+		}
+	}
+
+	/**
+	 * @param newDelay the milliseconds from the first noted Bucket to the compaction.
+	 */
+	synchronized void setDelay(long newDelay){
+		if(newDelay < 0){
+			throw new IllegalArgumentException("The delay cannot be negative.");
+		}
+		delay = newDelay;
+	}
+}
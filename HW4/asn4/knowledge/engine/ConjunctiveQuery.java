@@ -0,0 +1,850 @@
+package cscie97.asn4.knowledge.engine;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * A ConjunctiveQuery evaluates a list of triple patterns that share variables. The patterns
+ * are encoded once, then joined one at a time onto a BindingTable that starts with a single
+ * empty row. Each join is one of:
+ *
+ * - a bind join, which looks up the pattern in the index once per row, with the variables the
+ *   row already binds filled in. Used while the rows are fewer than the matches of the pattern.
+ * - a merge join, when the rows and the scan of the pattern are both sorted on their only shared variable.
+ * - a hash join otherwise, built on the smaller side.
+ *
+ * - a bitmap join, for a pattern whose only named variable, such as ?s in "?s is_a light", is
+ *   also the only named variable of another pattern. The pattern's posting list of the variable
+ *   is read as a RoaringBitmap, and either intersected with the posting lists of the bitmap joins
+ *   right before it, when no rows bind the variable yet, or used to filter the rows that do.
+ *
+ * The join order and methods are chosen by a cost based planner before execution. It estimates the
+ * matches of each pattern from the index, and the rows of each join from the distinct counts in the
+ * PredicateStatistics of the version. describe reports the plan with its estimated and actual rows.
+ * A posting list is only read when its join is run, so the joins after one that leaves no rows, or
+ * an empty intersection, read none.
+ */
+final class ConjunctiveQuery {
+
+	private final KnowledgeGraph knowledgeGraph;
+
+	/** Join methods. */
+	private static final int BIND = 0;
+	private static final int MERGE = 1;
+	private static final int HASH = 2;
+	private static final int BITMAP = 3;
+	private static final String[] METHOD_NAMES = { "bind join", "merge join", "hash join", "bitmap intersection" };
+	private static final String[] INDEX_NAMES = { "SPO", "POS", "OSP" };
+
+	/** The cost of one index lookup, counted in the matches it could have read instead. */
+	private static final int LOOKUP_COST = 4;
+	/** The most patterns for which every join order is costed. */
+	private static final int MAX_EXHAUSTIVE = 10;
+
+	/** The terms of each pattern: an id above 0 for a constant, -(column + 1) for a variable. */
+	private final int[][] patterns;
+	private final String[] texts;
+	private final String[] variables;
+	private final boolean[] predicates;
+	private boolean unsatisfiable = false;
+	private List<PlanStep> steps = new ArrayList<PlanStep>();
+	/** The variable each pattern can be bitmap joined on, or -1. */
+	private final int[] filterColumns;
+
+	/**
+	 * Encodes the patterns of a query.
+	 * @param knowledgeGraph the KnowledgeGraph to query.
+	 * @param literals the patterns, with "?name" for a named variable and "?" for an anonymous one.
+	 * @throws IllegalArgumentException if a variable is used both as a predicate and as a node, or
+	 * a predicate is a PropertyPath.
+	 */
+	ConjunctiveQuery(KnowledgeGraph knowledgeGraph, List<TripleLiteral> literals) {
+		this.knowledgeGraph = knowledgeGraph;
+		patterns = new int[literals.size()][];
+		texts = new String[literals.size()];
+		List<String> names = new ArrayList<String>();
+		List<Boolean> kinds = new ArrayList<Boolean>();
+		Map<String, Integer> columns = new HashMap<String, Integer>();
+		for(int i = 0; i < patterns.length; i++){
+			TripleLiteral literal = literals.get(i);
+			texts[i] = literal.getIdentifier();
+			String[] tokens = { literal.getSubject(), literal.getPredicate(), literal.getObject() };
+			if(PropertyPath.isPath(tokens[1])){
+				throw new IllegalArgumentException("The property path " + tokens[1] + " can only be used in a single pattern query with unnamed variables.");
+			}
+			int[] terms = new int[3];
+			for(int position = 0; position < 3; position++){
+				String token = tokens[position];
+				boolean predicate = position == 1;
+				if(token.startsWith("?")){
+					String name = token.length() == 1 ? null : token.toLowerCase(Locale.ROOT);
+					Integer column = name == null ? null : columns.get(name);
+					if(column == null){
+						column = names.size();
+						names.add(name);
+						kinds.add(predicate);
+						if(name != null){
+							columns.put(name, column);
+						}
+					}else if(kinds.get(column) != predicate){
+						throw new IllegalArgumentException("The variable " + token + " cannot be both a predicate and a node.");
+					}
+					terms[position] = -(column + 1);
+				}else{
+					int id = predicate ? knowledgeGraph.encodePredicate(token) : knowledgeGraph.encodeNode(token);
+					if(id < 0){
+						/** An unknown term matches nothing. Keep -1 out of the terms, where it would read as a variable. */
+						unsatisfiable = true;
+						id = TermDictionary.WILDCARD;
+					}
+					terms[position] = id;
+				}
+			}
+			patterns[i] = terms;
+		}
+		variables = names.toArray(new String[names.size()]);
+		predicates = new boolean[variables.length];
+		for(int column = 0; column < predicates.length; column++){
+			predicates[column] = kinds.get(column);
+		}
+		filterColumns = findFilterColumns();
+	}
+
+	/**
+	 * Evaluates the query against a version.
+	 * @param version the version to read.
+	 * @return the solutions, with a column for each named variable.
+	 */
+	BindingTable execute(GraphVersion version){
+		steps = plan(version);
+		BindingTable table = new BindingTable(knowledgeGraph, variables, predicates, 1);
+		if(unsatisfiable){
+			return project(table);
+		}
+		table.add(new int[variables.length]);
+		boolean[] bound = new boolean[variables.length];
+		/** The intersection of the posting lists of the intersecting steps so far, not yet made into rows. */
+		RoaringBitmap intersection = null;
+		int intersected = -1;
+		for(PlanStep step : steps){
+			if(step.intersects){
+				intersected = filterColumns[step.pattern];
+				if(intersection == null || !intersection.isEmpty()){
+					RoaringBitmap postings = postings(version, step.pattern);
+					intersection = intersection == null ? postings : RoaringBitmap.and(intersection, postings);
+				}
+				step.actual = intersection.getCardinality();
+			}else{
+				if(intersection != null){
+					table = bitmapJoin(table, intersected, intersection, false);
+					intersection = null;
+				}
+				if(table.size() > 0){
+					table = join(version, table, step, bound);
+				}
+				step.actual = table.size();
+			}
+			for(int term : patterns[step.pattern]){
+				if(term < 0){
+					bound[-term - 1] = true;
+				}
+			}
+		}
+		if(intersection != null){
+			table = bitmapJoin(table, intersected, intersection, false);
+		}
+		return project(table);
+	}
+
+	/**
+	 * Describes the plan of the last execution, one line per join followed by the statistics of the
+	 * predicates used.
+	 * @return the lines of the description.
+	 */
+	List<String> describe(GraphVersion version){
+		List<String> lines = new ArrayList<String>();
+		boolean[] bound = new boolean[variables.length];
+		for(int i = 0; i < steps.size(); i++){
+			PlanStep step = steps.get(i);
+			int[] pattern = patterns[step.pattern];
+			StringBuilder line = new StringBuilder();
+			line.append(i + 1).append(". ");
+			String method = step.method == BITMAP && !step.intersects ? "bitmap filter" : METHOD_NAMES[step.method];
+			line.append(i == 0 && step.method != BITMAP ? "scan" : method).append(' ').append(texts[step.pattern]);
+			StringBuilder on = new StringBuilder();
+			boolean[] lookup = new boolean[3];
+			for(int position = 0; position < 3; position++){
+				int term = pattern[position];
+				lookup[position] = term > 0 || (term < 0 && step.method == BIND && bound[-term - 1]);
+				if(term < 0 && bound[-term - 1] && on.indexOf(variables[-term - 1] + " ") < 0){
+					on.append(variables[-term - 1]).append(' ');
+				}
+			}
+			if(on.length() > 0){
+				line.append(" on ").append(on.toString().trim());
+			}
+			if(step.method == BITMAP){
+				line.append(" using posting lists");
+			}else{
+				line.append(" using ").append(INDEX_NAMES[TripleCursor.chooseOrder(lookup[0], lookup[1], lookup[2])]);
+			}
+			line.append(": estimated ").append(Math.round(step.estimate)).append(" rows, actual ");
+			line.append(step.actual < 0 ? "-" : String.valueOf(step.actual)).append(" rows");
+			lines.add(line.toString());
+			for(int term : pattern){
+				if(term < 0){
+					bound[-term - 1] = true;
+				}
+			}
+		}
+		Set<Integer> described = new HashSet<Integer>();
+		for(int[] pattern : patterns){
+			if(pattern[1] > 0 && described.add(pattern[1])){
+				lines.add(describeStatistics(pattern[1], version.getStatistics(pattern[1])));
+			}
+		}
+		return lines;
+	}
+
+	private String describeStatistics(int predicate, PredicateStatistics statistics){
+		StringBuilder line = new StringBuilder();
+		line.append("statistics ").append(knowledgeGraph.decodePredicate(predicate).getIdentifier()).append(": ");
+		line.append(statistics.getTripleCount()).append(" triples, ");
+		line.append(statistics.getDistinctSubjectCount()).append(" distinct subjects, ");
+		line.append(statistics.getDistinctObjectCount()).append(" distinct objects");
+		String separator = ", top subjects ";
+		for(int id : statistics.getTopSubjects()){
+			/** A heavy hitter in only one triple says nothing about skew. */
+			if(statistics.getTopSubjectCount(id) > 1){
+				line.append(separator).append(knowledgeGraph.decodeNode(id).getIdentifier()).append('=').append(statistics.getTopSubjectCount(id));
+				separator = " ";
+			}
+		}
+		separator = ", top objects ";
+		for(int id : statistics.getTopObjects()){
+			if(statistics.getTopObjectCount(id) > 1){
+				line.append(separator).append(knowledgeGraph.decodeNode(id).getIdentifier()).append('=').append(statistics.getTopObjectCount(id));
+				separator = " ";
+			}
+		}
+		return line.toString();
+	}
+
+	/**
+	 * Chooses the join order and join methods. Every left deep order is costed when there are at
+	 * most MAX_EXHAUSTIVE patterns, keeping the cheapest plan for each set of joined patterns.
+	 * Longer queries add the cheapest next pattern one at a time. A pattern that shares no variable
+	 * with those joined so far is only joined when no other pattern does.
+	 * @param version the version whose indexes and statistics give the estimates.
+	 * @return the steps, in order.
+	 */
+	private List<PlanStep> plan(GraphVersion version){
+		int count = patterns.length;
+		double[] scans = new double[count];
+		double[][] distincts = new double[count][variables.length];
+		for(int i = 0; i < count; i++){
+			scans[i] = unsatisfiable ? 0 : estimate(version, patterns[i]);
+			for(int position = 0; position < 3; position++){
+				int term = patterns[i][position];
+				if(term < 0){
+					double distinct = Math.max(1, Math.min(scans[i], distinctValues(version, patterns[i], position)));
+					int column = -term - 1;
+					distincts[i][column] = distincts[i][column] == 0 ? distinct : Math.min(distincts[i][column], distinct);
+				}
+			}
+		}
+
+		PlanState start = new PlanState(null, -1, BIND, 1, 0, new double[variables.length], -1, -1, new BitSet());
+		PlanState best;
+		if(count <= MAX_EXHAUSTIVE){
+			PlanState[] cheapest = new PlanState[1 << count];
+			cheapest[0] = start;
+			for(int mask = 0; mask < cheapest.length; mask++){
+				if(cheapest[mask] == null){
+					continue;
+				}
+				for(int i = 0; i < count; i++){
+					if((mask & (1 << i)) == 0 && isJoinable(cheapest[mask], i)){
+						PlanState next = extend(cheapest[mask], i, scans[i], distincts[i]);
+						int joined = mask | (1 << i);
+						if(cheapest[joined] == null || next.cost < cheapest[joined].cost){
+							cheapest[joined] = next;
+						}
+					}
+				}
+			}
+			best = cheapest[cheapest.length - 1];
+		}else{
+			best = start;
+			for(int step = 0; step < count; step++){
+				PlanState next = null;
+				for(int i = 0; i < count; i++){
+					if(!best.joined.get(i) && isJoinable(best, i)){
+						PlanState candidate = extend(best, i, scans[i], distincts[i]);
+						if(next == null || candidate.cost < next.cost){
+							next = candidate;
+						}
+					}
+				}
+				best = next;
+			}
+		}
+
+		LinkedList<PlanStep> planned = new LinkedList<PlanStep>();
+		for(PlanState state = best; state.parent != null; state = state.parent){
+			planned.addFirst(new PlanStep(state.pattern, state.method, state.intersected >= 0, state.rows));
+		}
+		return new ArrayList<PlanStep>(planned);
+	}
+
+	/**
+	 * @return true if a pattern shares a variable with the joined patterns, or if no remaining pattern does.
+	 */
+	private boolean isJoinable(PlanState state, int pattern){
+		if(state.parent == null || sharesVariable(state, pattern)){
+			return true;
+		}
+		for(int i = 0; i < patterns.length; i++){
+			if(!state.joined.get(i) && sharesVariable(state, i)){
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private boolean sharesVariable(PlanState state, int pattern){
+		for(int term : patterns[pattern]){
+			if(term < 0 && state.distinct[-term - 1] > 0){
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Costs joining a pattern onto a partial plan. The rows of the join are the rows so far times the
+	 * matches of the pattern, divided for each shared variable by the larger of its distinct counts on
+	 * the two sides. The cost of a plan is the rows it reads from the index plus the rows of every join.
+	 * Intersecting a posting list costs only the matches read, since it makes no rows. Filtering
+	 * rows with one costs as much as a hash join, but is preferred since it makes no rows of the
+	 * pattern either.
+	 */
+	private PlanState extend(PlanState state, int pattern, double scan, double[] patternDistinct){
+		double rows = state.rows * scan;
+		int shared = -1;
+		int sharedCount = 0;
+		double[] distinct = state.distinct.clone();
+		for(int column = 0; column < distinct.length; column++){
+			if(patternDistinct[column] > 0 && state.distinct[column] > 0){
+				rows /= Math.max(state.distinct[column], patternDistinct[column]);
+				shared = column;
+				sharedCount++;
+			}
+		}
+		for(int column = 0; column < distinct.length; column++){
+			if(patternDistinct[column] > 0){
+				distinct[column] = state.distinct[column] > 0 ? Math.min(state.distinct[column], patternDistinct[column]) : patternDistinct[column];
+			}
+			if(distinct[column] > 0){
+				distinct[column] = Math.max(1, Math.min(distinct[column], rows));
+			}
+		}
+
+		int[] ids = { constant(patterns[pattern][0]), constant(patterns[pattern][1]), constant(patterns[pattern][2]) };
+		int scanOrder = scanOrder(patterns[pattern], ids);
+		int filterColumn = filterColumns[pattern];
+		int intersected = -1;
+		int method;
+		double cost;
+		int sortedBy;
+		if(filterColumn >= 0 && (state.parent == null || state.intersected == filterColumn && state.rows * LOOKUP_COST >= scan)){
+			method = BITMAP;
+			cost = scan;
+			sortedBy = filterColumn;
+			intersected = filterColumn;
+		}else if(state.parent == null){
+			method = BIND;
+			cost = scan;
+			sortedBy = scanOrder;
+		}else if(sharedCount > 0 && state.rows * LOOKUP_COST <= scan + state.rows){
+			method = BIND;
+			cost = state.rows * LOOKUP_COST;
+			sortedBy = state.sortedBy;
+		}else if(filterColumn >= 0 && state.distinct[filterColumn] > 0){
+			method = BITMAP;
+			cost = scan + state.rows;
+			sortedBy = state.sortedBy;
+		}else if(sharedCount == 1 && state.sortedBy == shared && scanOrder == shared){
+			method = MERGE;
+			cost = scan + state.rows;
+			sortedBy = shared;
+		}else{
+			method = HASH;
+			cost = scan + state.rows;
+			sortedBy = state.rows >= scan ? state.sortedBy : scanOrder;
+		}
+		BitSet joined = (BitSet) state.joined.clone();
+		joined.set(pattern);
+		/** Intersecting rows the plan has not made keeps them unmade, so the join makes no rows yet. */
+		double made = intersected >= 0 ? 0 : rows;
+		return new PlanState(state, pattern, method, rows, state.cost + cost + made, distinct, sortedBy, intersected, joined);
+	}
+
+	/**
+	 * Finds the variables that are the only named variable of two or more patterns, which those
+	 * patterns can be bitmap joined on.
+	 * @return the variable each pattern can be bitmap joined on, or -1.
+	 */
+	private int[] findFilterColumns(){
+		int[] columns = new int[patterns.length];
+		int[] counts = new int[variables.length];
+		for(int i = 0; i < patterns.length; i++){
+			columns[i] = unsatisfiable ? -1 : filterColumn(patterns[i]);
+			if(columns[i] >= 0){
+				counts[columns[i]]++;
+			}
+		}
+		for(int i = 0; i < patterns.length; i++){
+			if(columns[i] >= 0 && counts[columns[i]] < 2){
+				columns[i] = -1;
+			}
+		}
+		return columns;
+	}
+
+	/**
+	 * Reads the posting list of the variable a pattern is bitmap joined on.
+	 */
+	private RoaringBitmap postings(GraphVersion version, int pattern){
+		int[] terms = patterns[pattern];
+		int position = terms[0] == -filterColumns[pattern] - 1 ? 0 : 2;
+		return knowledgeGraph.postings(version, constant(terms[0]), constant(terms[1]), constant(terms[2]), position);
+	}
+
+	/**
+	 * @return the column of the only named variable of a pattern, if it is a node that appears once
+	 * and the other terms are constants or anonymous, or -1.
+	 */
+	private int filterColumn(int[] pattern){
+		int column = -1;
+		for(int position = 0; position < 3; position++){
+			int term = pattern[position];
+			if(term < 0 && variables[-term - 1] != null){
+				if(column >= 0 || position == 1){
+					return -1;
+				}
+				column = -term - 1;
+			}
+		}
+		return column;
+	}
+
+	/**
+	 * @return the number of distinct values the variable at a position of a pattern can take, from the statistics.
+	 */
+	private double distinctValues(GraphVersion version, int[] pattern, int position){
+		if(position == 1){
+			return version.getPredicateCount();
+		}
+		if(pattern[1] <= 0){
+			return knowledgeGraph.getNodeCount();
+		}
+		PredicateStatistics statistics = version.getStatistics(pattern[1]);
+		return position == 0 ? statistics.getEffectiveDistinctSubjects() : statistics.getEffectiveDistinctObjects();
+	}
+
+	/**
+	 * @return the number of triples that match the constants of a pattern, from the index.
+	 */
+	private int estimate(GraphVersion version, int[] pattern){
+		return knowledgeGraph.count(version, constant(pattern[0]), constant(pattern[1]), constant(pattern[2]));
+	}
+
+	private static int constant(int term){
+		return term > 0 ? term : TermDictionary.WILDCARD;
+	}
+
+	/**
+	 * Joins the pattern of a step onto the rows found so far, with the method the plan chose. A bind
+	 * join is used whenever a single row is left, and a hash join replaces a merge join if the rows
+	 * turn out not to be sorted.
+	 * @param version the version to read.
+	 * @param left the rows found so far.
+	 * @param step the step to run.
+	 * @param bound the variables bound in every row of left.
+	 * @return the joined rows.
+	 */
+	private BindingTable join(GraphVersion version, BindingTable left, PlanStep step, boolean[] bound){
+		int[] pattern = patterns[step.pattern];
+		List<Integer> shared = new ArrayList<Integer>();
+		for(int term : pattern){
+			if(term < 0 && bound[-term - 1] && !shared.contains(-term - 1)){
+				shared.add(-term - 1);
+			}
+		}
+		if(step.method == BIND || left.size() <= 1){
+			step.method = BIND;
+			return bindJoin(version, left, pattern);
+		}
+		if(step.method == BITMAP){
+			return bitmapJoin(left, filterColumns[step.pattern], postings(version, step.pattern), true);
+		}
+		BindingTable right = scan(version, pattern);
+		if(step.method == MERGE && left.getSortedBy() == shared.get(0) && right.getSortedBy() == shared.get(0)){
+			return mergeJoin(left, right, shared.get(0));
+		}
+		step.method = HASH;
+		int[] keys = new int[shared.size()];
+		for(int i = 0; i < keys.length; i++){
+			keys[i] = shared.get(i);
+		}
+		return hashJoin(left, right, keys);
+	}
+
+	/**
+	 * Joins a posting list, or an intersection of them, onto the rows: keeps the rows whose value is
+	 * in it if the rows bind the variable, or else pairs each row with each of its ids.
+	 */
+	private BindingTable bitmapJoin(BindingTable left, int column, RoaringBitmap filter, boolean isBound){
+		BindingTable joined = left.emptyCopy();
+		int[] row = new int[left.getWidth()];
+		int[] ids = isBound ? null : filter.toArray();
+		for(int r = 0; r < left.size(); r++){
+			for(int i = 0; i < row.length; i++){
+				row[i] = left.get(r, i);
+			}
+			if(isBound){
+				if(filter.contains(row[column])){
+					joined.add(row);
+				}
+			}else{
+				for(int id : ids){
+					row[column] = id;
+					joined.add(row);
+				}
+			}
+		}
+		joined.setSortedBy(!isBound && left.size() == 1 ? column : left.getSortedBy());
+		return joined;
+	}
+
+	/**
+	 * Looks the pattern up in the index once for each row, with the row's bindings filled in.
+	 */
+	private BindingTable bindJoin(GraphVersion version, BindingTable left, int[] pattern){
+		BindingTable joined = left.emptyCopy();
+		int[] row = new int[left.getWidth()];
+		int[] ids = new int[3];
+		for(int r = 0; r < left.size(); r++){
+			for(int position = 0; position < 3; position++){
+				int term = pattern[position];
+				ids[position] = term > 0 ? term : left.get(r, -term - 1);
+			}
+			TripleCursor cursor = knowledgeGraph.openCursor(version, ids[0], ids[1], ids[2]);
+			while(cursor.next()){
+				for(int column = 0; column < row.length; column++){
+					row[column] = left.get(r, column);
+				}
+				if(bind(pattern, cursor, row)){
+					joined.add(row);
+				}
+			}
+		}
+		joined.setSortedBy(left.size() == 1 ? scanOrder(pattern, ids) : left.getSortedBy());
+		return joined;
+	}
+
+	/**
+	 * Reads every match of the pattern into a table.
+	 */
+	private BindingTable scan(GraphVersion version, int[] pattern){
+		BindingTable matches = new BindingTable(knowledgeGraph, variables, predicates, 16);
+		int[] row = new int[variables.length];
+		int[] ids = { constant(pattern[0]), constant(pattern[1]), constant(pattern[2]) };
+		TripleCursor cursor = knowledgeGraph.openCursor(version, ids[0], ids[1], ids[2]);
+		while(cursor.next()){
+			for(int term : pattern){
+				if(term < 0){
+					row[-term - 1] = 0;
+				}
+			}
+			if(bind(pattern, cursor, row)){
+				matches.add(row);
+			}
+		}
+		matches.setSortedBy(scanOrder(pattern, ids));
+		return matches;
+	}
+
+	/**
+	 * Binds the variables of a pattern to the current match of a cursor.
+	 * @return false if the match disagrees with a variable that is already bound, which also
+	 * rejects matches where a variable repeated in the pattern would need two values.
+	 */
+	private static boolean bind(int[] pattern, TripleCursor cursor, int[] row){
+		for(int position = 0; position < 3; position++){
+			int term = pattern[position];
+			if(term < 0){
+				int value = position == 0 ? cursor.getSubjectId() : position == 1 ? cursor.getPredicateId() : cursor.getObjectId();
+				int column = -term - 1;
+				if(row[column] == 0){
+					row[column] = value;
+				}else if(row[column] != value){
+					return false;
+				}
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * @param pattern the pattern looked up.
+	 * @param ids the ids it was looked up with, WILDCARD for the unbound terms.
+	 * @return the column of the variable the lookup returns in ascending order, or -1 if there is none.
+	 * The bound terms are a prefix of the index order, so the matches are sorted on the term that follows them.
+	 */
+	private static int scanOrder(int[] pattern, int[] ids){
+		int constants = 0;
+		for(int id : ids){
+			if(id != TermDictionary.WILDCARD){
+				constants++;
+			}
+		}
+		if(constants == 3){
+			return -1;
+		}
+		int order = TripleCursor.chooseOrder(ids[0] != TermDictionary.WILDCARD, ids[1] != TermDictionary.WILDCARD, ids[2] != TermDictionary.WILDCARD);
+		int term = pattern[TripleCursor.POSITIONS[order][constants]];
+		return term < 0 ? -term - 1 : -1;
+	}
+
+	/**
+	 * Joins two tables sorted on the same column by walking them together.
+	 */
+	private static BindingTable mergeJoin(BindingTable left, BindingTable right, int column){
+		BindingTable joined = left.emptyCopy();
+		int l = 0;
+		int r = 0;
+		while(l < left.size() && r < right.size()){
+			int leftValue = left.get(l, column);
+			int rightValue = right.get(r, column);
+			if(leftValue < rightValue){
+				l++;
+			}else if(leftValue > rightValue){
+				r++;
+			}else{
+				int leftEnd = l;
+				while(leftEnd < left.size() && left.get(leftEnd, column) == leftValue){
+					leftEnd++;
+				}
+				int rightEnd = r;
+				while(rightEnd < right.size() && right.get(rightEnd, column) == rightValue){
+					rightEnd++;
+				}
+				for(int i = l; i < leftEnd; i++){
+					for(int j = r; j < rightEnd; j++){
+						joined.addMerged(left, i, right, j);
+					}
+				}
+				l = leftEnd;
+				r = rightEnd;
+			}
+		}
+		joined.setSortedBy(column);
+		return joined;
+	}
+
+	/**
+	 * Joins two tables on their shared columns with a hash table built on the smaller one.
+	 * The rows come out in the order of the larger one.
+	 */
+	private static BindingTable hashJoin(BindingTable left, BindingTable right, int[] keys){
+		BindingTable build = left.size() <= right.size() ? left : right;
+		BindingTable probe = build == left ? right : left;
+		JoinHash hash = new JoinHash(build, keys);
+		for(int row = 0; row < build.size(); row++){
+			hash.add(row);
+		}
+		BindingTable joined = left.emptyCopy();
+		for(int row = 0; row < probe.size(); row++){
+			for(int match = hash.find(probe, row); match >= 0; match = hash.findNext(match, probe, row)){
+				joined.addMerged(probe, row, build, match);
+			}
+		}
+		joined.setSortedBy(probe.getSortedBy());
+		return joined;
+	}
+
+	/**
+	 * Keeps only the named variables, dropping rows that become duplicates once the anonymous ones are gone.
+	 */
+	private BindingTable project(BindingTable table){
+		List<Integer> kept = new ArrayList<Integer>();
+		for(int column = 0; column < variables.length; column++){
+			if(variables[column] != null){
+				kept.add(column);
+			}
+		}
+		if(kept.size() == variables.length){
+			return table;
+		}
+		String[] names = new String[kept.size()];
+		boolean[] kinds = new boolean[kept.size()];
+		int[] columns = new int[kept.size()];
+		for(int i = 0; i < columns.length; i++){
+			columns[i] = kept.get(i);
+			names[i] = variables[columns[i]];
+			kinds[i] = predicates[columns[i]];
+		}
+		BindingTable projected = new BindingTable(knowledgeGraph, names, kinds, table.size());
+		int[] row = new int[columns.length];
+		for(int r = 0; r < table.size(); r++){
+			for(int i = 0; i < columns.length; i++){
+				row[i] = table.get(r, columns[i]);
+			}
+			projected.add(row);
+		}
+		int[] all = new int[columns.length];
+		for(int i = 0; i < all.length; i++){
+			all[i] = i;
+		}
+		BindingTable distinct = new BindingTable(knowledgeGraph, names, kinds, projected.size());
+		JoinHash seen = new JoinHash(projected, all);
+		for(int r = 0; r < projected.size(); r++){
+			if(seen.find(projected, r) < 0){
+				seen.add(r);
+				for(int i = 0; i < all.length; i++){
+					row[i] = projected.get(r, i);
+				}
+				distinct.add(row);
+			}
+		}
+		return distinct;
+	}
+
+	/**
+	 * One join of a plan, with the row counts the planner estimated and the execution found.
+	 */
+	private static final class PlanStep {
+
+		final int pattern;
+		int method;
+		/** True for a bitmap join that intersects its posting list with those of the steps before it. */
+		final boolean intersects;
+		final double estimate;
+		int actual = -1;
+
+		PlanStep(int pattern, int method, boolean intersects, double estimate) {
+			this.pattern = pattern;
+			this.method = method;
+			this.intersects = intersects;
+			this.estimate = estimate;
+		}
+	}
+
+	/**
+	 * A partial plan: the patterns joined so far, the last of them, and the estimates after it.
+	 */
+	private static final class PlanState {
+
+		final PlanState parent;
+		final int pattern;
+		final int method;
+		final double rows;
+		final double cost;
+		/** The estimated distinct values of each bound variable, 0 for the unbound ones. */
+		final double[] distinct;
+		final int sortedBy;
+		/** The variable whose posting lists the plan has intersected without making rows, or -1. */
+		final int intersected;
+		final BitSet joined;
+
+		PlanState(PlanState parent, int pattern, int method, double rows, double cost, double[] distinct, int sortedBy,
+				int intersected, BitSet joined) {
+			this.parent = parent;
+			this.pattern = pattern;
+			this.method = method;
+			this.rows = rows;
+			this.cost = cost;
+			this.distinct = distinct;
+			this.sortedBy = sortedBy;
+			this.intersected = intersected;
+			this.joined = joined;
+		}
+	}
+
+	/**
+	 * A chained hash table of the rows of a BindingTable, keyed on some of its columns. The
+	 * chains are kept in int arrays, so no object is made per row.
+	 */
+	private static final class JoinHash {
+
+		private final BindingTable table;
+		private final int[] keys;
+		private final int[] heads;
+		private final int[] next;
+		private final int mask;
+
+		JoinHash(BindingTable table, int[] keys) {
+			this.table = table;
+			this.keys = keys;
+			int capacity = Integer.highestOneBit(Math.max(table.size(), 1)) * 2;
+			heads = new int[capacity];
+			Arrays.fill(heads, -1);
+			next = new int[table.size()];
+			mask = capacity - 1;
+		}
+
+		void add(int row){
+			int slot = hash(table, row) & mask;
+			next[row] = heads[slot];
+			heads[slot] = row;
+		}
+
+		/**
+		 * @return the first row with the same keys as a row of another table, or -1.
+		 */
+		int find(BindingTable other, int otherRow){
+			return match(heads[hash(other, otherRow) & mask], other, otherRow);
+		}
+
+		/**
+		 * @return the row after a found row with the same keys, or -1.
+		 */
+		int findNext(int row, BindingTable other, int otherRow){
+			return match(next[row], other, otherRow);
+		}
+
+		private int match(int row, BindingTable other, int otherRow){
+			while(row >= 0){
+				boolean equal = true;
+				for(int i = 0; i < keys.length && equal; i++){
+					equal = table.get(row, keys[i]) == other.get(otherRow, keys[i]);
+				}
+				if(equal){
+					return row;
+				}
+				row = next[row];
+			}
+			return -1;
+		}
+
+		private int hash(BindingTable rows, int row){
+			int h = 0;
+			for(int key : keys){
+				h = h * 31 + rows.get(row, key);
+			}
+			h ^= h >>> 16;
+			h *= 0x85EBCA6B;
+			return h ^ (h >>> 13);
+		}
+	}
+}
@@ -0,0 +1,415 @@
+package cscie97.asn4.knowledge.engine;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+
+/**
+ * A DistributedKnowledgeGraph is the coordinator of a cluster of StorageNodes, each holding the
+ * triples of some houses in a KnowledgeGraph of its own. The nodes are reached through a Transport,
+ * so the cluster can span processes or, with a LoopbackTransport, run in this JVM.
+ *
+ * Triples are partitioned as in a ShardedKnowledgeGraph: each is stored on the node the house of
+ * its subject hashes to. Every query pattern is pushed down to the nodes, which evaluate it against
+ * their own indexes and send back only the matches. A query with a given subject is sent to one
+ * node; other queries are scattered to every node at once and the responses gathered and merged.
+ * Counts are computed on the nodes and only the numbers travel.
+ *
+ * A conjunctive query whose subjects are all on one node is solved by that node. Other conjunctive
+ * queries are joined here with a BindJoin, which sends the lookups of each step to the nodes in one
+ * message per node.
+ */
+public final class DistributedKnowledgeGraph {
+
+	private final Transport transport;
+
+	/**
+	 * @param transport the transport to the storage nodes, which must hold the partitions this
+	 * coordinator made for the same number of nodes, or nothing.
+	 */
+	public DistributedKnowledgeGraph(Transport transport){
+		this.transport = transport;
+	}
+
+	/**
+	 * @return the number of storage nodes.
+	 */
+	public int getNodeCount(){
+		return transport.getNodeCount();
+	}
+
+	/**
+	 * Imports a list of triples, sending each node its part in one message. Each node commits its
+	 * part as one change.
+	 * @param tripleList the list of tripleLiterals to be imported.
+	 */
+	public void importTriples(List<TripleLiteral> tripleList){
+		sendPartitioned(ClusterProtocol.IMPORT, tripleList);
+	}
+
+	/**
+	 * @param subject A Node that is the subject.
+	 * @param predicate A string representing the predicate.
+	 * @param object A Node to be used for the object.
+	 * @return the imported triple.
+	 */
+	public Triple importTriple(Node subject, String predicate, Node object){
+		sendPartitioned(ClusterProtocol.IMPORT, Collections.singletonList(new TripleLiteral(subject.getIdentifier(), predicate, object.getIdentifier())));
+		return new Triple(subject, new Predicate(predicate), object);
+	}
+
+	/**
+	 * @param subject the Node of the subject for the triple to be deleted.
+	 * @param predicateString the string of the predicate for the triple to be deleted.
+	 * @param object the Node of the object for the triple to be deleted.
+	 */
+	public void deleteTriple(Node subject, String predicateString, Node object){
+		sendPartitioned(ClusterProtocol.DELETE, Collections.singletonList(new TripleLiteral(subject.getIdentifier(), predicateString, object.getIdentifier())));
+	}
+
+	/**
+	 * Deletes a list of triples, sending each node its part in one message.
+	 * @param tripleList the list of tripleLiterals to be deleted.
+	 */
+	public void deleteTriples(List<TripleLiteral> tripleList){
+		sendPartitioned(ClusterProtocol.DELETE, tripleList);
+	}
+
+	/**
+	 * Deletes every triple a Node is the subject or object of, on every node.
+	 * @param node the Node.
+	 * @return the number of triples deleted.
+	 */
+	public int deleteNode(Node node){
+		ClusterProtocol.Writer request = new ClusterProtocol.Writer(ClusterProtocol.DELETE_NODE);
+		request.writeString(node.getIdentifier());
+		int deleted = 0;
+		for(ClusterProtocol.Reader response : broadcast(request.toByteArray())){
+			deleted += response.readInt();
+		}
+		return deleted;
+	}
+
+	/**
+	 * Replaces the object of a triple in one change on the subject's node.
+	 * @param subject the Node of the subject.
+	 * @param predicateString the string of the predicate.
+	 * @param oldObject the Node of the object to remove.
+	 * @param newObject the Node of the object to add.
+	 * @return the added triple.
+	 */
+	public Triple replaceTriple(Node subject, String predicateString, Node oldObject, Node newObject){
+		ClusterProtocol.Writer request = new ClusterProtocol.Writer(ClusterProtocol.REPLACE);
+		request.writeTriple(subject.getIdentifier(), predicateString, oldObject.getIdentifier());
+		request.writeString(newObject.getIdentifier());
+		await(nodeOf(subject.getIdentifier()), transport.send(nodeOf(subject.getIdentifier()), request.toByteArray()));
+		return new Triple(subject, new Predicate(predicateString), newObject);
+	}
+
+	/**
+	 * Executes a query on the subject's node if the subject is given, and on every node otherwise.
+	 * @param query the Triple to search the KnowledgeGraph.
+	 * @return a read only set of the matching triples.
+	 * @throws IllegalArgumentException if the predicate is a property path that is not well formed.
+	 */
+	public Set<Triple> executeQuery(TripleLiteral query){
+		Collection<Triple> matches = match(Collections.singletonList(query)).get(0);
+		return Collections.unmodifiableSet(new LinkedHashSet<Triple>(matches));
+	}
+
+	/**
+	 * Gets all the objects from the results of a query. Only the distinct objects of each node travel.
+	 * @param query the query
+	 * @return a read only set of the objects matching the query.
+	 * @throws IllegalArgumentException if the predicate is a property path that is not well formed.
+	 */
+	public Set<Node> getObjectsFromQuery(TripleLiteral query){
+		ClusterProtocol.Writer request = new ClusterProtocol.Writer(ClusterProtocol.OBJECTS);
+		request.writeTriple(query.getSubject(), query.getPredicate(), query.getObject());
+		Set<Identifier> seen = new HashSet<Identifier>();
+		Set<Node> objects = new LinkedHashSet<Node>();
+		for(ClusterProtocol.Reader response : sendToSubject(query.getSubject(), request.toByteArray())){
+			int count = response.readInt();
+			for(int i = 0; i < count; i++){
+				Identifier identifier = new Identifier(response.readString());
+				if(seen.add(identifier)){
+					objects.add(new Node(identifier));
+				}
+			}
+		}
+		return Collections.unmodifiableSet(objects);
+	}
+
+	/**
+	 * @param query the pattern, with "?" for any term.
+	 * @return the number of matching triples, counted on the nodes.
+	 */
+	public int countMatches(TripleLiteral query){
+		ClusterProtocol.Writer request = new ClusterProtocol.Writer(ClusterProtocol.COUNT);
+		request.writeTriple(query.getSubject(), query.getPredicate(), query.getObject());
+		int count = 0;
+		for(ClusterProtocol.Reader response : sendToSubject(query.getSubject(), request.toByteArray())){
+			count += response.readInt();
+		}
+		return count;
+	}
+
+	/**
+	 * @param query the pattern, with "?" for any term.
+	 * @return true if any triple matches the query.
+	 */
+	public boolean ask(TripleLiteral query){
+		return countMatches(query) > 0;
+	}
+
+	/**
+	 * Executes a conjunctive query, on one node if every subject is given and on that node, and
+	 * joined across the nodes otherwise.
+	 * @param patterns the patterns of the query.
+	 * @return a row of bindings for each solution.
+	 * @throws IllegalArgumentException if a variable is used both as a predicate and as a node, or a
+	 * property path is used with named variables or other patterns.
+	 */
+	public BindingTable executeQuery(List<TripleLiteral> patterns){
+		int node = route(patterns);
+		if(node < 0){
+			return join(patterns);
+		}
+		ClusterProtocol.Writer request = new ClusterProtocol.Writer(ClusterProtocol.SOLVE);
+		request.writePatterns(patterns);
+		ClusterProtocol.Reader response = await(node, transport.send(node, request.toByteArray()));
+		String[] variables = new String[response.readInt()];
+		boolean[] predicates = new boolean[variables.length];
+		for(int column = 0; column < variables.length; column++){
+			variables[column] = response.readString();
+			for(TripleLiteral pattern : patterns){
+				predicates[column] |= pattern.getPredicate().equalsIgnoreCase(variables[column]);
+			}
+		}
+		int size = response.readInt();
+		BindingTable table = new BindingTable(variables, predicates, size);
+		for(int row = 0; row < size; row++){
+			String[] identifiers = new String[variables.length];
+			for(int column = 0; column < identifiers.length; column++){
+				identifiers[column] = response.readString();
+			}
+			table.add(identifiers);
+		}
+		return table;
+	}
+
+	/**
+	 * Counts the solutions of a conjunctive query on the nodes when no join across them is needed.
+	 * @param patterns the patterns, which must all match.
+	 * @return the number of solutions.
+	 * @throws IllegalArgumentException if a variable is used both as a predicate and as a node, or a
+	 * property path is used with named variables or other patterns.
+	 */
+	public int countMatches(List<TripleLiteral> patterns){
+		int node = route(patterns);
+		boolean countable = patterns.size() == 1 && BindJoin.isCountable(patterns.get(0));
+		if(node < 0 && !countable){
+			return join(patterns).size();
+		}
+		ClusterProtocol.Writer request = new ClusterProtocol.Writer(ClusterProtocol.COUNT_SOLUTIONS);
+		request.writePatterns(patterns);
+		List<ClusterProtocol.Reader> responses = node < 0 ? broadcast(request.toByteArray())
+				: Collections.singletonList(await(node, transport.send(node, request.toByteArray())));
+		int count = 0;
+		for(ClusterProtocol.Reader response : responses){
+			count += response.readInt();
+		}
+		return count;
+	}
+
+	/**
+	 * @param patterns the patterns, which must all match.
+	 * @return true if the query has a solution.
+	 * @throws IllegalArgumentException if a variable is used both as a predicate and as a node, or a
+	 * property path is used with named variables or other patterns.
+	 */
+	public boolean ask(List<TripleLiteral> patterns){
+		return countMatches(patterns) > 0;
+	}
+
+	/**
+	 * @return the node that holds the triples of a subject's house.
+	 */
+	private int nodeOf(String subject){
+		return ShardedKnowledgeGraph.partitionOf(subject, transport.getNodeCount());
+	}
+
+	/**
+	 * @return the one node that holds every triple a query can match, or -1 if the query has a
+	 * variable subject or subjects on several nodes.
+	 */
+	private int route(List<TripleLiteral> patterns){
+		int node = -1;
+		for(TripleLiteral pattern : patterns){
+			if(pattern.getSubject().startsWith("?")){
+				return -1;
+			}
+			int next = nodeOf(pattern.getSubject());
+			if(node >= 0 && next != node){
+				return -1;
+			}
+			node = next;
+		}
+		return node;
+	}
+
+	private BindingTable join(List<TripleLiteral> patterns){
+		return BindJoin.join(patterns, new BindJoin.Source(){
+			@Override
+			List<Collection<Triple>> match(List<TripleLiteral> queries){
+				return DistributedKnowledgeGraph.this.match(queries);
+			}
+		});
+	}
+
+	/**
+	 * Finds the matches of several patterns with one message to each node involved: a pattern with a
+	 * given subject goes to the subject's node, and the others go to every node.
+	 * @return the matches of each pattern, in order.
+	 */
+	private List<Collection<Triple>> match(List<TripleLiteral> patterns){
+		int nodeCount = transport.getNodeCount();
+		List<List<Integer>> sent = new ArrayList<List<Integer>>(nodeCount);
+		for(int node = 0; node < nodeCount; node++){
+			sent.add(new ArrayList<Integer>());
+		}
+		for(int i = 0; i < patterns.size(); i++){
+			String subject = patterns.get(i).getSubject();
+			if(subject.equals("?")){
+				for(List<Integer> indexes : sent){
+					indexes.add(i);
+				}
+			}else{
+				sent.get(nodeOf(subject)).add(i);
+			}
+		}
+		List<Future<byte[]>> futures = new ArrayList<Future<byte[]>>(nodeCount);
+		for(int node = 0; node < nodeCount; node++){
+			if(sent.get(node).isEmpty()){
+				futures.add(null);
+				continue;
+			}
+			List<TripleLiteral> nodePatterns = new ArrayList<TripleLiteral>(sent.get(node).size());
+			for(int i : sent.get(node)){
+				nodePatterns.add(patterns.get(i));
+			}
+			ClusterProtocol.Writer request = new ClusterProtocol.Writer(ClusterProtocol.MATCH);
+			request.writePatterns(nodePatterns);
+			futures.add(transport.send(node, request.toByteArray()));
+		}
+		List<Collection<Triple>> matches = new ArrayList<Collection<Triple>>(patterns.size());
+		for(int i = 0; i < patterns.size(); i++){
+			matches.add(new ArrayList<Triple>());
+		}
+		for(int node = 0; node < nodeCount; node++){
+			if(futures.get(node) == null){
+				continue;
+			}
+			ClusterProtocol.Reader response = await(node, futures.get(node));
+			for(int i : sent.get(node)){
+				int count = response.readInt();
+				Collection<Triple> patternMatches = matches.get(i);
+				for(int m = 0; m < count; m++){
+					patternMatches.add(new Triple(new Node(response.readString()), new Predicate(response.readString()), new Node(response.readString())));
+				}
+			}
+		}
+		return matches;
+	}
+
+	/**
+	 * Sends a list of triples to the nodes of their subjects, one message per node, and waits for all of them.
+	 */
+	private void sendPartitioned(byte operation, List<TripleLiteral> tripleList){
+		int nodeCount = transport.getNodeCount();
+		List<List<TripleLiteral>> parts = new ArrayList<List<TripleLiteral>>(nodeCount);
+		for(int node = 0; node < nodeCount; node++){
+			parts.add(new ArrayList<TripleLiteral>());
+		}
+		for(TripleLiteral tripleLiteral : tripleList){
+			parts.get(nodeOf(tripleLiteral.getSubject())).add(tripleLiteral);
+		}
+		List<Future<byte[]>> futures = new ArrayList<Future<byte[]>>(nodeCount);
+		for(int node = 0; node < nodeCount; node++){
+			if(parts.get(node).isEmpty()){
+				futures.add(null);
+				continue;
+			}
+			ClusterProtocol.Writer request = new ClusterProtocol.Writer(operation);
+			request.writePatterns(parts.get(node));
+			futures.add(transport.send(node, request.toByteArray()));
+		}
+		for(int node = 0; node < nodeCount; node++){
+			if(futures.get(node) != null){
+				await(node, futures.get(node));
+			}
+		}
+	}
+
+	/**
+	 * Sends a request to the node of a subject, or to every node if the subject is "?".
+	 * @return the responses.
+	 */
+	private List<ClusterProtocol.Reader> sendToSubject(String subject, byte[] request){
+		if(subject.equals("?")){
+			return broadcast(request);
+		}
+		int node = nodeOf(subject);
+		return Collections.singletonList(await(node, transport.send(node, request)));
+	}
+
+	/**
+	 * Sends a request to every node at once, then waits for all of them.
+	 * @return the responses, in node order.
+	 */
+	private List<ClusterProtocol.Reader> broadcast(byte[] request){
+		int nodeCount = transport.getNodeCount();
+		List<Future<byte[]>> futures = new ArrayList<Future<byte[]>>(nodeCount);
+		for(int node = 0; node < nodeCount; node++){
+			futures.add(transport.send(node, request));
+		}
+		List<ClusterProtocol.Reader> responses = new ArrayList<ClusterProtocol.Reader>(nodeCount);
+		for(int node = 0; node < nodeCount; node++){
+			responses.add(await(node, futures.get(node)));
+		}
+		return responses;
+	}
+
+	/**
+	 * Waits for a response and checks its status.
+	 * @return a reader positioned at the result.
+	 * @throws IllegalArgumentException if the node refused the request as invalid.
+	 * @throws IllegalStateException if the request failed or could not be delivered.
+	 */
+	private static ClusterProtocol.Reader await(int node, Future<byte[]> future){
+		byte[] message;
+		try{
+			message = future.get();
+		}catch(InterruptedException e){
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException("Interrupted while waiting for storage node " + node + ".", e);
+		}catch(ExecutionException e){
+			throw new IllegalStateException("Storage node " + node + " could not be reached.", e.getCause());
+		}
+		ClusterProtocol.Reader response = new ClusterProtocol.Reader(message);
+		byte status = response.readByte();
+		if(status == ClusterProtocol.INVALID){
+			throw new IllegalArgumentException(response.readString());
+		}
+		if(status != ClusterProtocol.OK){
+			throw new IllegalStateException("Storage node " + node + " failed: " + response.readString());
+		}
+		return response;
+	}
+}
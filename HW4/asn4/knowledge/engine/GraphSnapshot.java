@@ -0,0 +1,124 @@
+package cscie97.asn4.knowledge.engine;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+
+/**
+ * A GraphSnapshot is a compact binary copy of one GraphVersion, written by a checkpoint so that
+ * recovery does not need the log that led up to it. The file holds the node and predicate
+ * identifiers in id order, then the triples in subject-predicate-object order as variable length
+ * integers, each subject as the difference from the one before, then the history of the tracked
+ * predicates as the TripleHistory writes it. Snapshots written before history was saved are still
+ * read, with no history.
+ *
+ * A snapshot is written to a temporary file, synced, and then renamed, so a snapshot file is
+ * always complete.
+ */
+final class GraphSnapshot {
+
+	private static final int MAGIC = 0x4B475332;
+	/** The magic number of snapshots without history. */
+	private static final int MAGIC_WITHOUT_HISTORY = 0x4B475331;
+
+	private GraphSnapshot(){
+	}
+
+	/**
+	 * Writes a snapshot of a version.
+	 * @param knowledgeGraph the KnowledgeGraph the version belongs to.
+	 * @param version the version to write.
+	 * @param history the history as of the version, captured from the KnowledgeGraph's.
+	 * @param file the snapshot file.
+	 * @throws IOException if the file cannot be written.
+	 */
+	static void write(KnowledgeGraph knowledgeGraph, GraphVersion version, TripleHistory history, File file) throws IOException {
+		File temporary = new File(file.getPath() + ".tmp");
+		FileOutputStream stream = new FileOutputStream(temporary);
+		DataOutputStream output = new DataOutputStream(new BufferedOutputStream(stream, 1 << 16));
+		try{
+			output.writeInt(MAGIC);
+			output.writeLong(version.getNumber());
+			int nodeCount = knowledgeGraph.getNodeCount();
+			WriteAheadLog.writeVarInt(output, nodeCount);
+			for(int id = 1; id <= nodeCount; id++){
+				WriteAheadLog.writeString(output, knowledgeGraph.decodeNode(id).getIdentifier());
+			}
+			int predicateCount = knowledgeGraph.getPredicateCount();
+			WriteAheadLog.writeVarInt(output, predicateCount);
+			for(int id = 1; id <= predicateCount; id++){
+				WriteAheadLog.writeString(output, knowledgeGraph.decodePredicate(id).getIdentifier());
+			}
+			WriteAheadLog.writeVarInt(output, version.size());
+			TripleCursor cursor = knowledgeGraph.openCursor(version, TermDictionary.WILDCARD, TermDictionary.WILDCARD, TermDictionary.WILDCARD);
+			int subject = 0;
+			while(cursor.next()){
+				WriteAheadLog.writeVarInt(output, cursor.getSubjectId() - subject);
+				WriteAheadLog.writeVarInt(output, cursor.getPredicateId());
+				WriteAheadLog.writeVarInt(output, cursor.getObjectId());
+				subject = cursor.getSubjectId();
+			}
+			history.write(output);
+			output.flush();
+			stream.getFD().sync();
+		}finally{
+			output.close();
+		}
+		Files.move(temporary.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+	}
+
+	/**
+	 * Loads a snapshot into the KnowledgeGraph. The snapshot's ids are mapped to the graph's ids
+	 * through their identifiers, and the triples are committed in batches before the history is read.
+	 * @param knowledgeGraph the KnowledgeGraph to load into.
+	 * @param file the snapshot file.
+	 * @return the number of triples in the snapshot.
+	 * @throws IOException if the file cannot be read or is not a snapshot.
+	 */
+	static int read(KnowledgeGraph knowledgeGraph, File file) throws IOException {
+		DataInputStream input = new DataInputStream(new BufferedInputStream(new FileInputStream(file), 1 << 16));
+		try{
+			int magic = input.readInt();
+			if(magic != MAGIC && magic != MAGIC_WITHOUT_HISTORY){
+				throw new IOException("Not a snapshot file: " + file);
+			}
+			input.readLong();
+			int[] nodes = new int[WriteAheadLog.readVarInt(input) + 1];
+			for(int id = 1; id < nodes.length; id++){
+				nodes[id] = knowledgeGraph.internNode(WriteAheadLog.readString(input));
+			}
+			int[] predicates = new int[WriteAheadLog.readVarInt(input) + 1];
+			for(int id = 1; id < predicates.length; id++){
+				predicates[id] = knowledgeGraph.internPredicate(WriteAheadLog.readString(input));
+			}
+			int tripleCount = WriteAheadLog.readVarInt(input);
+			int[] batch = new int[TripleChunkParser.BATCH_SIZE * 3];
+			int batchCount = 0;
+			int subject = 0;
+			for(int i = 0; i < tripleCount; i++){
+				subject += WriteAheadLog.readVarInt(input);
+				batch[batchCount * 3] = nodes[subject];
+				batch[batchCount * 3 + 1] = predicates[WriteAheadLog.readVarInt(input)];
+				batch[batchCount * 3 + 2] = nodes[WriteAheadLog.readVarInt(input)];
+				if(++batchCount == TripleChunkParser.BATCH_SIZE){
+					knowledgeGraph.importEncodedTriples(batch, batchCount);
+					batchCount = 0;
+				}
+			}
+			knowledgeGraph.importEncodedTriples(batch, batchCount);
+			if(magic == MAGIC){
+				knowledgeGraph.getHistory().read(input, nodes, predicates);
+			}
+			return tripleCount;
+		}finally{
+			input.close();
+		}
+	}
+}
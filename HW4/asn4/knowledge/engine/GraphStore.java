@@ -0,0 +1,237 @@
+package cscie97.asn4.knowledge.engine;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * A GraphStore keeps the KnowledgeGraph durable in a directory of log segments and snapshots.
+ *
+ * Every commit is appended to the current WriteAheadLog segment. A checkpoint starts a new
+ * segment N and writes snapshot N of the version committed just before it, so snapshot N
+ * holds everything in the segments below N. Recovery loads the latest snapshot and replays
+ * only the segments from its number on, so restart time depends on the size of the graph and
+ * the changes since the last checkpoint, not on the whole history. Older files are deleted once
+ * a newer snapshot is complete. Snapshots also hold the history of the tracked predicates, and the
+ * log the times of the commits after them, so history is recovered with the triples.
+ *
+ * A checkpoint is started in the background every CHECKPOINT_RECORDS logged records.
+ *
+ * The KnowledgeGraph commits while holding the GraphStore's lock, so the log is in commit order.
+ */
+final class GraphStore {
+
+	static final long CHECKPOINT_RECORDS = 1000000;
+
+	private static final String LOG_PREFIX = "log-";
+	private static final String LOG_SUFFIX = ".wal";
+	private static final String SNAPSHOT_PREFIX = "snapshot-";
+	private static final String SNAPSHOT_SUFFIX = ".kgs";
+
+	private final KnowledgeGraph knowledgeGraph;
+	private final File directory;
+	private final WriteAheadLog log;
+	private final Object checkpointLock = new Object();
+	private final ExecutorService checkpointer = Executors.newSingleThreadExecutor(new ThreadFactory(){
+		@Override
+		public Thread newThread(Runnable runnable){
+			Thread thread = new Thread(runnable, "KnowledgeGraph checkpoint");
+			thread.setDaemon(true);
+			return thread;
+		}
+	});
+
+	private boolean checkpointScheduled = false;
+	private IOException checkpointFailure;
+	private boolean closed = false;
+
+	private GraphStore(KnowledgeGraph knowledgeGraph, File directory, long segment) throws IOException {
+		this.knowledgeGraph = knowledgeGraph;
+		this.directory = directory;
+		log = new WriteAheadLog(knowledgeGraph, directory, segment);
+	}
+
+	/**
+	 * Recovers the KnowledgeGraph from a directory and starts logging to it. The directory is
+	 * created if it does not exist.
+	 * @param knowledgeGraph the KnowledgeGraph to recover into.
+	 * @param directory the directory of the store.
+	 * @return the open store.
+	 * @throws IOException if the directory cannot be read or written.
+	 */
+	static GraphStore open(KnowledgeGraph knowledgeGraph, File directory) throws IOException {
+		if(!directory.isDirectory() && !directory.mkdirs()){
+			throw new IOException("Cannot create the directory " + directory);
+		}
+		List<Long> snapshots = getNumbers(directory, SNAPSHOT_PREFIX, SNAPSHOT_SUFFIX);
+		long snapshot = snapshots.isEmpty() ? 0 : snapshots.get(snapshots.size() - 1);
+		if(!snapshots.isEmpty()){
+			GraphSnapshot.read(knowledgeGraph, getSnapshotFile(directory, snapshot));
+		}
+		long next = snapshot;
+		for(long segment : getNumbers(directory, LOG_PREFIX, LOG_SUFFIX)){
+			if(segment >= snapshot){
+				WriteAheadLog.replay(knowledgeGraph, getLogFile(directory, segment));
+				next = segment + 1;
+			}
+		}
+		GraphStore store = new GraphStore(knowledgeGraph, directory, next);
+		store.deleteBefore(snapshot);
+		return store;
+	}
+
+	/**
+	 * Logs a commit. Must be called while holding this store's lock, in commit order.
+	 * @param time the time of the commit.
+	 * @return the sequence number to wait for with awaitDurable.
+	 */
+	long append(int[] removed, int removedCount, int[] added, int addedCount, long time){
+		long sequence = log.append(removed, removedCount, added, addedCount, time);
+		scheduleCheckpoint();
+		return sequence;
+	}
+
+	/**
+	 * Logs that the history of a predicate is kept from a time. Must be called while holding this
+	 * store's lock, in commit order.
+	 * @return the sequence number to wait for with awaitDurable.
+	 */
+	long appendTrack(int predicate, long time){
+		return log.appendTrack(predicate, time);
+	}
+
+	private void scheduleCheckpoint(){
+		if(log.getRecordCount() >= CHECKPOINT_RECORDS && !checkpointScheduled){
+			checkpointScheduled = true;
+			checkpointer.execute(new Runnable(){
+				@Override
+				public void run(){
+					try{
+						checkpoint();
+					}catch(IOException e){
+						synchronized(GraphStore.this){
+							checkpointFailure = e;
+						}
+					}finally{
+						synchronized(GraphStore.this){
+							checkpointScheduled = false;
+						}
+					}
+				}
+			});
+		}
+	}
+
+	/**
+	 * Waits until a logged commit is durable.
+	 * @throws IOException if the log could not be written.
+	 */
+	void awaitDurable(long sequence) throws IOException {
+		log.awaitDurable(sequence);
+	}
+
+	/**
+	 * Writes a snapshot of the current version and its history, and deletes the files it replaces.
+	 * Commits only wait while the log segment is switched and the history copied, not while the
+	 * snapshot is written.
+	 * @throws IOException if the snapshot cannot be written, or an earlier background checkpoint failed.
+	 */
+	void checkpoint() throws IOException {
+		synchronized(checkpointLock){
+			GraphVersion version;
+			TripleHistory history;
+			long segment;
+			synchronized(this){
+				if(closed){
+					throw new IOException("The store is closed.");
+				}
+				if(checkpointFailure != null){
+					IOException failure = checkpointFailure;
+					checkpointFailure = null;
+					throw failure;
+				}
+				version = knowledgeGraph.getCommittedVersion();
+				history = knowledgeGraph.getHistory().capture();
+				segment = log.rotate();
+			}
+			GraphSnapshot.write(knowledgeGraph, version, history, getSnapshotFile(directory, segment));
+			deleteBefore(segment);
+		}
+	}
+
+	/**
+	 * Syncs the log and closes the store. Later commits are not logged.
+	 * @throws IOException if the log could not be written.
+	 */
+	void close() throws IOException {
+		synchronized(this){
+			if(closed){
+				return;
+			}
+			closed = true;
+		}
+		checkpointer.shutdown();
+		synchronized(checkpointLock){
+			synchronized(this){
+				log.close();
+			}
+		}
+	}
+
+	/**
+	 * @return true once close has been called. Must be called while holding this store's lock.
+	 */
+	boolean isClosed(){
+		return closed;
+	}
+
+	static File getLogFile(File directory, long segment){
+		return new File(directory, LOG_PREFIX + segment + LOG_SUFFIX);
+	}
+
+	static File getSnapshotFile(File directory, long segment){
+		return new File(directory, SNAPSHOT_PREFIX + segment + SNAPSHOT_SUFFIX);
+	}
+
+	/**
+	 * Deletes the log segments and snapshots that a snapshot replaces.
+	 */
+	private void deleteBefore(long snapshot){
+		for(long segment : getNumbers(directory, LOG_PREFIX, LOG_SUFFIX)){
+			if(segment < snapshot){
+				getLogFile(directory, segment).delete();
+			}
+		}
+		for(long older : getNumbers(directory, SNAPSHOT_PREFIX, SNAPSHOT_SUFFIX)){
+			if(older < snapshot){
+				getSnapshotFile(directory, older).delete();
+			}
+		}
+	}
+
+	/**
+	 * @return the numbers of the files named prefix, number, suffix in a directory, in ascending order.
+	 */
+	private static List<Long> getNumbers(File directory, String prefix, String suffix){
+		List<Long> numbers = new ArrayList<Long>();
+		String[] names = directory.list();
+		if(names != null){
+			for(String name : names){
+				if(name.startsWith(prefix) && name.endsWith(suffix)){
+					try{
+						numbers.add(Long.parseLong(name.substring(prefix.length(), name.length() - suffix.length())));
+					}catch(NumberFormatException e){
+						/** Not one of ours. */
+					}
+				}
+			}
+		}
+		Collections.sort(numbers);
+		return numbers;
+	}
+}
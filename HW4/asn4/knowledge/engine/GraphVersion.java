@@ -0,0 +1,308 @@
+package cscie97.asn4.knowledge.engine;
+
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * A GraphVersion is one committed state of the KnowledgeGraph: the three PermutationIndexes
+ * as they were after a given number of changes. A GraphVersion is immutable, so a reader
+ * holding one sees the same triples in every index for as long as it keeps it. Changes
+ * return a new GraphVersion that shares all unchanged index nodes with this one, and old
+ * versions are reclaimed by the garbage collector once no reader refers to them.
+ *
+ * Each GraphVersion also carries the PredicateStatistics of its triples, indexed by predicate id.
+ * A change copies the array and the statistics of the predicates it touches.
+ */
+final class GraphVersion {
+
+	static final GraphVersion EMPTY = new GraphVersion(0, PermutationIndex.EMPTY, PermutationIndex.EMPTY, PermutationIndex.EMPTY,
+			new PredicateStatistics[0]);
+
+	private final long number;
+	private final PermutationIndex spoIndex;
+	private final PermutationIndex posIndex;
+	private final PermutationIndex ospIndex;
+	private final PredicateStatistics[] statistics;
+
+	private GraphVersion(long number, PermutationIndex spoIndex, PermutationIndex posIndex, PermutationIndex ospIndex,
+			PredicateStatistics[] statistics){
+		this.number = number;
+		this.spoIndex = spoIndex;
+		this.posIndex = posIndex;
+		this.ospIndex = ospIndex;
+		this.statistics = statistics;
+	}
+
+	/**
+	 * Creates a version that reads the indexes of a TripleFile.
+	 * @param number the number of the version.
+	 * @param file the mapped file.
+	 * @return the version.
+	 */
+	static GraphVersion mapped(long number, TripleFile file){
+		return new GraphVersion(number, PermutationIndex.mapped(file.getIndex(TripleCursor.SPO)),
+				PermutationIndex.mapped(file.getIndex(TripleCursor.POS)), PermutationIndex.mapped(file.getIndex(TripleCursor.OSP)),
+				file.getStatistics());
+	}
+
+	/**
+	 * Copies the indexes into direct buffers outside the Java heap. The copy holds the same triples
+	 * with the same ids, so it keeps the number of this version.
+	 * @param nodeCount the number of Nodes in the dictionary.
+	 * @param predicateCount the number of Predicates in the dictionary.
+	 * @return the copy.
+	 */
+	GraphVersion moveOffHeap(int nodeCount, int predicateCount){
+		return new GraphVersion(number, PermutationIndex.mapped(TripleFile.copyIndex(spoIndex, nodeCount + 1, predicateCount + 1, nodeCount + 1)),
+				PermutationIndex.mapped(TripleFile.copyIndex(posIndex, predicateCount + 1, nodeCount + 1, nodeCount + 1)),
+				PermutationIndex.mapped(TripleFile.copyIndex(ospIndex, nodeCount + 1, nodeCount + 1, predicateCount + 1)), statistics);
+	}
+
+	/**
+	 * Adds a triple.
+	 * @param subject the subject id.
+	 * @param predicate the predicate id.
+	 * @param object the object id.
+	 * @return the next version with the triple added, or this version if the triple was already present.
+	 */
+	GraphVersion add(int subject, int predicate, int object){
+		PermutationIndex spo = spoIndex.add(subject, predicate, object);
+		if(spo == spoIndex){
+			return this;
+		}
+		PermutationIndex pos = posIndex.add(predicate, object, subject);
+		return new GraphVersion(number + 1, spo, pos, ospIndex.add(object, subject, predicate),
+				updateStatistics(spo, pos, subject, predicate, object, 1));
+	}
+
+	/**
+	 * Adds a batch of triples in one change.
+	 * @param ids the subject, predicate and object ids of each triple, packed one after the other.
+	 * @param count the number of triples in ids.
+	 * @return the next version with the triples added, or this version if all of them were already present.
+	 */
+	GraphVersion addAll(int[] ids, int count){
+		int[] firsts = new int[count];
+		long[] keys = new long[count];
+		for(int i = 0; i < count; i++){
+			firsts[i] = ids[i * 3];
+			keys[i] = PermutationIndex.pack(ids[i * 3 + 1], ids[i * 3 + 2]);
+		}
+		PermutationIndex spo = spoIndex.addAll(firsts, keys, count);
+		if(spo == spoIndex){
+			return this;
+		}
+		for(int i = 0; i < count; i++){
+			firsts[i] = ids[i * 3 + 1];
+			keys[i] = PermutationIndex.pack(ids[i * 3 + 2], ids[i * 3]);
+		}
+		PermutationIndex pos = posIndex.addAll(firsts, keys, count);
+		for(int i = 0; i < count; i++){
+			firsts[i] = ids[i * 3 + 2];
+			keys[i] = PermutationIndex.pack(ids[i * 3], ids[i * 3 + 1]);
+		}
+		PermutationIndex osp = ospIndex.addAll(firsts, keys, count);
+		return new GraphVersion(number + 1, spo, pos, osp, updateStatistics(spo, pos, ids, count));
+	}
+
+	/**
+	 * Removes a triple.
+	 * @param subject the subject id.
+	 * @param predicate the predicate id.
+	 * @param object the object id.
+	 * @return the next version with the triple removed, or this version if the triple was not present.
+	 */
+	GraphVersion remove(int subject, int predicate, int object){
+		PermutationIndex spo = spoIndex.remove(subject, predicate, object);
+		if(spo == spoIndex){
+			return this;
+		}
+		PermutationIndex pos = posIndex.remove(predicate, object, subject);
+		return new GraphVersion(number + 1, spo, pos, ospIndex.remove(object, subject, predicate),
+				updateStatistics(spo, pos, subject, predicate, object, -1));
+	}
+
+	/**
+	 * Removes a batch of triples in one change.
+	 * @param ids the subject, predicate and object ids of each triple, packed one after the other.
+	 * @param count the number of triples in ids.
+	 * @return the next version with the triples removed, or this version if none of them were present.
+	 */
+	GraphVersion removeAll(int[] ids, int count){
+		int[] firsts = new int[count];
+		long[] keys = new long[count];
+		for(int i = 0; i < count; i++){
+			firsts[i] = ids[i * 3];
+			keys[i] = PermutationIndex.pack(ids[i * 3 + 1], ids[i * 3 + 2]);
+		}
+		PermutationIndex spo = spoIndex.removeAll(firsts, keys, count);
+		if(spo == spoIndex){
+			return this;
+		}
+		for(int i = 0; i < count; i++){
+			firsts[i] = ids[i * 3 + 1];
+			keys[i] = PermutationIndex.pack(ids[i * 3 + 2], ids[i * 3]);
+		}
+		PermutationIndex pos = posIndex.removeAll(firsts, keys, count);
+		for(int i = 0; i < count; i++){
+			firsts[i] = ids[i * 3 + 2];
+			keys[i] = PermutationIndex.pack(ids[i * 3], ids[i * 3 + 1]);
+		}
+		PermutationIndex osp = ospIndex.removeAll(firsts, keys, count);
+		return new GraphVersion(number + 1, spo, pos, osp, updateStatistics(spo, pos, ids, count));
+	}
+
+	/**
+	 * Compacts the Buckets that deletes left tombstones in. The triples stay the same, so the
+	 * compacted version keeps this version's number.
+	 * @param orders the index order of each Bucket.
+	 * @param firsts the first id of each Bucket.
+	 * @param count the number of Buckets.
+	 * @return the compacted version, or this version if there was nothing to compact.
+	 */
+	GraphVersion compact(int[] orders, int[] firsts, int count){
+		PermutationIndex[] indexes = { spoIndex, posIndex, ospIndex };
+		boolean changed = false;
+		for(int i = 0; i < count; i++){
+			PermutationIndex compacted = indexes[orders[i]].compact(firsts[i]);
+			changed |= compacted != indexes[orders[i]];
+			indexes[orders[i]] = compacted;
+		}
+		if(!changed){
+			return this;
+		}
+		return new GraphVersion(number, indexes[TripleCursor.SPO], indexes[TripleCursor.POS], indexes[TripleCursor.OSP], statistics);
+	}
+
+	/**
+	 * @return the statistics for a triple added or removed, with the indexes after the change.
+	 */
+	private PredicateStatistics[] updateStatistics(PermutationIndex spo, PermutationIndex pos, int subject, int predicate, int object, int change){
+		PredicateStatistics[] updated = copyStatistics(predicate);
+		PredicateStatistics predicateStatistics = getStatistics(predicate).copy();
+		int subjectCount = countSubject(spo, subject, predicate);
+		predicateStatistics.updateSubject(subject, subjectCount - change, subjectCount);
+		int objectCount = countObject(pos, predicate, object);
+		predicateStatistics.updateObject(object, objectCount - change, objectCount);
+		updated[predicate] = predicateStatistics;
+		return updated;
+	}
+
+	/**
+	 * @return the statistics for a batch of added or removed triples, with the indexes after the change.
+	 * Each subject and object is counted once per predicate, however many triples of the batch it is in.
+	 */
+	private PredicateStatistics[] updateStatistics(PermutationIndex spo, PermutationIndex pos, int[] ids, int count){
+		int highest = 0;
+		for(int i = 0; i < count; i++){
+			highest = Math.max(highest, ids[i * 3 + 1]);
+		}
+		PredicateStatistics[] updated = copyStatistics(highest);
+		boolean[] copied = new boolean[updated.length];
+		Set<Long> subjects = new HashSet<Long>();
+		Set<Long> objects = new HashSet<Long>();
+		for(int i = 0; i < count; i++){
+			int subject = ids[i * 3];
+			int predicate = ids[i * 3 + 1];
+			int object = ids[i * 3 + 2];
+			if(!copied[predicate]){
+				updated[predicate] = getStatistics(predicate).copy();
+				copied[predicate] = true;
+			}
+			if(subjects.add(PermutationIndex.pack(predicate, subject))){
+				int before = countSubject(spoIndex, subject, predicate);
+				int after = countSubject(spo, subject, predicate);
+				if(before != after){
+					updated[predicate].updateSubject(subject, before, after);
+				}
+			}
+			if(objects.add(PermutationIndex.pack(predicate, object))){
+				int before = countObject(posIndex, predicate, object);
+				int after = countObject(pos, predicate, object);
+				if(before != after){
+					updated[predicate].updateObject(object, before, after);
+				}
+			}
+		}
+		return updated;
+	}
+
+	/**
+	 * @return a copy of the statistics array, long enough to hold the predicate id.
+	 */
+	private PredicateStatistics[] copyStatistics(int predicate){
+		PredicateStatistics[] updated = new PredicateStatistics[Math.max(statistics.length, predicate + 1)];
+		System.arraycopy(statistics, 0, updated, 0, statistics.length);
+		return updated;
+	}
+
+	private static int countSubject(PermutationIndex spo, int subject, int predicate){
+		return spo.getBucket(subject).count(PermutationIndex.lowestKey(predicate), PermutationIndex.highestKey(predicate));
+	}
+
+	private static int countObject(PermutationIndex pos, int predicate, int object){
+		return pos.getBucket(predicate).count(PermutationIndex.lowestKey(object), PermutationIndex.highestKey(object));
+	}
+
+	/**
+	 * @param predicate a predicate id.
+	 * @return the statistics of the predicate's triples in this version.
+	 */
+	PredicateStatistics getStatistics(int predicate){
+		if(predicate >= statistics.length || statistics[predicate] == null){
+			return PredicateStatistics.EMPTY;
+		}
+		return statistics[predicate];
+	}
+
+	/**
+	 * @return the number of predicates that have triples in this version.
+	 */
+	int getPredicateCount(){
+		int used = 0;
+		for(PredicateStatistics predicateStatistics : statistics){
+			if(predicateStatistics != null && predicateStatistics.getTripleCount() > 0){
+				used++;
+			}
+		}
+		return used;
+	}
+
+	/**
+	 * @return the number of changes committed up to this version.
+	 */
+	long getNumber(){
+		return number;
+	}
+
+	/**
+	 * @return the number of triples in this version.
+	 */
+	int size(){
+		return spoIndex.size();
+	}
+
+	/**
+	 * @param order TripleCursor.SPO, POS or OSP.
+	 * @return the index with that order.
+	 */
+	PermutationIndex getIndex(int order){
+		switch(order){
+			case TripleCursor.POS: return posIndex;
+			case TripleCursor.OSP: return ospIndex;
+			default: return spoIndex;
+		}
+	}
+
+	PermutationIndex getSpoIndex(){
+		return spoIndex;
+	}
+
+	PermutationIndex getPosIndex(){
+		return posIndex;
+	}
+
+	PermutationIndex getOspIndex(){
+		return ospIndex;
+	}
+}
@@ -0,0 +1,100 @@
+package cscie97.asn4.knowledge.engine;
+
+import java.util.Locale;
+
+/**
+ * An Identifier is the canonical form of a Node or Predicate identifier. Identifiers are compared
+ * without regard to case, so the lower cased key is made once, when the Identifier is created,
+ * rather than by every lookup. An identifier that is already lower case is its own key. Two
+ * Identifiers are equal when their keys are, and the hash of the key is cached, so an Identifier
+ * can be looked up again and again without copying a string.
+ *
+ * A raw identifier can be looked up too: hash and matches give its hash and compare it with a key
+ * a character at a time, so only an identifier that is not ASCII is lower cased to do so.
+ */
+public final class Identifier {
+
+	private final String identifier;
+	private final String key;
+	private final int hash;
+
+	/**
+	 * @param identifier the identifier, in any case.
+	 */
+	public Identifier(String identifier){
+		this.identifier = identifier;
+		key = identifier.toLowerCase(Locale.ROOT);
+		hash = key.hashCode();
+	}
+
+	/**
+	 * @return the identifier as it was given.
+	 */
+	public String getIdentifier(){
+		return identifier;
+	}
+
+	/**
+	 * @return the lower cased identifier.
+	 */
+	public String getKey(){
+		return key;
+	}
+
+	/**
+	 * @param identifier an identifier, in any case.
+	 * @return the hash of the identifier's key, which is the hashCode of an Identifier made from it.
+	 */
+	static int hash(String identifier){
+		int hash = 0;
+		for(int i = 0; i < identifier.length(); i++){
+			char c = identifier.charAt(i);
+			if(c >= 0x80){
+				return identifier.toLowerCase(Locale.ROOT).hashCode();
+			}
+			hash = 31 * hash + Character.toLowerCase(c);
+		}
+		return hash;
+	}
+
+	/**
+	 * @param identifier an identifier, in any case.
+	 * @return true if the identifier has this key.
+	 */
+	boolean matches(String identifier){
+		int length = identifier.length();
+		for(int i = 0; i < length; i++){
+			char c = identifier.charAt(i);
+			if(c >= 0x80){
+				/** Lower casing keeps the ASCII characters before c where they are. */
+				return key.equals(identifier.toLowerCase(Locale.ROOT));
+			}
+			if(i >= key.length() || key.charAt(i) != Character.toLowerCase(c)){
+				return false;
+			}
+		}
+		return length == key.length();
+	}
+
+	@Override
+	public boolean equals(Object other){
+		if(this == other){
+			return true;
+		}
+		if(!(other instanceof Identifier)){
+			return false;
+		}
+		Identifier identifier = (Identifier) other;
+		return hash == identifier.hash && key.equals(identifier.key);
+	}
+
+	@Override
+	public int hashCode(){
+		return hash;
+	}
+
+	@Override
+	public String toString(){
+		return identifier;
+	}
+}
@@ -5,9 +5,21 @@ import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
 import java.nio.charset.Charset;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import cscie97.asn4.housemate.exception.ImportException;
 
@@ -18,6 +30,11 @@ import cscie97.asn4.housemate.exception.ImportException;
  */
 public class Importer {
 
+	/** The largest chunk the bulk load maps at once. */
+	private static final long MAX_CHUNK_BYTES = 64L * 1024 * 1024;
+	/** The smallest chunk worth handing to another thread. */
+	private static final long MIN_CHUNK_BYTES = 1024 * 1024;
+
 	private final KnowledgeGraph knowledgeGraph = KnowledgeGraph.getInstance();
 	
 	/**
@@ -43,7 +60,7 @@ public class Importer {
 		    while ((line = br.readLine()) != null) {
 		    	lineNumber++;
 
-		        String[] tokens = getTokensFromLine(line, lineNumber);
+		        String[] tokens = getTokensFromLine(line, lineNumber, filename);
 		    	
 		        /** Tokens is null on empty lines. Skip and continue processing. */
 		        if(tokens == null){
@@ -56,7 +73,7 @@ public class Importer {
 		    knowledgeGraph.importTriples(tripleList);
 		
 		}catch(IOException e){
-			throw new ImportException(0, e.getMessage() , filename);
+			throw new ImportException(null, 0, filename, e);
 		} finally {
 			try {
 				if (fis != null)
@@ -64,20 +81,183 @@ public class Importer {
 				if (br != null)
 					br.close();
 			} catch (IOException ex) {
-				throw new ImportException(0, ex.getMessage() , filename);
+				throw new ImportException(null, 0, filename, ex);
 			}
 		}
 
 	}
 	
+	/**
+	 * Bulk loads a large N-Triple file. The file is memory mapped and split into line aligned chunks,
+	 * which are parsed on all available processors. The parsed triples are encoded and committed
+	 * to the KnowledgeGraph in batches as the chunks are parsed, so the whole file is never held in
+	 * memory as TripleLiterals.
+	 *
+	 * The lines are validated with the same rules as importTripleFile, and the first invalid line
+	 * is reported with its line number. Unlike importTripleFile, the load is not all or nothing:
+	 * the lines before the invalid line may have been committed, and stay in the KnowledgeGraph.
+	 * No line after it is committed, since the batches of a chunk are only committed once every
+	 * chunk before it has been parsed without error.
+	 * @param filename the filename containing the line-separated triples to import.
+	 * @throws ImportException on error processing a file or line
+	 */
+	public void bulkImportTripleFile(String filename) throws ImportException
+	{
+		bulkImportTripleFile(filename, Runtime.getRuntime().availableProcessors());
+	}
+
+	/**
+	 * Bulk loads a large N-Triple file as bulkImportTripleFile does, parsing it on a number of threads.
+	 * @param filename the filename containing the line-separated triples to import.
+	 * @param threads the number of threads to parse on.
+	 * @throws ImportException on error processing a file or line
+	 */
+	public void bulkImportTripleFile(String filename, int threads) throws ImportException
+	{
+		if(threads < 1){
+			throw new ImportException(null, 0, filename, new IllegalArgumentException("At least one thread is needed."));
+		}
+		RandomAccessFile file = null;
+		ExecutorService pool = null;
+		try {
+			file = new RandomAccessFile(filename, "r");
+			FileChannel channel = file.getChannel();
+			long[] bounds = getChunkBounds(channel, threads);
+			int chunkCount = bounds.length - 1;
+
+			pool = Executors.newFixedThreadPool(threads);
+			BlockingQueue<TripleChunkParser.Batch> batches = new ArrayBlockingQueue<TripleChunkParser.Batch>(threads * 2);
+			AtomicInteger firstFailedChunk = new AtomicInteger(Integer.MAX_VALUE);
+			List<Future<TripleChunkParser>> parsers = new ArrayList<Future<TripleChunkParser>>(chunkCount);
+			for(int chunk = 0; chunk < chunkCount; chunk++){
+				MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, bounds[chunk], bounds[chunk + 1] - bounds[chunk]);
+				parsers.add(pool.submit(new TripleChunkParser(knowledgeGraph, buffer, chunk, firstFailedChunk, batches)));
+			}
+
+			/**
+			 * Commit batches on this thread as they are parsed, until every parser is done. The batches
+			 * of chunks up to committable are committed at once; later ones wait until the chunks
+			 * before them have been parsed without error, and are dropped if one fails.
+			 */
+			List<List<int[]>> waiting = new ArrayList<List<int[]>>(chunkCount);
+			for(int chunk = 0; chunk < chunkCount; chunk++){
+				waiting.add(new ArrayList<int[]>());
+			}
+			int committable = 0;
+			boolean failed = false;
+			int done = 0;
+			while(done < chunkCount || !batches.isEmpty()){
+				TripleChunkParser.Batch batch = batches.poll(10, TimeUnit.MILLISECONDS);
+				if(batch != null){
+					if(batch.getChunkIndex() <= committable){
+						knowledgeGraph.importEncodedTriples(batch.getIds(), batch.getIds().length / 3);
+					}else if(!failed){
+						waiting.get(batch.getChunkIndex()).add(batch.getIds());
+					}
+				}
+				while(!failed && committable < chunkCount - 1 && parsers.get(committable).isDone()){
+					if(parsers.get(committable).get().getErrorLine() != 0){
+						failed = true;
+						waiting.clear();
+						break;
+					}
+					committable++;
+					for(int[] ids : waiting.get(committable)){
+						knowledgeGraph.importEncodedTriples(ids, ids.length / 3);
+					}
+					waiting.set(committable, null);
+				}
+				while(done < chunkCount && parsers.get(done).isDone()){
+					done++;
+				}
+			}
+
+			/** Report the first invalid line, numbered from the start of the file. */
+			int linesBefore = 0;
+			for(int chunk = 0; chunk < chunkCount; chunk++){
+				TripleChunkParser parser = parsers.get(chunk).get();
+				if(parser.getErrorLine() != 0){
+					throw new ImportException(parser.getErrorContents(), linesBefore + parser.getErrorLine(), filename,
+							new IllegalArgumentException(parser.getErrorDescription()));
+				}
+				linesBefore += parser.getLineCount();
+			}
+		}catch(IOException e){
+			throw new ImportException(null, 0, filename, e);
+		}catch(InterruptedException e){
+			Thread.currentThread().interrupt();
+			throw new ImportException(null, 0, filename, e);
+		}catch(ExecutionException e){
+			throw new ImportException(null, 0, filename, e.getCause());
+		} finally {
+			if(pool != null){
+				pool.shutdownNow();
+			}
+			try {
+				if (file != null)
+					file.close();
+			} catch (IOException ex) {
+				throw new ImportException(null, 0, filename, ex);
+			}
+		}
+	}
+
+	/**
+	 * Splits a file into chunks that start at the beginning of a line.
+	 * @param channel the channel of the file.
+	 * @param threads the number of threads that will parse the chunks.
+	 * @return the offsets of the chunk boundaries, starting with 0 and ending with the file size.
+	 * @throws IOException on error reading the file.
+	 */
+	private long[] getChunkBounds(FileChannel channel, int threads) throws IOException {
+		long size = channel.size();
+		long chunkBytes = Math.min(MAX_CHUNK_BYTES, Math.max(MIN_CHUNK_BYTES, size / (threads * 4L)));
+		List<Long> bounds = new ArrayList<Long>();
+		bounds.add(0L);
+		ByteBuffer window = ByteBuffer.allocate(8192);
+		long position = 0;
+		while(size - position > chunkBytes){
+			/** Move the nominal boundary forward to just past the next line end. */
+			long boundary = position + chunkBytes;
+			long lineStart = -1;
+			while(lineStart < 0 && boundary < size){
+				window.clear();
+				int read = channel.read(window, boundary);
+				if(read <= 0){
+					break;
+				}
+				for(int i = 0; i < read; i++){
+					if(window.get(i) == '\n'){
+						lineStart = boundary + i + 1;
+						break;
+					}
+				}
+				boundary += read;
+			}
+			if(lineStart < 0 || lineStart >= size){
+				break;
+			}
+			bounds.add(lineStart);
+			position = lineStart;
+		}
+		bounds.add(size);
+
+		long[] result = new long[bounds.size()];
+		for(int i = 0; i < result.length; i++){
+			result[i] = bounds.get(i);
+		}
+		return result;
+	}
+
 	/**
 	 * Converts a line into tokens.
 	 * @param line the line contents to be scrubbed, validated, and tokenized.
 	 * @param lineNumber the current line number of the file being imported.
+	 * @param filename the file being imported.
 	 * @return an array of strings that have been trimmed and validated. if null, then nothing needs to be processed.
-	 * @throws ImportException
+	 * @throws ImportException whose cause describes what is wrong with the line.
 	 */
-	private String[] getTokensFromLine(String line, int lineNumber) throws ImportException{
+	private String[] getTokensFromLine(String line, int lineNumber, String filename) throws ImportException{
 		line = line.trim();
     	
 		/** If the line is empty, skip it.  */
@@ -94,12 +274,12 @@ public class Importer {
     	
     	/** Invalid number of tokens. Do not continue processing.  */
     	if(tokens.length != 3){
-    		throw new ImportException(lineNumber, "Invalid line format. Acceptable format is: \"String String String.\"", line);
+    		throw new ImportException(line, lineNumber, filename, new IllegalArgumentException("Invalid line format. Acceptable format is: \"String String String.\""));
     	}
     	
     	/** Invalid token. Do not continue processing.  */
     	if(tokens[0].equals("?") || tokens[1].equals("?") || tokens[2].equals("?") ){
-    		throw new ImportException(lineNumber, "Invalid token. \"?\" is a reserved word and cannot be used.", line);
+    		throw new ImportException(line, lineNumber, filename, new IllegalArgumentException("Invalid token. \"?\" is a reserved word and cannot be used."));
     	}
     	
     	return tokens;
@@ -1,56 +1,408 @@
-
 package cscie97.asn4.knowledge.engine;
 
-import java.util.HashMap;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashSet;
+import java.util.LinkedHashSet;
 import java.util.List;
-import java.util.Map;
+import java.util.Locale;
 import java.util.Set;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.ReentrantLock;
 
 import cscie97.asn4.housemate.exception.KnowledgeException;
 
 /**
  * The KnowledgeGraph is responsible for managing the set of active triples.
- * The triples are stored in memory and not persisted. The KnowledgeGraph is a
- * singleton.
+ * The triples are stored in memory as dictionary encoded ids in three PermutationIndexes, and
+ * every change commits a new immutable GraphVersion, so readers never block. The graph can be made
+ * durable with openStore, or opened in place from a TripleFile. The KnowledgeGraph is a singleton;
+ * a fleet of houses can instead be partitioned with a ShardedKnowledgeGraph.
  */
 public  class  KnowledgeGraph {
-	private static final KnowledgeGraph INSTANCE = new KnowledgeGraph(); 
-	private Map<String, Node> nodeMap = new HashMap<String, Node>();
-	private Map<String, Triple> tripleMap = new HashMap<String, Triple>();
-	private Map<String, Set<Triple>> queryMapSet = new HashMap<String, Set<Triple>>();
-	private Map<String, Predicate> predicateMap = new HashMap<String, Predicate>();
-	
-	
+	private static final KnowledgeGraph INSTANCE = new KnowledgeGraph();
+	/** Creates plain Nodes for the identifiers of a dictionary's base. */
+	private static final TermDictionary.Factory<Node> NODE_FACTORY = new TermDictionary.Factory<Node>(){
+		@Override
+		public Node create(String identifier){
+			return new Node(identifier);
+		}
+
+		@Override
+		public String getIdentifier(Node node){
+			return node.getIdentifier();
+		}
+
+		@Override
+		public boolean isPlain(Node node){
+			return node.getClass() == Node.class;
+		}
+	};
+	private static final TermDictionary.Factory<Predicate> PREDICATE_FACTORY = new TermDictionary.Factory<Predicate>(){
+		@Override
+		public Predicate create(String identifier){
+			return new Predicate(identifier);
+		}
+
+		@Override
+		public String getIdentifier(Predicate predicate){
+			return predicate.getIdentifier();
+		}
+
+		@Override
+		public boolean isPlain(Predicate predicate){
+			return predicate.getClass() == Predicate.class;
+		}
+	};
+	/** Orders Nodes by identifier, ignoring case. */
+	static final Comparator<Node> IDENTIFIER_ORDER = new Comparator<Node>(){
+		@Override
+		public int compare(Node a, Node b){
+			return String.CASE_INSENSITIVE_ORDER.compare(a.getIdentifier(), b.getIdentifier());
+		}
+	};
+	/** Leaves the matches of a paged query in index order. */
+	public static final int UNORDERED = -1;
+	/** Orders the matches of a paged query by subject, then predicate and object. */
+	public static final int ORDER_BY_SUBJECT = TripleCursor.SPO;
+	/** Orders the matches of a paged query by predicate, then object and subject. */
+	public static final int ORDER_BY_PREDICATE = TripleCursor.POS;
+	/** Orders the matches of a paged query by object, then subject and predicate. */
+	public static final int ORDER_BY_OBJECT = TripleCursor.OSP;
+	private final TermDictionary<Node> nodeDictionary = new TermDictionary<Node>();
+	private final TermDictionary<Predicate> predicateDictionary = new TermDictionary<Predicate>();
+	private final AtomicReference<GraphVersion> currentVersion = new AtomicReference<GraphVersion>(GraphVersion.EMPTY);
+	private final ThreadLocal<PinnedVersion> pinnedVersion = new ThreadLocal<PinnedVersion>();
+	private volatile GraphStore store;
+	private final QueryCache queryCache = new QueryCache();
+	/** Held while a change is invalidated and its version published, so one is published at a time. */
+	private final ReentrantLock commitLock = new ReentrantLock();
+	/** Held while a published change is passed to the indexes that follow changes, in commit order. */
+	private final ReentrantLock publishLock = new ReentrantLock();
+	private final ReachabilityIndex reachabilityIndex = new ReachabilityIndex();
+	private final Compactor compactor = new Compactor(this);
+	private final SubscriptionIndex subscriptions = new SubscriptionIndex(this);
+	private final RuleEngine ruleEngine = new RuleEngine(this);
+	private final TripleHistory history = new TripleHistory(this);
+
+
 	/**
-	 * The constructor is private so only the singleton may be used.
+	 * The constructor is package private so that, besides the singleton, only the shards of a
+	 * ShardedKnowledgeGraph are created.
 	 */
-	private KnowledgeGraph(){
-		
-	}	
-	
+	KnowledgeGraph(){
+
+	}
+
 	/**
 	 * @return the singleton instance of KnowledgeGraph.
 	 */
 	public static KnowledgeGraph getInstance() {
         return INSTANCE;
     }
-		
+
 	/**
-	 * Imports a list of triples. 
+	 * Imports a list of triples. The whole list is committed as one change, so readers see
+	 * either none or all of it.
 	 * @param tripleList the list of tripleLiterals to be imported.
 	 */
 	public void importTriples(List<TripleLiteral> tripleList){
+		int[] ids = new int[tripleList.size() * 3];
+		int i = 0;
 		for(TripleLiteral tripleLiteral : tripleList){
-			getTriple(
-				getNode(tripleLiteral.getSubject()), 
-				getPredicate(tripleLiteral.getPredicate()), 
-				getNode(tripleLiteral.getObject())
-			);
+			ids[i++] = internNode(tripleLiteral.getSubject());
+			ids[i++] = internPredicate(tripleLiteral.getPredicate());
+			ids[i++] = internNode(tripleLiteral.getObject());
         }
+		importEncodedTriples(ids, tripleList.size());
+	}
+
+	/**
+	 * Imports a batch of encoded triples as one change.
+	 * @param ids the subject, predicate and object ids of each triple, packed one after the other.
+	 * @param count the number of triples in ids.
+	 */
+	void importEncodedTriples(int[] ids, int count){
+		commit(null, 0, ids, count);
+	}
+
+	/**
+	 * Commits a change as one new GraphVersion: the removals first, then the additions. With a
+	 * store open, the change is appended to the store's log in commit order, and this returns
+	 * once the log is durable.
+	 * @param removed the subject, predicate and object ids of the triples to remove.
+	 * @param removedCount the number of triples to remove.
+	 * @param added the subject, predicate and object ids of the triples to add.
+	 * @param addedCount the number of triples to add.
+	 * @throws IllegalStateException if the change was committed but the log could not be written.
+	 */
+	void commit(int[] removed, int removedCount, int[] added, int addedCount){
+		commit(removed, removedCount, added, addedCount, System.currentTimeMillis());
+	}
+
+	/**
+	 * Commits a change made at a time, such as one replayed from a log.
+	 * @param time the time of the change, which the history of tracked predicates records.
+	 */
+	void commit(int[] removed, int removedCount, int[] added, int addedCount, long time){
+		if(ruleEngine.isEmpty()){
+			commitChange(removed, removedCount, added, addedCount, time);
+			if(ruleEngine.isEmpty()){
+				return;
+			}
+			/** A rule was added meanwhile, and may have made inferences from the change. */
+			synchronized(ruleEngine){
+				ruleEngine.assertAll(added, addedCount);
+				commitInferences();
+			}
+			return;
+		}
+		/** With rules, writers take turns, so that inferences are committed in the order they are made. */
+		synchronized(ruleEngine){
+			commitChange(removed, removedCount, added, addedCount, time);
+			ruleEngine.assertAll(added, addedCount);
+			commitInferences();
+		}
+	}
+
+	/**
+	 * Commits the inferences the rules made from earlier changes, and the inferences made from those,
+	 * until there are none left. Must be called while holding the RuleEngine's lock.
+	 */
+	private void commitInferences(){
+		int[][] inferred;
+		while((inferred = ruleEngine.drain(currentVersion.get())) != null){
+			commitChange(inferred[0], inferred[0].length / 3, inferred[1], inferred[1].length / 3, System.currentTimeMillis());
+		}
+	}
+
+	/**
+	 * Commits a change, and logs it if a store is open.
+	 */
+	private void commitChange(int[] removed, int removedCount, int[] added, int addedCount, long time){
+		GraphStore durable = store;
+		if(durable == null){
+			apply(removed, removedCount, added, addedCount, time);
+			return;
+		}
+		long sequence;
+		synchronized(durable){
+			if(!apply(removed, removedCount, added, addedCount, time) || durable.isClosed()){
+				return;
+			}
+			sequence = durable.append(removed, removedCount, added, addedCount, time);
+		}
+		try{
+			durable.awaitDurable(sequence);
+		}catch(IOException e){
+			throw new IllegalStateException("The change was committed but could not be logged.", e);
+		}
+	}
+
+	/**
+	 * Applies a change to the current version with a compare-and-set, retrying if another writer
+	 * commits first. Only the invalidation of the QueryCache and the compare-and-set are made under
+	 * the commit lock. The publish lock is taken before the commit lock is released, so the change
+	 * is passed to the indexes that follow changes in commit order while the next writer commits.
+	 * @return false if the change left the graph as it was.
+	 */
+	private boolean apply(int[] removed, int removedCount, int[] added, int addedCount, long time){
+		while(true){
+			GraphVersion base = currentVersion.get();
+			GraphVersion next = base;
+			if(removedCount == 1){
+				next = next.remove(removed[0], removed[1], removed[2]);
+			}else if(removedCount > 1){
+				next = next.removeAll(removed, removedCount);
+			}
+			GraphVersion middle = next;
+			if(addedCount == 1){
+				next = next.add(added[0], added[1], added[2]);
+			}else if(addedCount > 1){
+				next = next.addAll(added, addedCount);
+			}
+			if(next == base){
+				return false;
+			}
+			boolean published;
+			commitLock.lock();
+			try{
+				queryCache.startChange();
+				try{
+					queryCache.invalidate(removed, removedCount);
+					queryCache.invalidate(added, addedCount);
+					published = currentVersion.compareAndSet(base, next);
+				}finally{
+					queryCache.endChange();
+				}
+				if(published){
+					publishLock.lock();
+				}
+			}finally{
+				commitLock.unlock();
+			}
+			if(published){
+				try{
+					reachabilityIndex.update(removed, removedCount, added, addedCount, next);
+					subscriptions.publish(removed, removedCount, added, addedCount, base, next);
+					ruleEngine.update(removed, removedCount, added, addedCount, base, middle, next);
+					history.record(removed, removedCount, added, addedCount, base, next, time);
+					if(removedCount > 0){
+						compactor.schedule(next, removed, removedCount);
+					}
+				}finally{
+					publishLock.unlock();
+				}
+				return true;
+			}
+		}
+	}
+
+	/**
+	 * Opens a store in a directory, creating it if needed. The triples saved in the store are
+	 * recovered into the graph: the latest snapshot is loaded and the log written after it is
+	 * replayed. From then on every change is logged before the method making it returns.
+	 * Recovered Nodes are plain Nodes with the saved identifiers, as with the Importer.
+	 * @param directory the directory of the store.
+	 * @throws KnowledgeException if a store is already open or the directory cannot be used.
+	 */
+	public synchronized void openStore(String directory) throws KnowledgeException{
+		if(store != null){
+			throw new KnowledgeException(null, 0, directory, new IllegalStateException("A store is already open."));
+		}
+		try{
+			store = GraphStore.open(this, new File(directory));
+		}catch(IOException e){
+			throw new KnowledgeException(null, 0, directory, e);
+		}
+	}
+
+	/**
+	 * Writes a snapshot of the graph to the open store, so that recovery no longer needs the log
+	 * written before it. Snapshots are also taken automatically as the log grows.
+	 * @throws KnowledgeException if no store is open or the snapshot cannot be written.
+	 */
+	public void checkpoint() throws KnowledgeException{
+		GraphStore durable = store;
+		if(durable == null){
+			throw new KnowledgeException(null, 0, null, new IllegalStateException("No store is open."));
+		}
+		try{
+			durable.checkpoint();
+		}catch(IOException e){
+			throw new KnowledgeException(null, 0, null, e);
+		}
+	}
+
+	/**
+	 * Syncs and closes the open store. Later changes are kept in memory only.
+	 * @throws KnowledgeException if the log cannot be written.
+	 */
+	public synchronized void closeStore() throws KnowledgeException{
+		GraphStore durable = store;
+		if(durable == null){
+			return;
+		}
+		store = null;
+		try{
+			durable.close();
+		}catch(IOException e){
+			throw new KnowledgeException(null, 0, null, e);
+		}
+	}
+
+	/**
+	 * Saves the graph as a TripleFile, a compact binary file with its indexes already built that
+	 * openTripleFile can memory map.
+	 * @param filename the file to write.
+	 * @throws KnowledgeException if the file cannot be written.
+	 */
+	public void saveTripleFile(String filename) throws KnowledgeException{
+		try{
+			TripleFile.write(this, readVersion(), new File(filename));
+		}catch(IOException e){
+			throw new KnowledgeException(null, 0, filename, e);
+		}
 	}
-	
-	
+
+	/**
+	 * Opens a TripleFile by memory mapping it. Queries read the triples and identifiers in place,
+	 * so they can be answered without parsing or indexing the triples. Later changes are kept in
+	 * memory on top of the file, which is never written. Nodes from the file are plain Nodes, as
+	 * with the Importer.
+	 * @param filename the file to open.
+	 * @throws KnowledgeException if the graph is not empty, a store is open, or the file cannot be read.
+	 */
+	public synchronized void openTripleFile(String filename) throws KnowledgeException{
+		if(store != null){
+			throw new KnowledgeException(null, 0, filename, new IllegalStateException("A triple file cannot be opened while a store is open."));
+		}
+		if(nodeDictionary.size() != 0 || predicateDictionary.size() != 0){
+			throw new KnowledgeException(null, 0, filename, new IllegalStateException("A triple file can only be opened into an empty graph."));
+		}
+		TripleFile file;
+		try{
+			file = TripleFile.open(new File(filename));
+		}catch(IOException e){
+			throw new KnowledgeException(null, 0, filename, e);
+		}
+		nodeDictionary.setBase(file.getNodes(), NODE_FACTORY);
+		predicateDictionary.setBase(file.getPredicates(), PREDICATE_FACTORY);
+		lockChanges();
+		try{
+			queryCache.startChange();
+			try{
+				queryCache.clear();
+				currentVersion.set(GraphVersion.mapped(currentVersion.get().getNumber() + 1, file));
+			}finally{
+				queryCache.endChange();
+			}
+			reachabilityIndex.clear(currentVersion.get().getNumber());
+		}finally{
+			unlockChanges();
+		}
+	}
+
+	/**
+	 * Moves the dictionaries and indexes of the graph off the Java heap, into direct buffers laid out
+	 * like a TripleFile, so that the garbage collector no longer traces them. Ids do not change, so
+	 * caches, subscriptions, rules and history carry on as before. Plain Nodes and Predicates are
+	 * dropped from the heap and created again when a query returns them; instances of subclasses,
+	 * such as the HouseMate model's, are kept. Later changes are kept on the heap above the moved
+	 * indexes until the next call. The copy is made under the commit lock only, so writers wait
+	 * while the graph is copied, but readers, cached or not, do not.
+	 * @throws IllegalStateException if an index or the identifiers are too large for one buffer.
+	 */
+	public void moveOffHeap(){
+		commitLock.lock();
+		try{
+			GraphVersion version = currentVersion.get();
+			nodeDictionary.moveOffHeap(NODE_FACTORY);
+			predicateDictionary.moveOffHeap(PREDICATE_FACTORY);
+			currentVersion.set(version.moveOffHeap(nodeDictionary.size(), predicateDictionary.size()));
+		}finally{
+			commitLock.unlock();
+		}
+	}
+
+	/**
+	 * Takes the commit and publish locks, so that no change is published, and every published
+	 * change has been passed to the indexes that follow changes, until unlockChanges.
+	 */
+	private void lockChanges(){
+		commitLock.lock();
+		publishLock.lock();
+	}
+
+	private void unlockChanges(){
+		publishLock.unlock();
+		commitLock.unlock();
+	}
+
 	/**
 	 * Imports a triple using Nodes for the subject and object. This allows for preserving the different sub-classes of Nodes.
 	 * @param subject A Node that is the subject.
@@ -60,189 +412,1212 @@ public  class  KnowledgeGraph {
 	 */
 	public Triple importTriple(Node subject, String predicate, Node object){
 			return getTriple(
-				addNodeIfNeeded(subject), 
-				getPredicate(predicate), 
+				addNodeIfNeeded(subject),
+				getPredicate(predicate),
 				addNodeIfNeeded(object)
 			);
 	}
-	
+
 	/**
-	 * Executes a query against the KnowledgeGraph.
+	 * Executes a query against the KnowledgeGraph. If the predicate is a property path, each match
+	 * is a Triple of the subject, the path and a node reachable along it.
 	 * @param query the Triple to search the KnowledgeGraph.
-	 * @return a set of triples that match the query.
+	 * @return a read only set of triples that match the query, which may be shared with other callers.
+	 * @throws IllegalArgumentException if the predicate is a property path that is not well formed.
 	 */
+	@SuppressWarnings("unchecked")
 	public Set<Triple> executeQuery(TripleLiteral query){
-		Set<Triple> tripleSet = queryMapSet.get(query.getIdentifier().toLowerCase());
-		if(tripleSet == null){
-			tripleSet = new HashSet<Triple>();
+		return (Set<Triple>) cachedQuery(QueryCache.TRIPLES, query);
+	}
+
+	/**
+	 * Executes a query and returns one page of its matches in an order. Identifiers are compared
+	 * without regard to case. When an index already lists the matches in the order, as it does for
+	 * the identifiers sorted by openTripleFile, the page is read straight off the index; otherwise a
+	 * TopTriples heap keeps the first offset plus limit matches.
+	 * @param query the Triple to search the KnowledgeGraph.
+	 * @param orderBy UNORDERED, ORDER_BY_SUBJECT, ORDER_BY_PREDICATE or ORDER_BY_OBJECT.
+	 * @param offset the number of the first matches to skip.
+	 * @param limit the most matches to return.
+	 * @return the matches after the offset, in order.
+	 * @throws IllegalArgumentException if the order is unknown, the offset or limit is negative, or
+	 * the predicate is a property path that is not well formed.
+	 */
+	public List<Triple> executeQuery(TripleLiteral query, int orderBy, int offset, int limit){
+		if(orderBy < UNORDERED || orderBy > ORDER_BY_OBJECT || offset < 0 || limit < 0){
+			throw new IllegalArgumentException("Invalid order " + orderBy + ", offset " + offset + " or limit " + limit + ".");
+		}
+		if(PropertyPath.isPath(query.getPredicate())){
+			List<Triple> matches = new ArrayList<Triple>(executeQuery(query));
+			if(orderBy != UNORDERED){
+				Collections.sort(matches, TopTriples.comparator(orderBy));
+			}
+			return page(matches, offset, limit);
+		}
+		int subject = encodeNode(query.getSubject());
+		int predicate = encodePredicate(query.getPredicate());
+		int object = encodeNode(query.getObject());
+		if(subject < 0 || predicate < 0 || object < 0 || limit == 0){
+			return new ArrayList<Triple>();
 		}
-		return tripleSet;
+		GraphVersion version = readVersion();
+		int order = orderBy == UNORDERED ? TripleCursor.chooseOrder(subject != TermDictionary.WILDCARD,
+				predicate != TermDictionary.WILDCARD, object != TermDictionary.WILDCARD) : orderedIndex(orderBy, subject, predicate, object);
+		if(order < 0){
+			int count = count(version, subject, predicate, object);
+			TopTriples top = new TopTriples(this, orderBy, (int) Math.min((long) offset + limit, count));
+			TripleCursor cursor = openCursor(version, subject, predicate, object);
+			while(cursor.next()){
+				top.offer(cursor.getSubjectId(), cursor.getPredicateId(), cursor.getObjectId());
+			}
+			return top.toList(offset);
+		}
+		TripleCursor cursor = openCursor(version, subject, predicate, object, order);
+		for(int skipped = 0; skipped < offset && cursor.next(); skipped++){
+			/** Skipped matches are never decoded. */
+		}
+		cursor.limit(limit);
+		List<Triple> matches = new ArrayList<Triple>();
+		while(cursor.next()){
+			matches.add(cursor.getTriple());
+		}
+		return matches;
 	}
-	
-	
+
+	/**
+	 * Finds an index that lists the matches of an encoded pattern in an order: one whose order
+	 * starts with the bound terms and goes on with the free ones in the order asked for. Ids are
+	 * only in the order of their keys while the dictionaries of the free terms are ordered.
+	 * @return the index, or -1 if none lists the matches in the order.
+	 */
+	private int orderedIndex(int orderBy, int subject, int predicate, int object){
+		int[] ids = { subject, predicate, object };
+		int[] wanted = TripleCursor.POSITIONS[orderBy];
+		for(int order = TripleCursor.SPO; order <= TripleCursor.OSP; order++){
+			int[] positions = TripleCursor.POSITIONS[order];
+			int i = 0;
+			while(i < 3 && ids[positions[i]] != TermDictionary.WILDCARD){
+				i++;
+			}
+			boolean matched = true;
+			int w = 0;
+			for(; i < 3 && matched; i++, w++){
+				while(w < 3 && ids[wanted[w]] != TermDictionary.WILDCARD){
+					w++;
+				}
+				int position = positions[i];
+				matched = w < 3 && position == wanted[w] && ids[position] == TermDictionary.WILDCARD
+						&& (position == 1 ? predicateDictionary : nodeDictionary).isOrdered();
+			}
+			if(matched){
+				return order;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * @return a copy of the matches after the offset, at most limit of them.
+	 */
+	static List<Triple> page(List<Triple> matches, int offset, int limit){
+		int from = Math.min(offset, matches.size());
+		int to = (int) Math.min((long) from + limit, matches.size());
+		return new ArrayList<Triple>(matches.subList(from, to));
+	}
+
+	/**
+	 * Executes a conjunctive query: every pattern must match, and a variable such as "?r" that
+	 * appears in several patterns must be bound to the same term in each. A plain "?" matches
+	 * anything and is not reported.
+	 * @param patterns the patterns of the query.
+	 * @return a row of bindings for each solution.
+	 * @throws IllegalArgumentException if a variable is used both as a predicate and as a node, or a
+	 * property path is used with named variables or other patterns.
+	 */
+	public BindingTable executeQuery(List<TripleLiteral> patterns){
+		return new ConjunctiveQuery(this, patterns).execute(readVersion());
+	}
+
+	/**
+	 * Counts the triples that match a query without creating them. The count is read from the sizes
+	 * kept in the index Buckets: in constant time when the pattern fixes at most the first term of an
+	 * index, and with one binary search otherwise.
+	 * @param query the pattern, with "?" for any term.
+	 * @return the number of matching triples.
+	 */
+	public int countMatches(TripleLiteral query){
+		if(PropertyPath.isPath(query.getPredicate())){
+			return executeQuery(query).size();
+		}
+		int subject = encodeNode(query.getSubject());
+		int predicate = encodePredicate(query.getPredicate());
+		int object = encodeNode(query.getObject());
+		if(subject < 0 || predicate < 0 || object < 0){
+			/** One of the identifiers is unknown, so nothing can match. */
+			return 0;
+		}
+		return count(readVersion(), subject, predicate, object);
+	}
+
+	/**
+	 * @param query the pattern, with "?" for any term.
+	 * @return true if any triple matches the query.
+	 */
+	public boolean ask(TripleLiteral query){
+		return countMatches(query) > 0;
+	}
+
+	/**
+	 * Counts the solutions of a conjunctive query. A single pattern whose variables are all "?", or
+	 * all named and distinct, has one solution per matching triple and is counted like
+	 * countMatches; other queries are joined and their solutions counted.
+	 * @param patterns the patterns, which must all match.
+	 * @return the number of solutions.
+	 * @throws IllegalArgumentException if a variable is used both as a predicate and as a node, or a
+	 * property path is used with named variables or other patterns.
+	 */
+	public int countMatches(List<TripleLiteral> patterns){
+		if(patterns.size() == 1){
+			TripleLiteral pattern = patterns.get(0);
+			String[] tokens = { pattern.getSubject(), pattern.getPredicate(), pattern.getObject() };
+			String[] terms = tokens.clone();
+			boolean anonymous = false;
+			boolean named = false;
+			boolean repeated = false;
+			for(int i = 0; i < tokens.length; i++){
+				if(tokens[i].equals("?")){
+					anonymous = true;
+				}else if(tokens[i].startsWith("?")){
+					named = true;
+					for(int j = 0; j < i; j++){
+						repeated |= tokens[i].equalsIgnoreCase(tokens[j]);
+					}
+					terms[i] = "?";
+				}
+			}
+			if(!(anonymous && named) && !repeated){
+				return countMatches(new TripleLiteral(terms[0], terms[1], terms[2]));
+			}
+		}
+		return executeQuery(patterns).size();
+	}
+
+	/**
+	 * @param patterns the patterns, which must all match.
+	 * @return true if the query has a solution.
+	 * @throws IllegalArgumentException if a variable is used both as a predicate and as a node, or a
+	 * property path is used with named variables or other patterns.
+	 */
+	public boolean ask(List<TripleLiteral> patterns){
+		return countMatches(patterns) > 0;
+	}
+
+	/**
+	 * Executes a conjunctive query and describes how it was run: the join order, the join method
+	 * and index of each pattern, and the rows the planner estimated and found at each step,
+	 * followed by the statistics of the predicates in the query.
+	 * @param patterns the patterns of the query.
+	 * @return the lines of the description.
+	 * @throws IllegalArgumentException if a variable is used both as a predicate and as a node, or a
+	 * property path is used with named variables or other patterns.
+	 */
+	public List<String> explainQuery(List<TripleLiteral> patterns){
+		GraphVersion version = readVersion();
+		ConjunctiveQuery query = new ConjunctiveQuery(this, patterns);
+		query.execute(version);
+		return query.describe(version);
+	}
+
+	/**
+	 * Opens a cursor over the matches of a query. The matches are read from the index as the
+	 * cursor advances, so nothing is collected, and a caller that only needs the first few
+	 * matches only pays for those. The index is chosen so that the bound terms of the query
+	 * are a prefix of its order:
+	 * "s p o", "s p ?" and "s ? ?" use SPO, "? p o" and "? p ?" use POS, "s ? o" and "? ? o" use OSP.
+	 * @param query the Triple to search the KnowledgeGraph.
+	 * @return a cursor positioned before the first match.
+	 */
+	public TripleCursor openCursor(TripleLiteral query){
+		int subject = encodeNode(query.getSubject());
+		int predicate = encodePredicate(query.getPredicate());
+		int object = encodeNode(query.getObject());
+		if(subject < 0 || predicate < 0 || object < 0){
+			/** One of the identifiers is unknown, so nothing can match. */
+			return new TripleCursor(this, null, TripleCursor.SPO, 0, 0, 0, 0);
+		}
+		return openCursor(readVersion(), subject, predicate, object);
+	}
+
+	/**
+	 * Opens a cursor over the matches of an encoded pattern in a version.
+	 * @param version the version to read.
+	 * @param subject the subject id, or WILDCARD.
+	 * @param predicate the predicate id, or WILDCARD.
+	 * @param object the object id, or WILDCARD.
+	 * @return a cursor positioned before the first match.
+	 */
+	TripleCursor openCursor(GraphVersion version, int subject, int predicate, int object){
+		int order = TripleCursor.chooseOrder(subject != TermDictionary.WILDCARD, predicate != TermDictionary.WILDCARD, object != TermDictionary.WILDCARD);
+		return openCursor(version, subject, predicate, object, order);
+	}
+
+	/**
+	 * Opens a cursor over the matches of an encoded pattern in one index, which lists them in the
+	 * order of its ids.
+	 * @param version the version to read.
+	 * @param subject the subject id, or WILDCARD.
+	 * @param predicate the predicate id, or WILDCARD.
+	 * @param object the object id, or WILDCARD.
+	 * @param order the index to read. The bound terms must be a prefix of its order.
+	 * @return a cursor positioned before the first match.
+	 */
+	TripleCursor openCursor(GraphVersion version, int subject, int predicate, int object, int order){
+		int[] ids = { subject, predicate, object };
+		int[] positions = TripleCursor.POSITIONS[order];
+		int first = ids[positions[0]];
+		PermutationIndex index = version.getIndex(order);
+		if(first == TermDictionary.WILDCARD){
+			/** Nothing is bound, so walk every Bucket of the index. */
+			int terms = positions[0] == 1 ? predicateDictionary.size() : nodeDictionary.size();
+			int lastFirst = Math.min(index.getBucketCount() - 1, terms);
+			return new TripleCursor(this, index, order, 1, lastFirst, Long.MIN_VALUE, Long.MAX_VALUE);
+		}
+		long[] range = keyRange(ids[positions[1]], ids[positions[2]]);
+		return new TripleCursor(this, index, order, first, first, range[0], range[1]);
+	}
+
+	/**
+	 * @return the number of Nodes in the dictionary.
+	 */
+	int getNodeCount(){
+		return nodeDictionary.size();
+	}
+
+	/**
+	 * @return the number of Predicates in the dictionary.
+	 */
+	int getPredicateCount(){
+		return predicateDictionary.size();
+	}
+
+	/**
+	 * Counts the matches of an encoded pattern in a version from the index, without visiting them.
+	 * @param version the version to read.
+	 * @param subject the subject id, or WILDCARD.
+	 * @param predicate the predicate id, or WILDCARD.
+	 * @param object the object id, or WILDCARD.
+	 * @return the number of matching triples.
+	 */
+	int count(GraphVersion version, int subject, int predicate, int object){
+		int[] ids = { subject, predicate, object };
+		int order = TripleCursor.chooseOrder(subject != TermDictionary.WILDCARD, predicate != TermDictionary.WILDCARD, object != TermDictionary.WILDCARD);
+		int[] positions = TripleCursor.POSITIONS[order];
+		int first = ids[positions[0]];
+		if(first == TermDictionary.WILDCARD){
+			return version.size();
+		}
+		PermutationIndex.Bucket bucket = version.getIndex(order).getBucket(first);
+		if(ids[positions[1]] == TermDictionary.WILDCARD){
+			return bucket.size();
+		}
+		long[] range = keyRange(ids[positions[1]], ids[positions[2]]);
+		return bucket.count(range[0], range[1]);
+	}
+
+	/**
+	 * @return the lowest and highest keys of a Bucket that match the second and third ids, either of which may be WILDCARD.
+	 */
+	private static long[] keyRange(int second, int third){
+		if(second == TermDictionary.WILDCARD){
+			return new long[] { Long.MIN_VALUE, Long.MAX_VALUE };
+		}
+		if(third == TermDictionary.WILDCARD){
+			return new long[] { PermutationIndex.lowestKey(second), PermutationIndex.highestKey(second) };
+		}
+		long key = PermutationIndex.pack(second, third);
+		return new long[] { key, key };
+	}
+
+	/**
+	 * Gets the first match of a query, without looking for any others.
+	 * @param query the Triple to search the KnowledgeGraph.
+	 * @return the first matching Triple, or null if there is none.
+	 */
+	public Triple getFirstMatch(TripleLiteral query){
+		TripleCursor cursor = openCursor(query);
+		return cursor.next() ? cursor.getTriple() : null;
+	}
+
+	/**
+	 * Gets the object of the first match of a query, without looking for any others.
+	 * @param query the Triple to search the KnowledgeGraph.
+	 * @return the object of the first match, or null if there is none.
+	 */
+	public Node getFirstObject(TripleLiteral query){
+		TripleCursor cursor = openCursor(query);
+		return cursor.next() ? cursor.getObject() : null;
+	}
+
+
 	/**
 	 * Gets a node for a given identifier. If one does not exist, a new Node is created.
 	 * @param identifier the identifier to search for.
 	 * @return the matching Node for the identifier.
 	 */
 	public Node getNode(String identifier){
-		Node node =  nodeMap.get(identifier.toLowerCase());
+		Node node = nodeDictionary.getTerm(nodeDictionary.getId(identifier));
+		return node != null ? node : getNode(new Identifier(identifier));
+	}
+
+	/**
+	 * Gets a node for a canonical identifier. If one does not exist, a new Node is created that
+	 * shares the identifier.
+	 * @param identifier the identifier to search for.
+	 * @return the matching Node for the identifier.
+	 */
+	public Node getNode(Identifier identifier){
+		Node node = nodeDictionary.getTerm(nodeDictionary.getId(identifier));
 		if(node == null){
-			System.out.println("BUSTED");
-			node = new Node(identifier);
-			nodeMap.put(node.getIdentifier().toLowerCase(), node);
+			node = nodeDictionary.getTerm(nodeDictionary.add(identifier, new Node(identifier)));
 		}
 		return node;
 	}
-	
+
+	/**
+	 * Finds every Node whose identifier starts with a prefix, ignoring case, such as all the Nodes
+	 * under "house1:kitchen1:". Only the Nodes that are found are created.
+	 * @param prefix the start of the identifiers.
+	 * @return the Nodes, sorted by identifier.
+	 */
+	public List<Node> getNodesWithPrefix(String prefix){
+		int[] ids = nodeDictionary.getIdsWithPrefix(prefix.toLowerCase(Locale.ROOT));
+		List<Node> nodes = new ArrayList<Node>(ids.length);
+		for(int id : ids){
+			nodes.add(decodeNode(id));
+		}
+		Collections.sort(nodes, IDENTIFIER_ORDER);
+		return nodes;
+	}
+
 	/**
 	 * Gets a node by an identifier, and throws an error if the Node does not exist.
-	 * @param identifier The id to look up in the nodeMap.
+	 * @param identifier The id to look up in the node dictionary.
 	 * @return the found Node.
 	 * @throws KnowledgeException if the Node is not found.
 	 */
 	public Node getExistingNodeById(String identifier) throws KnowledgeException{
-		Node resultNode = nodeMap.get(identifier.toLowerCase());
+		Node resultNode = nodeDictionary.getTerm(nodeDictionary.getId(identifier));
 		if(resultNode == null){
-			throw new KnowledgeException(0, "Unknown identity.", identifier);
+			throw new KnowledgeException(identifier, 0, null, new IllegalArgumentException("Unknown identity."));
 		}
 		return resultNode;
 	}
-	
+
+	/**
+	 * Gets a node by a canonical identifier, and throws an error if the Node does not exist.
+	 * @param identifier The id to look up in the node dictionary.
+	 * @return the found Node.
+	 * @throws KnowledgeException if the Node is not found.
+	 */
+	public Node getExistingNodeById(Identifier identifier) throws KnowledgeException{
+		Node resultNode = nodeDictionary.getTerm(nodeDictionary.getId(identifier));
+		if(resultNode == null){
+			throw new KnowledgeException(identifier.getIdentifier(), 0, null, new IllegalArgumentException("Unknown identity."));
+		}
+		return resultNode;
+	}
+
 	/**
 	 * Verifies that a given identifier does not exist in the KnowledgeGraph.
 	 * @param identifier the identifier to check.
 	 * @throws KnowledgeException if the identifier does already exist.
 	 */
 	public void validateIdentifierDoesNotExist(String identifier) throws KnowledgeException{
-		Node resultNode = nodeMap.get(identifier.toLowerCase());
-		if(resultNode != null){
-			throw new KnowledgeException(0, "Identity already exists.", identifier);
+		if(nodeDictionary.getId(identifier) != TermDictionary.WILDCARD){
+			throw new KnowledgeException(identifier, 0, null, new IllegalArgumentException("Identity already exists."));
 		}
 	}
-	
+
 	/**
-	 * Adds a node to the nodeMap if it does not already exist.
+	 * Adds a node to the node dictionary if it does not already exist.
 	 * @param newNode the node to be added.
 	 * @return the Node.
 	 */
 	public Node addNodeIfNeeded(Node newNode){
-		Node node =  nodeMap.get(newNode.getIdentifier().toLowerCase());
+		Node node = nodeDictionary.getTerm(nodeDictionary.getId(newNode.getKey()));
 		if(node == null){
-			nodeMap.put(newNode.getIdentifier().toLowerCase(), newNode);
-			return newNode;
+			node = nodeDictionary.getTerm(nodeDictionary.add(newNode.getKey(), newNode));
 		}
 		return node;
 	}
-	
+
 	/**
 	 * Gets a Predicate for a given identifier. If one does not exist, a new Predicate is created.
 	 * @param identifier the identifier to search for.
 	 * @return the matching Predicate for the identifier.
 	 */
 	public Predicate getPredicate(String identifier){
-		Predicate predicate =  predicateMap.get(identifier.toLowerCase());
+		Predicate predicate = predicateDictionary.getTerm(predicateDictionary.getId(identifier));
 		if(predicate == null){
-			predicate = new Predicate(identifier);
-			predicateMap.put(predicate.getIdentifier().toLowerCase(), predicate);
+			Identifier key = new Identifier(identifier);
+			predicate = predicateDictionary.getTerm(predicateDictionary.add(key, new Predicate(key)));
 		}
 		return predicate;
 	}
-	
+
 	/**
-	 * Gets a Triple for the given subject, predicate, and object. If one does not exist, a new Triple is created,
-	 * and all of its permutations are added to the queryMap.
+	 * Gets a Triple for the given subject, predicate, and object. If one does not exist, the encoded triple
+	 * is added to each of the PermutationIndexes in a new GraphVersion.
 	 * @param subject the subject of the Triple
 	 * @param predicate the predicate of the Triple
 	 * @param object the object of the Triple
-	 * @return the triple stored in the tripleMap.
+	 * @return a Triple for the stored ids.
 	 */
 	public Triple getTriple(Node subject, Predicate predicate, Node object){
-		Triple triple = new Triple(subject, predicate, object);
-		Triple searchedTriple =  tripleMap.get(triple.getIdentifier().toLowerCase());
-		if(searchedTriple == null){
-			/** The triple is not in the map yet. Add it to the queryMap and the tripleMap. */
-			pushToMapSet(triple.getIdentifier(), triple);
-			pushToMapSet(subject.getIdentifier() + " " + predicate.getIdentifier() + " ?", triple);
-			pushToMapSet(subject.getIdentifier() + " ? " + object.getIdentifier(), triple);
-			pushToMapSet(subject.getIdentifier() + " ? ?", triple);
-			pushToMapSet("? " + predicate.getIdentifier() + " " + object.getIdentifier(), triple);
-			pushToMapSet("? " + predicate.getIdentifier() + " ?", triple);
-			pushToMapSet("? ? " + object.getIdentifier(), triple);
-			pushToMapSet("? ? ?", triple);
-
-			tripleMap.put(triple.getIdentifier().toLowerCase(), triple);
-		}
-		return triple;
-	}
-	
-	
-	
+		int s = nodeId(subject);
+		int p = predicateId(predicate);
+		int o = nodeId(object);
+		commit(null, 0, new int[] { s, p, o }, 1);
+		return decodeTriple(s, p, o);
+	}
+
+
+
 	/**
 	 * Gets all the objects from the results of a query.
 	 * @param tripleLiteral the query
-	 * @return a set of the objects matching the query.
+	 * @return a read only set of the objects matching the query, which may be shared with other callers.
+	 * @throws IllegalArgumentException if the predicate is a property path that is not well formed.
 	 */
+	@SuppressWarnings("unchecked")
 	public Set<Node> getObjectsFromQuery(TripleLiteral tripleLiteral){
-		Set<Node> objects = new HashSet<Node>();
-		Set<Triple> triples = executeQuery(tripleLiteral);
-		for(Triple triple : triples){
-			objects.add(triple.getObject());
-        }
-		return objects;
+		return (Set<Node>) cachedQuery(QueryCache.OBJECTS, tripleLiteral);
+	}
+
+	/**
+	 * Answers a single pattern query from the QueryCache, or runs it and caches the result.
+	 * The results are read only, so one result can be handed to every caller.
+	 * @param kind QueryCache.TRIPLES for the matching Triples, or QueryCache.OBJECTS for their objects.
+	 * @param query the pattern.
+	 * @return a Set of Triples or of Nodes.
+	 */
+	private Object cachedQuery(int kind, TripleLiteral query){
+		if(PropertyPath.isPath(query.getPredicate())){
+			return pathQuery(kind, query);
+		}
+		int subject = encodeNode(query.getSubject());
+		int predicate = encodePredicate(query.getPredicate());
+		int object = encodeNode(query.getObject());
+		if(subject < 0 || predicate < 0 || object < 0){
+			/** One of the identifiers is unknown, so nothing can match. */
+			return Collections.emptySet();
+		}
+		GraphVersion version = readVersion();
+		Object result = queryCache.get(kind, subject, predicate, object, version.getNumber());
+		if(result != null){
+			return result;
+		}
+		TripleCursor cursor = openCursor(version, subject, predicate, object);
+		if(kind == QueryCache.TRIPLES){
+			TripleResultSet.Builder matches = new TripleResultSet.Builder();
+			while(cursor.next()){
+				matches.add(cursor.getSubjectId(), cursor.getPredicateId(), cursor.getObjectId());
+			}
+			result = matches.build(this);
+		}else{
+			Set<Node> objects = new HashSet<Node>();
+			while(cursor.next()){
+				objects.add(cursor.getObject());
+			}
+			result = Collections.unmodifiableSet(objects);
+		}
+		queryCache.put(kind, subject, predicate, object, version, currentVersion, result);
+		return result;
+	}
+
+	/**
+	 * Gets the ids in one position of the triples that match a pattern as a posting list, from the
+	 * QueryCache if it holds them for the version. The list is shared and must not be changed.
+	 * @param version the version to read.
+	 * @param position 0, 1 or 2 for the subject, predicate or object ids.
+	 * @return the distinct ids in the position.
+	 */
+	RoaringBitmap postings(GraphVersion version, int subject, int predicate, int object, int position){
+		int kind = QueryCache.POSTINGS + position;
+		RoaringBitmap ids = (RoaringBitmap) queryCache.get(kind, subject, predicate, object, version.getNumber());
+		if(ids != null){
+			return ids;
+		}
+		ids = new RoaringBitmap();
+		TripleCursor cursor = openCursor(version, subject, predicate, object);
+		while(cursor.next()){
+			ids.add(position == 0 ? cursor.getSubjectId() : position == 1 ? cursor.getPredicateId() : cursor.getObjectId());
+		}
+		queryCache.put(kind, subject, predicate, object, version, currentVersion, ids);
+		return ids;
+	}
+
+	/**
+	 * Answers a single pattern query whose predicate is a property path. The subject and object
+	 * may each be a node or "?".
+	 * @param kind QueryCache.TRIPLES for Triples of the subject, the path and each reached node, or
+	 * QueryCache.OBJECTS for the reached nodes.
+	 * @param query the pattern.
+	 * @return a Set of Triples or of Nodes.
+	 */
+	private Object pathQuery(int kind, TripleLiteral query){
+		PropertyPath path = PropertyPath.compile(query.getPredicate(), this);
+		int subject = encodeNode(query.getSubject());
+		int object = encodeNode(query.getObject());
+		if(subject < 0 || object < 0){
+			return Collections.emptySet();
+		}
+		GraphVersion version = readVersion();
+		Predicate predicate = new Predicate(query.getPredicate());
+		Set<Triple> triples = new LinkedHashSet<Triple>();
+		Set<Node> objects = new LinkedHashSet<Node>();
+		BitSet sources = new BitSet();
+		if(subject == TermDictionary.WILDCARD){
+			pathSources(path, version, sources);
+		}else{
+			sources.set(subject);
+		}
+		for(int source = sources.nextSetBit(0); source >= 0; source = sources.nextSetBit(source + 1)){
+			for(int reached : reachable(path, source, version)){
+				if(object != TermDictionary.WILDCARD && reached != object){
+					continue;
+				}
+				if(kind == QueryCache.TRIPLES){
+					triples.add(new Triple(decodeNode(source), predicate, decodeNode(reached)));
+				}else{
+					objects.add(decodeNode(reached));
+				}
+			}
+		}
+		return Collections.unmodifiableSet(kind == QueryCache.TRIPLES ? triples : objects);
 	}
-	
-	
+
 	/**
-	 * Adds a Triple to corresponding set in the queryMap. If a set is not found, then a new set in inserted.
-	 * @param identifier the identifier of the set to search for.
-	 * @param triple the triple to insert into the set at the matching identifier.
+	 * @return the ids of the nodes reachable from a source along a path, from the
+	 * ReachabilityIndex if it holds them for the version.
 	 */
-	private void pushToMapSet(String identifier, Triple triple){
-		Set<Triple> tripleSet =  queryMapSet.get(identifier.toLowerCase());
-		if(tripleSet == null){
-			tripleSet = new HashSet<Triple>();
-			queryMapSet.put(identifier.toLowerCase(), tripleSet);
+	private int[] reachable(PropertyPath path, int source, GraphVersion version){
+		/** A path naming an unknown predicate would not be updated once the predicate is added. */
+		if(!path.isComplete()){
+			return ReachabilityIndex.search(path, source, version).getReached();
 		}
-		tripleSet.add(triple);
+		int[] reached = reachabilityIndex.get(path, source, version.getNumber());
+		if(reached == null){
+			ReachabilityIndex.Reach reach = ReachabilityIndex.search(path, source, version);
+			reachabilityIndex.put(reach);
+			reached = reach.getReached();
+		}
+		return reached;
 	}
-	
+
 	/**
-	 * Removes a triple for a given identifier 
-	 * @param identifier the identifier the triple is associated with.
-	 * @param triple the triple to remove.
+	 * Finds the nodes a path can start from: the subjects of the predicates it can start with, or
+	 * every node in a triple if it also matches the empty path.
 	 */
-	private void removeFromMapSet(String identifier, Triple triple){
-		Set<Triple> tripleSet =  queryMapSet.get(identifier.toLowerCase());
-		if(tripleSet == null){
+	private void pathSources(PropertyPath path, GraphVersion version, BitSet sources){
+		if(path.isAccepting(path.getStart())){
+			PermutationIndex spo = version.getIndex(TripleCursor.SPO);
+			PermutationIndex osp = version.getIndex(TripleCursor.OSP);
+			for(int id = 1; id <= nodeDictionary.size(); id++){
+				if(spo.getBucket(id).size() > 0 || osp.getBucket(id).size() > 0){
+					sources.set(id);
+				}
+			}
 			return;
 		}
-		tripleSet.remove(triple);
+		PermutationIndex pos = version.getIndex(TripleCursor.POS);
+		for(int predicate : path.getPredicates(path.getStart())){
+			PermutationIndex.KeyCursor cursor = pos.getBucket(predicate).scan(PermutationIndex.lowestKey(1), PermutationIndex.highestKey(Integer.MAX_VALUE));
+			while(cursor.next()){
+				sources.set(PermutationIndex.third(cursor.key()));
+			}
+		}
+	}
+
+	/**
+	 * Sets the number of subjects and paths whose reachable nodes are kept for property path queries.
+	 * @param capacity the number of subjects and paths, or 0 to turn the index off.
+	 * @throws IllegalArgumentException if the capacity is negative.
+	 */
+	public void setReachabilityIndexCapacity(int capacity){
+		reachabilityIndex.setCapacity(capacity);
+	}
+
+	/**
+	 * Sets the number of single pattern query results kept in the result cache.
+	 * @param capacity the number of results, or 0 to turn the cache off.
+	 * @throws IllegalArgumentException if the capacity is negative.
+	 */
+	public void setQueryCacheCapacity(int capacity){
+		queryCache.setCapacity(capacity);
+	}
+
+	/**
+	 * @return the number of queries answered from the result cache.
+	 */
+	public long getQueryCacheHits(){
+		return queryCache.getHits();
+	}
+
+	/**
+	 * @return the number of queries that had to be run because no valid result was cached.
+	 */
+	public long getQueryCacheMisses(){
+		return queryCache.getMisses();
+	}
+
+	/**
+	 * @return the number of results evicted from the result cache to make room for new ones.
+	 */
+	public long getQueryCacheEvictions(){
+		return queryCache.getEvictions();
+	}
+
+	/**
+	 * @return the number of results removed from the result cache because a change could affect them.
+	 */
+	public long getQueryCacheInvalidations(){
+		return queryCache.getInvalidations();
 	}
 
 	/**
 	 * Deletes a triple from the knowledgeGraph. Useful for updating existing facts.
-	 * @param subject the Node of the subject for the triple to be deleted. 
+	 * @param subject the Node of the subject for the triple to be deleted.
 	 * @param predicateString the string of the predicate for the triple to be deleted.
-	 * @param object the Node of the object for the triple to be deleted. 
+	 * @param object the Node of the object for the triple to be deleted.
 	 */
 	public void deleteTriple(Node subject, String predicateString, Node object) {
-		Predicate predicate = new Predicate(predicateString);
-		Triple triple = new Triple(subject, predicate, object);
-		Triple searchedTriple =  tripleMap.get(triple.getIdentifier().toLowerCase());
-		if(searchedTriple == null){
+		int s = nodeDictionary.getId(subject.getKey());
+		int p = predicateDictionary.getId(predicateString);
+		int o = nodeDictionary.getId(object.getKey());
+		if(s == TermDictionary.WILDCARD || p == TermDictionary.WILDCARD || o == TermDictionary.WILDCARD){
 			return;
 		}
-		tripleMap.remove(searchedTriple.getIdentifier().toLowerCase());
-		removeFromMapSet(searchedTriple.getIdentifier(), searchedTriple);
-		removeFromMapSet(subject.getIdentifier() + " " + predicate.getIdentifier() + " ?", searchedTriple);
-		removeFromMapSet(subject.getIdentifier() + " ? " + object.getIdentifier(), searchedTriple);
-		removeFromMapSet(subject.getIdentifier() + " ? ?", searchedTriple);
-		removeFromMapSet("? " + predicate.getIdentifier() + " " + object.getIdentifier(), searchedTriple);
-		removeFromMapSet("? " + predicate.getIdentifier() + " ?", searchedTriple);
-		removeFromMapSet("? ? " + object.getIdentifier(), searchedTriple);
-		removeFromMapSet("? ? ?", searchedTriple);
-		
-	}
-	
+		commit(new int[] { s, p, o }, 1, null, 0);
+	}
+
+	/**
+	 * Deletes a list of triples as one change, so readers see either none or all of them gone.
+	 * Triples that are not stored are ignored.
+	 * @param tripleList the list of tripleLiterals to be deleted.
+	 */
+	public void deleteTriples(List<TripleLiteral> tripleList){
+		int[] ids = new int[tripleList.size() * 3];
+		int count = 0;
+		for(TripleLiteral tripleLiteral : tripleList){
+			int s = encodeNode(tripleLiteral.getSubject());
+			int p = encodePredicate(tripleLiteral.getPredicate());
+			int o = encodeNode(tripleLiteral.getObject());
+			if(s > 0 && p > 0 && o > 0){
+				ids[count * 3] = s;
+				ids[count * 3 + 1] = p;
+				ids[count * 3 + 2] = o;
+				count++;
+			}
+		}
+		if(count > 0){
+			commit(ids, count, null, 0);
+		}
+	}
+
+	/**
+	 * Deletes every triple a Node is the subject or object of as one change, for example when a
+	 * house is decommissioned. The Node keeps its id, and can be used in new triples. Triples that
+	 * other threads add to the Node while it is being deleted may be kept.
+	 * @param node the Node.
+	 * @return the number of triples deleted.
+	 */
+	public int deleteNode(Node node){
+		int id = nodeDictionary.getId(node.getKey());
+		if(id == TermDictionary.WILDCARD){
+			return 0;
+		}
+		GraphVersion version = currentVersion.get();
+		PermutationIndex.Bucket subjectOf = version.getIndex(TripleCursor.SPO).getBucket(id);
+		PermutationIndex.Bucket objectOf = version.getIndex(TripleCursor.OSP).getBucket(id);
+		int[] ids = new int[(subjectOf.size() + objectOf.size()) * 3];
+		int count = 0;
+		PermutationIndex.KeyCursor cursor = subjectOf.scan(Long.MIN_VALUE, Long.MAX_VALUE);
+		while(cursor.next()){
+			ids[count * 3] = id;
+			ids[count * 3 + 1] = PermutationIndex.second(cursor.key());
+			ids[count * 3 + 2] = PermutationIndex.third(cursor.key());
+			count++;
+		}
+		cursor = objectOf.scan(Long.MIN_VALUE, Long.MAX_VALUE);
+		while(cursor.next()){
+			/** A triple of the node with itself was found as a subject already. */
+			if(PermutationIndex.second(cursor.key()) != id){
+				ids[count * 3] = PermutationIndex.second(cursor.key());
+				ids[count * 3 + 1] = PermutationIndex.third(cursor.key());
+				ids[count * 3 + 2] = id;
+				count++;
+			}
+		}
+		if(count > 0){
+			commit(ids, count, null, 0);
+		}
+		return count;
+	}
+
+	/**
+	 * Compacts now every Bucket that deletes left tombstones in, rather than waiting for the
+	 * background compaction.
+	 */
+	public void compact(){
+		compactor.compactPending();
+	}
+
+	/**
+	 * Sets how long the background compaction waits after a delete, so that it compacts a burst of
+	 * deletes at once.
+	 * @param millis the delay in milliseconds.
+	 * @throws IllegalArgumentException if the delay is negative.
+	 */
+	public void setCompactionDelay(long millis){
+		compactor.setDelay(millis);
+	}
+
+	/**
+	 * Publishes a version with some Buckets compacted, unless a change is committed first, in which
+	 * case the Buckets are compacted in the new version.
+	 * @param orders the index order of each Bucket.
+	 * @param firsts the first id of each Bucket.
+	 * @param count the number of Buckets.
+	 */
+	void compactBuckets(int[] orders, int[] firsts, int count){
+		while(true){
+			GraphVersion base = currentVersion.get();
+			GraphVersion compacted = base.compact(orders, firsts, count);
+			if(compacted == base){
+				return;
+			}
+			commitLock.lock();
+			try{
+				if(currentVersion.compareAndSet(base, compacted)){
+					return;
+				}
+			}finally{
+				commitLock.unlock();
+			}
+		}
+	}
+
+	/**
+	 * Replaces the object of a triple in one change, so that no reader sees the subject with
+	 * neither object or with both. Useful for updating a value.
+	 * @param subject the Node of the subject.
+	 * @param predicateString the string of the predicate.
+	 * @param oldObject the Node of the object to remove. Nothing is removed if it is not stored.
+	 * @param newObject the Node of the object to add.
+	 * @return the added triple.
+	 */
+	public Triple replaceTriple(Node subject, String predicateString, Node oldObject, Node newObject){
+		int s = nodeId(subject);
+		int p = internPredicate(predicateString);
+		int oldO = nodeDictionary.getId(oldObject.getKey());
+		int newO = nodeId(newObject);
+		if(oldO == TermDictionary.WILDCARD){
+			commit(null, 0, new int[] { s, p, newO }, 1);
+		}else{
+			commit(new int[] { s, p, oldO }, 1, new int[] { s, p, newO }, 1);
+		}
+		return decodeTriple(s, p, newO);
+	}
+
+	/**
+	 * Adds a rule. The consequents of its matches in the graph are inferred at once, and from then on
+	 * every change infers or retracts them as matches are made or broken. An inferred triple is
+	 * retracted when its last match is broken, unless it was also imported: only triples that are in
+	 * the graph solely because a rule inferred them are ever retracted.
+	 * @param rule the rule.
+	 * @throws IllegalArgumentException if a variable is used both as a predicate and as a node, or the
+	 * rule was already added.
+	 */
+	public void addRule(Rule rule){
+		synchronized(ruleEngine){
+			lockChanges();
+			try{
+				ruleEngine.add(rule, currentVersion.get());
+			}finally{
+				unlockChanges();
+			}
+			commitInferences();
+		}
+	}
+
+	/**
+	 * Removes a rule, and retracts the triples no other rule infers.
+	 * @param rule the rule, as it was added.
+	 */
+	public void removeRule(Rule rule){
+		synchronized(ruleEngine){
+			lockChanges();
+			try{
+				ruleEngine.remove(rule, currentVersion.get());
+			}finally{
+				unlockChanges();
+			}
+			commitInferences();
+		}
+	}
+
+	/**
+	 * Starts keeping the history of a predicate. The triples with the predicate that hold now are
+	 * taken as inserted now. With a store open, the history is saved with the triples, and is kept
+	 * again when the store is reopened.
+	 * @param predicate the identifier of the predicate, such as "has_value".
+	 * @throws IllegalStateException if the history is kept but the log could not be written.
+	 */
+	public void trackHistory(String predicate){
+		trackHistory(internPredicate(predicate), System.currentTimeMillis());
+	}
+
+	/**
+	 * Starts keeping the history of a predicate from a time, and logs it if a store is open.
+	 */
+	void trackHistory(int predicate, long time){
+		GraphStore durable = store;
+		if(durable == null){
+			lockChanges();
+			try{
+				history.track(predicate, currentVersion.get(), time);
+			}finally{
+				unlockChanges();
+			}
+			return;
+		}
+		long sequence;
+		synchronized(durable){
+			lockChanges();
+			try{
+				if(!history.track(predicate, currentVersion.get(), time) || durable.isClosed()){
+					return;
+				}
+			}finally{
+				unlockChanges();
+			}
+			sequence = durable.appendTrack(predicate, time);
+		}
+		try{
+			durable.awaitDurable(sequence);
+		}catch(IOException e){
+			throw new IllegalStateException("The history is kept but could not be logged.", e);
+		}
+	}
+
+	/**
+	 * @return the history of the tracked predicates.
+	 */
+	TripleHistory getHistory(){
+		return history;
+	}
+
+	/**
+	 * Executes a query against the graph as it was at a time.
+	 * @param query the pattern, with "?" for any term. A "?" predicate only matches tracked predicates.
+	 * @param time the time, in milliseconds since the epoch.
+	 * @return the triples that held at the time.
+	 * @throws IllegalArgumentException if the predicate is a property path or its history is not kept.
+	 */
+	public Set<Triple> executeQueryAsOf(TripleLiteral query, long time){
+		Set<Triple> triples = new LinkedHashSet<Triple>();
+		for(TemporalTriple temporal : executeQueryHistory(query, time, time == Long.MAX_VALUE ? time : time + 1)){
+			triples.add(temporal.getTriple());
+		}
+		return Collections.unmodifiableSet(triples);
+	}
+
+	/**
+	 * Finds the triples that held at some time in a range, with the intervals during which they
+	 * held. A triple inserted and deleted several times has an interval for each time.
+	 * @param query the pattern, with "?" for any term. A "?" predicate only matches tracked predicates.
+	 * @param from the start of the range, in milliseconds since the epoch.
+	 * @param to the end of the range, which is not part of it.
+	 * @return the triples and their intervals, in the order they were inserted.
+	 * @throws IllegalArgumentException if the predicate is a property path or its history is not kept.
+	 */
+	public List<TemporalTriple> executeQueryHistory(TripleLiteral query, long from, long to){
+		if(PropertyPath.isPath(query.getPredicate())){
+			throw new IllegalArgumentException("The history of the property path " + query.getPredicate() + " is not kept.");
+		}
+		int predicate = encodePredicate(query.getPredicate());
+		if(predicate < 0 || predicate != TermDictionary.WILDCARD && !history.isTracked(predicate)){
+			throw new IllegalArgumentException("The history of " + query.getPredicate() + " is not kept.");
+		}
+		int subject = encodeNode(query.getSubject());
+		int object = encodeNode(query.getObject());
+		if(subject < 0 || object < 0){
+			/** One of the identifiers is unknown, so nothing can match. */
+			return Collections.emptyList();
+		}
+		return history.find(subject, predicate, object, from, to);
+	}
+
+	/**
+	 * Subscribes a listener to the inserts and deletes of the triples that match a pattern, for
+	 * example "? has_value ?". The listener is called asynchronously, in commit order, after each
+	 * change is committed.
+	 * @param pattern the pattern, in which "?" and named variables match any term.
+	 * @param listener the listener to notify.
+	 * @return the subscription, which stops the notifications when cancelled.
+	 * @throws IllegalArgumentException if the predicate is a property path.
+	 */
+	public Subscription subscribe(TripleLiteral pattern, TripleListener listener){
+		return subscriptions.add(pattern, null, listener);
+	}
+
+	/**
+	 * Subscribes a listener to the inserts and deletes of the triples that match a pattern and whose
+	 * subject belongs to a house, such as "house1:kitchen1:oven1" to "house1".
+	 * @param pattern the pattern, in which "?" and named variables match any term.
+	 * @param house the identifier of the house.
+	 * @param listener the listener to notify.
+	 * @return the subscription, which stops the notifications when cancelled.
+	 * @throws IllegalArgumentException if the predicate is a property path.
+	 */
+	public Subscription subscribe(TripleLiteral pattern, String house, TripleListener listener){
+		return subscriptions.add(pattern, house, listener);
+	}
+
+	/**
+	 * Sets the handler told about the exceptions thrown by listeners. Without one, an exception is
+	 * reported to the notification thread's uncaught exception handler, which by default prints it.
+	 * Either way the events of the other listeners are still delivered.
+	 * @param handler the handler, or null for the notification thread's uncaught exception handler.
+	 */
+	public void setListenerErrorHandler(Thread.UncaughtExceptionHandler handler){
+		subscriptions.setErrorHandler(handler);
+	}
+
+	/**
+	 * Pins the current version of the graph for the calling thread. Until the matching
+	 * releaseVersion, every query made by the thread reads this version, even while other
+	 * threads commit changes. Pins may be nested.
+	 * @return the number of the pinned version.
+	 */
+	public long pinVersion(){
+		PinnedVersion pin = pinnedVersion.get();
+		if(pin == null){
+			pin = new PinnedVersion(currentVersion.get());
+			pinnedVersion.set(pin);
+		}
+		pin.count++;
+		return pin.version.getNumber();
+	}
+
+	/**
+	 * Releases a pin taken with pinVersion. When the last pin of the thread is released the
+	 * thread reads the current version again, and the pinned version can be reclaimed.
+	 */
+	public void releaseVersion(){
+		PinnedVersion pin = pinnedVersion.get();
+		if(pin != null && --pin.count == 0){
+			pinnedVersion.remove();
+		}
+	}
+
+	/**
+	 * @return the number of the latest committed version.
+	 */
+	public long getVersion(){
+		return currentVersion.get().getNumber();
+	}
+
+	/**
+	 * @return the latest committed version, whatever the calling thread has pinned.
+	 */
+	GraphVersion getCommittedVersion(){
+		return currentVersion.get();
+	}
+
+	/**
+	 * @return the version pinned by the calling thread, or the latest committed version.
+	 */
+	private GraphVersion readVersion(){
+		PinnedVersion pin = pinnedVersion.get();
+		return pin == null ? currentVersion.get() : pin.version;
+	}
+
+	/**
+	 * Creates a Triple from the stored terms for the given ids.
+	 * @param subject the subject id.
+	 * @param predicate the predicate id.
+	 * @param object the object id.
+	 * @return the decoded Triple.
+	 */
+	Triple decodeTriple(int subject, int predicate, int object){
+		return new Triple(nodeDictionary.getTerm(subject), predicateDictionary.getTerm(predicate), nodeDictionary.getTerm(object));
+	}
+
+	/**
+	 * @return the Node for an id.
+	 */
+	Node decodeNode(int id){
+		return nodeDictionary.getTerm(id);
+	}
+
+	/**
+	 * @return the Predicate for an id.
+	 */
+	Predicate decodePredicate(int id){
+		return predicateDictionary.getTerm(id);
+	}
+
+	/**
+	 * Encodes a query token for a Node.
+	 * @param token the token from the query.
+	 * @return the id of the Node, WILDCARD for "?", or -1 if the Node is unknown.
+	 */
+	int encodeNode(String token){
+		if(token.equals("?")){
+			return TermDictionary.WILDCARD;
+		}
+		int id = nodeDictionary.getId(token);
+		return id == TermDictionary.WILDCARD ? -1 : id;
+	}
+
+	/**
+	 * Encodes a query token for a Predicate.
+	 * @param token the token from the query.
+	 * @return the id of the Predicate, WILDCARD for "?", or -1 if the Predicate is unknown.
+	 */
+	int encodePredicate(String token){
+		if(token.equals("?")){
+			return TermDictionary.WILDCARD;
+		}
+		int id = predicateDictionary.getId(token);
+		return id == TermDictionary.WILDCARD ? -1 : id;
+	}
+
+	/**
+	 * Gets the id for a Node identifier, creating a plain Node if the identifier is new.
+	 * @param identifier the identifier of the Node.
+	 * @return the id of the Node.
+	 */
+	int internNode(String identifier){
+		int id = nodeDictionary.getId(identifier);
+		if(id == TermDictionary.WILDCARD){
+			Identifier key = new Identifier(identifier);
+			id = nodeDictionary.add(key, new Node(key));
+		}
+		return id;
+	}
+
+	/**
+	 * Gets the id for a Predicate identifier, creating the Predicate if the identifier is new.
+	 * @param identifier the identifier of the Predicate.
+	 * @return the id of the Predicate.
+	 */
+	int internPredicate(String identifier){
+		int id = predicateDictionary.getId(identifier);
+		if(id == TermDictionary.WILDCARD){
+			Identifier key = new Identifier(identifier);
+			id = predicateDictionary.add(key, new Predicate(key));
+		}
+		return id;
+	}
+
+	/**
+	 * Gets the ids for a batch of Node identifiers. The Nodes of the new identifiers are created
+	 * first and added to the node dictionary under one lock.
+	 * @param identifiers the identifiers of the Nodes.
+	 * @param count the number of identifiers.
+	 * @return the id of each Node.
+	 */
+	int[] internNodes(String[] identifiers, int count){
+		int[] ids = new int[count];
+		int[] positions = new int[count];
+		Identifier[] keys = new Identifier[count];
+		Node[] nodes = new Node[count];
+		int newCount = 0;
+		for(int i = 0; i < count; i++){
+			ids[i] = nodeDictionary.getId(identifiers[i]);
+			if(ids[i] == TermDictionary.WILDCARD){
+				keys[newCount] = new Identifier(identifiers[i]);
+				nodes[newCount] = new Node(keys[newCount]);
+				positions[newCount++] = i;
+			}
+		}
+		if(newCount > 0){
+			int[] added = nodeDictionary.addAll(keys, nodes, newCount);
+			for(int i = 0; i < newCount; i++){
+				ids[positions[i]] = added[i];
+			}
+		}
+		return ids;
+	}
+
+	/**
+	 * Gets the ids for a batch of Predicate identifiers. The Predicates of the new identifiers are
+	 * created first and added to the predicate dictionary under one lock.
+	 * @param identifiers the identifiers of the Predicates.
+	 * @param count the number of identifiers.
+	 * @return the id of each Predicate.
+	 */
+	int[] internPredicates(String[] identifiers, int count){
+		int[] ids = new int[count];
+		int[] positions = new int[count];
+		Identifier[] keys = new Identifier[count];
+		Predicate[] predicates = new Predicate[count];
+		int newCount = 0;
+		for(int i = 0; i < count; i++){
+			ids[i] = predicateDictionary.getId(identifiers[i]);
+			if(ids[i] == TermDictionary.WILDCARD){
+				keys[newCount] = new Identifier(identifiers[i]);
+				predicates[newCount] = new Predicate(keys[newCount]);
+				positions[newCount++] = i;
+			}
+		}
+		if(newCount > 0){
+			int[] added = predicateDictionary.addAll(keys, predicates, newCount);
+			for(int i = 0; i < newCount; i++){
+				ids[positions[i]] = added[i];
+			}
+		}
+		return ids;
+	}
+
+	/**
+	 * @return the id of a Node, which is added to the node dictionary if needed.
+	 */
+	private int nodeId(Node node){
+		Identifier key = node.getKey();
+		int id = nodeDictionary.getId(key);
+		if(id == TermDictionary.WILDCARD){
+			id = nodeDictionary.add(key, node);
+		}
+		return id;
+	}
+
+	/**
+	 * @return the id of a Predicate, which is added to the predicate dictionary if needed.
+	 */
+	private int predicateId(Predicate predicate){
+		Identifier key = predicate.getKey();
+		int id = predicateDictionary.getId(key);
+		if(id == TermDictionary.WILDCARD){
+			id = predicateDictionary.add(key, predicate);
+		}
+		return id;
+	}
+
+	/**
+	 * A version pinned by one thread, with the number of nested pins.
+	 */
+	private static final class PinnedVersion {
+
+		private final GraphVersion version;
+		private int count = 0;
+
+		PinnedVersion(GraphVersion version){
+			this.version = version;
+		}
+	}
+
 }
@@ -0,0 +1,73 @@
+package cscie97.asn4.knowledge.engine;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A LoopbackTransport runs every storage node of a cluster in this JVM, so a DistributedKnowledgeGraph
+ * can be run and tested on one machine. Messages are still passed as encoded bytes, and are handled
+ * on a pool of daemon threads as a server would handle them. A latency can be set to stand in for
+ * the network round trip.
+ */
+public final class LoopbackTransport implements Transport {
+
+	private final StorageNode[] nodes;
+	private final ExecutorService pool = Executors.newCachedThreadPool(new ThreadFactory(){
+		@Override
+		public Thread newThread(Runnable runnable){
+			Thread thread = new Thread(runnable, "KnowledgeGraph loopback node");
+			thread.setDaemon(true);
+			return thread;
+		}
+	});
+	private volatile long latencyMicros = 0;
+
+	/**
+	 * @param nodeCount the number of storage nodes.
+	 * @throws IllegalArgumentException if the count is below 1.
+	 */
+	public LoopbackTransport(int nodeCount){
+		if(nodeCount < 1){
+			throw new IllegalArgumentException("There must be at least one node.");
+		}
+		nodes = new StorageNode[nodeCount];
+		for(int i = 0; i < nodeCount; i++){
+			nodes[i] = new StorageNode();
+		}
+	}
+
+	@Override
+	public int getNodeCount(){
+		return nodes.length;
+	}
+
+	@Override
+	public Future<byte[]> send(int node, final byte[] request){
+		final StorageNode storageNode = nodes[node];
+		return pool.submit(new Callable<byte[]>(){
+			@Override
+			public byte[] call() throws InterruptedException{
+				long latency = latencyMicros;
+				if(latency > 0){
+					TimeUnit.MICROSECONDS.sleep(latency);
+				}
+				return storageNode.handle(request);
+			}
+		});
+	}
+
+	/**
+	 * @param micros the time each request waits before it is handled, standing in for a network
+	 * round trip. 0 by default.
+	 */
+	public void setLatency(long micros){
+		if(micros < 0){
+			throw new IllegalArgumentException("The latency cannot be negative.");
+		}
+		latencyMicros = micros;
+	}
+}
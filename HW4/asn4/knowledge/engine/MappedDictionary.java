@@ -0,0 +1,330 @@
+package cscie97.asn4.knowledge.engine;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * A MappedDictionary is the dictionary of a TripleFile, read in place from the mapped file. The
+ * identifiers are sorted by their lower cased keys, and their ids follow that order from 1. They
+ * are front coded in blocks of BLOCK_SIZE: the first identifier of a block is stored whole, and
+ * each one after it as the number of leading bytes it shares with the one before and the bytes
+ * that differ. A lookup binary searches the first identifiers of the blocks and then decodes one
+ * block. The identifiers under a prefix have consecutive ids, so a prefix scan is one lookup and
+ * then a walk forward. Keys are compared a character at a time where they are in the buffer, with
+ * a reader each thread keeps, so a lookup of an ASCII identifier in any case allocates nothing.
+ *
+ * The section starts with the number of identifiers and of blocks, then the offset of each
+ * block from the start of the data, then the data.
+ */
+final class MappedDictionary implements TermDictionary.Base {
+
+	static final int BLOCK_SIZE = 16;
+	private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+	private final ByteBuffer buffer;
+	private final int size;
+	private final int blockCount;
+	private final int data;
+	/** The reader each thread searches with. */
+	private final ThreadLocal<BlockReader> searchReaders = new ThreadLocal<BlockReader>(){
+		@Override
+		protected BlockReader initialValue(){
+			return new BlockReader(0);
+		}
+	};
+
+	/**
+	 * @param buffer the dictionary section.
+	 */
+	MappedDictionary(ByteBuffer buffer){
+		this.buffer = buffer;
+		size = buffer.getInt(0);
+		blockCount = buffer.getInt(4);
+		data = 8 + 4 * blockCount;
+	}
+
+	/**
+	 * @return the number of identifiers.
+	 */
+	@Override
+	public int size(){
+		return size;
+	}
+
+	/**
+	 * @param id an id from 1 to size().
+	 * @return the identifier with the id.
+	 */
+	@Override
+	public String get(int id){
+		return open(id - 1).current();
+	}
+
+	/**
+	 * @param identifier an identifier, in any case.
+	 * @return the id of the identifier with the same key, or TermDictionary.WILDCARD if there is none.
+	 */
+	@Override
+	public int find(String identifier){
+		int index = search(identifier);
+		return index >= 0 ? index + 1 : TermDictionary.WILDCARD;
+	}
+
+	/**
+	 * @param prefix a lower cased prefix.
+	 * @return the ids of the identifiers whose keys start with the prefix, in order.
+	 */
+	@Override
+	public int[] findPrefix(String prefix){
+		int from = search(prefix);
+		if(from < 0){
+			from = -from - 1;
+		}
+		int to = from;
+		BlockReader reader = null;
+		while(to < size){
+			if(reader == null){
+				reader = open(to);
+			}else if(to % BLOCK_SIZE == 0){
+				reader = new BlockReader(to);
+			}else{
+				reader.next();
+			}
+			if(!reader.current().toLowerCase(Locale.ROOT).startsWith(prefix)){
+				break;
+			}
+			to++;
+		}
+		int[] ids = new int[to - from];
+		for(int i = 0; i < ids.length; i++){
+			ids[i] = from + i + 1;
+		}
+		return ids;
+	}
+
+	/**
+	 * Finds a key like Arrays.binarySearch.
+	 * @param key an identifier, in any case.
+	 * @return the index of the identifier with the key, or (-(insertion point) - 1) if there is none.
+	 */
+	private int search(String key){
+		if(blockCount == 0){
+			return -1;
+		}
+		for(int i = 0; i < key.length(); i++){
+			if(key.charAt(i) >= 0x80){
+				/** Characters past ASCII may lower case to more than one, so lower case it whole. */
+				key = key.toLowerCase(Locale.ROOT);
+				break;
+			}
+		}
+		int low = 0;
+		int high = blockCount - 1;
+		/** Find the last block whose first key is not greater than the key. */
+		while(low < high){
+			int middle = (low + high + 1) >>> 1;
+			if(compareFirstKey(middle, key) <= 0){
+				low = middle;
+			}else{
+				high = middle - 1;
+			}
+		}
+		BlockReader reader = searchReaders.get();
+		reader.seek(low * BLOCK_SIZE);
+		int end = Math.min(size, (low + 1) * BLOCK_SIZE);
+		for(int index = low * BLOCK_SIZE; index < end; index++){
+			if(index > low * BLOCK_SIZE){
+				reader.next();
+			}
+			int comparison = reader.compareKey(key);
+			if(comparison == 0){
+				return index;
+			}else if(comparison > 0){
+				return -index - 1;
+			}
+		}
+		return -end - 1;
+	}
+
+	/**
+	 * Compares the key of the first identifier of a block with a key, like String.compareTo. An
+	 * ASCII identifier is compared where it is in the buffer, so a binary search copies nothing.
+	 * @param key an ASCII or lower cased identifier.
+	 */
+	private int compareFirstKey(int block, String key){
+		int position = data + buffer.getInt(8 + 4 * block);
+		int length = 0;
+		for(int shift = 0; ; shift += 7){
+			int b = buffer.get(position++);
+			length |= (b & 0x7F) << shift;
+			if((b & 0x80) == 0){
+				break;
+			}
+		}
+		int limit = Math.min(length, key.length());
+		for(int i = 0; i < length; i++){
+			byte b = buffer.get(position + i);
+			if(b < 0){
+				return compare(new BlockReader(block * BLOCK_SIZE).current().toLowerCase(Locale.ROOT), key);
+			}
+			if(i < limit){
+				int difference = Character.toLowerCase((char) b) - Character.toLowerCase(key.charAt(i));
+				if(difference != 0){
+					return difference;
+				}
+			}
+		}
+		return length - key.length();
+	}
+
+	/**
+	 * Compares a key with the key of an ASCII or lower cased identifier, like String.compareTo.
+	 */
+	private static int compare(String key, String identifier){
+		int limit = Math.min(key.length(), identifier.length());
+		for(int i = 0; i < limit; i++){
+			int difference = key.charAt(i) - Character.toLowerCase(identifier.charAt(i));
+			if(difference != 0){
+				return difference;
+			}
+		}
+		return key.length() - identifier.length();
+	}
+
+	/**
+	 * @return a reader positioned at the identifier with an index.
+	 */
+	private BlockReader open(int index){
+		BlockReader reader = new BlockReader(index);
+		for(int i = index % BLOCK_SIZE; i > 0; i--){
+			reader.next();
+		}
+		return reader;
+	}
+
+	/**
+	 * Encodes a dictionary section.
+	 * @param identifiers the identifiers, sorted by their lower cased keys.
+	 * @return the section.
+	 */
+	static byte[] encode(List<String> identifiers){
+		int blocks = (identifiers.size() + BLOCK_SIZE - 1) / BLOCK_SIZE;
+		ByteArrayOutputStream entries = new ByteArrayOutputStream();
+		int[] offsets = new int[blocks];
+		byte[] previous = new byte[0];
+		try{
+			for(int index = 0; index < identifiers.size(); index++){
+				byte[] bytes = identifiers.get(index).getBytes(UTF_8);
+				int shared = 0;
+				if(index % BLOCK_SIZE == 0){
+					offsets[index / BLOCK_SIZE] = entries.size();
+				}else{
+					int limit = Math.min(previous.length, bytes.length);
+					while(shared < limit && previous[shared] == bytes[shared]){
+						shared++;
+					}
+					WriteAheadLog.writeVarInt(entries, shared);
+				}
+				WriteAheadLog.writeVarInt(entries, bytes.length - shared);
+				entries.write(bytes, shared, bytes.length - shared);
+				previous = bytes;
+			}
+		}catch(IOException e){
+			/** Writing to a ByteArrayOutputStream does not fail. */
+			throw new IllegalStateException(e);
+		}
+		ByteBuffer section = ByteBuffer.allocate(8 + 4 * blocks + entries.size());
+		section.putInt(identifiers.size());
+		section.putInt(blocks);
+		for(int offset : offsets){
+			section.putInt(offset);
+		}
+		section.put(entries.toByteArray());
+		return section.array();
+	}
+
+	/**
+	 * Decodes the identifiers of one block in order, starting with its first.
+	 */
+	private final class BlockReader {
+
+		private int position;
+		private byte[] bytes = new byte[64];
+		private int length;
+
+		/**
+		 * @param index the index of an identifier in the block.
+		 */
+		BlockReader(int index){
+			seek(index);
+		}
+
+		/**
+		 * Moves to the first identifier of the block with an index.
+		 */
+		void seek(int index){
+			position = data + buffer.getInt(8 + 4 * (index / BLOCK_SIZE));
+			read(0);
+		}
+
+		/**
+		 * Moves to the next identifier of the block.
+		 */
+		void next(){
+			read(readVarInt());
+		}
+
+		String current(){
+			return new String(bytes, 0, length, UTF_8);
+		}
+
+		/**
+		 * Compares the key of the current identifier with a key, like String.compareTo. ASCII
+		 * identifiers are compared in place, without decoding them.
+		 * @param key an ASCII or lower cased identifier.
+		 */
+		int compareKey(String key){
+			int limit = Math.min(length, key.length());
+			for(int i = 0; i < length; i++){
+				if(bytes[i] < 0){
+					return compare(current().toLowerCase(Locale.ROOT), key);
+				}
+				if(i < limit){
+					int difference = Character.toLowerCase((char) bytes[i]) - Character.toLowerCase(key.charAt(i));
+					if(difference != 0){
+						return difference;
+					}
+				}
+			}
+			return length - key.length();
+		}
+
+		private void read(int shared){
+			int suffix = readVarInt();
+			length = shared + suffix;
+			if(length > bytes.length){
+				byte[] grown = new byte[Math.max(length, bytes.length * 2)];
+				System.arraycopy(bytes, 0, grown, 0, shared);
+				bytes = grown;
+			}
+			for(int i = shared; i < length; i++){
+				bytes[i] = buffer.get(position++);
+			}
+		}
+
+		private int readVarInt(){
+			int value = 0;
+			for(int shift = 0; ; shift += 7){
+				int b = buffer.get(position++);
+				value |= (b & 0x7F) << shift;
+				if((b & 0x80) == 0){
+					return value;
+				}
+			}
+		}
+	}
+}
@@ -0,0 +1,117 @@
+package cscie97.asn4.knowledge.engine;
+
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+
+/**
+ * A MappedIndex is one permutation index as it is stored in a TripleFile, read in place from the
+ * mapped file. The keys of all Buckets are stored one after the other in ascending order, each
+ * packed into a fixed number of bits: the second id in the high bits and the third id in the low
+ * bits, with just enough bits for the largest id of each. A directory gives the position of the
+ * first key of each first id, so a Bucket is a range of keys that is searched without decoding
+ * the ones around it.
+ *
+ * A MappedIndex is never changed. Changes are made in the PermutationIndex above it.
+ */
+final class MappedIndex {
+
+	/** Bytes after the last key, so a key can always be read with one getLong. */
+	static final int PADDING = 9;
+
+	private final IntBuffer directory;
+	private final ByteBuffer keys;
+	private final int firstCount;
+	private final int thirdBits;
+	private final int width;
+	private final long thirdMask;
+	private final int size;
+
+	/**
+	 * @param directory the position of the first key of each first id from 0 to firstCount, and the number of keys after them.
+	 * @param keys the packed keys, followed by PADDING bytes.
+	 * @param secondBits the number of bits of the second id of a key.
+	 * @param thirdBits the number of bits of the third id of a key.
+	 */
+	MappedIndex(IntBuffer directory, ByteBuffer keys, int secondBits, int thirdBits){
+		this.directory = directory;
+		this.keys = keys;
+		this.thirdBits = thirdBits;
+		firstCount = directory.limit() - 1;
+		width = secondBits + thirdBits;
+		thirdMask = (1L << thirdBits) - 1;
+		size = directory.get(firstCount);
+	}
+
+	/**
+	 * @return the number of keys.
+	 */
+	int size(){
+		return size;
+	}
+
+	/**
+	 * @return one past the highest first id.
+	 */
+	int getFirstCount(){
+		return firstCount;
+	}
+
+	/**
+	 * @return the keys of a first id, as a Bucket that reads this index.
+	 */
+	PermutationIndex.Bucket getBucket(int first){
+		if(first >= firstCount){
+			return PermutationIndex.Bucket.EMPTY;
+		}
+		int start = directory.get(first);
+		int end = directory.get(first + 1);
+		if(start == end){
+			return PermutationIndex.Bucket.EMPTY;
+		}
+		return new PermutationIndex.Bucket(this, start, end - start);
+	}
+
+	/**
+	 * @param position the position of a key.
+	 * @return the key in the form made by PermutationIndex.pack.
+	 */
+	long getKey(int position){
+		long bit = (long) position * width;
+		int offset = (int) (bit >>> 3);
+		int shift = (int) (bit & 7);
+		/** The key starts shift bits into the 64 bits read at offset, and can end in the byte after them. */
+		long bits = keys.getLong(offset) << shift >>> (64 - width);
+		if(shift + width > 64){
+			bits |= (keys.get(offset + 8) & 0xFFL) >>> (72 - shift - width);
+		}
+		return PermutationIndex.pack((int) (bits >>> thirdBits), (int) (bits & thirdMask));
+	}
+
+	/**
+	 * @return the first position from from to to whose key is not less than key, or to if there is none.
+	 */
+	int search(int from, int to, long key){
+		int low = from;
+		int high = to;
+		while(low < high){
+			int middle = (low + high) >>> 1;
+			if(getKey(middle) < key){
+				low = middle + 1;
+			}else{
+				high = middle;
+			}
+		}
+		return low;
+	}
+
+	/**
+	 * @return count keys from a position, decoded.
+	 */
+	long[] getKeys(int start, int count){
+		long[] decoded = new long[count];
+		for(int i = 0; i < count; i++){
+			decoded[i] = getKey(start + i);
+		}
+		return decoded;
+	}
+}
@@ -5,19 +5,33 @@ package cscie97.asn4.knowledge.engine;
  */
 public class Node {
 	
-	private final String identifier;
+	private final Identifier identifier;
 	
 	/**
 	 * @param identifierString the string to store.
 	 */
 	public Node(String identifierString) {
-		identifier = identifierString;
+		identifier = new Identifier(identifierString);
+	}
+
+	/**
+	 * @param identifier the canonical identifier to store, which is shared rather than made again.
+	 */
+	public Node(Identifier identifier) {
+		this.identifier = identifier;
 	}
 
 	/**
 	 * @return the identifier for the node.
 	 */
 	public String getIdentifier(){
+		return identifier.getIdentifier();
+	}
+
+	/**
+	 * @return the canonical identifier for the node, which is used to look it up.
+	 */
+	public Identifier getKey(){
 		return identifier;
 	}
 }
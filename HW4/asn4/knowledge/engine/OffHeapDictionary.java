@@ -0,0 +1,68 @@
+package cscie97.asn4.knowledge.engine;
+
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * An OffHeapDictionary holds the identifiers of a TermDictionary in direct buffers, outside the
+ * Java heap, with the ids they already have. The identifiers are sorted by their keys and front
+ * coded in a MappedDictionary, so identifiers that share a long prefix, like the hierarchical ones
+ * of the HouseMate model, take little more than their differing ends. Two tables map each id to
+ * its position in the sorted order and back.
+ *
+ * An OffHeapDictionary is never changed. Terms added later are kept by the TermDictionary above it.
+ */
+final class OffHeapDictionary implements TermDictionary.Base {
+
+	private final MappedDictionary sorted;
+	/** The id of each sorted position, from 1. */
+	private final IntBuffer ids;
+	/** The sorted position of each id. */
+	private final IntBuffer positions;
+
+	/**
+	 * Copies identifiers into direct buffers.
+	 * @param identifiers the identifier of each id, from 1. Element 0 is not used.
+	 */
+	OffHeapDictionary(String[] identifiers){
+		List<String> order = new ArrayList<String>(identifiers.length);
+		int[] sortedIds = TripleFile.renumber(identifiers, order);
+		byte[] section = MappedDictionary.encode(order);
+		ByteBuffer buffer = ByteBuffer.allocateDirect(section.length);
+		buffer.put(section);
+		sorted = new MappedDictionary(buffer);
+		ids = ByteBuffer.allocateDirect(4 * identifiers.length).asIntBuffer();
+		positions = ByteBuffer.allocateDirect(4 * identifiers.length).asIntBuffer();
+		for(int id = 1; id < identifiers.length; id++){
+			positions.put(id, sortedIds[id]);
+			ids.put(sortedIds[id], id);
+		}
+	}
+
+	@Override
+	public int size(){
+		return sorted.size();
+	}
+
+	@Override
+	public String get(int id){
+		return sorted.get(positions.get(id));
+	}
+
+	@Override
+	public int find(String identifier){
+		int position = sorted.find(identifier);
+		return position == TermDictionary.WILDCARD ? TermDictionary.WILDCARD : ids.get(position);
+	}
+
+	@Override
+	public int[] findPrefix(String prefix){
+		int[] found = sorted.findPrefix(prefix);
+		for(int i = 0; i < found.length; i++){
+			found[i] = ids.get(found[i]);
+		}
+		return found;
+	}
+}
@@ -0,0 +1,955 @@
+package cscie97.asn4.knowledge.engine;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * A PermutationIndex stores every triple once, with its three ids in one fixed order
+ * (for example predicate, object, subject). The triples are grouped into a Bucket per
+ * first id, and each Bucket holds the remaining two ids packed into a long and kept sorted.
+ * Any query that binds the first id, or the first and second ids, is answered by a range
+ * scan of one Bucket.
+ *
+ * A PermutationIndex is immutable. The Buckets hang off a trie of 32 way nodes indexed by the
+ * first id, and a change copies only the path from the root to the changed Bucket, returning
+ * a new PermutationIndex that shares everything else with the old one. Any number of readers
+ * can keep using an old PermutationIndex while writers build new ones.
+ *
+ * A PermutationIndex opened from a TripleFile also has a MappedIndex underneath the trie. A first
+ * id with no slot in the trie reads its Bucket straight from the mapped file, and the first change
+ * to such a Bucket copies it into the trie, so the file is never written.
+ */
+final class PermutationIndex {
+
+	private static final int NODE_BITS = 5;
+	private static final int NODE_SIZE = 1 << NODE_BITS;
+
+	static final PermutationIndex EMPTY = new PermutationIndex(new Object[NODE_SIZE], 0, 0, null);
+
+	private final Object[] root;
+	private final int shift;
+	private final int size;
+	private final MappedIndex base;
+
+	private PermutationIndex(Object[] root, int shift, int size, MappedIndex base){
+		this.root = root;
+		this.shift = shift;
+		this.size = size;
+		this.base = base;
+	}
+
+	/**
+	 * @param base an index mapped from a TripleFile.
+	 * @return a PermutationIndex that reads the mapped index until it is changed.
+	 */
+	static PermutationIndex mapped(MappedIndex base){
+		return new PermutationIndex(new Object[NODE_SIZE], 0, base.size(), base);
+	}
+
+	/**
+	 * Adds a triple to the index.
+	 * @param first the first id in this index's order.
+	 * @param second the second id in this index's order.
+	 * @param third the third id in this index's order.
+	 * @return the index with the triple added, or this index if the triple was already in it.
+	 */
+	public PermutationIndex add(int first, int second, int third){
+		Bucket bucket = getBucket(first);
+		Bucket updated = bucket.insert(pack(second, third));
+		if(updated == bucket){
+			return this;
+		}
+		int newShift = getShift(first);
+		return new PermutationIndex(set(grow(newShift), newShift, first, updated), newShift, size + 1, base);
+	}
+
+	/**
+	 * Removes a triple from the index.
+	 * @param first the first id in this index's order.
+	 * @param second the second id in this index's order.
+	 * @param third the third id in this index's order.
+	 * @return the index with the triple removed, or this index if the triple was not in it.
+	 */
+	public PermutationIndex remove(int first, int second, int third){
+		Bucket bucket = getBucket(first);
+		Bucket updated = bucket.delete(pack(second, third));
+		if(updated == bucket){
+			return this;
+		}
+		/** An empty Bucket is kept in the trie if it has to hide a mapped one. */
+		Bucket kept = updated.size() == 0 && base == null ? null : updated;
+		int newShift = getShift(first);
+		return new PermutationIndex(set(grow(newShift), newShift, first, kept), newShift, size - 1, base);
+	}
+
+	/**
+	 * Adds a batch of triples. The batch is sorted, and each Bucket it touches is merged and
+	 * copied once, rather than once per triple.
+	 * @param firsts the first id of each triple in this index's order. Reordered by the call.
+	 * @param keys the packed second and third ids of each triple. Reordered by the call.
+	 * @param count the number of triples in the arrays.
+	 * @return the index with the triples added, or this index if all of them were already in it.
+	 */
+	public PermutationIndex addAll(int[] firsts, long[] keys, int count){
+		if(count == 0){
+			return this;
+		}
+		sort(firsts, keys, 0, count - 1);
+		int newShift = getShift(firsts[count - 1]);
+
+		/** Merge each run of keys with the same first id into its Bucket. */
+		int[] changedFirsts = new int[count];
+		Bucket[] changedBuckets = new Bucket[count];
+		int changed = 0;
+		int newSize = size;
+		int start = 0;
+		while(start < count){
+			int end = start + 1;
+			while(end < count && firsts[end] == firsts[start]){
+				end++;
+			}
+			Bucket bucket = getBucket(firsts[start]);
+			Bucket merged = bucket.insertAll(keys, start, end);
+			if(merged != bucket){
+				changedFirsts[changed] = firsts[start];
+				changedBuckets[changed] = merged;
+				changed++;
+				newSize += merged.size() - bucket.size();
+			}
+			start = end;
+		}
+		if(changed == 0){
+			return this;
+		}
+		return new PermutationIndex(setAll(grow(newShift), newShift, changedFirsts, changedBuckets, 0, changed), newShift, newSize, base);
+	}
+
+	/**
+	 * Removes a batch of triples. The batch is sorted, and each Bucket it touches is changed once.
+	 * @param firsts the first id of each triple in this index's order. Reordered by the call.
+	 * @param keys the packed second and third ids of each triple. Reordered by the call.
+	 * @param count the number of triples in the arrays.
+	 * @return the index with the triples removed, or this index if none of them were in it.
+	 */
+	public PermutationIndex removeAll(int[] firsts, long[] keys, int count){
+		if(count == 0){
+			return this;
+		}
+		sort(firsts, keys, 0, count - 1);
+		int[] changedFirsts = new int[count];
+		Bucket[] changedBuckets = new Bucket[count];
+		int changed = 0;
+		int newSize = size;
+		int start = 0;
+		while(start < count){
+			int end = start + 1;
+			while(end < count && firsts[end] == firsts[start]){
+				end++;
+			}
+			Bucket bucket = getBucket(firsts[start]);
+			Bucket removed = bucket.deleteAll(keys, start, end);
+			if(removed != bucket){
+				changedFirsts[changed] = firsts[start];
+				changedBuckets[changed] = removed.size() == 0 && base == null ? null : removed;
+				changed++;
+				newSize -= bucket.size() - removed.size();
+			}
+			start = end;
+		}
+		if(changed == 0){
+			return this;
+		}
+		int newShift = getShift(firsts[count - 1]);
+		return new PermutationIndex(setAll(grow(newShift), newShift, changedFirsts, changedBuckets, 0, changed), newShift, newSize, base);
+	}
+
+	/**
+	 * Drops the tombstoned keys of a Bucket from its chunks. The triples in the index stay the same.
+	 * @param first the first id of the Bucket.
+	 * @return the index with the Bucket compacted, or this index if it had nothing to compact.
+	 */
+	PermutationIndex compact(int first){
+		Bucket bucket = getBucket(first);
+		Bucket compacted = bucket.compact();
+		if(compacted == bucket){
+			return this;
+		}
+		Bucket kept = compacted.size() == 0 && base == null ? null : compacted;
+		int newShift = getShift(first);
+		return new PermutationIndex(set(grow(newShift), newShift, first, kept), newShift, size, base);
+	}
+
+	/**
+	 * @return true if the triple is in the index.
+	 */
+	public boolean contains(int first, int second, int third){
+		return getBucket(first).contains(pack(second, third));
+	}
+
+	/**
+	 * @param first the first id in this index's order.
+	 * @return the Bucket of triples starting with the id. Never null.
+	 */
+	public Bucket getBucket(int first){
+		if(first <= TermDictionary.WILDCARD){
+			return Bucket.EMPTY;
+		}
+		Bucket bucket = null;
+		if(first >>> shift < NODE_SIZE){
+			Object[] node = root;
+			for(int level = shift; level > 0 && node != null; level -= NODE_BITS){
+				node = (Object[]) node[(first >>> level) & (NODE_SIZE - 1)];
+			}
+			if(node != null){
+				bucket = (Bucket) node[first & (NODE_SIZE - 1)];
+			}
+		}
+		if(bucket == null){
+			return base == null ? Bucket.EMPTY : base.getBucket(first);
+		}
+		return bucket;
+	}
+
+	/**
+	 * @return one past the highest first id that may have a Bucket.
+	 */
+	public int getBucketCount(){
+		int count = shift + NODE_BITS >= 31 ? Integer.MAX_VALUE : 1 << (shift + NODE_BITS);
+		return base == null ? count : Math.max(count, base.getFirstCount());
+	}
+
+	/**
+	 * @return the number of triples in the index.
+	 */
+	public int size(){
+		return size;
+	}
+
+	/**
+	 * @return the shift of a root deep enough to hold the id. A mapped index can have Buckets of ids
+	 * past the end of the trie, so removing one can need a deeper trie as well as adding one.
+	 */
+	private int getShift(int first){
+		int newShift = shift;
+		while(first >>> newShift >= NODE_SIZE){
+			newShift += NODE_BITS;
+		}
+		return newShift;
+	}
+
+	/**
+	 * @return the root with levels added above it until it has the shift.
+	 */
+	private Object[] grow(int newShift){
+		Object[] newRoot = root;
+		for(int level = shift; level < newShift; level += NODE_BITS){
+			Object[] above = new Object[NODE_SIZE];
+			above[0] = newRoot;
+			newRoot = above;
+		}
+		return newRoot;
+	}
+
+	/**
+	 * Copies the path to the slot of an id, storing a Bucket in the slot.
+	 * @param node the trie node, or null if the path does not exist yet.
+	 * @param level the shift of the node.
+	 * @param first the first id.
+	 * @param bucket the Bucket to store, or null to clear the slot.
+	 * @return the copied node.
+	 */
+	private static Object[] set(Object[] node, int level, int first, Bucket bucket){
+		Object[] copy = node == null ? new Object[NODE_SIZE] : node.clone();
+		int slot = (first >>> level) & (NODE_SIZE - 1);
+		if(level == 0){
+			copy[slot] = bucket;
+		}else{
+			copy[slot] = set((Object[]) copy[slot], level - NODE_BITS, first, bucket);
+		}
+		return copy;
+	}
+
+	/**
+	 * Copies the paths to the slots of several ids, copying each trie node once.
+	 * @param node the trie node, or null if the path does not exist yet.
+	 * @param level the shift of the node.
+	 * @param firsts the first ids, sorted.
+	 * @param buckets the Bucket to store for each first id.
+	 * @param from the index of the first id under this node.
+	 * @param to one past the index of the last id under this node.
+	 * @return the copied node.
+	 */
+	private static Object[] setAll(Object[] node, int level, int[] firsts, Bucket[] buckets, int from, int to){
+		Object[] copy = node == null ? new Object[NODE_SIZE] : node.clone();
+		int start = from;
+		while(start < to){
+			int slot = (firsts[start] >>> level) & (NODE_SIZE - 1);
+			int end = start + 1;
+			while(end < to && ((firsts[end] >>> level) & (NODE_SIZE - 1)) == slot){
+				end++;
+			}
+			if(level == 0){
+				copy[slot] = buckets[start];
+			}else{
+				copy[slot] = setAll((Object[]) copy[slot], level - NODE_BITS, firsts, buckets, start, end);
+			}
+			start = end;
+		}
+		return copy;
+	}
+
+	/**
+	 * Sorts the triples of a batch by first id and then by key.
+	 */
+	private static void sort(int[] firsts, long[] keys, int low, int high){
+		while(high - low > 16){
+			int middle = (low + high) >>> 1;
+			int pivotFirst = firsts[middle];
+			long pivotKey = keys[middle];
+			int i = low;
+			int j = high;
+			while(i <= j){
+				while(compare(firsts[i], keys[i], pivotFirst, pivotKey) < 0){
+					i++;
+				}
+				while(compare(firsts[j], keys[j], pivotFirst, pivotKey) > 0){
+					j--;
+				}
+				if(i <= j){
+					swap(firsts, keys, i++, j--);
+				}
+			}
+			/** Recurse into the smaller half and loop on the larger one. */
+			if(j - low < high - i){
+				sort(firsts, keys, low, j);
+				low = i;
+			}else{
+				sort(firsts, keys, i, high);
+				high = j;
+			}
+		}
+		for(int i = low + 1; i <= high; i++){
+			for(int j = i; j > low && compare(firsts[j - 1], keys[j - 1], firsts[j], keys[j]) > 0; j--){
+				swap(firsts, keys, j, j - 1);
+			}
+		}
+	}
+
+	private static int compare(int firstA, long keyA, int firstB, long keyB){
+		if(firstA != firstB){
+			return firstA < firstB ? -1 : 1;
+		}
+		return keyA < keyB ? -1 : (keyA == keyB ? 0 : 1);
+	}
+
+	private static void swap(int[] firsts, long[] keys, int a, int b){
+		int first = firsts[a];
+		firsts[a] = firsts[b];
+		firsts[b] = first;
+		long key = keys[a];
+		keys[a] = keys[b];
+		keys[b] = key;
+	}
+
+	/**
+	 * Packs the second and third ids into the sort key of a Bucket. Ids are positive, so
+	 * the keys sort by the second id and then by the third.
+	 */
+	static long pack(int second, int third){
+		return ((long) second << 32) | (third & 0xFFFFFFFFL);
+	}
+
+	static int second(long key){
+		return (int) (key >>> 32);
+	}
+
+	static int third(long key){
+		return (int) key;
+	}
+
+	/**
+	 * @return the lowest key with the given second id.
+	 */
+	static long lowestKey(int second){
+		return pack(second, 0);
+	}
+
+	/**
+	 * @return the highest key with the given second id.
+	 */
+	static long highestKey(int second){
+		return pack(second, -1);
+	}
+
+	/**
+	 * A Bucket is an immutable sorted set of keys. The keys are split into sorted chunks of at most
+	 * MAX_CHUNK keys, so a change copies one chunk and the chunk array rather than the whole Bucket.
+	 * The first key of each chunk and the number of keys before it are kept alongside in flat arrays,
+	 * so a key is found without reading the other chunks and ranges are counted in logarithmic time.
+	 *
+	 * A Bucket can instead be a view of a range of a MappedIndex. It is read in place, and copied
+	 * into chunks the first time it is changed.
+	 *
+	 * Deleting from a Bucket with many chunks, or from a mapped one, leaves the chunks as they are
+	 * and adds the key to a sorted array of tombstones, which reads skip. Only the tombstones are
+	 * copied, rather than a chunk, the chunk array and the offsets. compact drops the tombstoned
+	 * keys from the chunks, and a delete that would take the tombstones past MAX_TOMBSTONES does so
+	 * itself.
+	 */
+	static final class Bucket {
+
+		private static final long[] NO_KEYS = new long[0];
+		static final Bucket EMPTY = new Bucket(new long[0][], 0, NO_KEYS);
+		private static final int MAX_CHUNK = 256;
+		/** The fewest chunks a Bucket needs before deletes leave tombstones. */
+		private static final int TOMBSTONE_CHUNKS = 4;
+		private static final int MAX_TOMBSTONES = 256;
+
+		private final long[][] chunks;
+		private final int[] offsets;
+		private final long[] firstKeys;
+		/** The number of keys, not counting the tombstoned ones. */
+		private final int size;
+		private final MappedIndex mapped;
+		private final int start;
+		/** Keys still in the chunks or mapped range that have been deleted, sorted. */
+		private final long[] tombstones;
+
+		private Bucket(long[][] chunks, int size, long[] tombstones){
+			this.chunks = chunks;
+			this.size = size;
+			this.tombstones = tombstones;
+			offsets = new int[chunks.length];
+			firstKeys = new long[chunks.length];
+			for(int c = 0; c < chunks.length; c++){
+				offsets[c] = c == 0 ? 0 : offsets[c - 1] + chunks[c - 1].length;
+				firstKeys[c] = chunks[c][0];
+			}
+			mapped = null;
+			start = 0;
+		}
+
+		/**
+		 * Creates a Bucket whose chunks differ from another's in one chunk of the same first key,
+		 * which grew by one key.
+		 */
+		private Bucket(Bucket other, long[][] chunks, int grown, int size){
+			this.chunks = chunks;
+			this.size = size;
+			tombstones = other.tombstones;
+			offsets = other.offsets.clone();
+			for(int c = grown + 1; c < offsets.length; c++){
+				offsets[c]++;
+			}
+			firstKeys = other.firstKeys.clone();
+			firstKeys[grown] = chunks[grown][0];
+			mapped = null;
+			start = 0;
+		}
+
+		/**
+		 * Creates a Bucket that shares the keys of another and has different tombstones.
+		 */
+		private Bucket(Bucket keys, int size, long[] tombstones){
+			chunks = keys.chunks;
+			offsets = keys.offsets;
+			firstKeys = keys.firstKeys;
+			mapped = keys.mapped;
+			start = keys.start;
+			this.size = size;
+			this.tombstones = tombstones;
+		}
+
+		/**
+		 * Creates a view of keys of a MappedIndex.
+		 * @param mapped the index.
+		 * @param start the position of the first key.
+		 * @param size the number of keys.
+		 */
+		Bucket(MappedIndex mapped, int start, int size){
+			this.mapped = mapped;
+			this.start = start;
+			this.size = size;
+			chunks = null;
+			offsets = null;
+			firstKeys = null;
+			tombstones = NO_KEYS;
+		}
+
+		/**
+		 * @return this Bucket copied into chunks without its tombstoned keys, if it is a view of a
+		 * MappedIndex or has tombstones.
+		 */
+		private Bucket materialize(){
+			if(mapped == null && tombstones.length == 0){
+				return this;
+			}
+			return purge(NO_KEYS, 0, 0);
+		}
+
+		public int size(){
+			return size;
+		}
+
+		/**
+		 * @return the number of deleted keys still held by the Bucket.
+		 */
+		int getTombstoneCount(){
+			return tombstones.length;
+		}
+
+		public boolean contains(long key){
+			if(size == 0 || isTombstone(key)){
+				return false;
+			}
+			if(mapped != null){
+				int position = mapped.search(start, start + size + tombstones.length, key);
+				return position < start + size + tombstones.length && mapped.getKey(position) == key;
+			}
+			long[] chunk = chunks[findChunk(key)];
+			return binarySearch(chunk, key) >= 0;
+		}
+
+		/**
+		 * @return a Bucket with the key added, or this Bucket if the key was already present.
+		 */
+		Bucket insert(long key){
+			int tombstone = Arrays.binarySearch(tombstones, key);
+			if(tombstone >= 0){
+				/** The key is still in the chunks, so only the tombstone goes. */
+				long[] remaining = new long[tombstones.length - 1];
+				System.arraycopy(tombstones, 0, remaining, 0, tombstone);
+				System.arraycopy(tombstones, tombstone + 1, remaining, tombstone, remaining.length - tombstone);
+				return new Bucket(this, size + 1, remaining);
+			}
+			if(mapped != null){
+				return contains(key) ? this : materialize().insert(key);
+			}
+			if(chunks.length == 0){
+				return new Bucket(new long[][] { { key } }, 1, NO_KEYS);
+			}
+			int c = findChunk(key);
+			long[] chunk = chunks[c];
+			int position = binarySearch(chunk, key);
+			if(position >= 0){
+				return this;
+			}
+			position = -position - 1;
+			long[] inserted = new long[chunk.length + 1];
+			System.arraycopy(chunk, 0, inserted, 0, position);
+			inserted[position] = key;
+			System.arraycopy(chunk, position, inserted, position + 1, chunk.length - position);
+
+			if(inserted.length <= MAX_CHUNK){
+				long[][] updated = chunks.clone();
+				updated[c] = inserted;
+				return new Bucket(this, updated, c, size + 1);
+			}
+			/** Split the full chunk in half. */
+			int half = inserted.length / 2;
+			long[] low = new long[half];
+			long[] high = new long[inserted.length - half];
+			System.arraycopy(inserted, 0, low, 0, half);
+			System.arraycopy(inserted, half, high, 0, high.length);
+			long[][] updated = new long[chunks.length + 1][];
+			System.arraycopy(chunks, 0, updated, 0, c);
+			updated[c] = low;
+			updated[c + 1] = high;
+			System.arraycopy(chunks, c + 1, updated, c + 2, chunks.length - c - 1);
+			return new Bucket(updated, size + 1, tombstones);
+		}
+
+		/**
+		 * Merges a sorted run of keys into the Bucket. Chunks that none of the keys fall into are shared
+		 * with this Bucket, and chunks that grow too large are split.
+		 * @param keys the keys, sorted between from and to. Duplicates are ignored.
+		 * @param from the index of the first key to merge.
+		 * @param to one past the index of the last key to merge.
+		 * @return a Bucket with the keys added, or this Bucket if all of them were already present.
+		 */
+		Bucket insertAll(long[] keys, int from, int to){
+			if(mapped != null || tombstones.length > 0){
+				Bucket merged = materialize().insertAll(keys, from, to);
+				return merged.size == size ? this : merged;
+			}
+			List<long[]> merged = new ArrayList<long[]>(chunks.length + 1);
+			int added = 0;
+			int k = from;
+			if(size == 0){
+				long[] run = merge(new long[0], keys, from, to);
+				split(run, merged);
+				added = run.length;
+			}
+			for(int c = 0; c < chunks.length; c++){
+				/** Keys below the first key of the next chunk belong in this chunk. */
+				int end = k;
+				if(c == chunks.length - 1){
+					end = to;
+				}else{
+					while(end < to && keys[end] < firstKeys[c + 1]){
+						end++;
+					}
+				}
+				if(end == k){
+					merged.add(chunks[c]);
+					continue;
+				}
+				long[] run = merge(chunks[c], keys, k, end);
+				k = end;
+				if(run.length == chunks[c].length){
+					merged.add(chunks[c]);
+				}else{
+					added += run.length - chunks[c].length;
+					split(run, merged);
+				}
+			}
+			if(added == 0){
+				return this;
+			}
+			return new Bucket(merged.toArray(new long[merged.size()][]), size + added, NO_KEYS);
+		}
+
+		/**
+		 * Merges a chunk with a sorted run of keys, dropping duplicates.
+		 */
+		private static long[] merge(long[] chunk, long[] keys, int from, int to){
+			long[] run = new long[chunk.length + to - from];
+			int length = 0;
+			int i = 0;
+			int j = from;
+			while(i < chunk.length || j < to){
+				long next;
+				if(j >= to || (i < chunk.length && chunk[i] <= keys[j])){
+					next = chunk[i++];
+				}else{
+					next = keys[j++];
+				}
+				if(length == 0 || run[length - 1] != next){
+					run[length++] = next;
+				}
+			}
+			return length == run.length ? run : Arrays.copyOf(run, length);
+		}
+
+		/**
+		 * Adds a sorted run to a list of chunks, split into half full chunks if it is too large for one.
+		 */
+		private static void split(long[] run, List<long[]> chunks){
+			if(run.length <= MAX_CHUNK){
+				chunks.add(run);
+				return;
+			}
+			int pieces = (run.length + MAX_CHUNK / 2 - 1) / (MAX_CHUNK / 2);
+			int start = 0;
+			for(int piece = 0; piece < pieces; piece++){
+				int end = (int) ((long) run.length * (piece + 1) / pieces);
+				chunks.add(Arrays.copyOfRange(run, start, end));
+				start = end;
+			}
+		}
+
+		/**
+		 * @return a Bucket with the key removed, or this Bucket if the key was not present.
+		 */
+		Bucket delete(long key){
+			return deleteAll(new long[] { key }, 0, 1);
+		}
+
+		/**
+		 * Removes a sorted run of keys. The keys are tombstoned if the Bucket is mapped or has at
+		 * least TOMBSTONE_CHUNKS chunks and there is room for them, and dropped from the chunks otherwise.
+		 * @param keys the keys, sorted between from and to. Duplicates and absent keys are ignored.
+		 * @param from the index of the first key to remove.
+		 * @param to one past the index of the last key to remove.
+		 * @return a Bucket without the keys, or this Bucket if none of them were present.
+		 */
+		Bucket deleteAll(long[] keys, int from, int to){
+			long[] present = new long[to - from];
+			int count = 0;
+			for(int k = from; k < to; k++){
+				if((count == 0 || present[count - 1] != keys[k]) && contains(keys[k])){
+					present[count++] = keys[k];
+				}
+			}
+			if(count == 0){
+				return this;
+			}
+			if(count == size && mapped == null){
+				return EMPTY;
+			}
+			boolean large = mapped != null || chunks.length >= TOMBSTONE_CHUNKS;
+			if(large && tombstones.length + count <= MAX_TOMBSTONES){
+				long[] merged = new long[tombstones.length + count];
+				int i = 0;
+				int j = 0;
+				for(int m = 0; m < merged.length; m++){
+					merged[m] = j == count || (i < tombstones.length && tombstones[i] < present[j]) ? tombstones[i++] : present[j++];
+				}
+				return new Bucket(this, size - count, merged);
+			}
+			return purge(present, 0, count);
+		}
+
+		/**
+		 * @return this Bucket without tombstones, or this Bucket if it has none or is mapped and its
+		 * tombstones are too few to be worth copying the mapped keys into chunks.
+		 */
+		Bucket compact(){
+			if(tombstones.length == 0 || (mapped != null && tombstones.length * 8 < size)){
+				return this;
+			}
+			return purge(NO_KEYS, 0, 0);
+		}
+
+		/**
+		 * Copies the Bucket into chunks without its tombstoned keys and a sorted run of other keys,
+		 * all of which must be present. Chunks with none of the keys are shared.
+		 */
+		private Bucket purge(long[] keys, int from, int to){
+			int newSize = size - (to - from);
+			long[] dead = merge(tombstones, keys, from, to);
+			List<long[]> kept = new ArrayList<long[]>();
+			if(mapped != null){
+				long[] live = remove(mapped.getKeys(start, size + tombstones.length), dead, 0, dead.length);
+				if(live.length > 0){
+					split(live, kept);
+				}
+			}else{
+				int d = 0;
+				for(int c = 0; c < chunks.length; c++){
+					int end = d;
+					long limit = c == chunks.length - 1 ? Long.MAX_VALUE : firstKeys[c + 1];
+					while(end < dead.length && dead[end] < limit){
+						end++;
+					}
+					if(end == d){
+						kept.add(chunks[c]);
+						continue;
+					}
+					long[] chunk = remove(chunks[c], dead, d, end);
+					if(chunk.length > 0){
+						kept.add(chunk);
+					}
+					d = end;
+				}
+			}
+			return new Bucket(kept.toArray(new long[kept.size()][]), newSize, NO_KEYS);
+		}
+
+		/**
+		 * @return the keys of a sorted run that are not in a sorted run of keys to remove.
+		 */
+		private static long[] remove(long[] run, long[] removed, int from, int to){
+			long[] kept = new long[run.length];
+			int length = 0;
+			int r = from;
+			for(long key : run){
+				while(r < to && removed[r] < key){
+					r++;
+				}
+				if(r == to || removed[r] != key){
+					kept[length++] = key;
+				}
+			}
+			return length == kept.length ? kept : Arrays.copyOf(kept, length);
+		}
+
+		private boolean isTombstone(long key){
+			return tombstones.length > 0 && Arrays.binarySearch(tombstones, key) >= 0;
+		}
+
+		/**
+		 * Opens a cursor over the keys between from and to, inclusive.
+		 * @param from the lowest key to return.
+		 * @param to the highest key to return.
+		 * @return a cursor positioned before the first key in the range.
+		 */
+		public KeyCursor scan(long from, long to){
+			if(size == 0){
+				return new KeyCursor(new long[0][], 0, 0, to, NO_KEYS);
+			}
+			if(mapped != null){
+				int end = start + size + tombstones.length;
+				return new KeyCursor(mapped, mapped.search(start, end, from), end, to, tombstones);
+			}
+			int c = findChunk(from);
+			int position = binarySearch(chunks[c], from);
+			if(position < 0){
+				position = -position - 1;
+			}
+			return new KeyCursor(chunks, c, position, to, tombstones);
+		}
+
+		/**
+		 * Counts the keys between from and to, inclusive, without visiting them one at a time.
+		 */
+		public int count(long from, long to){
+			if(size == 0){
+				return 0;
+			}
+			int dead = 0;
+			if(tombstones.length > 0){
+				dead = lowerBound(tombstones, to == Long.MAX_VALUE ? to : to + 1) - lowerBound(tombstones, from);
+				if(to == Long.MAX_VALUE && tombstones[tombstones.length - 1] == Long.MAX_VALUE){
+					dead++;
+				}
+			}
+			if(mapped != null){
+				int end = start + size + tombstones.length;
+				if(to == Long.MAX_VALUE){
+					return end - mapped.search(start, end, from) - dead;
+				}
+				return mapped.search(start, end, to + 1) - mapped.search(start, end, from) - dead;
+			}
+			return rank(to, true) - rank(from, false) - dead;
+		}
+
+		/**
+		 * @return the number of keys below the key, or at or below it if inclusive is set.
+		 */
+		private int rank(long key, boolean inclusive){
+			int c = findChunk(key);
+			int position = binarySearch(chunks[c], key);
+			if(position < 0){
+				position = -position - 1;
+			}else if(inclusive){
+				position++;
+			}
+			return offsets[c] + position;
+		}
+
+		/**
+		 * @return the index of the last chunk whose first key is at or below the key, or 0.
+		 */
+		private int findChunk(long key){
+			int low = 0;
+			int high = firstKeys.length - 1;
+			while(low < high){
+				int middle = (low + high + 1) >>> 1;
+				if(firstKeys[middle] <= key){
+					low = middle;
+				}else{
+					high = middle - 1;
+				}
+			}
+			return low;
+		}
+
+		private static int binarySearch(long[] chunk, long key){
+			return Arrays.binarySearch(chunk, key);
+		}
+
+		/**
+		 * @return the number of keys of a sorted array below a key.
+		 */
+		private static int lowerBound(long[] keys, long key){
+			int position = Arrays.binarySearch(keys, key);
+			if(position < 0){
+				return -position - 1;
+			}
+			while(position > 0 && keys[position - 1] == key){
+				position--;
+			}
+			return position;
+		}
+	}
+
+	/**
+	 * A KeyCursor walks the keys of a Bucket in sorted order up to an upper bound, skipping the
+	 * tombstoned ones.
+	 */
+	static final class KeyCursor {
+
+		private final long[][] chunks;
+		private final MappedIndex mapped;
+		private final long to;
+		private final long[] tombstones;
+		private int tombstone = 0;
+		private int chunk;
+		private int position;
+		private long key;
+
+		private KeyCursor(long[][] chunks, int chunk, int position, long to, long[] tombstones){
+			this.chunks = chunks;
+			this.chunk = chunk;
+			this.position = position;
+			this.to = to;
+			this.tombstones = tombstones;
+			mapped = null;
+		}
+
+		/**
+		 * Creates a cursor over keys of a MappedIndex, from a position up to an end position.
+		 */
+		private KeyCursor(MappedIndex mapped, int position, int end, long to, long[] tombstones){
+			this.mapped = mapped;
+			this.position = position;
+			this.chunk = end;
+			this.to = to;
+			this.tombstones = tombstones;
+			chunks = null;
+		}
+
+		/**
+		 * Moves to the next key.
+		 * @return true if there is a key, false when the range is exhausted.
+		 */
+		public boolean next(){
+			while(advance()){
+				if(tombstones.length == 0){
+					return true;
+				}
+				while(tombstone < tombstones.length && tombstones[tombstone] < key){
+					tombstone++;
+				}
+				if(tombstone == tombstones.length || tombstones[tombstone] != key){
+					return true;
+				}
+			}
+			return false;
+		}
+
+		/**
+		 * Moves to the next key, tombstoned or not.
+		 */
+		private boolean advance(){
+			if(mapped != null){
+				/** For a mapped cursor, chunk is the end position. */
+				if(position >= chunk){
+					return false;
+				}
+				long candidate = mapped.getKey(position);
+				if(candidate > to){
+					position = chunk;
+					return false;
+				}
+				key = candidate;
+				position++;
+				return true;
+			}
+			while(chunk < chunks.length && position >= chunks[chunk].length){
+				chunk++;
+				position = 0;
+			}
+			if(chunk >= chunks.length){
+				return false;
+			}
+			long candidate = chunks[chunk][position];
+			if(candidate > to){
+				chunk = chunks.length;
+				return false;
+			}
+			key = candidate;
+			position++;
+			return true;
+		}
+
+		/**
+		 * @return the current key.
+		 */
+		public long key(){
+			return key;
+		}
+	}
+}
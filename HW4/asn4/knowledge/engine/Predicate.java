@@ -5,19 +5,33 @@ package cscie97.asn4.knowledge.engine;
  */
 public class Predicate {
 	
-	private final String identifier;
+	private final Identifier identifier;
 	
 	/**
 	 * @param identifierString the string to store in the Predicate.
 	 */
 	public Predicate(String identifierString) {
-		identifier = identifierString;
+		identifier = new Identifier(identifierString);
+	}
+
+	/**
+	 * @param identifier the canonical identifier to store, which is shared rather than made again.
+	 */
+	public Predicate(Identifier identifier) {
+		this.identifier = identifier;
 	}
 	
 	/**
 	 * @return the identifier for the Predicate.
 	 */
 	public String getIdentifier(){
+		return identifier.getIdentifier();
+	}
+
+	/**
+	 * @return the canonical identifier for the Predicate, which is used to look it up.
+	 */
+	public Identifier getKey(){
 		return identifier;
 	}
 }
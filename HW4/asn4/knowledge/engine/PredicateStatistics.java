@@ -0,0 +1,229 @@
+package cscie97.asn4.knowledge.engine;
+
+/**
+ * PredicateStatistics are the cardinality numbers the query planner keeps for one predicate:
+ * how many triples use it, how many distinct subjects and objects they have, and the TOP_K
+ * subjects and objects that appear in the most of them. Each GraphVersion holds the statistics
+ * of its own triples, updated as triples are added and removed rather than recounted.
+ *
+ * The counts of the heavy hitters are exact for the ids in the list. An id only enters the list when
+ * its count rises above the smallest one in it, so after removals the list can miss an id that has
+ * since become more frequent than the ones kept.
+ *
+ * Statistics are immutable once they are part of a GraphVersion. A change is made on a copy.
+ */
+final class PredicateStatistics {
+
+	static final int TOP_K = 5;
+	static final PredicateStatistics EMPTY = new PredicateStatistics();
+
+	private int tripleCount = 0;
+	private int distinctSubjects = 0;
+	private int distinctObjects = 0;
+	private final int[] topSubjects = new int[TOP_K];
+	private final int[] topSubjectCounts = new int[TOP_K];
+	private final int[] topObjects = new int[TOP_K];
+	private final int[] topObjectCounts = new int[TOP_K];
+
+	private PredicateStatistics(){
+	}
+
+	/**
+	 * Recreates statistics that were saved with their getters.
+	 * @param subjects the heavy hitter subjects, at most TOP_K.
+	 * @param subjectCounts the count of each heavy hitter subject.
+	 * @param objects the heavy hitter objects, at most TOP_K.
+	 * @param objectCounts the count of each heavy hitter object.
+	 */
+	static PredicateStatistics restore(int tripleCount, int distinctSubjects, int distinctObjects,
+			int[] subjects, int[] subjectCounts, int[] objects, int[] objectCounts){
+		PredicateStatistics restored = new PredicateStatistics();
+		restored.tripleCount = tripleCount;
+		restored.distinctSubjects = distinctSubjects;
+		restored.distinctObjects = distinctObjects;
+		System.arraycopy(subjects, 0, restored.topSubjects, 0, subjects.length);
+		System.arraycopy(subjectCounts, 0, restored.topSubjectCounts, 0, subjects.length);
+		System.arraycopy(objects, 0, restored.topObjects, 0, objects.length);
+		System.arraycopy(objectCounts, 0, restored.topObjectCounts, 0, objects.length);
+		return restored;
+	}
+
+	/**
+	 * @return a copy that can be changed before it is published in a new GraphVersion.
+	 */
+	PredicateStatistics copy(){
+		PredicateStatistics copy = new PredicateStatistics();
+		copy.tripleCount = tripleCount;
+		copy.distinctSubjects = distinctSubjects;
+		copy.distinctObjects = distinctObjects;
+		System.arraycopy(topSubjects, 0, copy.topSubjects, 0, TOP_K);
+		System.arraycopy(topSubjectCounts, 0, copy.topSubjectCounts, 0, TOP_K);
+		System.arraycopy(topObjects, 0, copy.topObjects, 0, TOP_K);
+		System.arraycopy(topObjectCounts, 0, copy.topObjectCounts, 0, TOP_K);
+		return copy;
+	}
+
+	/**
+	 * Records that the number of triples of this predicate with a subject changed.
+	 * @param subject the subject id.
+	 * @param before the number of its triples before the change.
+	 * @param after the number of its triples after the change.
+	 */
+	void updateSubject(int subject, int before, int after){
+		tripleCount += after - before;
+		distinctSubjects += distinctChange(before, after);
+		updateTop(topSubjects, topSubjectCounts, subject, after);
+	}
+
+	/**
+	 * Records that the number of triples of this predicate with an object changed.
+	 * The triple count is kept by updateSubject.
+	 * @param object the object id.
+	 * @param before the number of its triples before the change.
+	 * @param after the number of its triples after the change.
+	 */
+	void updateObject(int object, int before, int after){
+		distinctObjects += distinctChange(before, after);
+		updateTop(topObjects, topObjectCounts, object, after);
+	}
+
+	int getTripleCount(){
+		return tripleCount;
+	}
+
+	int getDistinctSubjectCount(){
+		return distinctSubjects;
+	}
+
+	int getDistinctObjectCount(){
+		return distinctObjects;
+	}
+
+	/**
+	 * @return the ids of the heavy hitter subjects, most frequent first.
+	 */
+	int[] getTopSubjects(){
+		return sortedTop(topSubjects, topSubjectCounts);
+	}
+
+	/**
+	 * @return the ids of the heavy hitter objects, most frequent first.
+	 */
+	int[] getTopObjects(){
+		return sortedTop(topObjects, topObjectCounts);
+	}
+
+	/**
+	 * @return the number of triples with a heavy hitter subject, or 0 if it is not in the list.
+	 */
+	int getTopSubjectCount(int subject){
+		return topCount(topSubjects, topSubjectCounts, subject);
+	}
+
+	/**
+	 * @return the number of triples with a heavy hitter object, or 0 if it is not in the list.
+	 */
+	int getTopObjectCount(int object){
+		return topCount(topObjects, topObjectCounts, object);
+	}
+
+	/**
+	 * The number of distinct subjects a join on the subject behaves as if it had. With evenly spread
+	 * subjects it is the distinct count. When a few subjects hold most of the triples it is smaller,
+	 * tripleCount squared over the sum of the squared counts, with the subjects outside the heavy
+	 * hitters taken to be evenly spread.
+	 */
+	double getEffectiveDistinctSubjects(){
+		return effectiveDistinct(distinctSubjects, topSubjectCounts);
+	}
+
+	/**
+	 * The number of distinct objects a join on the object behaves as if it had. See getEffectiveDistinctSubjects.
+	 */
+	double getEffectiveDistinctObjects(){
+		return effectiveDistinct(distinctObjects, topObjectCounts);
+	}
+
+	private double effectiveDistinct(int distinct, int[] topCounts){
+		if(tripleCount == 0){
+			return 1;
+		}
+		double squares = 0;
+		long rest = tripleCount;
+		int restDistinct = distinct;
+		for(int count : topCounts){
+			if(count > 0){
+				squares += (double) count * count;
+				rest -= count;
+				restDistinct--;
+			}
+		}
+		if(restDistinct > 0 && rest > 0){
+			squares += (double) rest * rest / restDistinct;
+		}
+		if(squares == 0){
+			return Math.max(distinct, 1);
+		}
+		return Math.max(1, Math.min(distinct, (double) tripleCount * tripleCount / squares));
+	}
+
+	private static int distinctChange(int before, int after){
+		if(before == 0 && after > 0){
+			return 1;
+		}else if(before > 0 && after == 0){
+			return -1;
+		}
+		return 0;
+	}
+
+	/**
+	 * Updates the count of an id in a heavy hitter list, or replaces the least frequent id with it
+	 * if it is now more frequent. A count of 0 is an empty slot.
+	 */
+	private static void updateTop(int[] ids, int[] counts, int id, int count){
+		int smallest = 0;
+		for(int i = 0; i < ids.length; i++){
+			if(counts[i] > 0 && ids[i] == id){
+				counts[i] = count;
+				return;
+			}
+			if(counts[i] < counts[smallest]){
+				smallest = i;
+			}
+		}
+		if(count > counts[smallest]){
+			ids[smallest] = id;
+			counts[smallest] = count;
+		}
+	}
+
+	private static int topCount(int[] ids, int[] counts, int id){
+		for(int i = 0; i < ids.length; i++){
+			if(counts[i] > 0 && ids[i] == id){
+				return counts[i];
+			}
+		}
+		return 0;
+	}
+
+	private static int[] sortedTop(int[] ids, int[] counts){
+		int length = 0;
+		int[] order = new int[ids.length];
+		for(int i = 0; i < ids.length; i++){
+			if(counts[i] > 0){
+				/** Insertion sort by descending count. */
+				int position = length++;
+				while(position > 0 && counts[order[position - 1]] < counts[i]){
+					order[position] = order[position - 1];
+					position--;
+				}
+				order[position] = i;
+			}
+		}
+		int[] sorted = new int[length];
+		for(int i = 0; i < length; i++){
+			sorted[i] = ids[order[i]];
+		}
+		return sorted;
+	}
+}
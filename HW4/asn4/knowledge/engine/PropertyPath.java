@@ -0,0 +1,276 @@
+package cscie97.asn4.knowledge.engine;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * A PropertyPath is a regular expression over predicates, used in the predicate position of a
+ * query to follow chains of triples. A predicate steps along one triple, "a/b" follows a and then
+ * b, "a|b" follows either, and a suffix "+", "*" or "?" repeats the element before it one or more
+ * times, any number of times, or at most once. Parentheses group, so
+ * "(contains_room/contains_sensor)+" is one or more repetitions of the two step path.
+ *
+ * The path is compiled into a finite automaton over predicate ids, without empty transitions:
+ * a node is reached in a state by following a triple whose predicate labels a transition into
+ * that state, and the path matches the nodes reached in an accepting state.
+ */
+final class PropertyPath {
+
+	private static final String OPERATORS = "/|()+*?";
+
+	private final String text;
+	private final boolean complete;
+	private final int[][] predicates;
+	private final int[][] targets;
+	private final boolean[] accepting;
+
+	private PropertyPath(String text, boolean complete, int[][] predicates, int[][] targets, boolean[] accepting){
+		this.text = text;
+		this.complete = complete;
+		this.predicates = predicates;
+		this.targets = targets;
+		this.accepting = accepting;
+	}
+
+	/**
+	 * @return true if a predicate token is a path rather than a single predicate or a variable.
+	 */
+	static boolean isPath(String token){
+		if(token.startsWith("?")){
+			return false;
+		}
+		for(int i = 0; i < token.length(); i++){
+			if(OPERATORS.indexOf(token.charAt(i)) >= 0){
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Compiles a path.
+	 * @param text the path.
+	 * @param knowledgeGraph the KnowledgeGraph whose predicate ids label the transitions.
+	 * @return the compiled path.
+	 * @throws IllegalArgumentException if the path is not well formed.
+	 */
+	static PropertyPath compile(String text, KnowledgeGraph knowledgeGraph){
+		Parser parser = new Parser(text.toLowerCase(Locale.ROOT), knowledgeGraph);
+		int[] fragment = parser.parseAlternatives();
+		if(parser.position != parser.text.length()){
+			throw new IllegalArgumentException("Invalid property path " + text);
+		}
+		return parser.build(fragment);
+	}
+
+	/**
+	 * @return the path, lower cased.
+	 */
+	String getText(){
+		return text;
+	}
+
+	/**
+	 * @return false if the path names a predicate that is not in the KnowledgeGraph, so its
+	 * transitions can start matching once the predicate is added.
+	 */
+	boolean isComplete(){
+		return complete;
+	}
+
+	int getStateCount(){
+		return accepting.length;
+	}
+
+	/**
+	 * @return the state the automaton starts in, which is always 0.
+	 */
+	int getStart(){
+		return 0;
+	}
+
+	boolean isAccepting(int state){
+		return accepting[state];
+	}
+
+	/**
+	 * @return the predicate id of each transition out of a state.
+	 */
+	int[] getPredicates(int state){
+		return predicates[state];
+	}
+
+	/**
+	 * @return the target state of each transition out of a state.
+	 */
+	int[] getTargets(int state){
+		return targets[state];
+	}
+
+	/**
+	 * Parses a path into a Thompson automaton with empty transitions, then removes them. A
+	 * fragment is a start and an end state.
+	 */
+	private static final class Parser {
+
+		private final String text;
+		private final KnowledgeGraph knowledgeGraph;
+		private int position = 0;
+		private boolean complete = true;
+		private final List<List<Integer>> epsilons = new ArrayList<List<Integer>>();
+		private final List<int[]> labelled = new ArrayList<int[]>();
+
+		Parser(String text, KnowledgeGraph knowledgeGraph){
+			this.text = text;
+			this.knowledgeGraph = knowledgeGraph;
+		}
+
+		int[] parseAlternatives(){
+			int[] fragment = parseSequence();
+			while(peek('|')){
+				position++;
+				int[] other = parseSequence();
+				int start = newState();
+				int end = newState();
+				epsilon(start, fragment[0]);
+				epsilon(start, other[0]);
+				epsilon(fragment[1], end);
+				epsilon(other[1], end);
+				fragment = new int[]{ start, end };
+			}
+			return fragment;
+		}
+
+		private int[] parseSequence(){
+			int[] fragment = parseRepeat();
+			while(peek('/')){
+				position++;
+				int[] next = parseRepeat();
+				epsilon(fragment[1], next[0]);
+				fragment = new int[]{ fragment[0], next[1] };
+			}
+			return fragment;
+		}
+
+		private int[] parseRepeat(){
+			int[] fragment = parsePrimary();
+			while(peek('+') || peek('*') || peek('?')){
+				char operator = text.charAt(position++);
+				int start = newState();
+				int end = newState();
+				epsilon(start, fragment[0]);
+				epsilon(fragment[1], end);
+				if(operator != '+'){
+					epsilon(start, end);
+				}
+				if(operator != '?'){
+					epsilon(fragment[1], fragment[0]);
+				}
+				fragment = new int[]{ start, end };
+			}
+			return fragment;
+		}
+
+		private int[] parsePrimary(){
+			if(peek('(')){
+				position++;
+				int[] fragment = parseAlternatives();
+				if(!peek(')')){
+					throw new IllegalArgumentException("Missing ) in property path " + text);
+				}
+				position++;
+				return fragment;
+			}
+			int end = position;
+			while(end < text.length() && OPERATORS.indexOf(text.charAt(end)) < 0){
+				end++;
+			}
+			if(end == position){
+				throw new IllegalArgumentException("Missing predicate in property path " + text);
+			}
+			int predicate = knowledgeGraph.encodePredicate(text.substring(position, end));
+			position = end;
+			if(predicate < 0){
+				complete = false;
+			}
+			int start = newState();
+			int target = newState();
+			labelled.add(new int[]{ start, predicate, target });
+			return new int[]{ start, target };
+		}
+
+		private boolean peek(char c){
+			return position < text.length() && text.charAt(position) == c;
+		}
+
+		private int newState(){
+			epsilons.add(new ArrayList<Integer>());
+			return epsilons.size() - 1;
+		}
+
+		private void epsilon(int from, int to){
+			epsilons.get(from).add(to);
+		}
+
+		/**
+		 * Removes the empty transitions: each state gets the labelled transitions of every state
+		 * it reaches through empty ones, and accepts if it reaches the end. Only the start state
+		 * and the targets of labelled transitions are kept, renumbered with the start as 0.
+		 */
+		PropertyPath build(int[] fragment){
+			int count = epsilons.size();
+			int[] numbers = new int[count];
+			for(int state = 0; state < count; state++){
+				numbers[state] = -1;
+			}
+			List<Integer> kept = new ArrayList<Integer>();
+			numbers[fragment[0]] = 0;
+			kept.add(fragment[0]);
+			for(int[] transition : labelled){
+				if(numbers[transition[2]] < 0){
+					numbers[transition[2]] = kept.size();
+					kept.add(transition[2]);
+				}
+			}
+			int[][] predicates = new int[kept.size()][];
+			int[][] targets = new int[kept.size()][];
+			boolean[] accepting = new boolean[kept.size()];
+			for(int i = 0; i < kept.size(); i++){
+				BitSet closure = closure(kept.get(i));
+				accepting[i] = closure.get(fragment[1]);
+				List<int[]> out = new ArrayList<int[]>();
+				for(int[] transition : labelled){
+					if(closure.get(transition[0]) && transition[1] > 0){
+						out.add(transition);
+					}
+				}
+				predicates[i] = new int[out.size()];
+				targets[i] = new int[out.size()];
+				for(int t = 0; t < out.size(); t++){
+					predicates[i][t] = out.get(t)[1];
+					targets[i][t] = numbers[out.get(t)[2]];
+				}
+			}
+			return new PropertyPath(text, complete, predicates, targets, accepting);
+		}
+
+		private BitSet closure(int state){
+			BitSet reached = new BitSet();
+			int[] stack = new int[epsilons.size()];
+			int top = 0;
+			reached.set(state);
+			stack[top++] = state;
+			while(top > 0){
+				for(int next : epsilons.get(stack[--top])){
+					if(!reached.get(next)){
+						reached.set(next);
+						stack[top++] = next;
+					}
+				}
+			}
+			return reached;
+		}
+	}
+}
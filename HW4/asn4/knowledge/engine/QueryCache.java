@@ -0,0 +1,276 @@
+package cscie97.asn4.knowledge.engine;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * The QueryCache keeps the results of recent single pattern queries, keyed on the encoded pattern,
+ * so that the same pattern asked again is answered without scanning an index or building a new set.
+ * It also keeps the posting lists that conjunctive queries intersect.
+ *
+ * Each result is stamped with the number of the GraphVersion it was computed from. It is valid for
+ * that version and every later one until a change adds or removes a triple the pattern matches. A
+ * changed triple matches at most eight patterns, each of its ids or the wild card in each position,
+ * so a change removes exactly those entries and leaves the rest of the cache alone.
+ *
+ * Lookups take no lock. A writer calls startChange, invalidates, publishes its version and calls
+ * endChange, all under the KnowledgeGraph's commit lock. A reader stores a result only if no change
+ * is under way and its version is still current, both before and after it is stored, and the
+ * result is not returned by lookups until the second check passes. A change that started before
+ * the second check either removed the entry or is seen by it, so a reader never sees a new version
+ * together with a result it made stale.
+ *
+ * The cache holds about capacity entries. Eviction sweeps the entries like the hand of a clock,
+ * and gives an entry that was hit since the hand last passed it another chance with its hit count
+ * halved, so an entry used often outlives a burst of one-off queries.
+ */
+final class QueryCache {
+
+	static final int DEFAULT_CAPACITY = 1024;
+	/** A cached Set of Triples from executeQuery. */
+	static final int TRIPLES = 0;
+	/** A cached Set of object Nodes from getObjectsFromQuery. */
+	static final int OBJECTS = 1;
+	/** A cached RoaringBitmap of the subject ids of the matches. POSTINGS + 1 and POSTINGS + 2 hold the predicate and object ids. */
+	static final int POSTINGS = 2;
+	private static final int KINDS = POSTINGS + 3;
+
+	private static final int PROBES = 8;
+
+	private final ConcurrentHashMap<Key, Entry> entries = new ConcurrentHashMap<Key, Entry>();
+	/** The number of changes that have started invalidating but not yet ended. */
+	private final AtomicInteger changing = new AtomicInteger();
+	private final ReentrantLock evictionLock = new ReentrantLock();
+	/** The hand of the clock. Guarded by evictionLock. */
+	private Iterator<Map.Entry<Key, Entry>> hand;
+	private volatile int capacity = DEFAULT_CAPACITY;
+	private final LongAdder hits = new LongAdder();
+	private final LongAdder misses = new LongAdder();
+	private final LongAdder evictions = new LongAdder();
+	private final LongAdder invalidations = new LongAdder();
+
+	/**
+	 * Looks up the result of a pattern.
+	 * @param kind TRIPLES, OBJECTS or POSTINGS plus a position.
+	 * @param version the number of the version the reader reads.
+	 * @return the cached result, or null if there is none valid for the version.
+	 */
+	Object get(int kind, int subject, int predicate, int object, long version){
+		Entry entry = entries.get(new Key(kind, subject, predicate, object));
+		if(entry == null || !entry.confirmed || entry.version > version){
+			misses.increment();
+			return null;
+		}
+		entry.hits++;
+		hits.increment();
+		return entry.result;
+	}
+
+	/**
+	 * Stores the result of a pattern, unless a change was started or committed after the version it
+	 * was computed from.
+	 * @param kind TRIPLES, OBJECTS or POSTINGS plus a position.
+	 * @param version the version the result was computed from.
+	 * @param current the current version of the KnowledgeGraph.
+	 * @param result the result.
+	 */
+	void put(int kind, int subject, int predicate, int object, GraphVersion version,
+			AtomicReference<GraphVersion> current, Object result){
+		if(capacity == 0 || changing.get() != 0 || current.get() != version){
+			return;
+		}
+		Key key = new Key(kind, subject, predicate, object);
+		Entry entry = new Entry(version.getNumber(), result);
+		entries.put(key, entry);
+		if(changing.get() != 0 || current.get() != version){
+			entries.remove(key, entry);
+			return;
+		}
+		entry.confirmed = true;
+		if(entries.size() > capacity && evictionLock.tryLock()){
+			try{
+				evict();
+			}finally{
+				evictionLock.unlock();
+			}
+		}
+	}
+
+	/**
+	 * Marks the start of a change, before its invalidation. Must be called under the KnowledgeGraph's
+	 * commit lock, and followed by endChange once the change's version is published or abandoned.
+	 */
+	void startChange(){
+		changing.incrementAndGet();
+	}
+
+	/**
+	 * Marks the end of a change.
+	 */
+	void endChange(){
+		changing.decrementAndGet();
+	}
+
+	/**
+	 * Removes the results of every pattern that a batch of triples could match. A batch with more
+	 * triples than the cache has entries clears the cache instead. Must be called between
+	 * startChange and endChange.
+	 * @param ids the subject, predicate and object ids of each triple, packed one after the other.
+	 * @param count the number of triples in ids.
+	 */
+	void invalidate(int[] ids, int count){
+		if(entries.isEmpty() || count == 0){
+			return;
+		}
+		if(count > entries.size()){
+			clear();
+			return;
+		}
+		for(int i = 0; i < count; i++){
+			for(int mask = 0; mask < 8; mask++){
+				int subject = (mask & 4) == 0 ? ids[i * 3] : TermDictionary.WILDCARD;
+				int predicate = (mask & 2) == 0 ? ids[i * 3 + 1] : TermDictionary.WILDCARD;
+				int object = (mask & 1) == 0 ? ids[i * 3 + 2] : TermDictionary.WILDCARD;
+				for(int kind = TRIPLES; kind < KINDS; kind++){
+					if(entries.remove(new Key(kind, subject, predicate, object)) != null){
+						invalidations.increment();
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * Removes every entry. Must be called between startChange and endChange.
+	 */
+	void clear(){
+		invalidations.add(entries.size());
+		entries.clear();
+	}
+
+	/**
+	 * @param newCapacity the largest number of entries to keep, 0 to turn the cache off.
+	 */
+	void setCapacity(int newCapacity){
+		if(newCapacity < 0){
+			throw new IllegalArgumentException("The capacity cannot be negative.");
+		}
+		capacity = newCapacity;
+		evictionLock.lock();
+		try{
+			evict();
+		}finally{
+			evictionLock.unlock();
+		}
+	}
+
+	long getHits(){
+		return hits.sum();
+	}
+
+	long getMisses(){
+		return misses.sum();
+	}
+
+	long getEvictions(){
+		return evictions.sum();
+	}
+
+	long getInvalidations(){
+		return invalidations.sum();
+	}
+
+	int size(){
+		return entries.size();
+	}
+
+	/**
+	 * Evicts entries until there are no more than capacity. Each is the first entry the hand passes
+	 * that has not been hit since it last passed, within PROBES entries, or else the first it passed.
+	 * Must be called holding evictionLock.
+	 */
+	private void evict(){
+		while(entries.size() > capacity){
+			Map.Entry<Key, Entry> victim = null;
+			Map.Entry<Key, Entry> first = null;
+			for(int probe = 0; probe < PROBES; probe++){
+				if(hand == null || !hand.hasNext()){
+					hand = entries.entrySet().iterator();
+					if(!hand.hasNext()){
+						return;
+					}
+				}
+				Map.Entry<Key, Entry> candidate = hand.next();
+				if(first == null){
+					first = candidate;
+				}
+				if(candidate.getValue().hits == 0){
+					victim = candidate;
+					break;
+				}
+				candidate.getValue().hits >>>= 1;
+			}
+			if(victim == null){
+				victim = first;
+			}
+			if(entries.remove(victim.getKey(), victim.getValue())){
+				evictions.increment();
+			}
+		}
+	}
+
+	/**
+	 * An encoded pattern and the kind of result cached for it.
+	 */
+	private static final class Key {
+
+		private final int kind;
+		private final int subject;
+		private final int predicate;
+		private final int object;
+
+		Key(int kind, int subject, int predicate, int object){
+			this.kind = kind;
+			this.subject = subject;
+			this.predicate = predicate;
+			this.object = object;
+		}
+
+		@Override
+		public boolean equals(Object other){
+			if(!(other instanceof Key)){
+				return false;
+			}
+			Key key = (Key) other;
+			return kind == key.kind && subject == key.subject && predicate == key.predicate && object == key.object;
+		}
+
+		@Override
+		public int hashCode(){
+			return ((kind * 31 + subject) * 31 + predicate) * 31 + object;
+		}
+	}
+
+	/**
+	 * A cached result and the number of the version it was computed from. Its hit count is kept
+	 * without a lock, so concurrent hits may be lost, which only makes eviction a little less exact.
+	 */
+	private static final class Entry {
+
+		private final long version;
+		private final Object result;
+		private volatile int hits = 0;
+		/** Set once the reader that stored the entry has checked no change started meanwhile. */
+		private volatile boolean confirmed = false;
+
+		Entry(long version, Object result){
+			this.version = version;
+			this.result = result;
+		}
+	}
+}
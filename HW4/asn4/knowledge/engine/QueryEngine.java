@@ -1,12 +1,24 @@
 package cscie97.asn4.knowledge.engine;
 
 import java.io.BufferedReader;
+import java.io.BufferedWriter;
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
 import java.nio.charset.Charset;
-import java.util.Set;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
 import cscie97.asn4.housemate.exception.QueryEngineException;
 
@@ -14,9 +26,45 @@ import cscie97.asn4.housemate.exception.QueryEngineException;
 /**
  * Supports the execution of KnowledgeGraph queries. Queries are in the N-Triple format.
  * The "?" represents a wild card in the query. All matching results are printed out.
+ *
+ * A query can also hold several patterns separated by periods, which must all match. A named
+ * variable such as "?r" joins the patterns it appears in, and each solution is printed as the
+ * values of the named variables, for example:
+ * "house1 contains_room ?r. ?r contains_sensor ?s. ?s is_a smoke_detector."
+ *
+ * A query that starts with "EXPLAIN" is run but prints its plan instead of its results, with the
+ * estimated and actual rows of each step. A query that starts with "COUNT" prints the number of
+ * solutions, and one that starts with "ASK" prints true or false, without printing the solutions.
+ *
+ * The predicate of a single pattern query may be a property path, which prints a line for each
+ * node reachable from the subject along the path, for example:
+ * "house1 (contains_room/contains_sensor)+ ?."
+ *
+ * A query may end with the clauses "ORDER BY subject", "ORDER BY predicate" or "ORDER BY object",
+ * "LIMIT n" and "OFFSET n", in any order, to print one page of its results, for example:
+ * "? is_a smoke_detector. ORDER BY subject LIMIT 10 OFFSET 20". The solutions of a query with
+ * several patterns or named variables can be paged but not ordered.
+ *
+ * A file of queries can be run one line at a time with executeQueryFile, or with executeQueryBatch,
+ * which runs the distinct queries in parallel and prints the same output in the same order.
  */
 public class QueryEngine{
 
+	private static final String EXPLAIN = "EXPLAIN";
+	private static final String COUNT = "COUNT";
+	private static final String ASK = "ASK";
+	private static final String ORDER = "ORDER";
+	private static final String BY = "BY";
+	private static final String LIMIT = "LIMIT";
+	private static final String OFFSET = "OFFSET";
+	/** The terms a query can be ordered by, each at the index of its KnowledgeGraph order. */
+	private static final String[] ORDER_TERMS = { "subject", "predicate", "object" };
+	private static final Pattern TOKEN = Pattern.compile("\\S+");
+	private static final String LINE_SEPARATOR = System.getProperty("line.separator");
+	/** The most queries a batch task runs itself rather than splitting. */
+	private static final int BATCH_TASK_QUERIES = 32;
+	private static final int OUTPUT_BUFFER = 1 << 20;
+
 	private final KnowledgeGraph knowledgeGraph = KnowledgeGraph.getInstance();
 	
 	/**
@@ -25,11 +73,41 @@ public class QueryEngine{
 	 * @throws QueryEngineException on invalid queries.
 	 */
 	public void executeQuery(String query) throws QueryEngineException{
+		StringBuilder output = new StringBuilder();
+		runQuery(query, output);
+		System.out.print(output);
+	}
+
+	/**
+	 * Runs a single query and appends what executeQuery prints for it.
+	 * @param query a N-Triple formatted string
+	 * @param output receives the printed lines.
+	 * @throws QueryEngineException on invalid queries.
+	 */
+	private void runQuery(String query, StringBuilder output) throws QueryEngineException{
 		query = query.trim();
     	if(query.length() == 0){
     		return;
     	}
     	
+    	if(startsWithKeyword(query, EXPLAIN)){
+    		explainQuery(getPatternsFromQuery(query.substring(EXPLAIN.length()).trim()), output);
+    		return;
+    	}
+    	if(startsWithKeyword(query, COUNT) || startsWithKeyword(query, ASK)){
+    		String keyword = startsWithKeyword(query, COUNT) ? COUNT : ASK;
+    		countQuery(keyword, getPatternsFromQuery(query.substring(keyword.length()).trim()), output);
+    		return;
+    	}
+    	
+    	Page page = new Page();
+    	query = splitPage(query, page);
+    	List<TripleLiteral> patterns = getPatternsFromQuery(query);
+    	if(patterns.size() > 1 || hasNamedVariable(patterns.get(0))){
+    		executeConjunctiveQuery(patterns, page, output);
+    		return;
+    	}
+    	
     	/** The period is optional */
     	if(query.charAt(query.length() - 1) == '.'){
     		query = query.substring(0, query.length() - 1);
@@ -38,28 +116,292 @@ public class QueryEngine{
     	String[] tokens = query.split("\\s+");
     	
     	if(tokens.length != 3){
-    		throw new QueryEngineException(1, "Invalid query format. Acceptable format is: \"String String String.\"", query);
+    		throw invalidQuery("Invalid query format. Acceptable format is: \"String String String.\"", query);
     	}
     	
     	TripleLiteral triple = new TripleLiteral(tokens[0],tokens[1],tokens[2]);
     	
-    	Set<Triple> tripleSet = knowledgeGraph.executeQuery(triple);
+    	Collection<Triple> tripleSet;
+    	try{
+    		if(page.isEmpty()){
+    			tripleSet = knowledgeGraph.executeQuery(triple);
+    		}else{
+    			tripleSet = knowledgeGraph.executeQuery(triple, page.orderBy, page.offset, page.limit);
+    		}
+    	}catch(IllegalArgumentException ex){
+    		/** A malformed property path. */
+    		throw new QueryEngineException(query, 1, null, ex);
+    	}
     	
     	/** Output the original query, cleanly formatted. 
     	 * Since we want to keep the same case as the original, we use the tokens and not the identifier from the Triple. 
     	 * */
-    	System.out.println(tokens[0] + " " + tokens[1] + " " + tokens[2] + "." );
+    	output.append(tokens[0]).append(' ').append(tokens[1]).append(' ').append(tokens[2]).append('.').append(page.clauses).append(LINE_SEPARATOR);
     	
     	if(tripleSet.size() > 0){
     		for(Triple tripleMatch : tripleSet){
-	            System.out.println(tripleMatch.getIdentifier() + ".");
+	            output.append(tripleMatch.getIdentifier()).append('.').append(LINE_SEPARATOR);
 	        }
     	}else{
-    		System.out.println("<null>");
+    		output.append("<null>").append(LINE_SEPARATOR);
     	}
 	}
 
 
+	/**
+	 * Executes a query with several patterns or named variables, and prints a line for each solution.
+	 * @param patterns the patterns of the query.
+	 * @param page the LIMIT and OFFSET of the solutions to print.
+	 * @param output receives the printed lines.
+	 * @throws QueryEngineException if a variable is used both as a predicate and as a node, or the
+	 * query has an ORDER BY clause.
+	 */
+	private void executeConjunctiveQuery(List<TripleLiteral> patterns, Page page, StringBuilder output) throws QueryEngineException{
+		String normalized = normalize(patterns) + page.clauses;
+		if(page.orderBy != KnowledgeGraph.UNORDERED){
+			throw invalidQuery("ORDER BY is only supported for a single pattern without named variables.", normalized);
+		}
+		
+		BindingTable solutions;
+		try{
+			solutions = knowledgeGraph.executeQuery(patterns);
+		}catch(IllegalArgumentException ex){
+			throw new QueryEngineException(normalized, 1, null, ex);
+		}
+		
+		output.append(normalized).append(LINE_SEPARATOR);
+		
+		int first = Math.min(page.offset, solutions.size());
+		int last = (int) Math.min((long) first + page.limit, solutions.size());
+		if(first < last){
+			List<String> variables = solutions.getVariables();
+			for(int row = first; row < last; row++){
+				for(int i = 0; i < variables.size(); i++){
+					if(i > 0){
+						output.append(' ');
+					}
+					output.append(variables.get(i)).append('=').append(solutions.getValue(row, variables.get(i)));
+				}
+				output.append(LINE_SEPARATOR);
+			}
+		}else{
+			output.append("<null>").append(LINE_SEPARATOR);
+		}
+	}
+
+	/**
+	 * Runs a query and prints its plan, with the estimated and actual rows of each step.
+	 * @param patterns the patterns of the query.
+	 * @param output receives the printed lines.
+	 * @throws QueryEngineException if a variable is used both as a predicate and as a node.
+	 */
+	private void explainQuery(List<TripleLiteral> patterns, StringBuilder output) throws QueryEngineException{
+		String normalized = normalize(patterns);
+		
+		List<String> plan;
+		try{
+			plan = knowledgeGraph.explainQuery(patterns);
+		}catch(IllegalArgumentException ex){
+			throw new QueryEngineException(normalized, 1, null, ex);
+		}
+		
+		output.append(EXPLAIN).append(' ').append(normalized).append(LINE_SEPARATOR);
+		for(String line : plan){
+			output.append(line).append(LINE_SEPARATOR);
+		}
+	}
+
+	/**
+	 * Prints the number of solutions of a query for COUNT, or whether it has any for ASK, without
+	 * printing the solutions. A single pattern is answered from the sizes kept in the indexes.
+	 * @param keyword COUNT or ASK.
+	 * @param patterns the patterns of the query.
+	 * @param output receives the printed lines.
+	 * @throws QueryEngineException if a variable is used both as a predicate and as a node.
+	 */
+	private void countQuery(String keyword, List<TripleLiteral> patterns, StringBuilder output) throws QueryEngineException{
+		String normalized = normalize(patterns);
+		
+		int count;
+		try{
+			count = knowledgeGraph.countMatches(patterns);
+		}catch(IllegalArgumentException ex){
+			throw new QueryEngineException(normalized, 1, null, ex);
+		}
+		
+		output.append(keyword).append(' ').append(normalized).append(LINE_SEPARATOR);
+		if(keyword.equals(COUNT)){
+			output.append(count).append(LINE_SEPARATOR);
+		}else{
+			output.append(count > 0).append(LINE_SEPARATOR);
+		}
+	}
+
+	/**
+	 * @return a QueryEngineException for an invalid query, whose cause describes what is wrong with it.
+	 */
+	private static QueryEngineException invalidQuery(String description, String query){
+		return new QueryEngineException(query, 1, null, new IllegalArgumentException(description));
+	}
+
+	/**
+	 * @return true if a query starts with a keyword, in any case, followed by white space.
+	 */
+	private static boolean startsWithKeyword(String query, String keyword){
+		return query.length() > keyword.length() && query.regionMatches(true, 0, keyword, 0, keyword.length())
+				&& Character.isWhitespace(query.charAt(keyword.length()));
+	}
+
+	/**
+	 * @return the patterns of a query, cleanly formatted, each ending with a period.
+	 */
+	private static String normalize(List<TripleLiteral> patterns){
+		StringBuilder normalized = new StringBuilder();
+		for(TripleLiteral pattern : patterns){
+			if(normalized.length() > 0){
+				normalized.append(' ');
+			}
+			normalized.append(pattern.getIdentifier()).append('.');
+		}
+		return normalized.toString();
+	}
+
+	/**
+	 * Splits a query into patterns of three tokens. Each pattern may end with a period, either
+	 * attached to its last token or on its own.
+	 * @param query the trimmed query.
+	 * @return the patterns.
+	 * @throws QueryEngineException if the tokens do not form whole patterns.
+	 */
+	private List<TripleLiteral> getPatternsFromQuery(String query) throws QueryEngineException{
+		List<TripleLiteral> patterns = new ArrayList<TripleLiteral>();
+		List<String> tokens = new ArrayList<String>(3);
+		boolean valid = true;
+		for(String token : query.split("\\s+")){
+			boolean end = token.charAt(token.length() - 1) == '.';
+			if(end){
+				token = token.substring(0, token.length() - 1);
+			}
+			if(token.length() > 0){
+				tokens.add(token);
+			}
+			if(tokens.size() == 3){
+				patterns.add(new TripleLiteral(tokens.get(0), tokens.get(1), tokens.get(2)));
+				tokens.clear();
+			}else if(end && !tokens.isEmpty()){
+				/** A period before the end of a pattern. */
+				valid = false;
+			}
+		}
+		if(!valid || !tokens.isEmpty() || patterns.isEmpty()){
+			throw invalidQuery("Invalid query format. Acceptable format is: \"String String String.\" with each further pattern after a period.", query);
+		}
+		return patterns;
+	}
+
+	/**
+	 * Splits the ORDER BY, LIMIT and OFFSET clauses off the end of a query. A clause is only
+	 * recognised after whole patterns, so a term named "limit" inside a pattern is still a term.
+	 * @param query the trimmed query.
+	 * @param page receives the clauses.
+	 * @return the query without its clauses.
+	 * @throws QueryEngineException if the clauses are not well formed.
+	 */
+	private static String splitPage(String query, Page page) throws QueryEngineException{
+		Matcher token = TOKEN.matcher(query);
+		int terms = 0;
+		while(token.find()){
+			String text = token.group();
+			if(terms > 0 && terms % 3 == 0
+					&& (text.equalsIgnoreCase(ORDER) || text.equalsIgnoreCase(LIMIT) || text.equalsIgnoreCase(OFFSET))){
+				parseClauses(query.substring(token.start()), page, query);
+				return query.substring(0, token.start()).trim();
+			}
+			if(!text.equals(".")){
+				terms++;
+			}
+		}
+		return query;
+	}
+
+	/**
+	 * Parses the clauses at the end of a query. The last may end with a period.
+	 * @param clauses the clauses.
+	 * @param page receives the clauses.
+	 * @param query the whole query, for errors.
+	 * @throws QueryEngineException if a clause is repeated or not well formed.
+	 */
+	private static void parseClauses(String clauses, Page page, String query) throws QueryEngineException{
+		if(clauses.endsWith(".")){
+			clauses = clauses.substring(0, clauses.length() - 1);
+		}
+		String[] tokens = clauses.trim().split("\\s+");
+		boolean ordered = false;
+		boolean limited = false;
+		boolean offset = false;
+		boolean valid = true;
+		int i = 0;
+		while(valid && i < tokens.length){
+			String keyword = tokens[i];
+			if(keyword.equalsIgnoreCase(ORDER) && !ordered && i + 2 < tokens.length && tokens[i + 1].equalsIgnoreCase(BY)){
+				for(int position = 0; position < ORDER_TERMS.length; position++){
+					if(tokens[i + 2].equalsIgnoreCase(ORDER_TERMS[position])){
+						page.orderBy = position;
+						ordered = true;
+					}
+				}
+				valid = ordered;
+				i += 3;
+			}else if(keyword.equalsIgnoreCase(LIMIT) && !limited && i + 1 < tokens.length){
+				page.limit = parseCount(tokens[i + 1]);
+				valid = limited = page.limit >= 0;
+				i += 2;
+			}else if(keyword.equalsIgnoreCase(OFFSET) && !offset && i + 1 < tokens.length){
+				page.offset = parseCount(tokens[i + 1]);
+				valid = offset = page.offset >= 0;
+				i += 2;
+			}else{
+				valid = false;
+			}
+		}
+		if(!valid){
+			throw invalidQuery("Invalid clauses. Acceptable clauses are: \"ORDER BY subject|predicate|object\", \"LIMIT n\" and \"OFFSET n\", each at most once.", query);
+		}
+		StringBuilder normalized = new StringBuilder();
+		if(ordered){
+			normalized.append(' ').append(ORDER).append(' ').append(BY).append(' ').append(ORDER_TERMS[page.orderBy]);
+		}
+		if(limited){
+			normalized.append(' ').append(LIMIT).append(' ').append(page.limit);
+		}
+		if(offset){
+			normalized.append(' ').append(OFFSET).append(' ').append(page.offset);
+		}
+		page.clauses = normalized.toString();
+	}
+
+	/**
+	 * @return the count, or -1 if the token is not a count that fits in an int.
+	 */
+	private static int parseCount(String token){
+		try{
+			return Integer.parseInt(token);
+		}catch(NumberFormatException ex){
+			return -1;
+		}
+	}
+
+	/**
+	 * @return true if a term of the pattern is a variable with a name, such as "?r".
+	 */
+	private static boolean hasNamedVariable(TripleLiteral pattern){
+		return isNamedVariable(pattern.getSubject()) || isNamedVariable(pattern.getPredicate()) || isNamedVariable(pattern.getObject());
+	}
+
+	private static boolean isNamedVariable(String token){
+		return token.length() > 1 && token.charAt(0) == '?';
+	}
+
 	/**
 	 * Reads a file line by line and executes queries against the KnowledgeGraph.
 	 * @param filename the filename of the file to read the queries from
@@ -81,12 +423,12 @@ public class QueryEngine{
 		    	try{
 		    		executeQuery(line);
 		    	} catch(QueryEngineException ex){
-		    		throw new QueryEngineException(lineNumber, ex.getDescription(), ex.getLineContents());
+		    		throw new QueryEngineException(ex.getLineWhereFailed(), lineNumber, filename, ex.getOriginalCause());
 		    	}
 		    }
 		    
 		}catch(IOException e){
-			throw new QueryEngineException(0, e.getMessage() , filename);
+			throw new QueryEngineException(null, 0, filename, e);
 		} finally {
 			try {
 				if (fis != null)
@@ -94,9 +436,173 @@ public class QueryEngine{
 				if (br != null)
 					br.close();
 			} catch (IOException ex) {
-				throw new QueryEngineException(0, ex.getMessage() , filename);
+				throw new QueryEngineException(null, 0, filename, ex);
+			}
+		}
+	}
+
+	/**
+	 * Runs a file of queries in a batch and prints the same output as executeQueryFile. The whole
+	 * file is read first and each distinct query is run once, in parallel on a fork-join pool. The
+	 * output is then written in the order of the file through one large buffer.
+	 *
+	 * As with executeQueryFile, the output of the queries before the first invalid one is printed,
+	 * and the invalid one is reported with its line number. Queries after it are not all run.
+	 * @param filename the filename of the file to read the queries from
+	 * @throws QueryEngineException on invalid queries and file reading errors.
+	 */
+	public void executeQueryBatch(String filename) throws QueryEngineException{
+		List<String> lines = new ArrayList<String>();
+		BufferedReader br = null;
+		try{
+			br = new BufferedReader(new InputStreamReader(new FileInputStream(filename), Charset.forName("UTF-8")));
+			String line;
+			while((line = br.readLine()) != null){
+				lines.add(line.trim());
+			}
+		}catch(IOException e){
+			throw new QueryEngineException(null, 0, filename, e);
+		}finally{
+			try{
+				if(br != null){
+					br.close();
+				}
+			}catch(IOException ex){
+				throw new QueryEngineException(null, 0, filename, ex);
+			}
+		}
+
+		/** Number the distinct queries in order of their first line. */
+		Map<String, Integer> distinct = new HashMap<String, Integer>();
+		List<String> queries = new ArrayList<String>();
+		List<Integer> firstLines = new ArrayList<Integer>();
+		int[] queryOfLine = new int[lines.size()];
+		for(int i = 0; i < lines.size(); i++){
+			String query = lines.get(i);
+			if(query.length() == 0){
+				queryOfLine[i] = -1;
+				continue;
+			}
+			Integer index = distinct.get(query);
+			if(index == null){
+				index = queries.size();
+				distinct.put(query, index);
+				queries.add(query);
+				firstLines.add(i + 1);
+			}
+			queryOfLine[i] = index;
+		}
+
+		BatchResults results = new BatchResults(queries, firstLines);
+		ForkJoinPool pool = new ForkJoinPool();
+		try{
+			pool.invoke(new BatchTask(results, 0, queries.size()));
+		}finally{
+			pool.shutdown();
+		}
+
+		Writer writer = new BufferedWriter(new OutputStreamWriter(System.out), OUTPUT_BUFFER);
+		try{
+			for(int i = 0; i < lines.size(); i++){
+				int index = queryOfLine[i];
+				if(index < 0){
+					continue;
+				}
+				QueryEngineException error = results.errors[index];
+				if(error != null){
+					throw new QueryEngineException(error.getLineWhereFailed(), i + 1, filename, error.getOriginalCause());
+				}
+				writer.write(results.outputs[index]);
+			}
+		}catch(IOException e){
+			throw new QueryEngineException(null, 0, filename, e);
+		}finally{
+			try{
+				writer.flush();
+			}catch(IOException ex){
+				throw new QueryEngineException(null, 0, filename, ex);
+			}
+		}
+	}
+
+	/**
+	 * The ORDER BY, LIMIT and OFFSET clauses of a query.
+	 */
+	private static final class Page {
+
+		private int orderBy = KnowledgeGraph.UNORDERED;
+		private int offset = 0;
+		private int limit = Integer.MAX_VALUE;
+		/** The clauses, cleanly formatted after a space, or "" if the query has none. */
+		private String clauses = "";
+
+		boolean isEmpty(){
+			return clauses.length() == 0;
+		}
+	}
+
+	/**
+	 * The distinct queries of a batch and, once they have run, the output or error of each.
+	 */
+	private static final class BatchResults {
+
+		private final List<String> queries;
+		private final List<Integer> firstLines;
+		private final String[] outputs;
+		private final QueryEngineException[] errors;
+		/** The first line of the earliest query known to be invalid, so later ones need not run. */
+		private final AtomicInteger firstErrorLine = new AtomicInteger(Integer.MAX_VALUE);
+
+		BatchResults(List<String> queries, List<Integer> firstLines){
+			this.queries = queries;
+			this.firstLines = firstLines;
+			outputs = new String[queries.size()];
+			errors = new QueryEngineException[queries.size()];
+		}
+	}
+
+	/**
+	 * Runs a range of the distinct queries of a batch, splitting it in half until it is small.
+	 */
+	private final class BatchTask extends RecursiveAction {
+
+		private static final long serialVersionUID = 1L;
+
+		private final BatchResults results;
+		private final int from;
+		private final int to;
+
+		BatchTask(BatchResults results, int from, int to){
+			this.results = results;
+			this.from = from;
+			this.to = to;
+		}
+
+		@Override
+		protected void compute(){
+			if(to - from > BATCH_TASK_QUERIES){
+				int middle = (from + to) >>> 1;
+				invokeAll(new BatchTask(results, from, middle), new BatchTask(results, middle, to));
+				return;
+			}
+			StringBuilder output = new StringBuilder();
+			for(int index = from; index < to; index++){
+				int line = results.firstLines.get(index);
+				if(line > results.firstErrorLine.get()){
+					continue;
+				}
+				output.setLength(0);
+				try{
+					runQuery(results.queries.get(index), output);
+					results.outputs[index] = output.toString();
+				}catch(QueryEngineException ex){
+					results.errors[index] = ex;
+					int first;
+					while(line < (first = results.firstErrorLine.get()) && !results.firstErrorLine.compareAndSet(first, line)){
+						/** Another task found an invalid query; retry unless it is earlier. */
+					}
+				}
 			}
 		}
 	}
-	
 }
@@ -0,0 +1,397 @@
+package cscie97.asn4.knowledge.engine;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The ReachabilityIndex keeps the nodes reachable from a source node along a PropertyPath, so a
+ * sweep such as every sensor under a house is answered without walking the graph again.
+ *
+ * An entry records every node and automaton state its search visited. The search only followed
+ * triples out of visited nodes, so a change can only affect an entry if the changed triple's
+ * subject was visited in a state with a transition on its predicate. The KnowledgeGraph passes
+ * every committed change to update, right after publishing it: an added triple extends the
+ * affected entries by continuing their search from the new edge, and a removed triple drops the
+ * affected entries, which are searched again the next time they are asked for. Entries that no
+ * change touches are left alone.
+ *
+ * Each entry is stamped with the number of the version it was last changed in, and is valid for
+ * readers of that version or later ones, up to the last version applied. At most capacity
+ * entries are kept, and the least recently used is evicted.
+ */
+final class ReachabilityIndex {
+
+	static final int DEFAULT_CAPACITY = 256;
+
+	private final LinkedHashMap<Key, Reach> entries = new LinkedHashMap<Key, Reach>(16, 0.75f, true);
+	/** The entries that visited each node. */
+	private final Map<Integer, List<Reach>> watchers = new HashMap<Integer, List<Reach>>();
+	private int capacity = DEFAULT_CAPACITY;
+	private long appliedVersion = 0;
+
+	/**
+	 * Looks up the nodes reachable from a source.
+	 * @param path a complete path.
+	 * @param source the source node id.
+	 * @param version the number of the version the reader reads.
+	 * @return the ids of the reachable nodes, or null if no entry is valid for the version.
+	 */
+	synchronized int[] get(PropertyPath path, int source, long version){
+		Reach reach = entries.get(new Key(path.getText(), source));
+		if(reach == null || reach.version > version || version > appliedVersion){
+			return null;
+		}
+		return reach.getReached();
+	}
+
+	/**
+	 * Stores a search, unless a change has been applied since the version it read.
+	 * @param reach the search, made with search.
+	 */
+	synchronized void put(Reach reach){
+		if(capacity == 0 || reach.version != appliedVersion){
+			return;
+		}
+		Key key = new Key(reach.path.getText(), reach.source);
+		Reach replaced = entries.put(key, reach);
+		if(replaced != null){
+			unwatch(replaced);
+		}
+		reach.owner = this;
+		for(int i = 0; i < reach.nodeCount; i++){
+			watch(reach.nodes[i], reach);
+		}
+		if(entries.size() > capacity){
+			Iterator<Reach> eldest = entries.values().iterator();
+			Reach evicted = eldest.next();
+			eldest.remove();
+			unwatch(evicted);
+		}
+	}
+
+	/**
+	 * Applies a committed change. Must be called for every commit, in commit order.
+	 * @param removed the ids of the removed triples.
+	 * @param removedCount the number of removed triples.
+	 * @param added the ids of the added triples.
+	 * @param addedCount the number of added triples.
+	 * @param version the version the change was committed as.
+	 */
+	synchronized void update(int[] removed, int removedCount, int[] added, int addedCount, GraphVersion version){
+		appliedVersion = version.getNumber();
+		if(entries.isEmpty()){
+			return;
+		}
+		for(int i = 0; i < removedCount; i++){
+			List<Reach> affected = watchers.get(removed[i * 3]);
+			if(affected == null){
+				continue;
+			}
+			for(Reach reach : new ArrayList<Reach>(affected)){
+				if(reach.follows(removed[i * 3], removed[i * 3 + 1])){
+					entries.remove(new Key(reach.path.getText(), reach.source));
+					unwatch(reach);
+				}
+			}
+		}
+		for(int i = 0; i < addedCount; i++){
+			List<Reach> affected = watchers.get(added[i * 3]);
+			if(affected == null){
+				continue;
+			}
+			for(Reach reach : new ArrayList<Reach>(affected)){
+				reach.extend(added[i * 3], added[i * 3 + 1], added[i * 3 + 2], version);
+			}
+		}
+	}
+
+	/**
+	 * Removes every entry, for a change that was not passed to update.
+	 * @param version the number of the current version.
+	 */
+	synchronized void clear(long version){
+		entries.clear();
+		watchers.clear();
+		appliedVersion = version;
+	}
+
+	/**
+	 * @param newCapacity the largest number of entries to keep, 0 to turn the index off.
+	 */
+	synchronized void setCapacity(int newCapacity){
+		if(newCapacity < 0){
+			throw new IllegalArgumentException("The capacity cannot be negative.");
+		}
+		capacity = newCapacity;
+		Iterator<Reach> eldest = entries.values().iterator();
+		while(entries.size() > capacity){
+			Reach evicted = eldest.next();
+			eldest.remove();
+			unwatch(evicted);
+		}
+	}
+
+	synchronized int size(){
+		return entries.size();
+	}
+
+	private void watch(int node, Reach reach){
+		List<Reach> list = watchers.get(node);
+		if(list == null){
+			list = new ArrayList<Reach>(2);
+			watchers.put(node, list);
+		}
+		list.add(reach);
+	}
+
+	private void unwatch(Reach reach){
+		reach.owner = null;
+		for(int i = 0; i < reach.nodeCount; i++){
+			List<Reach> list = watchers.get(reach.nodes[i]);
+			if(list != null){
+				list.remove(reach);
+				if(list.isEmpty()){
+					watchers.remove(reach.nodes[i]);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Searches the nodes reachable from a source in a version.
+	 * @param path the path to follow.
+	 * @param source the source node id.
+	 * @param version the version to read.
+	 * @return the search, which can be stored with put.
+	 */
+	static Reach search(PropertyPath path, int source, GraphVersion version){
+		Reach reach = new Reach(path, source, version.getNumber());
+		reach.enter(source, path.getStart());
+		reach.run(version);
+		return reach;
+	}
+
+	/**
+	 * The nodes visited and reached by one search. A visited pair of node and state is kept as a
+	 * key of a LongSet, and a node is marked as reached or visited in pseudo states after the last
+	 * real one.
+	 */
+	static final class Reach {
+
+		private final PropertyPath path;
+		private final int source;
+		private final int reachedState;
+		private final int visitedState;
+		private final LongSet visited = new LongSet();
+		private long version;
+		private int[] reached = new int[16];
+		private int reachedCount = 0;
+		private int[] nodes = new int[16];
+		private int nodeCount = 0;
+		private int[] stack = new int[32];
+		private int stackSize = 0;
+		private ReachabilityIndex owner;
+
+		private Reach(PropertyPath path, int source, long version){
+			this.path = path;
+			this.source = source;
+			this.version = version;
+			reachedState = path.getStateCount();
+			visitedState = path.getStateCount() + 1;
+		}
+
+		/**
+		 * @return the ids of the reached nodes, in the order they were found.
+		 */
+		int[] getReached(){
+			int[] copy = new int[reachedCount];
+			System.arraycopy(reached, 0, copy, 0, reachedCount);
+			return copy;
+		}
+
+		/**
+		 * @return true if the search followed triples with a predicate out of a node.
+		 */
+		private boolean follows(int node, int predicate){
+			for(int state = 0; state < path.getStateCount(); state++){
+				if(visited.contains(key(node, state))){
+					for(int label : path.getPredicates(state)){
+						if(label == predicate){
+							return true;
+						}
+					}
+				}
+			}
+			return false;
+		}
+
+		/**
+		 * Continues the search along a triple added in a version.
+		 */
+		private void extend(int subject, int predicate, int object, GraphVersion changed){
+			int before = visited.size();
+			for(int state = 0; state < path.getStateCount(); state++){
+				if(visited.contains(key(subject, state))){
+					int[] labels = path.getPredicates(state);
+					for(int t = 0; t < labels.length; t++){
+						if(labels[t] == predicate){
+							enter(object, path.getTargets(state)[t]);
+						}
+					}
+				}
+			}
+			run(changed);
+			if(visited.size() != before){
+				version = changed.getNumber();
+			}
+		}
+
+		/**
+		 * Visits a node in a state, if it was not visited in it yet.
+		 */
+		private void enter(int node, int state){
+			if(!visited.add(key(node, state))){
+				return;
+			}
+			if(visited.add(key(node, visitedState))){
+				nodes = append(nodes, nodeCount++, node);
+				if(owner != null){
+					owner.watch(node, this);
+				}
+			}
+			if(path.isAccepting(state) && visited.add(key(node, reachedState))){
+				reached = append(reached, reachedCount++, node);
+			}
+			if(stackSize + 2 > stack.length){
+				int[] grown = new int[stack.length * 2];
+				System.arraycopy(stack, 0, grown, 0, stackSize);
+				stack = grown;
+			}
+			stack[stackSize++] = node;
+			stack[stackSize++] = state;
+		}
+
+		/**
+		 * Follows the transitions of every pair entered but not yet expanded.
+		 */
+		private void run(GraphVersion version){
+			PermutationIndex spo = version.getIndex(TripleCursor.SPO);
+			while(stackSize > 0){
+				int state = stack[--stackSize];
+				int node = stack[--stackSize];
+				int[] labels = path.getPredicates(state);
+				int[] targets = path.getTargets(state);
+				PermutationIndex.Bucket bucket = spo.getBucket(node);
+				for(int t = 0; t < labels.length; t++){
+					PermutationIndex.KeyCursor cursor = bucket.scan(PermutationIndex.lowestKey(labels[t]), PermutationIndex.highestKey(labels[t]));
+					while(cursor.next()){
+						enter(PermutationIndex.third(cursor.key()), targets[t]);
+					}
+				}
+			}
+		}
+
+		private static long key(int node, int state){
+			return ((long) node << 32) | state;
+		}
+
+		private static int[] append(int[] array, int index, int value){
+			if(index == array.length){
+				int[] grown = new int[array.length * 2];
+				System.arraycopy(array, 0, grown, 0, array.length);
+				array = grown;
+			}
+			array[index] = value;
+			return array;
+		}
+	}
+
+	/**
+	 * An open addressing hash set of longs.
+	 */
+	private static final class LongSet {
+
+		private static final long EMPTY = -1L;
+
+		private long[] slots = newSlots(64);
+		private int size = 0;
+
+		boolean add(long value){
+			if((size + 1) * 2 > slots.length){
+				long[] old = slots;
+				slots = newSlots(old.length * 2);
+				for(long kept : old){
+					if(kept != EMPTY){
+						slots[slot(kept)] = kept;
+					}
+				}
+			}
+			int slot = slot(value);
+			if(slots[slot] == value){
+				return false;
+			}
+			slots[slot] = value;
+			size++;
+			return true;
+		}
+
+		boolean contains(long value){
+			return slots[slot(value)] == value;
+		}
+
+		int size(){
+			return size;
+		}
+
+		/**
+		 * @return the slot holding a value, or the empty slot where it would go.
+		 */
+		private int slot(long value){
+			int mask = slots.length - 1;
+			long mixed = value * 0x9E3779B97F4A7C15L;
+			int slot = (int) (mixed >>> 32) & mask;
+			while(slots[slot] != EMPTY && slots[slot] != value){
+				slot = (slot + 1) & mask;
+			}
+			return slot;
+		}
+
+		private static long[] newSlots(int length){
+			long[] slots = new long[length];
+			java.util.Arrays.fill(slots, EMPTY);
+			return slots;
+		}
+	}
+
+	/**
+	 * A path and a source node.
+	 */
+	private static final class Key {
+
+		private final String path;
+		private final int source;
+
+		Key(String path, int source){
+			this.path = path;
+			this.source = source;
+		}
+
+		@Override
+		public boolean equals(Object other){
+			if(!(other instanceof Key)){
+				return false;
+			}
+			Key key = (Key) other;
+			return source == key.source && path.equals(key.path);
+		}
+
+		@Override
+		public int hashCode(){
+			return path.hashCode() * 31 + source;
+		}
+	}
+}
@@ -0,0 +1,415 @@
+package cscie97.asn4.knowledge.engine;
+
+import java.util.Arrays;
+
+/**
+ * A RoaringBitmap is a compressed set of non negative ids, used as the posting list of the ids a
+ * pattern matches in one position. The ids are split on their high 16 bits into containers, kept
+ * sorted by those bits. A container with at most ARRAY_LIMIT ids holds their low 16 bits in a
+ * sorted char array, two bytes per id. A fuller one holds a bitmap of all 65536 low values in 1024
+ * longs, which is never more than two bytes per id either. The sets are combined with and, or and
+ * andNot a container at a time, by merging arrays or by combining whole words of bitmaps.
+ *
+ * A bitmap is built with add and is not changed by the set operations, which return new bitmaps.
+ */
+final class RoaringBitmap {
+
+	/** The most ids an array container holds. */
+	static final int ARRAY_LIMIT = 4096;
+	private static final int WORDS = 1024;
+
+	private char[] keys;
+	private Object[] containers;
+	private int[] cardinalities;
+	private int size;
+
+	RoaringBitmap(){
+		this(4);
+	}
+
+	private RoaringBitmap(int capacity){
+		keys = new char[capacity];
+		containers = new Object[capacity];
+		cardinalities = new int[capacity];
+	}
+
+	/**
+	 * Adds an id. Adding ids in ascending order appends to the last container.
+	 * @param id a non negative id.
+	 */
+	void add(int id){
+		char key = (char) (id >>> 16);
+		char low = (char) id;
+		int index;
+		if(size > 0 && keys[size - 1] == key){
+			index = size - 1;
+		}else{
+			index = findContainer(key);
+			if(index < 0){
+				index = -index - 1;
+				insertContainer(index, key, new char[8], 0);
+			}
+		}
+		Object container = containers[index];
+		int cardinality = cardinalities[index];
+		if(container instanceof long[]){
+			long[] words = (long[]) container;
+			long bit = 1L << low;
+			if((words[low >>> 6] & bit) == 0){
+				words[low >>> 6] |= bit;
+				cardinalities[index]++;
+			}
+			return;
+		}
+		char[] values = (char[]) container;
+		int position;
+		if(cardinality == 0 || values[cardinality - 1] < low){
+			position = cardinality;
+		}else{
+			position = Arrays.binarySearch(values, 0, cardinality, low);
+			if(position >= 0){
+				return;
+			}
+			position = -position - 1;
+		}
+		if(cardinality == ARRAY_LIMIT){
+			long[] words = toWords(values, cardinality);
+			words[low >>> 6] |= 1L << low;
+			containers[index] = words;
+			cardinalities[index]++;
+			return;
+		}
+		if(cardinality == values.length){
+			values = Arrays.copyOf(values, Math.min(ARRAY_LIMIT, values.length * 2));
+			containers[index] = values;
+		}
+		System.arraycopy(values, position, values, position + 1, cardinality - position);
+		values[position] = low;
+		cardinalities[index]++;
+	}
+
+	/**
+	 * @return true if the bitmap holds an id.
+	 */
+	boolean contains(int id){
+		int index = findContainer((char) (id >>> 16));
+		if(index < 0){
+			return false;
+		}
+		char low = (char) id;
+		Object container = containers[index];
+		if(container instanceof long[]){
+			return (((long[]) container)[low >>> 6] & (1L << low)) != 0;
+		}
+		return Arrays.binarySearch((char[]) container, 0, cardinalities[index], low) >= 0;
+	}
+
+	/**
+	 * @return the number of ids.
+	 */
+	int getCardinality(){
+		int cardinality = 0;
+		for(int i = 0; i < size; i++){
+			cardinality += cardinalities[i];
+		}
+		return cardinality;
+	}
+
+	boolean isEmpty(){
+		return size == 0;
+	}
+
+	/**
+	 * @return the bytes held by the containers and their keys, not counting object headers.
+	 */
+	long getSizeInBytes(){
+		long bytes = 0;
+		for(int i = 0; i < size; i++){
+			bytes += 2 + 4 + (containers[i] instanceof long[] ? WORDS * 8 : 2 * ((char[]) containers[i]).length);
+		}
+		return bytes;
+	}
+
+	/**
+	 * @return the ids in ascending order.
+	 */
+	int[] toArray(){
+		int[] ids = new int[getCardinality()];
+		int count = 0;
+		for(int i = 0; i < size; i++){
+			int high = keys[i] << 16;
+			Object container = containers[i];
+			if(container instanceof long[]){
+				long[] words = (long[]) container;
+				for(int w = 0; w < WORDS; w++){
+					for(long word = words[w]; word != 0; word &= word - 1){
+						ids[count++] = high | (w << 6) | Long.numberOfTrailingZeros(word);
+					}
+				}
+			}else{
+				char[] values = (char[]) container;
+				for(int v = 0; v < cardinalities[i]; v++){
+					ids[count++] = high | values[v];
+				}
+			}
+		}
+		return ids;
+	}
+
+	/**
+	 * @return the ids in both bitmaps.
+	 */
+	static RoaringBitmap and(RoaringBitmap a, RoaringBitmap b){
+		RoaringBitmap result = new RoaringBitmap(Math.max(1, Math.min(a.size, b.size)));
+		int i = 0;
+		int j = 0;
+		while(i < a.size && j < b.size){
+			if(a.keys[i] < b.keys[j]){
+				i++;
+			}else if(a.keys[i] > b.keys[j]){
+				j++;
+			}else{
+				result.appendAnd(a.keys[i], a.containers[i], a.cardinalities[i], b.containers[j], b.cardinalities[j]);
+				i++;
+				j++;
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * @return the ids in either bitmap.
+	 */
+	static RoaringBitmap or(RoaringBitmap a, RoaringBitmap b){
+		RoaringBitmap result = new RoaringBitmap(Math.max(1, a.size + b.size));
+		int i = 0;
+		int j = 0;
+		while(i < a.size || j < b.size){
+			if(j == b.size || (i < a.size && a.keys[i] < b.keys[j])){
+				result.appendCopy(a.keys[i], a.containers[i], a.cardinalities[i]);
+				i++;
+			}else if(i == a.size || a.keys[i] > b.keys[j]){
+				result.appendCopy(b.keys[j], b.containers[j], b.cardinalities[j]);
+				j++;
+			}else{
+				result.appendOr(a.keys[i], a.containers[i], a.cardinalities[i], b.containers[j], b.cardinalities[j]);
+				i++;
+				j++;
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * @return the ids in a that are not in b.
+	 */
+	static RoaringBitmap andNot(RoaringBitmap a, RoaringBitmap b){
+		RoaringBitmap result = new RoaringBitmap(Math.max(1, a.size));
+		int j = 0;
+		for(int i = 0; i < a.size; i++){
+			while(j < b.size && b.keys[j] < a.keys[i]){
+				j++;
+			}
+			if(j < b.size && b.keys[j] == a.keys[i]){
+				result.appendAndNot(a.keys[i], a.containers[i], a.cardinalities[i], b.containers[j], b.cardinalities[j]);
+			}else{
+				result.appendCopy(a.keys[i], a.containers[i], a.cardinalities[i]);
+			}
+		}
+		return result;
+	}
+
+	private void appendAnd(char key, Object a, int aCardinality, Object b, int bCardinality){
+		if(a instanceof long[] && b instanceof long[]){
+			long[] words = new long[WORDS];
+			int cardinality = 0;
+			for(int w = 0; w < WORDS; w++){
+				words[w] = ((long[]) a)[w] & ((long[]) b)[w];
+				cardinality += Long.bitCount(words[w]);
+			}
+			appendWords(key, words, cardinality);
+		}else if(a instanceof long[] || b instanceof long[]){
+			long[] words = (long[]) (a instanceof long[] ? a : b);
+			char[] values = (char[]) (a instanceof long[] ? b : a);
+			int count = a instanceof long[] ? bCardinality : aCardinality;
+			char[] kept = new char[count];
+			int cardinality = 0;
+			for(int v = 0; v < count; v++){
+				if((words[values[v] >>> 6] & (1L << values[v])) != 0){
+					kept[cardinality++] = values[v];
+				}
+			}
+			append(key, kept, cardinality);
+		}else{
+			char[] left = (char[]) a;
+			char[] right = (char[]) b;
+			char[] kept = new char[Math.min(aCardinality, bCardinality)];
+			int cardinality = 0;
+			int i = 0;
+			int j = 0;
+			while(i < aCardinality && j < bCardinality){
+				if(left[i] < right[j]){
+					i++;
+				}else if(left[i] > right[j]){
+					j++;
+				}else{
+					kept[cardinality++] = left[i];
+					i++;
+					j++;
+				}
+			}
+			append(key, kept, cardinality);
+		}
+	}
+
+	private void appendOr(char key, Object a, int aCardinality, Object b, int bCardinality){
+		if(a instanceof long[] || b instanceof long[] || aCardinality + bCardinality > ARRAY_LIMIT){
+			long[] words = a instanceof long[] ? ((long[]) a).clone() : toWords((char[]) a, aCardinality);
+			if(b instanceof long[]){
+				for(int w = 0; w < WORDS; w++){
+					words[w] |= ((long[]) b)[w];
+				}
+			}else{
+				char[] values = (char[]) b;
+				for(int v = 0; v < bCardinality; v++){
+					words[values[v] >>> 6] |= 1L << values[v];
+				}
+			}
+			int cardinality = 0;
+			for(long word : words){
+				cardinality += Long.bitCount(word);
+			}
+			appendWords(key, words, cardinality);
+			return;
+		}
+		char[] left = (char[]) a;
+		char[] right = (char[]) b;
+		char[] merged = new char[aCardinality + bCardinality];
+		int cardinality = 0;
+		int i = 0;
+		int j = 0;
+		while(i < aCardinality || j < bCardinality){
+			if(j == bCardinality || (i < aCardinality && left[i] < right[j])){
+				merged[cardinality++] = left[i++];
+			}else if(i == aCardinality || left[i] > right[j]){
+				merged[cardinality++] = right[j++];
+			}else{
+				merged[cardinality++] = left[i++];
+				j++;
+			}
+		}
+		append(key, merged, cardinality);
+	}
+
+	private void appendAndNot(char key, Object a, int aCardinality, Object b, int bCardinality){
+		if(a instanceof long[]){
+			long[] words = ((long[]) a).clone();
+			if(b instanceof long[]){
+				for(int w = 0; w < WORDS; w++){
+					words[w] &= ~((long[]) b)[w];
+				}
+			}else{
+				char[] values = (char[]) b;
+				for(int v = 0; v < bCardinality; v++){
+					words[values[v] >>> 6] &= ~(1L << values[v]);
+				}
+			}
+			int cardinality = 0;
+			for(long word : words){
+				cardinality += Long.bitCount(word);
+			}
+			appendWords(key, words, cardinality);
+			return;
+		}
+		char[] values = (char[]) a;
+		char[] kept = new char[aCardinality];
+		int cardinality = 0;
+		if(b instanceof long[]){
+			long[] words = (long[]) b;
+			for(int v = 0; v < aCardinality; v++){
+				if((words[values[v] >>> 6] & (1L << values[v])) == 0){
+					kept[cardinality++] = values[v];
+				}
+			}
+		}else{
+			char[] removed = (char[]) b;
+			int j = 0;
+			for(int v = 0; v < aCardinality; v++){
+				while(j < bCardinality && removed[j] < values[v]){
+					j++;
+				}
+				if(j == bCardinality || removed[j] != values[v]){
+					kept[cardinality++] = values[v];
+				}
+			}
+		}
+		append(key, kept, cardinality);
+	}
+
+	/**
+	 * Appends a bitmap container, as an array container if it has few enough ids.
+	 */
+	private void appendWords(char key, long[] words, int cardinality){
+		if(cardinality > ARRAY_LIMIT){
+			append(key, words, cardinality);
+			return;
+		}
+		char[] values = new char[cardinality];
+		int count = 0;
+		for(int w = 0; w < WORDS; w++){
+			for(long word = words[w]; word != 0; word &= word - 1){
+				values[count++] = (char) ((w << 6) | Long.numberOfTrailingZeros(word));
+			}
+		}
+		append(key, values, cardinality);
+	}
+
+	/**
+	 * Appends a copy of a container of another bitmap, which is never changed by an operation but
+	 * may be by a later add to that bitmap.
+	 */
+	private void appendCopy(char key, Object container, int cardinality){
+		if(container instanceof long[]){
+			append(key, ((long[]) container).clone(), cardinality);
+		}else{
+			append(key, Arrays.copyOf((char[]) container, cardinality), cardinality);
+		}
+	}
+
+	private void append(char key, Object container, int cardinality){
+		if(cardinality > 0){
+			insertContainer(size, key, container, cardinality);
+		}
+	}
+
+	private void insertContainer(int index, char key, Object container, int cardinality){
+		if(size == keys.length){
+			int capacity = keys.length * 2;
+			keys = Arrays.copyOf(keys, capacity);
+			containers = Arrays.copyOf(containers, capacity);
+			cardinalities = Arrays.copyOf(cardinalities, capacity);
+		}
+		System.arraycopy(keys, index, keys, index + 1, size - index);
+		System.arraycopy(containers, index, containers, index + 1, size - index);
+		System.arraycopy(cardinalities, index, cardinalities, index + 1, size - index);
+		keys[index] = key;
+		containers[index] = container;
+		cardinalities[index] = cardinality;
+		size++;
+	}
+
+	/**
+	 * @return the index of the container with a key, or -(insertion point + 1).
+	 */
+	private int findContainer(char key){
+		return Arrays.binarySearch(keys, 0, size, key);
+	}
+
+	private static long[] toWords(char[] values, int cardinality){
+		long[] words = new long[WORDS];
+		for(int v = 0; v < cardinality; v++){
+			words[values[v] >>> 6] |= 1L << values[v];
+		}
+		return words;
+	}
+}
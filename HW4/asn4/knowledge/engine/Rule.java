@@ -0,0 +1,71 @@
+package cscie97.asn4.knowledge.engine;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+
+/**
+ * A Rule derives triples from other triples: whenever every antecedent pattern matches, with each
+ * variable bound to the same term throughout, the consequent patterns with those terms filled in
+ * are inferred. For example the antecedents "?r contains_sensor ?s", "?s is_a motion_sensor" and
+ * "?s has_value true" with the consequent "?r is occupied" mark a room occupied while any motion
+ * sensor in it is on. Rules are added to a KnowledgeGraph with addRule.
+ */
+public final class Rule {
+
+	private final String name;
+	private final List<TripleLiteral> antecedents;
+	private final List<TripleLiteral> consequents;
+
+	/**
+	 * @param name the name of the rule.
+	 * @param antecedents the patterns that must all match. "?" matches any term.
+	 * @param consequents the triples to infer for each match. Every variable must appear in an antecedent.
+	 * @throws IllegalArgumentException if either list is empty, a predicate is a property path, or a
+	 * consequent has a variable that no antecedent binds.
+	 */
+	public Rule(String name, List<TripleLiteral> antecedents, List<TripleLiteral> consequents){
+		if(antecedents.isEmpty() || consequents.isEmpty()){
+			throw new IllegalArgumentException("The rule " + name + " needs at least one antecedent and one consequent.");
+		}
+		Set<String> bound = new HashSet<String>();
+		for(TripleLiteral antecedent : antecedents){
+			if(PropertyPath.isPath(antecedent.getPredicate())){
+				throw new IllegalArgumentException("The property path " + antecedent.getPredicate() + " cannot be used in a rule.");
+			}
+			for(String token : new String[] { antecedent.getSubject(), antecedent.getPredicate(), antecedent.getObject() }){
+				if(token.startsWith("?")){
+					bound.add(token.toLowerCase(Locale.ROOT));
+				}
+			}
+		}
+		for(TripleLiteral consequent : consequents){
+			if(PropertyPath.isPath(consequent.getPredicate())){
+				throw new IllegalArgumentException("The property path " + consequent.getPredicate() + " cannot be used in a rule.");
+			}
+			for(String token : new String[] { consequent.getSubject(), consequent.getPredicate(), consequent.getObject() }){
+				if(token.startsWith("?") && (token.length() == 1 || !bound.contains(token.toLowerCase(Locale.ROOT)))){
+					throw new IllegalArgumentException("The variable " + token + " of the rule " + name + " is not bound by an antecedent.");
+				}
+			}
+		}
+		this.name = name;
+		this.antecedents = Collections.unmodifiableList(new ArrayList<TripleLiteral>(antecedents));
+		this.consequents = Collections.unmodifiableList(new ArrayList<TripleLiteral>(consequents));
+	}
+
+	public String getName(){
+		return name;
+	}
+
+	public List<TripleLiteral> getAntecedents(){
+		return antecedents;
+	}
+
+	public List<TripleLiteral> getConsequents(){
+		return consequents;
+	}
+}
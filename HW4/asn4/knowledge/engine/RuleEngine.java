@@ -0,0 +1,469 @@
+package cscie97.asn4.knowledge.engine;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * The RuleEngine keeps the triples inferred by the Rules of a KnowledgeGraph up to date as the
+ * graph changes, with a Rete style network.
+ *
+ * The alpha network indexes every antecedent of every rule by its constant terms, the same way the
+ * SubscriptionIndex indexes patterns, so a changed triple finds the antecedents it matches with at
+ * most 8 lookups. Rete's beta memories of partial matches are not kept: the permutation indexes of
+ * the committed versions already answer every lookup a join needs. A changed triple is joined with
+ * the other antecedents of each rule it activates, so the work of a change depends on the rules
+ * and matches it affects, not on the size of the graph.
+ *
+ * Each inferred triple counts its supporting matches. A commit's changes are joined as deltas: for
+ * the i-th antecedent, the antecedents before it are read in the version between the commit's
+ * removals and its additions, and those after it in the version before the removals, or after the
+ * additions, so a match made or broken by several triples of one commit is counted once. A triple
+ * is inferred when its count rises from 0, and retracted when it falls back to 0. The KnowledgeGraph
+ * commits the inferences as a change of their own, which may in turn activate rules.
+ *
+ * Asserted triples are kept apart from inferred ones. Only a triple that a rule added, because it
+ * was not in the graph, is ever retracted. A triple that was already in the graph when a rule
+ * inferred it, or that a user adds while it is inferred, is asserted, and an assertion supports it
+ * for good: it stays until a user deletes it. Triples recovered from a store are all asserted.
+ *
+ * Support is counted per match, so triples inferred by rules that feed each other in a cycle may
+ * keep supporting one another after their original support is gone.
+ *
+ * Stores log the inferred triples like any others, but not the rules, which must be added again
+ * after a store is reopened.
+ */
+final class RuleEngine {
+
+	private final KnowledgeGraph knowledgeGraph;
+	/** Guards the network and the counts. Always taken last, after the KnowledgeGraph's locks. */
+	private final Object lock = new Object();
+	private final Map<Rule, CompiledRule> rules = new LinkedHashMap<Rule, CompiledRule>();
+	/** The antecedents with each set of constant terms, with 0 for each variable. */
+	private final Map<TripleKey, List<Activation>> alpha = new HashMap<TripleKey, List<Activation>>();
+	/** The number of antecedents of each shape, with bit 1 set for a constant subject, 2 for a predicate and 4 for an object. */
+	private final int[] shapeCounts = new int[8];
+	private final Map<TripleKey, Integer> support = new HashMap<TripleKey, Integer>();
+	/** The triples in the graph only because a rule added them, which are retracted when their support is gone. */
+	private final Set<TripleKey> inferred = new HashSet<TripleKey>();
+	/** The inferred triples to add, as true, or retract, as false, in the next change. */
+	private final Map<TripleKey, Boolean> pending = new LinkedHashMap<TripleKey, Boolean>();
+	private volatile boolean empty = true;
+
+	RuleEngine(KnowledgeGraph knowledgeGraph){
+		this.knowledgeGraph = knowledgeGraph;
+	}
+
+	/**
+	 * @return true if no rules have been added.
+	 */
+	boolean isEmpty(){
+		return empty;
+	}
+
+	/**
+	 * Adds a rule and infers the consequents of its matches in a version. Must be called under the
+	 * KnowledgeGraph's commit and publish locks, so that update sees every later commit.
+	 * @param rule the rule.
+	 * @param version the current version.
+	 * @throws IllegalArgumentException if a variable is used both as a predicate and as a node, or the
+	 * rule was already added.
+	 */
+	void add(Rule rule, GraphVersion version){
+		synchronized(lock){
+			if(rules.containsKey(rule)){
+				throw new IllegalArgumentException("The rule " + rule.getName() + " was already added.");
+			}
+			CompiledRule compiled = new CompiledRule(rule);
+			Map<TripleKey, Integer> deltas = new HashMap<TripleKey, Integer>();
+			matchAll(compiled, version, 1, deltas);
+			rules.put(rule, compiled);
+			for(int i = 0; i < compiled.antecedents.length; i++){
+				TripleKey key = compiled.alphaKey(i);
+				List<Activation> activations = alpha.get(key);
+				if(activations == null){
+					activations = new ArrayList<Activation>(2);
+					alpha.put(key, activations);
+				}
+				activations.add(new Activation(compiled, i));
+				shapeCounts[key.shape()]++;
+			}
+			empty = false;
+			support(deltas);
+		}
+	}
+
+	/**
+	 * Removes a rule, retracting what only it inferred. Must be called under the KnowledgeGraph's commit and publish locks.
+	 * @param rule the rule.
+	 * @param version the current version.
+	 */
+	void remove(Rule rule, GraphVersion version){
+		synchronized(lock){
+			CompiledRule compiled = rules.remove(rule);
+			if(compiled == null){
+				return;
+			}
+			for(int i = 0; i < compiled.antecedents.length; i++){
+				TripleKey key = compiled.alphaKey(i);
+				List<Activation> activations = alpha.get(key);
+				for(int a = activations.size() - 1; a >= 0; a--){
+					if(activations.get(a).rule == compiled && activations.get(a).position == i){
+						activations.remove(a);
+					}
+				}
+				if(activations.isEmpty()){
+					alpha.remove(key);
+				}
+				shapeCounts[key.shape()]--;
+			}
+			empty = rules.isEmpty();
+			Map<TripleKey, Integer> deltas = new HashMap<TripleKey, Integer>();
+			matchAll(compiled, version, -1, deltas);
+			support(deltas);
+		}
+	}
+
+	/**
+	 * Counts the matches made and broken by a committed change. Must be called for every commit, in
+	 * commit order.
+	 * @param removed the ids of the triples the change removed.
+	 * @param removedCount the number of removed triples.
+	 * @param added the ids of the triples the change added.
+	 * @param addedCount the number of added triples.
+	 * @param base the version the change was applied to.
+	 * @param middle the version after the removals and before the additions.
+	 * @param next the version the change was committed as.
+	 */
+	void update(int[] removed, int removedCount, int[] added, int addedCount, GraphVersion base, GraphVersion middle, GraphVersion next){
+		synchronized(lock){
+			for(int i = 0; i < removedCount && !inferred.isEmpty(); i++){
+				inferred.remove(new TripleKey(removed[i * 3], removed[i * 3 + 1], removed[i * 3 + 2]));
+			}
+			if(rules.isEmpty()){
+				return;
+			}
+			Map<TripleKey, Integer> deltas = new HashMap<TripleKey, Integer>();
+			/** Removals: antecedents before the changed one read the middle version, those after it the base. */
+			delta(removed, removedCount, base, middle, middle, base, -1, deltas);
+			/** Additions: antecedents before the changed one read the middle version, those after it the next. */
+			delta(added, addedCount, middle, next, middle, next, 1, deltas);
+			support(deltas);
+		}
+	}
+
+	/**
+	 * Marks the triples a user added as asserted, so that no rule retracts them. Must be called
+	 * after the change is committed, under the KnowledgeGraph's commit lock.
+	 * @param added the ids of the triples the user added.
+	 * @param addedCount the number of added triples.
+	 */
+	void assertAll(int[] added, int addedCount){
+		synchronized(lock){
+			for(int i = 0; i < addedCount && !inferred.isEmpty(); i++){
+				inferred.remove(new TripleKey(added[i * 3], added[i * 3 + 1], added[i * 3 + 2]));
+			}
+		}
+	}
+
+	/**
+	 * Takes the inferences made since the last call. A triple to add that the graph already holds is
+	 * asserted, and is left out; the others are recorded as inferred.
+	 * @param version the current version.
+	 * @return the ids of the triples to retract and of the triples to add, or null if there are none.
+	 */
+	int[][] drain(GraphVersion version){
+		synchronized(lock){
+			if(pending.isEmpty()){
+				return null;
+			}
+			List<TripleKey> additions = new ArrayList<TripleKey>();
+			List<TripleKey> retractions = new ArrayList<TripleKey>();
+			for(Map.Entry<TripleKey, Boolean> entry : pending.entrySet()){
+				TripleKey key = entry.getKey();
+				if(!entry.getValue()){
+					inferred.remove(key);
+					retractions.add(key);
+				}else if(!contains(version, key)){
+					inferred.add(key);
+					additions.add(key);
+				}
+			}
+			pending.clear();
+			if(additions.isEmpty() && retractions.isEmpty()){
+				return null;
+			}
+			int[] removed = new int[retractions.size() * 3];
+			int[] added = new int[additions.size() * 3];
+			int r = 0;
+			int a = 0;
+			for(TripleKey key : retractions){
+				removed[r++] = key.subject;
+				removed[r++] = key.predicate;
+				removed[r++] = key.object;
+			}
+			for(TripleKey key : additions){
+				added[a++] = key.subject;
+				added[a++] = key.predicate;
+				added[a++] = key.object;
+			}
+			return new int[][] { removed, added };
+		}
+	}
+
+	/**
+	 * Joins each triple a change really added or removed with the rules whose antecedents it matches.
+	 * @param older the version before the change.
+	 * @param newer the version after it.
+	 * @param lower the version read for the antecedents before the matched one.
+	 * @param upper the version read for the antecedents after it.
+	 */
+	private void delta(int[] ids, int count, GraphVersion older, GraphVersion newer, GraphVersion lower, GraphVersion upper, int sign,
+			Map<TripleKey, Integer> deltas){
+		Set<TripleKey> seen = new HashSet<TripleKey>();
+		for(int i = 0; i < count; i++){
+			TripleKey triple = new TripleKey(ids[i * 3], ids[i * 3 + 1], ids[i * 3 + 2]);
+			/** A batch may add a stored triple or remove a missing one, which changes nothing. */
+			if(contains(older, triple) == contains(newer, triple) || !seen.add(triple)){
+				continue;
+			}
+			for(int shape = 0; shape < shapeCounts.length; shape++){
+				if(shapeCounts[shape] == 0){
+					continue;
+				}
+				List<Activation> activations = alpha.get(new TripleKey((shape & 1) != 0 ? triple.subject : 0, (shape & 2) != 0 ? triple.predicate : 0,
+						(shape & 4) != 0 ? triple.object : 0));
+				if(activations == null){
+					continue;
+				}
+				for(Activation activation : activations){
+					CompiledRule rule = activation.rule;
+					int[] binding = new int[rule.width];
+					if(rule.bind(activation.position, triple, binding)){
+						boolean[] joined = new boolean[rule.antecedents.length];
+						joined[activation.position] = true;
+						join(rule, activation.position, binding, joined, lower, upper, sign, deltas);
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * Extends a partial match with the remaining antecedents, most bound first, and counts the
+	 * consequents of each complete match.
+	 */
+	private void join(CompiledRule rule, int changed, int[] binding, boolean[] joined, GraphVersion lower, GraphVersion upper, int sign,
+			Map<TripleKey, Integer> deltas){
+		int next = -1;
+		int nextBound = -1;
+		for(int j = 0; j < rule.antecedents.length; j++){
+			if(!joined[j]){
+				int bound = 0;
+				for(int term : rule.antecedents[j]){
+					if(term > 0 || binding[-term - 1] != 0){
+						bound++;
+					}
+				}
+				if(bound > nextBound){
+					next = j;
+					nextBound = bound;
+				}
+			}
+		}
+		if(next < 0){
+			for(int[] consequent : rule.consequents){
+				TripleKey key = new TripleKey(rule.value(consequent[0], binding), rule.value(consequent[1], binding), rule.value(consequent[2], binding));
+				Integer delta = deltas.get(key);
+				deltas.put(key, delta == null ? sign : delta + sign);
+			}
+			return;
+		}
+		int[] pattern = rule.antecedents[next];
+		TripleCursor cursor = knowledgeGraph.openCursor(next < changed ? lower : upper, rule.value(pattern[0], binding),
+				rule.value(pattern[1], binding), rule.value(pattern[2], binding));
+		joined[next] = true;
+		while(cursor.next()){
+			int[] extended = binding.clone();
+			if(rule.bind(next, new TripleKey(cursor.getSubjectId(), cursor.getPredicateId(), cursor.getObjectId()), extended)){
+				join(rule, changed, extended, joined, lower, upper, sign, deltas);
+			}
+		}
+		joined[next] = false;
+	}
+
+	/**
+	 * Counts the consequents of every match of a rule in a version.
+	 */
+	private void matchAll(CompiledRule rule, GraphVersion version, int sign, Map<TripleKey, Integer> deltas){
+		int[] binding = new int[rule.width];
+		join(rule, rule.antecedents.length, binding, new boolean[rule.antecedents.length], version, version, sign, deltas);
+	}
+
+	/**
+	 * Applies counted matches to the support of the inferred triples, and queues the inferences
+	 * whose support rose from 0, and the retractions of the inferred triples whose support fell to 0.
+	 */
+	private void support(Map<TripleKey, Integer> deltas){
+		for(Map.Entry<TripleKey, Integer> entry : deltas.entrySet()){
+			int delta = entry.getValue();
+			if(delta == 0){
+				continue;
+			}
+			Integer before = support.get(entry.getKey());
+			int old = before == null ? 0 : before;
+			int now = old + delta;
+			if(now > 0){
+				support.put(entry.getKey(), now);
+			}else{
+				support.remove(entry.getKey());
+			}
+			if((old == 0) != (now <= 0)){
+				/** An inference and a retraction of the same triple that are both still pending cancel out. */
+				if(pending.remove(entry.getKey()) == null && (now > 0 || inferred.contains(entry.getKey()))){
+					pending.put(entry.getKey(), now > 0);
+				}
+			}
+		}
+	}
+
+	private boolean contains(GraphVersion version, TripleKey triple){
+		return knowledgeGraph.count(version, triple.subject, triple.predicate, triple.object) > 0;
+	}
+
+	/**
+	 * A rule with its terms encoded: an id above 0 for a constant, -(column + 1) for a variable.
+	 */
+	private final class CompiledRule {
+
+		private final int[][] antecedents;
+		private final int[][] consequents;
+		private final int width;
+
+		CompiledRule(Rule rule){
+			List<String> names = new ArrayList<String>();
+			List<Boolean> kinds = new ArrayList<Boolean>();
+			antecedents = encode(rule.getAntecedents(), names, kinds);
+			consequents = encode(rule.getConsequents(), names, kinds);
+			width = names.size();
+		}
+
+		private int[][] encode(List<TripleLiteral> patterns, List<String> names, List<Boolean> kinds){
+			int[][] encoded = new int[patterns.size()][3];
+			for(int i = 0; i < encoded.length; i++){
+				TripleLiteral pattern = patterns.get(i);
+				String[] tokens = { pattern.getSubject(), pattern.getPredicate(), pattern.getObject() };
+				for(int position = 0; position < 3; position++){
+					String token = tokens[position];
+					boolean predicate = position == 1;
+					if(token.startsWith("?")){
+						/** Each "?" is a variable of its own. */
+						String name = token.length() == 1 ? null : token.toLowerCase(Locale.ROOT);
+						int column = name == null ? -1 : names.indexOf(name);
+						if(column < 0){
+							column = names.size();
+							names.add(name);
+							kinds.add(predicate);
+						}else if(kinds.get(column) != predicate){
+							throw new IllegalArgumentException("The variable " + token + " cannot be both a predicate and a node.");
+						}
+						encoded[i][position] = -(column + 1);
+					}else{
+						encoded[i][position] = predicate ? knowledgeGraph.internPredicate(token) : knowledgeGraph.internNode(token);
+					}
+				}
+			}
+			return encoded;
+		}
+
+		/**
+		 * @return the key of an antecedent in the alpha network: its constants, with 0 for each variable.
+		 */
+		TripleKey alphaKey(int position){
+			int[] pattern = antecedents[position];
+			return new TripleKey(Math.max(pattern[0], 0), Math.max(pattern[1], 0), Math.max(pattern[2], 0));
+		}
+
+		/**
+		 * @return the id of a term under a binding, or WILDCARD for an unbound variable.
+		 */
+		int value(int term, int[] binding){
+			return term > 0 ? term : binding[-term - 1];
+		}
+
+		/**
+		 * Binds the variables of an antecedent to a triple.
+		 * @return false if the triple does not match the antecedent under the binding.
+		 */
+		boolean bind(int position, TripleKey triple, int[] binding){
+			int[] pattern = antecedents[position];
+			int[] ids = { triple.subject, triple.predicate, triple.object };
+			for(int i = 0; i < 3; i++){
+				int term = pattern[i];
+				if(term > 0){
+					if(term != ids[i]){
+						return false;
+					}
+				}else if(binding[-term - 1] == 0){
+					binding[-term - 1] = ids[i];
+				}else if(binding[-term - 1] != ids[i]){
+					return false;
+				}
+			}
+			return true;
+		}
+	}
+
+	/**
+	 * An antecedent of a rule in the alpha network.
+	 */
+	private static final class Activation {
+
+		private final CompiledRule rule;
+		private final int position;
+
+		Activation(CompiledRule rule, int position){
+			this.rule = rule;
+			this.position = position;
+		}
+	}
+
+	/**
+	 * The ids of a triple, or of the constants of a pattern with 0 for each variable.
+	 */
+	private static final class TripleKey {
+
+		private final int subject;
+		private final int predicate;
+		private final int object;
+
+		TripleKey(int subject, int predicate, int object){
+			this.subject = subject;
+			this.predicate = predicate;
+			this.object = object;
+		}
+
+		int shape(){
+			return (subject != 0 ? 1 : 0) | (predicate != 0 ? 2 : 0) | (object != 0 ? 4 : 0);
+		}
+
+		@Override
+		public boolean equals(Object other){
+			if(!(other instanceof TripleKey)){
+				return false;
+			}
+			TripleKey key = (TripleKey) other;
+			return subject == key.subject && predicate == key.predicate && object == key.object;
+		}
+
+		@Override
+		public int hashCode(){
+			return (subject * 31 + predicate) * 31 + object;
+		}
+	}
+}
@@ -0,0 +1,600 @@
+package cscie97.asn4.knowledge.engine;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * A ShardedKnowledgeGraph partitions the triples of many houses over several KnowledgeGraphs,
+ * its shards. Every HouseMate identifier starts with its house, as in "house1:kitchen1:oven1",
+ * and a triple is stored in the shard its subject's house hashes to. Each shard has its own
+ * dictionaries, indexes, caches and commit lock, so changes to houses in different shards never
+ * wait on each other.
+ *
+ * A query whose subject is given is answered by the one shard that holds the subject's triples.
+ * A query with a variable subject is run on every shard in parallel and the matches are merged.
+ * Property paths are followed within the shard of their subject, that is within its house.
+ *
+ * A conjunctive query whose subjects are all given and in one shard is run by that shard. Other
+ * conjunctive queries are joined across the shards with a BindJoin, which sends each lookup to one
+ * shard once its subject is bound. Since the shards' ids differ, their solutions are returned as
+ * identifiers, and nothing outlives the query.
+ *
+ * A batch of triples is committed as one change per shard, so readers of one house see either
+ * none or all of its part of the batch.
+ */
+public final class ShardedKnowledgeGraph {
+
+	private final KnowledgeGraph[] shards;
+	private final ExecutorService pool;
+
+	/**
+	 * @param shardCount the number of shards. More shards than cores lets more writers commit at
+	 * once, but makes each query with a variable subject visit more shards.
+	 * @throws IllegalArgumentException if the count is below 1.
+	 */
+	public ShardedKnowledgeGraph(int shardCount){
+		if(shardCount < 1){
+			throw new IllegalArgumentException("There must be at least one shard.");
+		}
+		shards = new KnowledgeGraph[shardCount];
+		for(int i = 0; i < shardCount; i++){
+			shards[i] = new KnowledgeGraph();
+		}
+		pool = Executors.newFixedThreadPool(Math.min(shardCount, Runtime.getRuntime().availableProcessors()), new ThreadFactory(){
+			@Override
+			public Thread newThread(Runnable runnable){
+				Thread thread = new Thread(runnable, "KnowledgeGraph shard");
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+	}
+
+	/**
+	 * @return the number of shards.
+	 */
+	public int getShardCount(){
+		return shards.length;
+	}
+
+	/**
+	 * @param identifier the identifier of a Node, such as "house1:kitchen1:oven1".
+	 * @return the house the identifier belongs to, lower cased: the part before the first ':', or
+	 * the whole identifier if it has none.
+	 */
+	static String houseOf(String identifier){
+		int colon = identifier.indexOf(':');
+		return (colon < 0 ? identifier : identifier.substring(0, colon)).toLowerCase(Locale.ROOT);
+	}
+
+	/**
+	 * @param identifier the identifier of a subject.
+	 * @param partitions the number of partitions.
+	 * @return the partition, from 0 to partitions - 1, that holds the triples of the subject's house.
+	 */
+	static int partitionOf(String identifier, int partitions){
+		/** Hash the lower cased house as houseOf would, without making it, unless it is not ASCII. */
+		int colon = identifier.indexOf(':');
+		int end = colon < 0 ? identifier.length() : colon;
+		int hash = 0;
+		for(int i = 0; i < end; i++){
+			char c = identifier.charAt(i);
+			if(c >= 0x80){
+				hash = houseOf(identifier).hashCode();
+				break;
+			}
+			hash = 31 * hash + Character.toLowerCase(c);
+		}
+		return (hash & Integer.MAX_VALUE) % partitions;
+	}
+
+	/**
+	 * @param identifier the identifier of a subject.
+	 * @return the shard that holds the triples of the subject's house.
+	 */
+	KnowledgeGraph shardOf(String identifier){
+		return shards[partitionOf(identifier, shards.length)];
+	}
+
+	/**
+	 * Imports a list of triples, committing the triples of each shard as one change. The shards
+	 * are written in parallel.
+	 * @param tripleList the list of tripleLiterals to be imported.
+	 */
+	public void importTriples(List<TripleLiteral> tripleList){
+		Map<KnowledgeGraph, List<TripleLiteral>> batches = split(tripleList);
+		List<Callable<Object>> calls = new ArrayList<Callable<Object>>(batches.size());
+		for(final Map.Entry<KnowledgeGraph, List<TripleLiteral>> batch : batches.entrySet()){
+			calls.add(new Callable<Object>(){
+				@Override
+				public Object call(){
+					batch.getKey().importTriples(batch.getValue());
+					return null;
+				}
+			});
+		}
+		runAll(calls);
+	}
+
+	/**
+	 * @param subject A Node that is the subject.
+	 * @param predicate A string representing the predicate.
+	 * @param object A Node to be used for the object.
+	 * @return the imported triple, or the existing one if one exists.
+	 */
+	public Triple importTriple(Node subject, String predicate, Node object){
+		return shardOf(subject.getIdentifier()).importTriple(subject, predicate, object);
+	}
+
+	/**
+	 * @param subject the Node of the subject for the triple to be deleted.
+	 * @param predicateString the string of the predicate for the triple to be deleted.
+	 * @param object the Node of the object for the triple to be deleted.
+	 */
+	public void deleteTriple(Node subject, String predicateString, Node object){
+		shardOf(subject.getIdentifier()).deleteTriple(subject, predicateString, object);
+	}
+
+	/**
+	 * Deletes a list of triples, committing the deletes of each shard as one change.
+	 * @param tripleList the list of tripleLiterals to be deleted.
+	 */
+	public void deleteTriples(List<TripleLiteral> tripleList){
+		Map<KnowledgeGraph, List<TripleLiteral>> batches = split(tripleList);
+		List<Callable<Object>> calls = new ArrayList<Callable<Object>>(batches.size());
+		for(final Map.Entry<KnowledgeGraph, List<TripleLiteral>> batch : batches.entrySet()){
+			calls.add(new Callable<Object>(){
+				@Override
+				public Object call(){
+					batch.getKey().deleteTriples(batch.getValue());
+					return null;
+				}
+			});
+		}
+		runAll(calls);
+	}
+
+	/**
+	 * Deletes every triple a Node is the subject or object of. The Node may be the object of
+	 * triples in any shard, so every shard is visited, and each commits its deletes as one change.
+	 * @param node the Node.
+	 * @return the number of triples deleted.
+	 */
+	public int deleteNode(final Node node){
+		int deleted = 0;
+		for(Integer count : fanOut(new ShardCall<Integer>(){
+			@Override
+			Integer call(KnowledgeGraph shard){
+				return shard.deleteNode(node);
+			}
+		})){
+			deleted += count;
+		}
+		return deleted;
+	}
+
+	/**
+	 * Replaces the object of a triple in one change.
+	 * @param subject the Node of the subject.
+	 * @param predicateString the string of the predicate.
+	 * @param oldObject the Node of the object to remove.
+	 * @param newObject the Node of the object to add.
+	 * @return the added triple.
+	 */
+	public Triple replaceTriple(Node subject, String predicateString, Node oldObject, Node newObject){
+		return shardOf(subject.getIdentifier()).replaceTriple(subject, predicateString, oldObject, newObject);
+	}
+
+	/**
+	 * Executes a query, on the subject's shard if the subject is given and on every shard otherwise.
+	 * @param query the Triple to search the KnowledgeGraph.
+	 * @return a read only set of triples that match the query, which may be shared with other callers.
+	 * @throws IllegalArgumentException if the predicate is a property path that is not well formed.
+	 */
+	public Set<Triple> executeQuery(final TripleLiteral query){
+		if(!query.getSubject().equals("?")){
+			return shardOf(query.getSubject()).executeQuery(query);
+		}
+		List<Set<Triple>> results = fanOut(new ShardCall<Set<Triple>>(){
+			@Override
+			Set<Triple> call(KnowledgeGraph shard){
+				return shard.executeQuery(query);
+			}
+		});
+		int size = 0;
+		for(Set<Triple> result : results){
+			size += result.size();
+		}
+		/** Each triple is stored in one shard only, so the results need no merging beyond a union. */
+		Set<Triple> merged = new LinkedHashSet<Triple>(size * 4 / 3 + 1);
+		for(Set<Triple> result : results){
+			merged.addAll(result);
+		}
+		return Collections.unmodifiableSet(merged);
+	}
+
+	/**
+	 * Executes a query and returns one page of its matches in an order, on the subject's shard if
+	 * the subject is given. Otherwise every shard returns its first offset plus limit matches, and
+	 * the page is cut from their merge.
+	 * @param query the Triple to search the KnowledgeGraph.
+	 * @param orderBy KnowledgeGraph.UNORDERED, ORDER_BY_SUBJECT, ORDER_BY_PREDICATE or ORDER_BY_OBJECT.
+	 * @param offset the number of the first matches to skip.
+	 * @param limit the most matches to return.
+	 * @return the matches after the offset, in order.
+	 * @throws IllegalArgumentException if the order is unknown, the offset or limit is negative, or
+	 * the predicate is a property path that is not well formed.
+	 */
+	public List<Triple> executeQuery(final TripleLiteral query, final int orderBy, int offset, int limit){
+		if(!query.getSubject().equals("?")){
+			return shardOf(query.getSubject()).executeQuery(query, orderBy, offset, limit);
+		}
+		if(orderBy < KnowledgeGraph.UNORDERED || orderBy > KnowledgeGraph.ORDER_BY_OBJECT || offset < 0 || limit < 0){
+			throw new IllegalArgumentException("Invalid order " + orderBy + ", offset " + offset + " or limit " + limit + ".");
+		}
+		final int first = (int) Math.min((long) offset + limit, Integer.MAX_VALUE);
+		List<Triple> merged = new ArrayList<Triple>();
+		for(List<Triple> result : fanOut(new ShardCall<List<Triple>>(){
+			@Override
+			List<Triple> call(KnowledgeGraph shard){
+				return shard.executeQuery(query, orderBy, 0, first);
+			}
+		})){
+			merged.addAll(result);
+		}
+		if(orderBy != KnowledgeGraph.UNORDERED){
+			/** Each shard's matches are already sorted, and the sort merges such runs in linear time. */
+			Collections.sort(merged, TopTriples.comparator(orderBy));
+		}
+		return KnowledgeGraph.page(merged, offset, limit);
+	}
+
+	/**
+	 * Gets all the objects from the results of a query. A Node that is the object of triples in
+	 * several shards is reported once.
+	 * @param query the query
+	 * @return a read only set of the objects matching the query.
+	 * @throws IllegalArgumentException if the predicate is a property path that is not well formed.
+	 */
+	public Set<Node> getObjectsFromQuery(final TripleLiteral query){
+		if(!query.getSubject().equals("?")){
+			return shardOf(query.getSubject()).getObjectsFromQuery(query);
+		}
+		List<Set<Node>> results = fanOut(new ShardCall<Set<Node>>(){
+			@Override
+			Set<Node> call(KnowledgeGraph shard){
+				return shard.getObjectsFromQuery(query);
+			}
+		});
+		Set<Identifier> seen = new HashSet<Identifier>();
+		Set<Node> merged = new LinkedHashSet<Node>();
+		for(Set<Node> result : results){
+			for(Node node : result){
+				if(seen.add(node.getKey())){
+					merged.add(node);
+				}
+			}
+		}
+		return Collections.unmodifiableSet(merged);
+	}
+
+	/**
+	 * Finds every Node whose identifier starts with a prefix, ignoring case. A Node known to
+	 * several shards is reported once.
+	 * @param prefix the start of the identifiers.
+	 * @return the Nodes, sorted by identifier.
+	 */
+	public List<Node> getNodesWithPrefix(final String prefix){
+		Set<Identifier> seen = new HashSet<Identifier>();
+		List<Node> merged = new ArrayList<Node>();
+		for(List<Node> result : fanOut(new ShardCall<List<Node>>(){
+			@Override
+			List<Node> call(KnowledgeGraph shard){
+				return shard.getNodesWithPrefix(prefix);
+			}
+		})){
+			for(Node node : result){
+				if(seen.add(node.getKey())){
+					merged.add(node);
+				}
+			}
+		}
+		Collections.sort(merged, KnowledgeGraph.IDENTIFIER_ORDER);
+		return merged;
+	}
+
+	/**
+	 * @param query the pattern, with "?" for any term.
+	 * @return the number of matching triples, summed over the shards if the subject is not given.
+	 */
+	public int countMatches(final TripleLiteral query){
+		if(!query.getSubject().equals("?")){
+			return shardOf(query.getSubject()).countMatches(query);
+		}
+		int count = 0;
+		for(Integer shardCount : fanOut(new ShardCall<Integer>(){
+			@Override
+			Integer call(KnowledgeGraph shard){
+				return shard.countMatches(query);
+			}
+		})){
+			count += shardCount;
+		}
+		return count;
+	}
+
+	/**
+	 * @param query the pattern, with "?" for any term.
+	 * @return true if any triple matches the query.
+	 */
+	public boolean ask(TripleLiteral query){
+		return countMatches(query) > 0;
+	}
+
+	/**
+	 * Starts keeping the history of a predicate in every shard.
+	 * @param predicate the identifier of the predicate, such as "has_value".
+	 */
+	public void trackHistory(final String predicate){
+		fanOut(new ShardCall<Object>(){
+			@Override
+			Object call(KnowledgeGraph shard){
+				shard.trackHistory(predicate);
+				return null;
+			}
+		});
+	}
+
+	/**
+	 * Executes a query against the graph as it was at a time, on the subject's shard if the subject
+	 * is given and on every shard otherwise.
+	 * @param query the pattern, with "?" for any term.
+	 * @param time the time, in milliseconds since the epoch.
+	 * @return the triples that held at the time.
+	 * @throws IllegalArgumentException if the predicate is a property path or its history is not kept.
+	 */
+	public Set<Triple> executeQueryAsOf(final TripleLiteral query, final long time){
+		if(!query.getSubject().equals("?")){
+			return shardOf(query.getSubject()).executeQueryAsOf(query, time);
+		}
+		Set<Triple> merged = new LinkedHashSet<Triple>();
+		for(Set<Triple> result : fanOut(new ShardCall<Set<Triple>>(){
+			@Override
+			Set<Triple> call(KnowledgeGraph shard){
+				return shard.executeQueryAsOf(query, time);
+			}
+		})){
+			merged.addAll(result);
+		}
+		return Collections.unmodifiableSet(merged);
+	}
+
+	/**
+	 * Finds the triples that held at some time in a range, on the subject's shard if the subject is
+	 * given and on every shard otherwise.
+	 * @param query the pattern, with "?" for any term.
+	 * @param from the start of the range, in milliseconds since the epoch.
+	 * @param to the end of the range, which is not part of it.
+	 * @return the triples and their intervals. Those of each shard are in the order they were inserted.
+	 * @throws IllegalArgumentException if the predicate is a property path or its history is not kept.
+	 */
+	public List<TemporalTriple> executeQueryHistory(final TripleLiteral query, final long from, final long to){
+		if(!query.getSubject().equals("?")){
+			return shardOf(query.getSubject()).executeQueryHistory(query, from, to);
+		}
+		List<TemporalTriple> merged = new ArrayList<TemporalTriple>();
+		for(List<TemporalTriple> result : fanOut(new ShardCall<List<TemporalTriple>>(){
+			@Override
+			List<TemporalTriple> call(KnowledgeGraph shard){
+				return shard.executeQueryHistory(query, from, to);
+			}
+		})){
+			merged.addAll(result);
+		}
+		return merged;
+	}
+
+	/**
+	 * Executes a conjunctive query, on one shard if every subject is given and in that shard, and
+	 * joined across the shards otherwise.
+	 * @param patterns the patterns of the query.
+	 * @return a row of bindings for each solution.
+	 * @throws IllegalArgumentException if a variable is used both as a predicate and as a node, or a
+	 * property path is used with named variables or other patterns.
+	 */
+	public BindingTable executeQuery(List<TripleLiteral> patterns){
+		KnowledgeGraph shard = route(patterns);
+		if(shard != null){
+			return shard.executeQuery(patterns);
+		}
+		return join(patterns);
+	}
+
+	/**
+	 * Counts the solutions of a conjunctive query. A single pattern whose solutions cannot repeat
+	 * across shards is counted by each shard from its indexes.
+	 * @param patterns the patterns, which must all match.
+	 * @return the number of solutions.
+	 * @throws IllegalArgumentException if a variable is used both as a predicate and as a node, or a
+	 * property path is used with named variables or other patterns.
+	 */
+	public int countMatches(final List<TripleLiteral> patterns){
+		KnowledgeGraph shard = route(patterns);
+		if(shard != null){
+			return shard.countMatches(patterns);
+		}
+		if(patterns.size() == 1 && BindJoin.isCountable(patterns.get(0))){
+			int count = 0;
+			for(Integer shardCount : fanOut(new ShardCall<Integer>(){
+				@Override
+				Integer call(KnowledgeGraph each){
+					return each.countMatches(patterns);
+				}
+			})){
+				count += shardCount;
+			}
+			return count;
+		}
+		return join(patterns).size();
+	}
+
+	/**
+	 * @param patterns the patterns, which must all match.
+	 * @return true if the query has a solution.
+	 * @throws IllegalArgumentException if a variable is used both as a predicate and as a node, or a
+	 * property path is used with named variables or other patterns.
+	 */
+	public boolean ask(List<TripleLiteral> patterns){
+		return countMatches(patterns) > 0;
+	}
+
+	/**
+	 * @return the one shard that holds every triple a query can match, or null if the query has a
+	 * variable subject or subjects in several shards.
+	 */
+	private KnowledgeGraph route(List<TripleLiteral> patterns){
+		KnowledgeGraph shard = null;
+		for(TripleLiteral pattern : patterns){
+			if(pattern.getSubject().startsWith("?")){
+				return null;
+			}
+			KnowledgeGraph next = shardOf(pattern.getSubject());
+			if(shard != null && next != shard){
+				return null;
+			}
+			shard = next;
+		}
+		return shard;
+	}
+
+	/**
+	 * Joins a conjunctive query across the shards. The lookups of each step are grouped by the shard
+	 * of their subject, and the shards run their groups in parallel.
+	 */
+	private BindingTable join(List<TripleLiteral> patterns){
+		return BindJoin.join(patterns, new BindJoin.Source(){
+			@Override
+			List<Collection<Triple>> match(List<TripleLiteral> queries){
+				/** Each group sets its own indexes, and runAll waits for every group before the list is read. */
+				final List<Collection<Triple>> matches = new ArrayList<Collection<Triple>>(Collections.<Collection<Triple>>nCopies(queries.size(), null));
+				Map<KnowledgeGraph, List<Integer>> groups = new HashMap<KnowledgeGraph, List<Integer>>();
+				for(int i = 0; i < queries.size(); i++){
+					TripleLiteral query = queries.get(i);
+					if(query.getSubject().equals("?")){
+						matches.set(i, executeQuery(query));
+						continue;
+					}
+					KnowledgeGraph shard = shardOf(query.getSubject());
+					List<Integer> group = groups.get(shard);
+					if(group == null){
+						group = new ArrayList<Integer>();
+						groups.put(shard, group);
+					}
+					group.add(i);
+				}
+				final List<TripleLiteral> lookups = queries;
+				List<Callable<Object>> calls = new ArrayList<Callable<Object>>(groups.size());
+				for(final Map.Entry<KnowledgeGraph, List<Integer>> group : groups.entrySet()){
+					calls.add(new Callable<Object>(){
+						@Override
+						public Object call(){
+							for(int i : group.getValue()){
+								matches.set(i, group.getKey().executeQuery(lookups.get(i)));
+							}
+							return null;
+						}
+					});
+				}
+				runAll(calls);
+				return matches;
+			}
+		});
+	}
+
+	/**
+	 * @return the triples of a list grouped by the shard of their subject.
+	 */
+	private Map<KnowledgeGraph, List<TripleLiteral>> split(List<TripleLiteral> tripleList){
+		Map<KnowledgeGraph, List<TripleLiteral>> batches = new HashMap<KnowledgeGraph, List<TripleLiteral>>();
+		for(TripleLiteral tripleLiteral : tripleList){
+			KnowledgeGraph shard = shardOf(tripleLiteral.getSubject());
+			List<TripleLiteral> batch = batches.get(shard);
+			if(batch == null){
+				batch = new ArrayList<TripleLiteral>();
+				batches.put(shard, batch);
+			}
+			batch.add(tripleLiteral);
+		}
+		return batches;
+	}
+
+	/**
+	 * Runs a call on every shard in parallel.
+	 * @return the result of each shard, in shard order.
+	 */
+	private <T> List<T> fanOut(final ShardCall<T> call){
+		List<Callable<T>> calls = new ArrayList<Callable<T>>(shards.length);
+		for(final KnowledgeGraph shard : shards){
+			calls.add(new Callable<T>(){
+				@Override
+				public T call(){
+					return call.call(shard);
+				}
+			});
+		}
+		return runAll(calls);
+	}
+
+	/**
+	 * Runs calls in the pool, or on this thread if there is only one.
+	 * @return the result of each call, in order.
+	 * @throws RuntimeException the first exception thrown by a call.
+	 */
+	private <T> List<T> runAll(List<Callable<T>> calls){
+		List<T> results = new ArrayList<T>(calls.size());
+		try{
+			if(calls.size() == 1){
+				results.add(calls.get(0).call());
+				return results;
+			}
+			for(Future<T> future : pool.invokeAll(calls)){
+				results.add(future.get());
+			}
+			return results;
+		}catch(InterruptedException e){
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException("Interrupted while waiting for the shards.", e);
+		}catch(ExecutionException e){
+			if(e.getCause() instanceof RuntimeException){
+				throw (RuntimeException) e.getCause();
+			}
+			throw new IllegalStateException(e.getCause());
+		}catch(RuntimeException e){
+			throw e;
+		}catch(Exception e){
+			throw new IllegalStateException(e);
+		}
+	}
+
+	/**
+	 * A call made on each shard.
+	 */
+	private abstract static class ShardCall<T> {
+
+		abstract T call(KnowledgeGraph shard);
+	}
+}
@@ -0,0 +1,93 @@
+package cscie97.asn4.knowledge.engine;
+
+import java.util.List;
+import java.util.Set;
+
+/**
+ * A StorageNode holds one partition of a DistributedKnowledgeGraph in a KnowledgeGraph of its own,
+ * and answers the requests the coordinator sends it through a Transport. The patterns of a query
+ * are evaluated here against the node's indexes, so only the matches travel back.
+ */
+public final class StorageNode {
+
+	private final KnowledgeGraph knowledgeGraph = new KnowledgeGraph();
+
+	/**
+	 * Answers a request. Requests may be handled by several threads at once.
+	 * @param request a request encoded with the ClusterProtocol.
+	 * @return the encoded response. A request that fails is answered with the failure, so this
+	 * does not throw.
+	 */
+	public byte[] handle(byte[] request){
+		try{
+			ClusterProtocol.Reader in = new ClusterProtocol.Reader(request);
+			ClusterProtocol.Writer out = new ClusterProtocol.Writer(ClusterProtocol.OK);
+			switch(in.readByte()){
+				case ClusterProtocol.IMPORT:
+					knowledgeGraph.importTriples(in.readPatterns());
+					break;
+				case ClusterProtocol.DELETE:
+					knowledgeGraph.deleteTriples(in.readPatterns());
+					break;
+				case ClusterProtocol.DELETE_NODE:
+					out.writeInt(knowledgeGraph.deleteNode(new Node(in.readString())));
+					break;
+				case ClusterProtocol.REPLACE:
+					TripleLiteral triple = in.readPattern();
+					knowledgeGraph.replaceTriple(new Node(triple.getSubject()), triple.getPredicate(), new Node(triple.getObject()),
+							new Node(in.readString()));
+					break;
+				case ClusterProtocol.MATCH:
+					List<TripleLiteral> patterns = in.readPatterns();
+					for(TripleLiteral pattern : patterns){
+						Set<Triple> matches = knowledgeGraph.executeQuery(pattern);
+						out.writeInt(matches.size());
+						for(Triple match : matches){
+							out.writeTriple(match.getSubject().getIdentifier(), match.getPredicate().getIdentifier(), match.getObject().getIdentifier());
+						}
+					}
+					break;
+				case ClusterProtocol.OBJECTS:
+					Set<Node> objects = knowledgeGraph.getObjectsFromQuery(in.readPattern());
+					out.writeInt(objects.size());
+					for(Node object : objects){
+						out.writeString(object.getIdentifier());
+					}
+					break;
+				case ClusterProtocol.COUNT:
+					out.writeInt(knowledgeGraph.countMatches(in.readPattern()));
+					break;
+				case ClusterProtocol.SOLVE:
+					BindingTable solutions = knowledgeGraph.executeQuery(in.readPatterns());
+					List<String> variables = solutions.getVariables();
+					out.writeInt(variables.size());
+					for(String variable : variables){
+						out.writeString(variable);
+					}
+					out.writeInt(solutions.size());
+					for(int row = 0; row < solutions.size(); row++){
+						for(String variable : variables){
+							out.writeString(solutions.getValue(row, variable));
+						}
+					}
+					break;
+				case ClusterProtocol.COUNT_SOLUTIONS:
+					out.writeInt(knowledgeGraph.countMatches(in.readPatterns()));
+					break;
+				default:
+					throw new IllegalArgumentException("Unknown operation.");
+			}
+			return out.toByteArray();
+		}catch(IllegalArgumentException e){
+			return failure(ClusterProtocol.INVALID, e);
+		}catch(RuntimeException e){
+			return failure(ClusterProtocol.FAILED, e);
+		}
+	}
+
+	private static byte[] failure(byte status, RuntimeException e){
+		ClusterProtocol.Writer out = new ClusterProtocol.Writer(status);
+		out.writeString(e.getMessage() == null ? e.toString() : e.getMessage());
+		return out.toByteArray();
+	}
+}
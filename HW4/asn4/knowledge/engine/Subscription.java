@@ -0,0 +1,53 @@
+package cscie97.asn4.knowledge.engine;
+
+/**
+ * A Subscription is a standing pattern registered with KnowledgeGraph.subscribe. Its listener is
+ * told about every matching change until the Subscription is cancelled.
+ */
+public final class Subscription {
+
+	private final SubscriptionIndex index;
+	private final TripleLiteral pattern;
+	private final String house;
+	private final TripleListener listener;
+	/** The key the Subscription is indexed under. */
+	final SubscriptionIndex.Key key;
+	private volatile boolean cancelled = false;
+
+	Subscription(SubscriptionIndex index, TripleLiteral pattern, String house, TripleListener listener, SubscriptionIndex.Key key){
+		this.index = index;
+		this.pattern = pattern;
+		this.house = house;
+		this.listener = listener;
+		this.key = key;
+	}
+
+	/**
+	 * Stops the notifications. Events already queued for the listener are dropped.
+	 */
+	public void cancel(){
+		if(!cancelled){
+			cancelled = true;
+			index.remove(this);
+		}
+	}
+
+	public boolean isCancelled(){
+		return cancelled;
+	}
+
+	public TripleLiteral getPattern(){
+		return pattern;
+	}
+
+	/**
+	 * @return the house the subscription is scoped to, or null if it matches every house.
+	 */
+	public String getHouse(){
+		return house;
+	}
+
+	TripleListener getListener(){
+		return listener;
+	}
+}
@@ -0,0 +1,280 @@
+package cscie97.asn4.knowledge.engine;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+/**
+ * The SubscriptionIndex finds the Subscriptions a committed change matches, and delivers their
+ * events on a notification thread.
+ *
+ * A subscription pattern binds some of subject, predicate, object and house and leaves the others
+ * open, which gives it one of 16 shapes. Subscriptions are kept in a hash map keyed by their shape
+ * and bound terms. A changed triple is matched by building its key for each shape in use and
+ * looking it up, so matching costs at most 16 lookups however many subscriptions there are.
+ *
+ * Matching runs on the committing thread, in commit order, and only queues the events. The
+ * notification thread decodes the triples and calls the listeners, so a slow listener never holds
+ * up a writer. An exception thrown by a listener is reported to the error handler, or else to the
+ * notification thread's uncaught exception handler, which prints it, and the other events are still
+ * delivered.
+ */
+final class SubscriptionIndex {
+
+	/** The bits of a shape. */
+	private static final int SUBJECT = 1;
+	private static final int PREDICATE = 2;
+	private static final int OBJECT = 4;
+	private static final int HOUSE = 8;
+	private static final int SHAPES = 16;
+
+	private final KnowledgeGraph knowledgeGraph;
+	private final ConcurrentMap<Key, Subscription[]> subscriptions = new ConcurrentHashMap<Key, Subscription[]>();
+	/** The number of subscriptions of each shape, so that matching skips the shapes not in use. */
+	private final AtomicIntegerArray shapeCounts = new AtomicIntegerArray(SHAPES);
+	private volatile int size = 0;
+	private volatile Thread.UncaughtExceptionHandler errorHandler;
+	private final ExecutorService notifier = Executors.newSingleThreadExecutor(new ThreadFactory(){
+		@Override
+		public Thread newThread(Runnable runnable){
+			Thread thread = new Thread(runnable, "KnowledgeGraph notification");
+			thread.setDaemon(true);
+			return thread;
+		}
+	});
+
+	SubscriptionIndex(KnowledgeGraph knowledgeGraph){
+		this.knowledgeGraph = knowledgeGraph;
+	}
+
+	/**
+	 * Registers a subscription.
+	 * @param pattern the pattern, in which "?" and named variables match anything.
+	 * @param house the house the subject must belong to, or null for any house.
+	 * @param listener the listener to notify.
+	 * @return the subscription.
+	 * @throws IllegalArgumentException if the predicate is a property path.
+	 */
+	Subscription add(TripleLiteral pattern, String house, TripleListener listener){
+		if(PropertyPath.isPath(pattern.getPredicate())){
+			throw new IllegalArgumentException("The property path " + pattern.getPredicate() + " cannot be subscribed to.");
+		}
+		int subject = pattern.getSubject().startsWith("?") ? TermDictionary.WILDCARD : knowledgeGraph.internNode(pattern.getSubject());
+		int predicate = pattern.getPredicate().startsWith("?") ? TermDictionary.WILDCARD : knowledgeGraph.internPredicate(pattern.getPredicate());
+		int object = pattern.getObject().startsWith("?") ? TermDictionary.WILDCARD : knowledgeGraph.internNode(pattern.getObject());
+		String houseKey = house == null ? null : ShardedKnowledgeGraph.houseOf(house);
+		int shape = (subject != TermDictionary.WILDCARD ? SUBJECT : 0) | (predicate != TermDictionary.WILDCARD ? PREDICATE : 0)
+				| (object != TermDictionary.WILDCARD ? OBJECT : 0) | (houseKey != null ? HOUSE : 0);
+		Subscription subscription = new Subscription(this, pattern, house, listener, new Key(shape, subject, predicate, object, houseKey));
+		synchronized(this){
+			Subscription[] existing = subscriptions.get(subscription.key);
+			Subscription[] grown;
+			if(existing == null){
+				grown = new Subscription[] { subscription };
+			}else{
+				grown = new Subscription[existing.length + 1];
+				System.arraycopy(existing, 0, grown, 0, existing.length);
+				grown[existing.length] = subscription;
+			}
+			subscriptions.put(subscription.key, grown);
+			shapeCounts.incrementAndGet(shape);
+			size++;
+		}
+		return subscription;
+	}
+
+	/**
+	 * Unregisters a subscription.
+	 */
+	synchronized void remove(Subscription subscription){
+		Subscription[] existing = subscriptions.get(subscription.key);
+		if(existing == null){
+			return;
+		}
+		List<Subscription> kept = new ArrayList<Subscription>(existing.length);
+		for(Subscription other : existing){
+			if(other != subscription){
+				kept.add(other);
+			}
+		}
+		if(kept.size() == existing.length){
+			return;
+		}
+		if(kept.isEmpty()){
+			subscriptions.remove(subscription.key);
+		}else{
+			subscriptions.put(subscription.key, kept.toArray(new Subscription[kept.size()]));
+		}
+		shapeCounts.decrementAndGet(subscription.key.shape);
+		size--;
+	}
+
+	/**
+	 * @param handler the handler told about the exceptions thrown by listeners, or null to report
+	 * them to the notification thread's uncaught exception handler.
+	 */
+	void setErrorHandler(Thread.UncaughtExceptionHandler handler){
+		errorHandler = handler;
+	}
+
+	/**
+	 * @return the number of subscriptions.
+	 */
+	int size(){
+		return size;
+	}
+
+	/**
+	 * Queues the events of a committed change. Must be called for every commit, in commit order. A
+	 * triple of the change is only reported if the commit really inserted or deleted it.
+	 * @param removed the ids of the triples the change removed.
+	 * @param removedCount the number of removed triples.
+	 * @param added the ids of the triples the change added.
+	 * @param addedCount the number of added triples.
+	 * @param base the version the change was applied to.
+	 * @param next the version the change was committed as.
+	 */
+	void publish(int[] removed, int removedCount, int[] added, int addedCount, GraphVersion base, GraphVersion next){
+		if(size == 0){
+			return;
+		}
+		List<Event> events = new ArrayList<Event>();
+		collect(events, removed, removedCount, false, base, next);
+		collect(events, added, addedCount, true, base, next);
+		if(!events.isEmpty()){
+			notifier.execute(new Delivery(events, next.getNumber()));
+		}
+	}
+
+	private void collect(List<Event> events, int[] ids, int count, boolean inserted, GraphVersion base, GraphVersion next){
+		for(int i = 0; i < count; i++){
+			int subject = ids[i * 3];
+			int predicate = ids[i * 3 + 1];
+			int object = ids[i * 3 + 2];
+			String house = null;
+			boolean checked = false;
+			for(int shape = 0; shape < SHAPES; shape++){
+				if(shapeCounts.get(shape) == 0){
+					continue;
+				}
+				if((shape & HOUSE) != 0 && house == null){
+					house = ShardedKnowledgeGraph.houseOf(knowledgeGraph.decodeNode(subject).getIdentifier());
+				}
+				Subscription[] matched = subscriptions.get(new Key(shape, (shape & SUBJECT) != 0 ? subject : 0, (shape & PREDICATE) != 0 ? predicate : 0,
+						(shape & OBJECT) != 0 ? object : 0, (shape & HOUSE) != 0 ? house : null));
+				if(matched == null){
+					continue;
+				}
+				if(!checked){
+					/** A batch may insert a stored triple or delete a missing one, which changes nothing. */
+					boolean before = knowledgeGraph.count(base, subject, predicate, object) > 0;
+					boolean after = knowledgeGraph.count(next, subject, predicate, object) > 0;
+					if(before == after || after != inserted){
+						break;
+					}
+					checked = true;
+				}
+				for(Subscription subscription : matched){
+					events.add(new Event(subscription, inserted, subject, predicate, object));
+				}
+			}
+		}
+	}
+
+	/**
+	 * The subscriptions of a shape and terms.
+	 */
+	static final class Key {
+
+		private final int shape;
+		private final int subject;
+		private final int predicate;
+		private final int object;
+		private final String house;
+
+		Key(int shape, int subject, int predicate, int object, String house){
+			this.shape = shape;
+			this.subject = subject;
+			this.predicate = predicate;
+			this.object = object;
+			this.house = house;
+		}
+
+		@Override
+		public boolean equals(Object other){
+			if(!(other instanceof Key)){
+				return false;
+			}
+			Key key = (Key) other;
+			return shape == key.shape && subject == key.subject && predicate == key.predicate && object == key.object
+					&& (house == null ? key.house == null : house.equals(key.house));
+		}
+
+		@Override
+		public int hashCode(){
+			int hash = ((shape * 31 + subject) * 31 + predicate) * 31 + object;
+			return house == null ? hash : hash * 31 + house.hashCode();
+		}
+	}
+
+	/**
+	 * A matched triple and the subscription to notify.
+	 */
+	private static final class Event {
+
+		private final Subscription subscription;
+		private final boolean inserted;
+		private final int subject;
+		private final int predicate;
+		private final int object;
+
+		Event(Subscription subscription, boolean inserted, int subject, int predicate, int object){
+			this.subscription = subscription;
+			this.inserted = inserted;
+			this.subject = subject;
+			this.predicate = predicate;
+			this.object = object;
+		}
+	}
+
+	/**
+	 * Delivers the events of one commit on the notification thread.
+	 */
+	private final class Delivery implements Runnable {
+
+		private final List<Event> events;
+		private final long version;
+
+		Delivery(List<Event> events, long version){
+			this.events = events;
+			this.version = version;
+		}
+
+		@Override
+		public void run(){
+			for(Event event : events){
+				if(event.subscription.isCancelled()){
+					continue;
+				}
+				Triple triple = knowledgeGraph.decodeTriple(event.subject, event.predicate, event.object);
+				try{
+					if(event.inserted){
+						event.subscription.getListener().tripleInserted(triple, version);
+					}else{
+						event.subscription.getListener().tripleDeleted(triple, version);
+					}
+				}catch(RuntimeException e){
+					/** A failing listener must not stop the events of the others. */
+					Thread thread = Thread.currentThread();
+					Thread.UncaughtExceptionHandler handler = errorHandler;
+					(handler == null ? thread.getUncaughtExceptionHandler() : handler).uncaughtException(thread, e);
+				}
+			}
+		}
+	}
+}
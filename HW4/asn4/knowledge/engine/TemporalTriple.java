@@ -0,0 +1,57 @@
+package cscie97.asn4.knowledge.engine;
+
+/**
+ * A TemporalTriple is a Triple with the interval during which it held: from the commit that
+ * inserted it to the commit that deleted it. Times are in milliseconds since the epoch.
+ */
+public final class TemporalTriple {
+
+	/** The end of the interval of a triple that still holds. */
+	public static final long OPEN = Long.MAX_VALUE;
+
+	private final Triple triple;
+	private final long validFrom;
+	private final long validTo;
+
+	/**
+	 * @param triple the triple.
+	 * @param validFrom the time it was inserted.
+	 * @param validTo the time it was deleted, or OPEN if it still holds.
+	 */
+	public TemporalTriple(Triple triple, long validFrom, long validTo){
+		this.triple = triple;
+		this.validFrom = validFrom;
+		this.validTo = validTo;
+	}
+
+	public Triple getTriple(){
+		return triple;
+	}
+
+	/**
+	 * @return the time the triple was inserted. It held from this time on.
+	 */
+	public long getValidFrom(){
+		return validFrom;
+	}
+
+	/**
+	 * @return the time the triple was deleted, or OPEN. It no longer held at this time.
+	 */
+	public long getValidTo(){
+		return validTo;
+	}
+
+	/**
+	 * @param time a time in milliseconds since the epoch.
+	 * @return true if the triple held at the time.
+	 */
+	public boolean isValidAt(long time){
+		return validFrom <= time && time < validTo;
+	}
+
+	@Override
+	public String toString(){
+		return triple.getIdentifier() + " [" + validFrom + ", " + (validTo == OPEN ? "open" : String.valueOf(validTo)) + ")";
+	}
+}
@@ -0,0 +1,312 @@
+package cscie97.asn4.knowledge.engine;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * The TermDictionary assigns dense integer ids to the identifiers stored in the KnowledgeGraph.
+ * Each distinct identifier is stored once, and the triples refer to it by id. Ids start at 1 so
+ * that 0 can be used as the wildcard in encoded queries. The idMap is keyed by Identifier, so a
+ * term's own canonical identifier is the key and a lookup with it copies nothing. A raw identifier
+ * is looked up with a Probe each thread keeps, which hashes and matches it like the Identifier it
+ * would make, so that lookup copies nothing either.
+ *
+ * Lookups never lock. Adds are serialized, and a new term is stored before its id is
+ * published in the idMap, so any id a reader can find already has its term. addAll adds a batch
+ * of terms under one lock, so threads that add many new terms, such as the parsers of a bulk
+ * load, take it once per batch and make their keys and terms without holding it.
+ *
+ * A TermDictionary opened from a TripleFile has a MappedDictionary as its base. The base holds
+ * ids 1 to its size, their terms are created from the mapped identifiers the first time they are
+ * needed, and new terms get ids after them. moveOffHeap makes an OffHeapDictionary of every
+ * identifier the base instead, with the same ids, and drops the keys and the plain terms from the
+ * heap. Both bases keep the identifiers sorted and front coded, so getIdsWithPrefix searches them
+ * in place.
+ * @param <T> the type of term stored for each id, a Node or a Predicate.
+ */
+class TermDictionary<T> {
+
+	/** The id used for the "?" wild card and for unknown identifiers. */
+	public static final int WILDCARD = 0;
+	/** The Probe each thread looks up raw identifiers with. */
+	private static final ThreadLocal<Probe> probes = new ThreadLocal<Probe>(){
+		@Override
+		protected Probe initialValue(){
+			return new Probe();
+		}
+	};
+
+	private volatile ConcurrentMap<Identifier, Integer> idMap = new ConcurrentHashMap<Identifier, Integer>();
+	private volatile Object[] terms = new Object[64];
+	private volatile int size = 0;
+	/** True while every id was given to a key after the keys of the ids below it. */
+	private volatile boolean ordered = true;
+	/** The key of the highest id. */
+	private String lastKey;
+	private volatile Base base;
+	private Factory<T> factory;
+
+	/**
+	 * The identifiers of ids 1 to size() held outside the TermDictionary.
+	 */
+	interface Base {
+
+		int size();
+
+		/**
+		 * @param id an id from 1 to size().
+		 * @return the identifier with the id.
+		 */
+		String get(int id);
+
+		/**
+		 * @param identifier an identifier, in any case.
+		 * @return the id of the identifier with the same key, or WILDCARD if there is none.
+		 */
+		int find(String identifier);
+
+		/**
+		 * @param prefix a lower cased prefix.
+		 * @return the ids of the identifiers whose keys start with the prefix.
+		 */
+		int[] findPrefix(String prefix);
+	}
+
+	/**
+	 * A key that finds the Identifier of a raw identifier in the idMap. The map compares the key it
+	 * is given with its own keys, so equals is only ever asked about an Identifier.
+	 */
+	private static final class Probe {
+
+		private String identifier;
+		private int hash;
+
+		@Override
+		public boolean equals(Object other){
+			return other instanceof Identifier && other.hashCode() == hash && ((Identifier) other).matches(identifier);
+		}
+
+		@Override
+		public int hashCode(){
+			return hash;
+		}
+	}
+
+	/**
+	 * Creates the term for an identifier read from a Base.
+	 * @param <T> the type of term.
+	 */
+	interface Factory<T> {
+
+		T create(String identifier);
+
+		String getIdentifier(T term);
+
+		/**
+		 * @return true if create makes an equivalent term from the identifier, so that the term
+		 * need not be kept.
+		 */
+		boolean isPlain(T term);
+	}
+
+	/**
+	 * Makes a MappedDictionary the base of this dictionary, which must be empty.
+	 * @param mapped the dictionary read from a TripleFile.
+	 * @param termFactory creates the terms of the mapped identifiers.
+	 */
+	synchronized void setBase(MappedDictionary mapped, Factory<T> termFactory){
+		if(size != 0){
+			throw new IllegalStateException("The dictionary is not empty.");
+		}
+		factory = termFactory;
+		terms = new Object[mapped.size() + 64];
+		base = mapped;
+		size = mapped.size();
+		lastKey = size == 0 ? null : mapped.get(size).toLowerCase(Locale.ROOT);
+	}
+
+	/**
+	 * Looks up the id for a key.
+	 * @param key the canonical identifier.
+	 * @return the id for the key, or WILDCARD if the key is not in the dictionary.
+	 */
+	public int getId(Identifier key){
+		Integer id = idMap.get(key);
+		if(id == null){
+			Base mapped = base;
+			return mapped == null ? WILDCARD : mapped.find(key.getKey());
+		}
+		return id;
+	}
+
+	/**
+	 * Looks up the id for a raw identifier without making its key.
+	 * @param identifier the identifier, in any case.
+	 * @return the id for the identifier, or WILDCARD if it is not in the dictionary.
+	 */
+	public int getId(String identifier){
+		Probe probe = probes.get();
+		probe.identifier = identifier;
+		probe.hash = Identifier.hash(identifier);
+		Integer id = idMap.get(probe);
+		probe.identifier = null;
+		if(id == null){
+			Base mapped = base;
+			return mapped == null ? WILDCARD : mapped.find(identifier);
+		}
+		return id;
+	}
+
+	/**
+	 * Finds the ids of every key that starts with a prefix. The base is searched in place, and the
+	 * keys added since it was made are scanned.
+	 * @param prefix the lower cased prefix.
+	 * @return the ids, in no particular order.
+	 */
+	public int[] getIdsWithPrefix(String prefix){
+		/** Read idMap before base, which moveOffHeap publishes first, and skip the ids the base holds. */
+		ConcurrentMap<Identifier, Integer> keys = idMap;
+		Base mapped = base;
+		int[] found = mapped == null ? new int[0] : mapped.findPrefix(prefix);
+		int baseSize = mapped == null ? 0 : mapped.size();
+		List<Integer> added = new ArrayList<Integer>();
+		for(Map.Entry<Identifier, Integer> entry : keys.entrySet()){
+			if(entry.getValue() > baseSize && entry.getKey().getKey().startsWith(prefix)){
+				added.add(entry.getValue());
+			}
+		}
+		int[] ids = Arrays.copyOf(found, found.length + added.size());
+		for(int i = 0; i < added.size(); i++){
+			ids[found.length + i] = added.get(i);
+		}
+		return ids;
+	}
+
+	/**
+	 * Adds a term to the dictionary if the key is not already present.
+	 * @param key the canonical identifier of the term.
+	 * @param term the term to store for a new id.
+	 * @return the id assigned to the key, which is the existing id if the key was already present.
+	 */
+	public synchronized int add(Identifier key, T term){
+		Integer existing = idMap.get(key);
+		if(existing != null){
+			return existing;
+		}
+		if(base != null){
+			int mapped = base.find(key.getKey());
+			if(mapped != WILDCARD){
+				return mapped;
+			}
+		}
+		int id = size + 1;
+		if(lastKey != null && key.getKey().compareTo(lastKey) < 0){
+			/** Cleared before the id is published, so a reader that sees the id sees this too. */
+			ordered = false;
+		}
+		lastKey = key.getKey();
+		Object[] current = terms;
+		if(id >= current.length){
+			Object[] grown = new Object[current.length * 2];
+			System.arraycopy(current, 0, grown, 0, current.length);
+			current = grown;
+			terms = grown;
+		}
+		current[id] = term;
+		size = id;
+		idMap.put(key, id);
+		return id;
+	}
+
+	/**
+	 * Adds a batch of terms under one lock, as add does each of them.
+	 * @param keys the canonical identifiers of the terms.
+	 * @param newTerms the term to store for each key that gets a new id.
+	 * @param count the number of keys.
+	 * @return the id assigned to each key.
+	 */
+	public synchronized int[] addAll(Identifier[] keys, T[] newTerms, int count){
+		int[] ids = new int[count];
+		for(int i = 0; i < count; i++){
+			ids[i] = add(keys[i], newTerms[i]);
+		}
+		return ids;
+	}
+
+	/**
+	 * @param id the id of the term.
+	 * @return the term for the id, or null if the id has not been assigned.
+	 */
+	@SuppressWarnings("unchecked")
+	public T getTerm(int id){
+		/** Read size before terms, so the array is at least as new as the size. */
+		if(id <= WILDCARD || id > size){
+			return null;
+		}
+		Object term = terms[id];
+		if(term == null){
+			term = createMappedTerm(id);
+		}
+		return (T) term;
+	}
+
+	/**
+	 * Creates the term of a mapped id the first time it is needed. It is serialized with add, so the
+	 * term is not lost when the array grows and every reader gets the same term.
+	 */
+	private synchronized Object createMappedTerm(int id){
+		Object[] current = terms;
+		if(current[id] == null){
+			current[id] = factory.create(base.get(id));
+		}
+		return current[id];
+	}
+
+	/**
+	 * Moves the identifiers of every id into an OffHeapDictionary that becomes the base, keeping the
+	 * ids. The keys are dropped from the heap, and so are the terms the factory can create again;
+	 * those are created the next time they are needed.
+	 * @param termFactory creates the terms of the moved identifiers.
+	 */
+	@SuppressWarnings("unchecked")
+	synchronized void moveOffHeap(Factory<T> termFactory){
+		Object[] current = terms;
+		String[] identifiers = new String[size + 1];
+		for(int id = 1; id <= size; id++){
+			identifiers[id] = current[id] != null ? termFactory.getIdentifier((T) current[id]) : base.get(id);
+		}
+		OffHeapDictionary moved = new OffHeapDictionary(identifiers);
+		Object[] kept = new Object[size + 64];
+		for(int id = 1; id <= size; id++){
+			if(current[id] != null && !termFactory.isPlain((T) current[id])){
+				kept[id] = current[id];
+			}
+		}
+		factory = termFactory;
+		/** Publish the base before dropping the keys, so a reader finds every id in one of them. */
+		base = moved;
+		idMap = new ConcurrentHashMap<Identifier, Integer>();
+		terms = kept;
+	}
+
+	/**
+	 * A dictionary opened from a TripleFile starts ordered, since the file sorts its identifiers,
+	 * and stays so until a key is added below the last one.
+	 * @return true if the ids are in the order of their keys, so the indexes list terms in that order.
+	 */
+	boolean isOrdered(){
+		return ordered;
+	}
+
+	/**
+	 * @return the number of terms in the dictionary.
+	 */
+	public int size(){
+		return size;
+	}
+}
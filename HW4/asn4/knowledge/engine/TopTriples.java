@@ -0,0 +1,167 @@
+package cscie97.asn4.knowledge.engine;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * TopTriples keeps the first matches of a query in an order, out of any number offered, in a
+ * bounded heap. The heap holds the ids of at most capacity matches with the last of them at the
+ * root, so a match that comes after all of them is turned away with one comparison, and finding
+ * the first k of n matches takes O(n log k) time and O(k) space rather than sorting them all.
+ *
+ * Matches are ordered by the lower cased keys of their terms, in the order of the index that
+ * starts with the term ordered by: subject, predicate, object for the subject; predicate, object,
+ * subject for the predicate; and object, subject, predicate for the object.
+ */
+final class TopTriples {
+
+	private final KnowledgeGraph knowledgeGraph;
+	private final int[] positions;
+	private final int capacity;
+	/** The subject, predicate and object ids of each slot. The slot not in the heap is spare. */
+	private final int[] ids;
+	/** The slots of the kept matches, as a heap with the last in the order at the root. */
+	private final int[] heap;
+	private int size = 0;
+	private int spare;
+
+	/**
+	 * @param knowledgeGraph the KnowledgeGraph used to decode the ids.
+	 * @param orderBy the index order to sort by: TripleCursor.SPO, POS or OSP.
+	 * @param capacity the number of matches to keep.
+	 */
+	TopTriples(KnowledgeGraph knowledgeGraph, int orderBy, int capacity){
+		this.knowledgeGraph = knowledgeGraph;
+		this.capacity = capacity;
+		positions = TripleCursor.POSITIONS[orderBy];
+		ids = new int[3 * (capacity + 1)];
+		heap = new int[capacity];
+		spare = capacity;
+	}
+
+	/**
+	 * Keeps a match if it is among the first capacity matches offered so far.
+	 */
+	void offer(int subject, int predicate, int object){
+		if(capacity == 0){
+			return;
+		}
+		int slot = size < capacity ? size : spare;
+		ids[3 * slot] = subject;
+		ids[3 * slot + 1] = predicate;
+		ids[3 * slot + 2] = object;
+		if(size < capacity){
+			heap[size] = slot;
+			siftUp(size);
+			size++;
+		}else if(compare(slot, heap[0]) < 0){
+			spare = heap[0];
+			heap[0] = slot;
+			siftDown(0, size);
+		}
+	}
+
+	/**
+	 * Sorts the kept matches. The heap is used up.
+	 * @param offset the number of the first matches to leave out.
+	 * @return the kept matches after the offset, in order.
+	 */
+	List<Triple> toList(int offset){
+		for(int end = size - 1; end > 0; end--){
+			swap(0, end);
+			siftDown(0, end);
+		}
+		List<Triple> triples = new ArrayList<Triple>(Math.max(size - offset, 0));
+		for(int i = offset; i < size; i++){
+			int slot = heap[i];
+			triples.add(knowledgeGraph.decodeTriple(ids[3 * slot], ids[3 * slot + 1], ids[3 * slot + 2]));
+		}
+		size = 0;
+		return triples;
+	}
+
+	private void siftUp(int position){
+		while(position > 0){
+			int parent = (position - 1) >>> 1;
+			if(compare(heap[position], heap[parent]) <= 0){
+				return;
+			}
+			swap(position, parent);
+			position = parent;
+		}
+	}
+
+	private void siftDown(int position, int end){
+		while(true){
+			int child = 2 * position + 1;
+			if(child >= end){
+				return;
+			}
+			if(child + 1 < end && compare(heap[child + 1], heap[child]) > 0){
+				child++;
+			}
+			if(compare(heap[position], heap[child]) >= 0){
+				return;
+			}
+			swap(position, child);
+			position = child;
+		}
+	}
+
+	private void swap(int a, int b){
+		int slot = heap[a];
+		heap[a] = heap[b];
+		heap[b] = slot;
+	}
+
+	/**
+	 * Compares the matches in two slots. Terms with the same id are equal, and terms with
+	 * different ids have different keys, so only the terms that differ are decoded.
+	 */
+	private int compare(int a, int b){
+		for(int position : positions){
+			int first = ids[3 * a + position];
+			int second = ids[3 * b + position];
+			if(first != second){
+				return key(position, first).compareTo(key(position, second));
+			}
+		}
+		return 0;
+	}
+
+	private String key(int position, int id){
+		if(position == 1){
+			return knowledgeGraph.decodePredicate(id).getKey().getKey();
+		}
+		return knowledgeGraph.decodeNode(id).getKey().getKey();
+	}
+
+	/**
+	 * @param orderBy the index order to sort by: TripleCursor.SPO, POS or OSP.
+	 * @return a Comparator of Triples in the same order as a TopTriples.
+	 */
+	static Comparator<Triple> comparator(int orderBy){
+		final int[] positions = TripleCursor.POSITIONS[orderBy];
+		return new Comparator<Triple>(){
+			@Override
+			public int compare(Triple a, Triple b){
+				for(int position : positions){
+					int comparison = key(a, position).compareTo(key(b, position));
+					if(comparison != 0){
+						return comparison;
+					}
+				}
+				return 0;
+			}
+		};
+	}
+
+	private static String key(Triple triple, int position){
+		switch(position){
+			case 0: return triple.getSubject().getKey().getKey();
+			case 1: return triple.getPredicate().getKey().getKey();
+			default: return triple.getObject().getKey().getKey();
+		}
+	}
+}
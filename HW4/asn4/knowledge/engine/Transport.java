@@ -0,0 +1,26 @@
+package cscie97.asn4.knowledge.engine;
+
+import java.util.concurrent.Future;
+
+/**
+ * A Transport carries the messages of a DistributedKnowledgeGraph to its storage nodes. Messages
+ * are opaque byte arrays, so a Transport only has to deliver each request to a StorageNode, call
+ * its handle method, and deliver the response back. LoopbackTransport does so within one JVM; a
+ * network Transport would run a StorageNode in each server process.
+ */
+public interface Transport {
+
+	/**
+	 * @return the number of storage nodes.
+	 */
+	int getNodeCount();
+
+	/**
+	 * Sends a request to a storage node without waiting for the response.
+	 * @param node the node, from 0 to getNodeCount() - 1.
+	 * @param request the encoded request.
+	 * @return the response the node's StorageNode returned from handle. It fails with an
+	 * ExecutionException if the request could not be delivered.
+	 */
+	Future<byte[]> send(int node, byte[] request);
+}
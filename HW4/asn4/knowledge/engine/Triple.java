@@ -1,11 +1,13 @@
 package cscie97.asn4.knowledge.engine;
 
 /**
- * The Triple contains the subject, predicate, and object.
+ * The Triple contains the subject, predicate, and object. Two Triples are equal when their
+ * subjects, predicates and objects have the same identifiers, ignoring case, since the
+ * KnowledgeGraph holds at most one such triple.
  */
 public class Triple  {
 	
-	private final String identifier;
+	private String identifier;
 	private final Node subject;
 	private final Node object;
 	private final Predicate predicate;
@@ -20,10 +22,17 @@ public class Triple  {
 		this.subject = subject;
 		this.predicate = predicate;
 		this.object = object;
-		identifier = subject.getIdentifier() + " " + predicate.getIdentifier() + " " + object.getIdentifier();
 	}
 
+	/**
+	 * The identifier is built the first time it is asked for, since most Triples
+	 * returned from queries are only used for their subject or object.
+	 * @return the identifier of the Triple, "subject predicate object".
+	 */
 	public String getIdentifier(){
+		if(identifier == null){
+			identifier = subject.getIdentifier() + " " + predicate.getIdentifier() + " " + object.getIdentifier();
+		}
 		return identifier;
 	}
 	
@@ -38,4 +47,22 @@ public class Triple  {
 	public Node getObject(){
 		return object;
 	}
+
+	@Override
+	public boolean equals(Object other){
+		if(this == other){
+			return true;
+		}
+		if(!(other instanceof Triple)){
+			return false;
+		}
+		Triple triple = (Triple) other;
+		return subject.getKey().equals(triple.subject.getKey()) && predicate.getKey().equals(triple.predicate.getKey())
+				&& object.getKey().equals(triple.object.getKey());
+	}
+
+	@Override
+	public int hashCode(){
+		return (subject.getKey().hashCode() * 31 + predicate.getKey().hashCode()) * 31 + object.getKey().hashCode();
+	}
 }
@@ -0,0 +1,261 @@
+package cscie97.asn4.knowledge.engine;
+
+import java.nio.MappedByteBuffer;
+import java.nio.charset.Charset;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A TripleChunkParser parses one line aligned chunk of a memory mapped N-Triple file for the
+ * bulk load mode of the Importer. The lines are split on whitespace byte by byte, and the tokens
+ * of a batch of lines are encoded with the KnowledgeGraph's dictionaries together, so that the
+ * new ones are added under one lock per batch rather than one per token. The encoded triples are
+ * handed to the importing thread in batches through a queue, tagged with the chunk they came from.
+ *
+ * Line numbers are counted from the start of the chunk, since the parser does not know how many
+ * lines the earlier chunks hold. The Importer adds the line counts of the earlier chunks when it
+ * reports an error.
+ */
+class TripleChunkParser implements Callable<TripleChunkParser> {
+
+	static final int BATCH_SIZE = 16384;
+	private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+	private final KnowledgeGraph knowledgeGraph;
+	private final MappedByteBuffer buffer;
+	private final int chunkIndex;
+	private final AtomicInteger firstFailedChunk;
+	private final BlockingQueue<Batch> batches;
+
+	private int lineCount = 0;
+	private int errorLine = 0;
+	private String errorDescription;
+	private String errorContents;
+
+	private byte[] scratch = new byte[256];
+	private final int[] tokenStarts = new int[3];
+	private final int[] tokenEnds = new int[3];
+	/** The subject and object tokens of the lines of the current batch, one after the other. */
+	private final String[] nodeTokens = new String[BATCH_SIZE * 2];
+	private final String[] predicateTokens = new String[BATCH_SIZE];
+
+	/**
+	 * @param knowledgeGraph the KnowledgeGraph whose dictionaries encode the tokens.
+	 * @param buffer the mapped bytes of the chunk, starting at a line start and ending after a line end.
+	 * @param chunkIndex the position of the chunk in the file.
+	 * @param firstFailedChunk the lowest chunk index with an error so far, shared by all parsers.
+	 * @param batches the queue the encoded batches are put on.
+	 */
+	TripleChunkParser(KnowledgeGraph knowledgeGraph, MappedByteBuffer buffer, int chunkIndex,
+			AtomicInteger firstFailedChunk, BlockingQueue<Batch> batches) {
+		this.knowledgeGraph = knowledgeGraph;
+		this.buffer = buffer;
+		this.chunkIndex = chunkIndex;
+		this.firstFailedChunk = firstFailedChunk;
+		this.batches = batches;
+	}
+
+	/**
+	 * Parses the chunk. Stops at the first invalid line, or early if an earlier chunk has failed,
+	 * since its line count would no longer be needed.
+	 * @return this parser, holding the line count and any error.
+	 * @throws InterruptedException if interrupted while waiting to queue a batch.
+	 */
+	@Override
+	public TripleChunkParser call() throws InterruptedException {
+		int batchCount = 0;
+		int limit = buffer.limit();
+		int lineStart = 0;
+		while(lineStart < limit){
+			if(firstFailedChunk.get() < chunkIndex){
+				return this;
+			}
+			int lineEnd = lineStart;
+			while(lineEnd < limit && buffer.get(lineEnd) != '\n'){
+				lineEnd++;
+			}
+			lineCount++;
+			if(parseLine(lineStart, lineEnd)){
+				nodeTokens[batchCount * 2] = token(0);
+				predicateTokens[batchCount] = token(1);
+				nodeTokens[batchCount * 2 + 1] = token(2);
+				batchCount++;
+				if(batchCount == BATCH_SIZE){
+					putBatch(batchCount);
+					batchCount = 0;
+				}
+			}else if(errorLine != 0){
+				fail();
+				break;
+			}
+			lineStart = lineEnd + 1;
+		}
+		if(batchCount > 0){
+			putBatch(batchCount);
+		}
+		return this;
+	}
+
+	/**
+	 * Encodes the tokens of the current batch and puts it on the queue.
+	 * @param count the number of triples in the batch.
+	 * @throws InterruptedException if interrupted while waiting to queue the batch.
+	 */
+	private void putBatch(int count) throws InterruptedException {
+		int[] nodes = knowledgeGraph.internNodes(nodeTokens, count * 2);
+		int[] predicates = knowledgeGraph.internPredicates(predicateTokens, count);
+		int[] ids = new int[count * 3];
+		for(int i = 0; i < count; i++){
+			ids[i * 3] = nodes[i * 2];
+			ids[i * 3 + 1] = predicates[i];
+			ids[i * 3 + 2] = nodes[i * 2 + 1];
+		}
+		batches.put(new Batch(chunkIndex, ids));
+	}
+
+	/**
+	 * @return the number of lines parsed, which is every line of the chunk unless it stopped early.
+	 */
+	int getLineCount(){
+		return lineCount;
+	}
+
+	/**
+	 * @return the line of the error, counted from the start of the chunk, or 0 if there was none.
+	 */
+	int getErrorLine(){
+		return errorLine;
+	}
+
+	String getErrorDescription(){
+		return errorDescription;
+	}
+
+	String getErrorContents(){
+		return errorContents;
+	}
+
+	/**
+	 * Splits a line into three tokens, with the same rules as Importer.getTokensFromLine.
+	 * @param start the offset of the line.
+	 * @param end the offset of the line end.
+	 * @return true if the line holds a triple, false if it is empty or invalid. An invalid line sets errorLine.
+	 */
+	private boolean parseLine(int start, int end){
+		while(start < end && (buffer.get(start) & 0xFF) <= ' '){
+			start++;
+		}
+		while(end > start && (buffer.get(end - 1) & 0xFF) <= ' '){
+			end--;
+		}
+		if(start == end){
+			return false;
+		}
+		/** Purposefully allowing lines without periods to pass validation.  */
+		if(buffer.get(end - 1) == '.'){
+			end--;
+		}
+
+		int tokens = 0;
+		int position = start;
+		while(position < end){
+			while(position < end && isWhitespace(buffer.get(position))){
+				position++;
+			}
+			if(position == end){
+				break;
+			}
+			int tokenStart = position;
+			while(position < end && !isWhitespace(buffer.get(position))){
+				position++;
+			}
+			if(tokens < 3){
+				tokenStarts[tokens] = tokenStart;
+				tokenEnds[tokens] = position;
+			}
+			tokens++;
+		}
+
+		if(tokens != 3){
+			setError("Invalid line format. Acceptable format is: \"String String String.\"", start, end);
+			return false;
+		}
+		for(int i = 0; i < 3; i++){
+			if(tokenEnds[i] - tokenStarts[i] == 1 && buffer.get(tokenStarts[i]) == '?'){
+				setError("Invalid token. \"?\" is a reserved word and cannot be used.", start, end);
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * @return the text of a token of the current line.
+	 */
+	private String token(int index){
+		return decode(tokenStarts[index], tokenEnds[index]);
+	}
+
+	private String decode(int start, int end){
+		int length = end - start;
+		if(length > scratch.length){
+			scratch = new byte[Math.max(length, scratch.length * 2)];
+		}
+		for(int i = 0; i < length; i++){
+			scratch[i] = buffer.get(start + i);
+		}
+		return new String(scratch, 0, length, UTF_8);
+	}
+
+	private void setError(String description, int start, int end){
+		errorLine = lineCount;
+		errorDescription = description;
+		errorContents = decode(start, end);
+	}
+
+	/**
+	 * Records this chunk as failed, unless an earlier chunk already has.
+	 */
+	private void fail(){
+		int current = firstFailedChunk.get();
+		while(chunkIndex < current && !firstFailedChunk.compareAndSet(current, chunkIndex)){
+			current = firstFailedChunk.get();
+		}
+	}
+
+	/**
+	 * @return true for the characters matched by the "\\s" regular expression.
+	 */
+	private static boolean isWhitespace(byte b){
+		return b == ' ' || b == '\t' || b == '\n' || b == 0x0B || b == '\f' || b == '\r';
+	}
+
+	/**
+	 * The encoded triples of some consecutive lines of a chunk.
+	 */
+	static final class Batch {
+
+		private final int chunkIndex;
+		private final int[] ids;
+
+		Batch(int chunkIndex, int[] ids){
+			this.chunkIndex = chunkIndex;
+			this.ids = ids;
+		}
+
+		/**
+		 * @return the position in the file of the chunk the lines are from.
+		 */
+		int getChunkIndex(){
+			return chunkIndex;
+		}
+
+		/**
+		 * @return the subject, predicate and object ids of each triple, packed one after the other.
+		 */
+		int[] getIds(){
+			return ids;
+		}
+	}
+}
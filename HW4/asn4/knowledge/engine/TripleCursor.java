@@ -0,0 +1,155 @@
+package cscie97.asn4.knowledge.engine;
+
+/**
+ * A TripleCursor iterates the matches of a query lazily, straight from the index, without
+ * collecting them first. Call next to move to each match and the getters to read it. The cursor
+ * reads the graph version that was current (or pinned) when it was opened, so it sees a consistent
+ * set of triples however long it is kept open.
+ *
+ * A cursor can be closed early by simply no longer calling next, and limit stops it after a number of matches.
+ */
+public final class TripleCursor {
+
+	/** Index orders, matching how the ids are stored in each PermutationIndex. */
+	static final int SPO = 0;
+	static final int POS = 1;
+	static final int OSP = 2;
+
+	/** For each index order, the position (0 subject, 1 predicate, 2 object) of its first, second and third ids. */
+	static final int[][] POSITIONS = { { 0, 1, 2 }, { 1, 2, 0 }, { 2, 0, 1 } };
+
+	private final KnowledgeGraph knowledgeGraph;
+	private final PermutationIndex index;
+	private final int order;
+	private final long from;
+	private final long to;
+	private final int lastFirst;
+
+	private int first;
+	private PermutationIndex.KeyCursor keys;
+	private long remaining = Long.MAX_VALUE;
+
+	private int subject;
+	private int predicate;
+	private int object;
+
+	/**
+	 * Opens a cursor over a range of keys in one or more Buckets of an index.
+	 * @param knowledgeGraph the KnowledgeGraph used to decode the ids.
+	 * @param index the index to read, or null for a cursor with no matches.
+	 * @param order the order of the ids in the index.
+	 * @param first the first id of the first Bucket to read.
+	 * @param lastFirst the first id of the last Bucket to read.
+	 * @param from the lowest key to return from each Bucket.
+	 * @param to the highest key to return from each Bucket.
+	 */
+	TripleCursor(KnowledgeGraph knowledgeGraph, PermutationIndex index, int order, int first, int lastFirst, long from, long to) {
+		this.knowledgeGraph = knowledgeGraph;
+		this.index = index;
+		this.order = order;
+		this.first = first;
+		this.lastFirst = lastFirst;
+		this.from = from;
+		this.to = to;
+		if(index != null){
+			keys = index.getBucket(first).scan(from, to);
+		}
+	}
+
+	/**
+	 * Chooses the index for a pattern, so that the bound terms are a prefix of its order:
+	 * "s p o", "s p ?" and "s ? ?" use SPO, "? p o" and "? p ?" use POS, "s ? o" and "? ? o" use OSP,
+	 * and "? ? ?" walks all of SPO.
+	 * @param subject true if the subject is bound.
+	 * @param predicate true if the predicate is bound.
+	 * @param object true if the object is bound.
+	 * @return SPO, POS or OSP.
+	 */
+	static int chooseOrder(boolean subject, boolean predicate, boolean object){
+		if(subject && !(object && !predicate)){
+			return SPO;
+		}else if(predicate){
+			return POS;
+		}else if(object){
+			return OSP;
+		}
+		return SPO;
+	}
+
+	/**
+	 * Limits the number of matches the cursor returns from here on.
+	 * @param count the maximum number of further matches.
+	 * @return this cursor.
+	 */
+	public TripleCursor limit(long count){
+		remaining = Math.min(remaining, count);
+		return this;
+	}
+
+	/**
+	 * Moves to the next match.
+	 * @return true if there is a match, false when the matches or the limit are exhausted.
+	 */
+	public boolean next(){
+		if(keys == null || remaining <= 0){
+			return false;
+		}
+		while(!keys.next()){
+			if(first >= lastFirst){
+				keys = null;
+				return false;
+			}
+			first++;
+			keys = index.getBucket(first).scan(from, to);
+		}
+		int b = PermutationIndex.second(keys.key());
+		int c = PermutationIndex.third(keys.key());
+		switch(order){
+			case SPO: subject = first; predicate = b; object = c; break;
+			case POS: subject = c; predicate = first; object = b; break;
+			default: subject = b; predicate = c; object = first; break;
+		}
+		remaining--;
+		return true;
+	}
+
+	/**
+	 * @return the subject of the current match.
+	 */
+	public Node getSubject(){
+		return knowledgeGraph.decodeNode(subject);
+	}
+
+	/**
+	 * @return the predicate of the current match.
+	 */
+	public Predicate getPredicate(){
+		return knowledgeGraph.decodePredicate(predicate);
+	}
+
+	/**
+	 * @return the object of the current match.
+	 */
+	public Node getObject(){
+		return knowledgeGraph.decodeNode(object);
+	}
+
+	/**
+	 * @return a Triple for the current match.
+	 */
+	public Triple getTriple(){
+		return knowledgeGraph.decodeTriple(subject, predicate, object);
+	}
+
+	int getSubjectId(){
+		return subject;
+	}
+
+	int getPredicateId(){
+		return predicate;
+	}
+
+	int getObjectId(){
+		return object;
+	}
+}
@@ -0,0 +1,412 @@
+package cscie97.asn4.knowledge.engine;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * A TripleFile is a compact binary copy of a KnowledgeGraph that is opened by memory mapping it,
+ * so a graph can answer queries as soon as the file is mapped, without parsing triples or
+ * building indexes.
+ *
+ * The file starts with MAGIC and FORMAT, followed by six sections, each preceded by its length:
+ * the node and predicate MappedDictionaries, the PredicateStatistics, and the SPO, POS and OSP
+ * MappedIndexes. The ids in the file are the positions of the identifiers in the dictionaries,
+ * so they differ from the ids of the graph that wrote it.
+ *
+ * An index section holds the number of first ids plus one, the bits of the second and third ids
+ * of a key, the directory of Bucket positions, and the packed keys.
+ *
+ * The same index sections are also built in direct buffers, outside the Java heap, to move a
+ * graph's indexes off the heap with the graph's own ids.
+ */
+final class TripleFile {
+
+	private static final int MAGIC = 0x4B475446;
+	private static final int FORMAT = 1;
+	private static final int SECTIONS = 6;
+	private static final int INDEX_HEADER = 12;
+
+	private final MappedDictionary nodes;
+	private final MappedDictionary predicates;
+	private final PredicateStatistics[] statistics;
+	private final MappedIndex[] indexes;
+
+	private TripleFile(MappedDictionary nodes, MappedDictionary predicates, PredicateStatistics[] statistics, MappedIndex[] indexes){
+		this.nodes = nodes;
+		this.predicates = predicates;
+		this.statistics = statistics;
+		this.indexes = indexes;
+	}
+
+	MappedDictionary getNodes(){
+		return nodes;
+	}
+
+	MappedDictionary getPredicates(){
+		return predicates;
+	}
+
+	PredicateStatistics[] getStatistics(){
+		return statistics;
+	}
+
+	/**
+	 * @param order SPO, POS or OSP, as in TripleCursor.
+	 */
+	MappedIndex getIndex(int order){
+		return indexes[order];
+	}
+
+	/**
+	 * Writes a version of a KnowledgeGraph. The file is written to a temporary file and then renamed.
+	 * @param knowledgeGraph the KnowledgeGraph the version belongs to.
+	 * @param version the version to write.
+	 * @param file the file to write.
+	 * @throws IOException if the file cannot be written or the graph is too large for the format.
+	 */
+	static void write(KnowledgeGraph knowledgeGraph, GraphVersion version, File file) throws IOException {
+		String[] nodeIdentifiers = new String[knowledgeGraph.getNodeCount() + 1];
+		for(int id = 1; id < nodeIdentifiers.length; id++){
+			nodeIdentifiers[id] = knowledgeGraph.decodeNode(id).getIdentifier();
+		}
+		String[] predicateIdentifiers = new String[knowledgeGraph.getPredicateCount() + 1];
+		for(int id = 1; id < predicateIdentifiers.length; id++){
+			predicateIdentifiers[id] = knowledgeGraph.decodePredicate(id).getIdentifier();
+		}
+		List<String> sortedNodes = new ArrayList<String>();
+		int[] nodeIds = renumber(nodeIdentifiers, sortedNodes);
+		List<String> sortedPredicates = new ArrayList<String>();
+		int[] predicateIds = renumber(predicateIdentifiers, sortedPredicates);
+
+		int count = version.size();
+		int[][] columns = new int[3][count];
+		TripleCursor cursor = knowledgeGraph.openCursor(version, TermDictionary.WILDCARD, TermDictionary.WILDCARD, TermDictionary.WILDCARD);
+		for(int i = 0; i < count && cursor.next(); i++){
+			columns[0][i] = nodeIds[cursor.getSubjectId()];
+			columns[1][i] = predicateIds[cursor.getPredicateId()];
+			columns[2][i] = nodeIds[cursor.getObjectId()];
+		}
+		int[] sizes = {nodeIdentifiers.length, predicateIdentifiers.length, nodeIdentifiers.length};
+
+		File temporary = new File(file.getPath() + ".tmp");
+		FileOutputStream stream = new FileOutputStream(temporary);
+		DataOutputStream output = new DataOutputStream(new BufferedOutputStream(stream, 1 << 16));
+		try{
+			output.writeInt(MAGIC);
+			output.writeInt(FORMAT);
+			writeSection(output, MappedDictionary.encode(sortedNodes));
+			writeSection(output, MappedDictionary.encode(sortedPredicates));
+			writeSection(output, encodeStatistics(version, predicateIds, nodeIds));
+			for(int order = TripleCursor.SPO; order <= TripleCursor.OSP; order++){
+				int[] positions = TripleCursor.POSITIONS[order];
+				writeIndex(output, columns[positions[0]], columns[positions[1]], columns[positions[2]], count,
+						sizes[positions[0]], sizes[positions[1]], sizes[positions[2]]);
+			}
+			output.flush();
+			stream.getFD().sync();
+		}finally{
+			output.close();
+		}
+		Files.move(temporary.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+	}
+
+	/**
+	 * Memory maps a TripleFile. The file can be closed once it is mapped; the mapping lasts as long
+	 * as the TripleFile is used.
+	 * @param file the file to open.
+	 * @return the mapped TripleFile.
+	 * @throws IOException if the file cannot be read or is not a TripleFile.
+	 */
+	static TripleFile open(File file) throws IOException {
+		RandomAccessFile input = new RandomAccessFile(file, "r");
+		try{
+			if(input.readInt() != MAGIC || input.readInt() != FORMAT){
+				throw new IOException("Not a triple file: " + file);
+			}
+			FileChannel channel = input.getChannel();
+			ByteBuffer[] sections = new ByteBuffer[SECTIONS];
+			long position = 8;
+			for(int i = 0; i < SECTIONS; i++){
+				input.seek(position);
+				long length = input.readLong();
+				if(length < 0 || length > Integer.MAX_VALUE || position + 8 + length > channel.size()){
+					throw new IOException("Damaged triple file: " + file);
+				}
+				sections[i] = channel.map(FileChannel.MapMode.READ_ONLY, position + 8, length);
+				position += 8 + length;
+			}
+			MappedIndex[] indexes = new MappedIndex[3];
+			for(int order = TripleCursor.SPO; order <= TripleCursor.OSP; order++){
+				indexes[order] = openIndex(sections[3 + order]);
+			}
+			return new TripleFile(new MappedDictionary(sections[0]), new MappedDictionary(sections[1]), decodeStatistics(sections[2]), indexes);
+		}finally{
+			input.close();
+		}
+	}
+
+	/**
+	 * Sorts identifiers by their keys and gives them ids in that order.
+	 * @param identifiers the identifiers by graph id, from 1.
+	 * @param sorted receives the identifiers in file id order.
+	 * @return the file id of each graph id.
+	 */
+	static int[] renumber(String[] identifiers, List<String> sorted){
+		Integer[] order = new Integer[identifiers.length - 1];
+		final String[] keys = new String[identifiers.length];
+		for(int id = 1; id < identifiers.length; id++){
+			order[id - 1] = id;
+			keys[id] = identifiers[id].toLowerCase(Locale.ROOT);
+		}
+		Arrays.sort(order, new Comparator<Integer>(){
+			@Override
+			public int compare(Integer a, Integer b){
+				return keys[a].compareTo(keys[b]);
+			}
+		});
+		int[] ids = new int[identifiers.length];
+		for(int i = 0; i < order.length; i++){
+			ids[order[i]] = i + 1;
+			sorted.add(identifiers[order[i]]);
+		}
+		return ids;
+	}
+
+	private static void writeSection(DataOutputStream output, byte[] section) throws IOException {
+		output.writeLong(section.length);
+		output.write(section);
+	}
+
+	/**
+	 * Writes an index section. The keys are grouped by first id with a counting sort, and each
+	 * group is then sorted.
+	 */
+	private static void writeIndex(DataOutputStream output, int[] firsts, int[] seconds, int[] thirds, int count,
+			int firstCount, int secondCount, int thirdCount) throws IOException {
+		int secondBits = bits(secondCount);
+		int thirdBits = bits(thirdCount);
+		int width = secondBits + thirdBits;
+		long keyBytes = ((long) count * width + 7) / 8 + MappedIndex.PADDING;
+		long length = INDEX_HEADER + 4L * (firstCount + 1) + keyBytes;
+		if(length > Integer.MAX_VALUE){
+			throw new IOException("The graph is too large for a triple file.");
+		}
+		int[] directory = new int[firstCount + 1];
+		for(int i = 0; i < count; i++){
+			directory[firsts[i] + 1]++;
+		}
+		for(int first = 1; first <= firstCount; first++){
+			directory[first] += directory[first - 1];
+		}
+		int[] next = Arrays.copyOf(directory, firstCount);
+		long[] keys = new long[count];
+		for(int i = 0; i < count; i++){
+			keys[next[firsts[i]]++] = ((long) seconds[i] << thirdBits) | thirds[i];
+		}
+		for(int first = 0; first < firstCount; first++){
+			Arrays.sort(keys, directory[first], directory[first + 1]);
+		}
+
+		output.writeLong(length);
+		output.writeInt(firstCount);
+		output.writeInt(secondBits);
+		output.writeInt(thirdBits);
+		for(int position : directory){
+			output.writeInt(position);
+		}
+		KeyPacker packer = new KeyPacker(output, width);
+		for(long key : keys){
+			packer.write(key);
+		}
+		packer.finish();
+	}
+
+	/**
+	 * Copies a PermutationIndex into an index section in a direct buffer, keeping its ids. The keys
+	 * are read from its Buckets in order, so nothing is sorted and no copy of the keys is made on
+	 * the heap.
+	 * @param index the index.
+	 * @param firstCount one past the highest first id.
+	 * @param secondCount one past the highest second id.
+	 * @param thirdCount one past the highest third id.
+	 * @return the copy.
+	 * @throws IllegalStateException if the index is too large for one buffer.
+	 */
+	static MappedIndex copyIndex(PermutationIndex index, int firstCount, int secondCount, int thirdCount){
+		int secondBits = bits(secondCount);
+		int thirdBits = bits(thirdCount);
+		int width = secondBits + thirdBits;
+		long length = INDEX_HEADER + 4L * (firstCount + 1) + ((long) index.size() * width + 7) / 8 + MappedIndex.PADDING;
+		if(length > Integer.MAX_VALUE){
+			throw new IllegalStateException("The index is too large to be moved off the heap.");
+		}
+		final ByteBuffer section = ByteBuffer.allocateDirect((int) length);
+		section.putInt(firstCount);
+		section.putInt(secondBits);
+		section.putInt(thirdBits);
+		int position = 0;
+		for(int first = 0; first < firstCount; first++){
+			section.putInt(position);
+			position += index.getBucket(first).size();
+		}
+		section.putInt(position);
+		KeyPacker packer = new KeyPacker(new OutputStream(){
+			@Override
+			public void write(int b){
+				section.put((byte) b);
+			}
+		}, width);
+		try{
+			for(int first = 1; first < firstCount; first++){
+				PermutationIndex.KeyCursor keys = index.getBucket(first).scan(Long.MIN_VALUE, Long.MAX_VALUE);
+				while(keys.next()){
+					packer.write(((long) PermutationIndex.second(keys.key()) << thirdBits) | PermutationIndex.third(keys.key()));
+				}
+			}
+			packer.finish();
+		}catch(IOException e){
+			/** Writing to a ByteBuffer does not fail. */
+			throw new IllegalStateException(e);
+		}
+		section.clear();
+		return openIndex(section);
+	}
+
+	/**
+	 * Packs keys of a fixed number of bits one after the other, most significant bit first.
+	 */
+	private static final class KeyPacker {
+
+		private final OutputStream output;
+		private final int width;
+		private int current = 0;
+		private int used = 0;
+
+		KeyPacker(OutputStream output, int width){
+			this.output = output;
+			this.width = width;
+		}
+
+		void write(long key) throws IOException {
+			int remaining = width;
+			while(remaining > 0){
+				int taken = Math.min(remaining, 8 - used);
+				current |= (int) ((key >>> (remaining - taken)) & ((1 << taken) - 1)) << (8 - used - taken);
+				used += taken;
+				remaining -= taken;
+				if(used == 8){
+					output.write(current);
+					current = 0;
+					used = 0;
+				}
+			}
+		}
+
+		/**
+		 * Writes the last partial byte and the padding.
+		 */
+		void finish() throws IOException {
+			if(used > 0){
+				output.write(current);
+			}
+			output.write(new byte[MappedIndex.PADDING]);
+		}
+	}
+
+	private static MappedIndex openIndex(ByteBuffer section){
+		int firstCount = section.getInt(0);
+		int secondBits = section.getInt(4);
+		int thirdBits = section.getInt(8);
+		int directoryEnd = INDEX_HEADER + 4 * (firstCount + 1);
+		section.position(INDEX_HEADER);
+		section.limit(directoryEnd);
+		IntBuffer directory = section.slice().asIntBuffer();
+		section.limit(section.capacity());
+		section.position(directoryEnd);
+		ByteBuffer keys = section.slice();
+		return new MappedIndex(directory, keys, secondBits, thirdBits);
+	}
+
+	/**
+	 * @return the number of bits needed for ids below a count.
+	 */
+	private static int bits(int count){
+		return Math.max(1, 32 - Integer.numberOfLeadingZeros(count - 1));
+	}
+
+	/**
+	 * Encodes the PredicateStatistics of a version in file ids: for each predicate, its triple count,
+	 * distinct subject and object counts, and its heavy hitters with their counts.
+	 */
+	private static byte[] encodeStatistics(GraphVersion version, int[] predicateIds, int[] nodeIds){
+		int predicateCount = predicateIds.length - 1;
+		ByteBuffer section = ByteBuffer.allocate(4 + predicateCount * (20 + 16 * PredicateStatistics.TOP_K));
+		section.putInt(predicateCount);
+		PredicateStatistics[] byFileId = new PredicateStatistics[predicateCount + 1];
+		for(int id = 1; id <= predicateCount; id++){
+			byFileId[predicateIds[id]] = version.getStatistics(id);
+		}
+		for(int id = 1; id <= predicateCount; id++){
+			PredicateStatistics predicate = byFileId[id];
+			section.putInt(predicate.getTripleCount());
+			section.putInt(predicate.getDistinctSubjectCount());
+			section.putInt(predicate.getDistinctObjectCount());
+			int[] subjects = predicate.getTopSubjects();
+			section.putInt(subjects.length);
+			for(int subject : subjects){
+				section.putInt(nodeIds[subject]);
+				section.putInt(predicate.getTopSubjectCount(subject));
+			}
+			int[] objects = predicate.getTopObjects();
+			section.putInt(objects.length);
+			for(int object : objects){
+				section.putInt(nodeIds[object]);
+				section.putInt(predicate.getTopObjectCount(object));
+			}
+		}
+		return Arrays.copyOf(section.array(), section.position());
+	}
+
+	private static PredicateStatistics[] decodeStatistics(ByteBuffer section){
+		PredicateStatistics[] statistics = new PredicateStatistics[section.getInt() + 1];
+		statistics[0] = PredicateStatistics.EMPTY;
+		for(int id = 1; id < statistics.length; id++){
+			int tripleCount = section.getInt();
+			int distinctSubjects = section.getInt();
+			int distinctObjects = section.getInt();
+			int[][] subjects = readTop(section);
+			int[][] objects = readTop(section);
+			statistics[id] = PredicateStatistics.restore(tripleCount, distinctSubjects, distinctObjects,
+					subjects[0], subjects[1], objects[0], objects[1]);
+		}
+		return statistics;
+	}
+
+	/**
+	 * @return the ids and the counts of a heavy hitter list.
+	 */
+	private static int[][] readTop(ByteBuffer section){
+		int length = section.getInt();
+		int[][] top = new int[2][length];
+		for(int i = 0; i < length; i++){
+			top[0][i] = section.getInt();
+			top[1][i] = section.getInt();
+		}
+		return top;
+	}
+}
@@ -0,0 +1,803 @@
+package cscie97.asn4.knowledge.engine;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The TripleHistory keeps the intervals during which the triples of the tracked predicates held,
+ * so that a KnowledgeGraph can answer queries as of a past time.
+ *
+ * History is kept per series: the triples of one subject and predicate, such as the values of one
+ * status. The triples a series holds now are kept open with the time they were inserted. When one
+ * is deleted its interval is closed and appended to the chunks of the series, so intervals are
+ * appended in the order they end. A chunk stores up to CHUNK intervals as a stream of bits. Each
+ * end is stored as the number of whole units of time since the end before it, plus the rest if it
+ * does not fall on a unit. The unit is the largest of UNITS that divided at least half the ends so
+ * far, chosen again every UNIT_PERIOD intervals and carried over to the series' next chunk, so the
+ * end of a value read on the minute costs a few bits however long the value lasted. A flag marks
+ * an interval that does not start where the one before it ended, and the object is stored as the
+ * difference from the one before. The numbers are written in a Rice code whose parameter follows
+ * the mean of the recent numbers of their kind, so small numbers cost a few bits whatever their
+ * scale. A value that changes at a regular interval costs about one byte, and a reading that
+ * repeats the value before it costs nothing, since it changes no triple.
+ *
+ * Each chunk keeps its latest end and earliest start, so a query skips the chunks that end before
+ * its range with a binary search and those that start after it with one comparison.
+ *
+ * With a store open, the log records the time of each commit and when each predicate is tracked,
+ * and a snapshot writes the series as they are, chunks and all, so that recovery rebuilds the same
+ * history without decoding it.
+ */
+final class TripleHistory {
+
+	private static final int CHUNK = 1024;
+	private static final long SECOND = 1000;
+	private static final long MINUTE = 60 * SECOND;
+	/** The units, in milliseconds, that a chunk can count the ends of its intervals in. */
+	private static final long[] UNITS = { 1, SECOND, MINUTE };
+	/** The number of intervals after which a chunk chooses its unit again. */
+	private static final int UNIT_PERIOD = 16;
+	/** The kinds of numbers in a chunk, each with its own Rice parameter. */
+	private static final int TICKS = 0;
+	private static final int REST = 1;
+	private static final int GAP = 2;
+	private static final int OBJECT = 3;
+	/** The longest unary part of a Rice coded number; longer numbers are written whole. */
+	private static final int ESCAPE = 24;
+
+	private final KnowledgeGraph knowledgeGraph;
+	private final BitSet tracked = new BitSet();
+	/** The series of each tracked predicate, by subject. */
+	private final Map<Integer, Map<Integer, Series>> series = new HashMap<Integer, Map<Integer, Series>>();
+	private volatile boolean empty = true;
+	/** The latest time recorded, so that times never go backwards when the clock does. */
+	private long clock = Long.MIN_VALUE;
+
+	TripleHistory(KnowledgeGraph knowledgeGraph){
+		this.knowledgeGraph = knowledgeGraph;
+	}
+
+	/**
+	 * Starts keeping the history of a predicate. The triples that hold in the version are taken as
+	 * inserted at the time. Must be called under the KnowledgeGraph's commit and publish locks.
+	 * @param predicate the id of the predicate.
+	 * @param version the current version.
+	 * @param time the current time.
+	 * @return false if the history of the predicate was already kept.
+	 */
+	synchronized boolean track(int predicate, GraphVersion version, long time){
+		if(tracked.get(predicate)){
+			return false;
+		}
+		time = tick(time);
+		tracked.set(predicate);
+		series.put(predicate, new HashMap<Integer, Series>());
+		TripleCursor cursor = knowledgeGraph.openCursor(version, TermDictionary.WILDCARD, predicate, TermDictionary.WILDCARD);
+		while(cursor.next()){
+			inserted(cursor.getSubjectId(), predicate, cursor.getObjectId(), time);
+		}
+		empty = false;
+		return true;
+	}
+
+	/**
+	 * @return true if no predicate is tracked.
+	 */
+	boolean isEmpty(){
+		return empty;
+	}
+
+	/**
+	 * @return true if the history of the predicate is kept.
+	 */
+	synchronized boolean isTracked(int predicate){
+		return tracked.get(predicate);
+	}
+
+	/**
+	 * Records the triples of the tracked predicates a committed change really inserted or deleted.
+	 * Must be called for every commit, in commit order.
+	 * @param removed the ids of the triples the change removed.
+	 * @param removedCount the number of removed triples.
+	 * @param added the ids of the triples the change added.
+	 * @param addedCount the number of added triples.
+	 * @param base the version the change was applied to.
+	 * @param next the version the change was committed as.
+	 * @param time the time of the commit.
+	 */
+	void record(int[] removed, int removedCount, int[] added, int addedCount, GraphVersion base, GraphVersion next, long time){
+		if(empty){
+			return;
+		}
+		synchronized(this){
+			time = tick(time);
+			for(int i = 0; i < removedCount; i++){
+				int subject = removed[i * 3];
+				int predicate = removed[i * 3 + 1];
+				int object = removed[i * 3 + 2];
+				if(tracked.get(predicate) && knowledgeGraph.count(base, subject, predicate, object) > 0
+						&& knowledgeGraph.count(next, subject, predicate, object) == 0){
+					deleted(subject, predicate, object, time);
+				}
+			}
+			for(int i = 0; i < addedCount; i++){
+				int subject = added[i * 3];
+				int predicate = added[i * 3 + 1];
+				int object = added[i * 3 + 2];
+				if(tracked.get(predicate) && knowledgeGraph.count(base, subject, predicate, object) == 0
+						&& knowledgeGraph.count(next, subject, predicate, object) > 0){
+					inserted(subject, predicate, object, time);
+				}
+			}
+		}
+	}
+
+	private long tick(long time){
+		clock = Math.max(clock, time);
+		return clock;
+	}
+
+	/**
+	 * Opens the interval of a triple.
+	 */
+	void inserted(int subject, int predicate, int object, long time){
+		Map<Integer, Series> subjects = series.get(predicate);
+		Series history = subjects.get(subject);
+		if(history == null){
+			history = new Series();
+			subjects.put(subject, history);
+		}
+		history.open(object, time);
+	}
+
+	/**
+	 * Closes the interval of a triple.
+	 */
+	void deleted(int subject, int predicate, int object, long time){
+		Series history = series.get(predicate).get(subject);
+		if(history != null){
+			history.close(object, time);
+		}
+	}
+
+	/**
+	 * Finds the triples that held at some time in a range.
+	 * @param subject the id of the subject, or WILDCARD.
+	 * @param predicate the id of a tracked predicate, or WILDCARD for every tracked predicate.
+	 * @param object the id of the object, or WILDCARD.
+	 * @param from the start of the range.
+	 * @param to the end of the range, which is not part of it.
+	 * @return the triples with their intervals, in the order they were inserted.
+	 */
+	synchronized List<TemporalTriple> find(int subject, int predicate, int object, long from, long to){
+		List<TemporalTriple> found = new ArrayList<TemporalTriple>();
+		for(Map.Entry<Integer, Map<Integer, Series>> byPredicate : series.entrySet()){
+			if(predicate != TermDictionary.WILDCARD && byPredicate.getKey() != predicate){
+				continue;
+			}
+			Map<Integer, Series> subjects = byPredicate.getValue();
+			if(subject != TermDictionary.WILDCARD){
+				Series history = subjects.get(subject);
+				if(history != null){
+					history.find(subject, byPredicate.getKey(), object, from, to, found);
+				}
+				continue;
+			}
+			for(Map.Entry<Integer, Series> bySubject : subjects.entrySet()){
+				bySubject.getValue().find(bySubject.getKey(), byPredicate.getKey(), object, from, to, found);
+			}
+		}
+		Collections.sort(found, new Comparator<TemporalTriple>(){
+			@Override
+			public int compare(TemporalTriple first, TemporalTriple second){
+				return first.getValidFrom() < second.getValidFrom() ? -1 : first.getValidFrom() == second.getValidFrom() ? 0 : 1;
+			}
+		});
+		return found;
+	}
+
+	/**
+	 * @return the number of bytes the closed intervals take up in their chunks.
+	 */
+	synchronized long getEncodedSize(){
+		long size = 0;
+		for(Map<Integer, Series> subjects : series.values()){
+			for(Series history : subjects.values()){
+				for(Chunk chunk : history.chunks){
+					size += chunk.getSize();
+				}
+			}
+		}
+		return size;
+	}
+
+	/**
+	 * Copies the history as it is now, so that a snapshot can write it while commits go on. Closed
+	 * chunks never change, so they are shared; the open chunk at the end of each series is shared as
+	 * far as it is written now. Must be called under the KnowledgeGraph's commit lock.
+	 * @return the copy, only to be written.
+	 */
+	synchronized TripleHistory capture(){
+		TripleHistory copy = new TripleHistory(knowledgeGraph);
+		copy.tracked.or(tracked);
+		copy.clock = clock;
+		copy.empty = empty;
+		for(Map.Entry<Integer, Map<Integer, Series>> byPredicate : series.entrySet()){
+			Map<Integer, Series> subjects = new HashMap<Integer, Series>(byPredicate.getValue().size() * 2);
+			for(Map.Entry<Integer, Series> bySubject : byPredicate.getValue().entrySet()){
+				subjects.put(bySubject.getKey(), new Series(bySubject.getValue()));
+			}
+			copy.series.put(byPredicate.getKey(), subjects);
+		}
+		return copy;
+	}
+
+	/**
+	 * Writes the history to a snapshot: the clock, then for each tracked predicate its series, each
+	 * with its open triples and its chunks.
+	 * @param output the snapshot.
+	 * @throws IOException if the snapshot cannot be written.
+	 */
+	synchronized void write(DataOutputStream output) throws IOException {
+		output.writeLong(clock);
+		WriteAheadLog.writeVarInt(output, series.size());
+		for(Map.Entry<Integer, Map<Integer, Series>> byPredicate : series.entrySet()){
+			WriteAheadLog.writeVarInt(output, byPredicate.getKey());
+			WriteAheadLog.writeVarInt(output, byPredicate.getValue().size());
+			for(Map.Entry<Integer, Series> bySubject : byPredicate.getValue().entrySet()){
+				Series history = bySubject.getValue();
+				WriteAheadLog.writeVarInt(output, bySubject.getKey());
+				WriteAheadLog.writeVarInt(output, history.openCount);
+				for(int i = 0; i < history.openCount; i++){
+					WriteAheadLog.writeVarInt(output, history.openObjects[i]);
+					output.writeLong(history.openSince[i]);
+				}
+				WriteAheadLog.writeVarInt(output, history.chunks.size());
+				for(Chunk chunk : history.chunks){
+					chunk.write(output);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Reads the history written to a snapshot, replacing the history of the predicates in it. When the
+	 * snapshot's ids are the graph's, the chunks are taken as they are; otherwise they are decoded and
+	 * their intervals appended again with the graph's ids.
+	 * @param input the snapshot.
+	 * @param nodes the graph's id of each of the snapshot's node ids.
+	 * @param predicates the graph's id of each of the snapshot's predicate ids.
+	 * @throws IOException if the snapshot cannot be read.
+	 */
+	synchronized void read(DataInputStream input, int[] nodes, int[] predicates) throws IOException {
+		boolean same = isIdentity(nodes) && isIdentity(predicates);
+		clock = Math.max(clock, input.readLong());
+		int predicateCount = WriteAheadLog.readVarInt(input);
+		for(int p = 0; p < predicateCount; p++){
+			int predicate = predicates[WriteAheadLog.readVarInt(input)];
+			int subjectCount = WriteAheadLog.readVarInt(input);
+			Map<Integer, Series> subjects = new HashMap<Integer, Series>(subjectCount * 2);
+			for(int s = 0; s < subjectCount; s++){
+				Series history = new Series();
+				subjects.put(nodes[WriteAheadLog.readVarInt(input)], history);
+				int openCount = WriteAheadLog.readVarInt(input);
+				for(int i = 0; i < openCount; i++){
+					history.open(nodes[WriteAheadLog.readVarInt(input)], input.readLong());
+				}
+				int chunkCount = WriteAheadLog.readVarInt(input);
+				for(int c = 0; c < chunkCount; c++){
+					Chunk chunk = Chunk.read(input);
+					if(same){
+						history.chunks.add(chunk);
+						continue;
+					}
+					ChunkReader reader = new ChunkReader(chunk);
+					for(int i = 0; i < chunk.count; i++){
+						reader.next();
+						history.append(nodes[reader.object], reader.start, reader.end);
+					}
+				}
+				if(same && chunkCount > 0){
+					history.chunks.get(chunkCount - 1).resume();
+				}
+			}
+			tracked.set(predicate);
+			series.put(predicate, subjects);
+		}
+		empty = tracked.isEmpty();
+	}
+
+	private static boolean isIdentity(int[] ids){
+		for(int id = 0; id < ids.length; id++){
+			if(ids[id] != id){
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * The history of the triples of one subject and predicate.
+	 */
+	private final class Series {
+
+		private int[] openObjects;
+		private long[] openSince;
+		private int openCount = 0;
+		private final List<Chunk> chunks;
+		/** The index in UNITS of the unit of the next chunk. */
+		private int unit = 0;
+
+		Series(){
+			openObjects = new int[1];
+			openSince = new long[1];
+			chunks = new ArrayList<Chunk>(1);
+		}
+
+		/**
+		 * Copies a series as it is now.
+		 */
+		Series(Series other){
+			openCount = other.openCount;
+			openObjects = Arrays.copyOf(other.openObjects, Math.max(openCount, 1));
+			openSince = Arrays.copyOf(other.openSince, Math.max(openCount, 1));
+			chunks = new ArrayList<Chunk>(other.chunks);
+			unit = other.unit;
+			if(!chunks.isEmpty()){
+				chunks.set(chunks.size() - 1, new Chunk(chunks.get(chunks.size() - 1)));
+			}
+		}
+
+		void open(int object, long time){
+			if(openCount == openObjects.length){
+				openObjects = Arrays.copyOf(openObjects, openCount * 2);
+				openSince = Arrays.copyOf(openSince, openCount * 2);
+			}
+			openObjects[openCount] = object;
+			openSince[openCount] = time;
+			openCount++;
+		}
+
+		void close(int object, long time){
+			for(int i = 0; i < openCount; i++){
+				if(openObjects[i] == object){
+					long since = openSince[i];
+					openCount--;
+					openObjects[i] = openObjects[openCount];
+					openSince[i] = openSince[openCount];
+					append(object, since, time);
+					return;
+				}
+			}
+		}
+
+		/**
+		 * Appends a closed interval, which must end no earlier than those before it.
+		 */
+		void append(int object, long start, long end){
+			Chunk tail = chunks.isEmpty() ? null : chunks.get(chunks.size() - 1);
+			if(tail == null || tail.count == CHUNK){
+				if(tail != null){
+					unit = tail.seal();
+				}
+				tail = tail == null ? new Chunk(unit, start, object) : new Chunk(unit, tail.lastEnd, tail.lastObject);
+				chunks.add(tail);
+			}
+			tail.append(object, start, end);
+		}
+
+		void find(int subject, int predicate, int object, long from, long to, List<TemporalTriple> found){
+			/** Chunks end in order, so the first that ends after the range starts is found by a binary search. */
+			int low = 0;
+			int high = chunks.size();
+			while(low < high){
+				int middle = (low + high) >>> 1;
+				if(chunks.get(middle).lastEnd <= from){
+					low = middle + 1;
+				}else{
+					high = middle;
+				}
+			}
+			for(int c = low; c < chunks.size(); c++){
+				Chunk chunk = chunks.get(c);
+				if(chunk.firstStart < to){
+					chunk.find(TripleHistory.this, subject, predicate, object, from, to, found);
+				}
+			}
+			for(int i = 0; i < openCount; i++){
+				if((object == TermDictionary.WILDCARD || openObjects[i] == object) && openSince[i] < to){
+					found.add(new TemporalTriple(knowledgeGraph.decodeTriple(subject, predicate, openObjects[i]), openSince[i], TemporalTriple.OPEN));
+				}
+			}
+		}
+	}
+
+	/**
+	 * Up to CHUNK closed intervals of a series, in the order they ended, as a stream of bits.
+	 */
+	private static final class Chunk {
+
+		private final int unit;
+		/** The end and object the first interval is stored relative to. */
+		private final long baseEnd;
+		private final int baseObject;
+		private byte[] bits;
+		/** The number of bits written. */
+		private int length = 0;
+		private int count = 0;
+		private long lastEnd;
+		private int lastObject;
+		private long firstStart;
+		/** The state of the code after the last interval, until the chunk is sealed. */
+		private Coding coding;
+
+		/**
+		 * @param unit the index in UNITS of the unit the ends are counted in at first.
+		 * @param baseEnd the end of the interval before the first, or the start of the first.
+		 * @param baseObject the object of the interval before the first, or of the first.
+		 */
+		Chunk(int unit, long baseEnd, int baseObject){
+			this.unit = unit;
+			this.baseEnd = baseEnd;
+			this.baseObject = baseObject;
+			bits = new byte[16];
+			firstStart = Long.MAX_VALUE;
+			coding = new Coding(this);
+		}
+
+		/**
+		 * Shares the intervals written to a chunk so far. The bits after them may change.
+		 */
+		Chunk(Chunk chunk){
+			this(chunk.unit, chunk.baseEnd, chunk.baseObject, chunk.bits, chunk.length, chunk.count, chunk.lastEnd, chunk.lastObject, chunk.firstStart);
+		}
+
+		private Chunk(int unit, long baseEnd, int baseObject, byte[] bits, int length, int count, long lastEnd, int lastObject, long firstStart){
+			this.unit = unit;
+			this.baseEnd = baseEnd;
+			this.baseObject = baseObject;
+			this.bits = bits;
+			this.length = length;
+			this.count = count;
+			this.lastEnd = lastEnd;
+			this.lastObject = lastObject;
+			this.firstStart = firstStart;
+		}
+
+		void write(DataOutputStream output) throws IOException {
+			output.writeByte(unit);
+			output.writeLong(baseEnd);
+			WriteAheadLog.writeVarInt(output, baseObject);
+			WriteAheadLog.writeVarInt(output, count);
+			output.writeLong(lastEnd);
+			WriteAheadLog.writeVarInt(output, lastObject);
+			output.writeLong(firstStart);
+			WriteAheadLog.writeVarInt(output, length);
+			int size = getSize();
+			if(size > 0){
+				output.write(bits, 0, size - 1);
+				/** Leave out the bits written to the last byte since. */
+				int used = length & 7;
+				output.writeByte(used == 0 ? bits[size - 1] : bits[size - 1] & ((1 << used) - 1));
+			}
+		}
+
+		static Chunk read(DataInputStream input) throws IOException {
+			int unit = input.readUnsignedByte();
+			if(unit >= UNITS.length){
+				throw new IOException("Invalid history chunk.");
+			}
+			long baseEnd = input.readLong();
+			int baseObject = WriteAheadLog.readVarInt(input);
+			int count = WriteAheadLog.readVarInt(input);
+			long lastEnd = input.readLong();
+			int lastObject = WriteAheadLog.readVarInt(input);
+			long firstStart = input.readLong();
+			int length = WriteAheadLog.readVarInt(input);
+			byte[] bits = new byte[(length + 7) >>> 3];
+			input.readFully(bits);
+			return new Chunk(unit, baseEnd, baseObject, bits, length, count, lastEnd, lastObject, firstStart);
+		}
+
+		/**
+		 * Makes a chunk read from a snapshot ready for appends again, by decoding it to the state its
+		 * code was in after the last interval.
+		 */
+		void resume(){
+			ChunkReader reader = new ChunkReader(this);
+			for(int i = 0; i < count; i++){
+				reader.next();
+			}
+			coding = reader.coding;
+		}
+
+		void append(int object, long start, long end){
+			long endTicks = end / coding.unit;
+			writeNumber(TICKS, endTicks - coding.ticks);
+			if(coding.unit > 1){
+				long rest = end - endTicks * coding.unit;
+				writeBit(rest != 0);
+				if(rest != 0){
+					writeNumber(REST, rest - 1);
+				}
+			}
+			long gap = coding.end - start;
+			writeBit(gap != 0);
+			if(gap != 0){
+				writeNumber(GAP, zigzag(gap) - 1);
+			}
+			writeNumber(OBJECT, zigzag((long) object - coding.object));
+			coding.next(object, end, endTicks);
+			lastEnd = end;
+			lastObject = object;
+			firstStart = Math.min(firstStart, start);
+			count++;
+		}
+
+		/**
+		 * Trims a full chunk and drops the state only appends need.
+		 * @return the index in UNITS of the unit the next chunk should count its ends in.
+		 */
+		int seal(){
+			bits = Arrays.copyOf(bits, (length + 7) >>> 3);
+			int next = coding.getBestUnit(count);
+			coding = null;
+			return next;
+		}
+
+		int getSize(){
+			return (length + 7) >>> 3;
+		}
+
+		private void writeBit(boolean bit){
+			writeBits(bit ? 1 : 0, 1);
+		}
+
+		/**
+		 * Writes the low bits of a value, lowest first.
+		 */
+		private void writeBits(long value, int bitCount){
+			if(bits.length < ((length + bitCount + 7) >>> 3)){
+				bits = Arrays.copyOf(bits, Math.max(bits.length * 2, (length + bitCount + 7) >>> 3));
+			}
+			while(bitCount > 0){
+				int offset = length & 7;
+				int taken = Math.min(8 - offset, bitCount);
+				bits[length >>> 3] |= (byte) ((value & ((1 << taken) - 1)) << offset);
+				value >>>= taken;
+				length += taken;
+				bitCount -= taken;
+			}
+		}
+
+		/**
+		 * Writes a number that is not negative in the Rice code of its kind: the number shifted right
+		 * by the parameter in unary, then the bits shifted out. A number whose unary part would be
+		 * ESCAPE or more is written as ESCAPE ones, its length in 6 bits and its bits.
+		 */
+		private void writeNumber(int kind, long value){
+			int parameter = coding.getParameter(kind);
+			long quotient = value >>> parameter;
+			if(quotient < ESCAPE){
+				writeBits((1L << quotient) - 1, (int) quotient + 1);
+				writeBits(value, parameter);
+			}else{
+				int bitCount = 64 - Long.numberOfLeadingZeros(value);
+				writeBits((1L << ESCAPE) - 1, ESCAPE);
+				writeBits(bitCount - 1, 6);
+				writeBits(value, bitCount);
+			}
+			coding.update(kind, value);
+		}
+
+		void find(TripleHistory history, int subject, int predicate, int object, long from, long to, List<TemporalTriple> found){
+			ChunkReader reader = new ChunkReader(this);
+			for(int i = 0; i < count; i++){
+				reader.next();
+				if(reader.start < to && reader.end > from && (object == TermDictionary.WILDCARD || reader.object == object)){
+					found.add(new TemporalTriple(history.knowledgeGraph.decodeTriple(subject, predicate, reader.object), reader.start, reader.end));
+				}
+			}
+		}
+	}
+
+	/**
+	 * Decodes the intervals of a Chunk in order.
+	 */
+	private static final class ChunkReader {
+
+		private final byte[] bits;
+		private final Coding coding;
+		/** The index of the next byte to load into the window. */
+		private int position = 0;
+		/** The next bits of the chunk, lowest first. */
+		private long window = 0;
+		private int available = 0;
+		int object;
+		long start;
+		long end;
+
+		ChunkReader(Chunk chunk){
+			bits = chunk.bits;
+			coding = new Coding(chunk);
+		}
+
+		/**
+		 * Reads the next interval into object, start and end.
+		 */
+		void next(){
+			long endTicks = coding.ticks + readNumber(TICKS);
+			long next = endTicks * coding.unit;
+			if(coding.unit > 1 && readBit()){
+				next += readNumber(REST) + 1;
+			}
+			start = readBit() ? coding.end - unzigzag(readNumber(GAP) + 1) : coding.end;
+			object = (int) (coding.object + unzigzag(readNumber(OBJECT)));
+			end = next;
+			coding.next(object, end, endTicks);
+		}
+
+		private boolean readBit(){
+			return readBits(1) != 0;
+		}
+
+		/**
+		 * Loads bytes into the window until it holds more than 56 bits or the chunk ends.
+		 */
+		private void fill(){
+			while(available <= 56 && position < bits.length){
+				window |= (long) (bits[position++] & 0xFF) << available;
+				available += 8;
+			}
+		}
+
+		private long readBits(int bitCount){
+			if(bitCount > 32){
+				long low = readBits(32);
+				return low | readBits(bitCount - 32) << 32;
+			}
+			if(available < bitCount){
+				fill();
+			}
+			long value = window & ((1L << bitCount) - 1);
+			window >>>= bitCount;
+			available -= bitCount;
+			return value;
+		}
+
+		private long readNumber(int kind){
+			int parameter = coding.getParameter(kind);
+			if(available <= ESCAPE){
+				fill();
+			}
+			int quotient = Math.min(Long.numberOfTrailingZeros(~window), ESCAPE);
+			/** Skip the ones of the unary part, and the zero that ends it unless it is escaped. */
+			int skipped = quotient < ESCAPE ? quotient + 1 : ESCAPE;
+			window >>>= skipped;
+			available -= skipped;
+			long value;
+			if(quotient < ESCAPE){
+				value = (long) quotient << parameter | readBits(parameter);
+			}else{
+				value = readBits((int) readBits(6) + 1);
+			}
+			coding.update(kind, value);
+			return value;
+		}
+	}
+
+	/**
+	 * The state a chunk's code is in after some intervals, which its writer and readers keep alike:
+	 * the last end and object, and the recent sizes of each kind of number, from which the Rice
+	 * parameter of the next is chosen as in LOCO-I.
+	 */
+	private static final class Coding {
+
+		long unit;
+		long end;
+		/** The end divided by the unit. */
+		long ticks;
+		int object;
+		private int ends = 0;
+		private final long[] sums = new long[4];
+		private final int[] counts = new int[4];
+		private final int[] parameters = new int[4];
+		/** The number of ends each of UNITS divides. */
+		private final int[] divided = new int[UNITS.length];
+
+		/**
+		 * @param chunk the chunk, whose first interval is next.
+		 */
+		Coding(Chunk chunk){
+			unit = UNITS[chunk.unit];
+			end = chunk.baseEnd;
+			ticks = end / unit;
+			object = chunk.baseObject;
+			for(int kind = 0; kind < sums.length; kind++){
+				reset(kind);
+			}
+		}
+
+		private void reset(int kind){
+			sums[kind] = 16;
+			counts[kind] = 1;
+			parameters[kind] = 4;
+		}
+
+		int getParameter(int kind){
+			return parameters[kind];
+		}
+
+		void update(int kind, long value){
+			int parameter = parameters[kind];
+			/** An escaped number only moves the parameter up a little, so one outlier costs little. */
+			sums[kind] += Math.min(value, (long) ESCAPE << (parameter + 1));
+			if(++counts[kind] == 64){
+				sums[kind] >>= 1;
+				counts[kind] >>= 1;
+			}
+			/** Keep the parameter the least k for which counts times 2 to the k is at least sums. */
+			while(parameter < 56 && ((long) counts[kind] << parameter) < sums[kind]){
+				parameter++;
+			}
+			while(parameter > 0 && ((long) counts[kind] << (parameter - 1)) >= sums[kind]){
+				parameter--;
+			}
+			parameters[kind] = parameter;
+		}
+
+		/**
+		 * Moves on to the next interval. Dividing by a constant is much cheaper than by the unit, so
+		 * the divisions of reading a chunk are all by constants.
+		 * @param nextTicks the next end divided by the unit.
+		 */
+		void next(int nextObject, long nextEnd, long nextTicks){
+			if(nextEnd % SECOND == 0){
+				divided[1]++;
+				if(nextEnd % MINUTE == 0){
+					divided[2]++;
+				}
+			}
+			object = nextObject;
+			end = nextEnd;
+			ticks = nextTicks;
+			if(++ends % UNIT_PERIOD == 0 && UNITS[getBestUnit(ends)] != unit){
+				/** The numbers of a new unit have a new scale. */
+				unit = UNITS[getBestUnit(ends)];
+				ticks = end / unit;
+				reset(TICKS);
+				reset(REST);
+			}
+		}
+
+		/**
+		 * @return the index of the largest unit that divided at least half of count ends.
+		 */
+		int getBestUnit(int count){
+			int best = 0;
+			for(int i = 1; i < UNITS.length; i++){
+				if(divided[i] * 2 >= count){
+					best = i;
+				}
+			}
+			return best;
+		}
+	}
+
+	private static long zigzag(long value){
+		return (value << 1) ^ (value >> 63);
+	}
+
+	private static long unzigzag(long value){
+		return (value >>> 1) ^ -(value & 1);
+	}
+}
@@ -0,0 +1,22 @@
+package cscie97.asn4.knowledge.engine;
+
+/**
+ * A TripleListener is told about the triples inserted into and deleted from the KnowledgeGraph
+ * that match the pattern it subscribed to. It is called on the KnowledgeGraph's notification
+ * thread, one event at a time and in commit order, after the change is committed. An exception it
+ * throws is reported to the handler set with KnowledgeGraph.setListenerErrorHandler.
+ */
+public interface TripleListener {
+
+	/**
+	 * @param triple the inserted triple.
+	 * @param version the number of the version that inserted it.
+	 */
+	void tripleInserted(Triple triple, long version);
+
+	/**
+	 * @param triple the deleted triple.
+	 * @param version the number of the version that deleted it.
+	 */
+	void tripleDeleted(Triple triple, long version);
+}
@@ -0,0 +1,94 @@
+package cscie97.asn4.knowledge.engine;
+
+import java.util.AbstractSet;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * TripleResultSet holds the result of a KnowledgeGraph query as encoded term ids.
+ * The Triple objects are only created as the set is iterated.
+ */
+class TripleResultSet extends AbstractSet<Triple> {
+
+	private final KnowledgeGraph knowledgeGraph;
+	private final int[] ids;
+	private final int size;
+
+	/**
+	 * @param knowledgeGraph the KnowledgeGraph used to decode the ids.
+	 * @param ids the subject, predicate and object ids of each match, packed one after the other.
+	 * @param size the number of matches in ids.
+	 */
+	TripleResultSet(KnowledgeGraph knowledgeGraph, int[] ids, int size) {
+		this.knowledgeGraph = knowledgeGraph;
+		this.ids = ids;
+		this.size = size;
+	}
+
+	/**
+	 * Collects the ids of the matches while a query runs.
+	 */
+	static final class Builder {
+
+		private int[] ids = new int[24];
+		private int size = 0;
+
+		/**
+		 * Adds a match.
+		 * @param subject the subject id.
+		 * @param predicate the predicate id.
+		 * @param object the object id.
+		 */
+		void add(int subject, int predicate, int object){
+			if(size * 3 == ids.length){
+				int[] grown = new int[ids.length * 2];
+				System.arraycopy(ids, 0, grown, 0, ids.length);
+				ids = grown;
+			}
+			ids[size * 3] = subject;
+			ids[size * 3 + 1] = predicate;
+			ids[size * 3 + 2] = object;
+			size++;
+		}
+
+		/**
+		 * @param knowledgeGraph the KnowledgeGraph used to decode the ids.
+		 * @return the result set of the collected matches.
+		 */
+		TripleResultSet build(KnowledgeGraph knowledgeGraph){
+			return new TripleResultSet(knowledgeGraph, ids, size);
+		}
+	}
+
+	@Override
+	public Iterator<Triple> iterator() {
+		return new Iterator<Triple>() {
+			private int index = 0;
+
+			@Override
+			public boolean hasNext() {
+				return index < size;
+			}
+
+			@Override
+			public Triple next() {
+				if(index >= size){
+					throw new NoSuchElementException();
+				}
+				int offset = index * 3;
+				index++;
+				return knowledgeGraph.decodeTriple(ids[offset], ids[offset + 1], ids[offset + 2]);
+			}
+
+			@Override
+			public void remove() {
+				throw new UnsupportedOperationException();
+			}
+		};
+	}
+
+	@Override
+	public int size() {
+		return size;
+	}
+}
@@ -0,0 +1,478 @@
+package cscie97.asn4.knowledge.engine;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.util.BitSet;
+import java.util.zip.CRC32;
+
+/**
+ * The WriteAheadLog appends every change committed to the KnowledgeGraph to a log segment file,
+ * so the changes can be replayed after a restart.
+ *
+ * Each commit is written as one frame: its length, a CRC32 of its contents, then its records.
+ * A frame that was only partly written when the process stopped fails the check and is dropped
+ * on replay, so a commit is replayed whole or not at all. Records refer to Nodes and Predicates
+ * by id, and the identifier behind an id is defined once per segment, before its first use.
+ * Once a predicate's history is tracked, each frame starts with the time of its commit, as the
+ * difference from the time before, and tracking a predicate is logged as a frame of its own.
+ *
+ * Writes use group commit: appending a frame only buffers it, and the writer then waits for it
+ * to be durable. One waiting writer writes and syncs everything buffered so far, while the
+ * frames of writers arriving in the meantime collect for the next sync.
+ */
+final class WriteAheadLog {
+
+	private static final int DEFINE_NODE = 1;
+	private static final int DEFINE_PREDICATE = 2;
+	private static final int ADD = 3;
+	private static final int REMOVE = 4;
+	private static final int TIME = 5;
+	private static final int TRACK = 6;
+	private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+	private final KnowledgeGraph knowledgeGraph;
+	private final File directory;
+	private long segment;
+	private FileOutputStream output;
+	private BitSet definedNodes = new BitSet();
+	private BitSet definedPredicates = new BitSet();
+	private long recordCount = 0;
+	/** The last time written to the segment. */
+	private long time = 0;
+
+	private final ByteArrayOutputStream frame = new ByteArrayOutputStream();
+	private ByteArrayOutputStream pending = new ByteArrayOutputStream();
+	private long appended = 0;
+	private long durable = 0;
+	private boolean flushing = false;
+	private IOException failure;
+
+	/**
+	 * Starts a new log segment.
+	 * @param knowledgeGraph the KnowledgeGraph whose identifiers are logged.
+	 * @param directory the directory of the segments.
+	 * @param segment the number of the segment to start.
+	 * @throws IOException if the segment cannot be created.
+	 */
+	WriteAheadLog(KnowledgeGraph knowledgeGraph, File directory, long segment) throws IOException {
+		this.knowledgeGraph = knowledgeGraph;
+		this.directory = directory;
+		this.segment = segment;
+		output = new FileOutputStream(GraphStore.getLogFile(directory, segment));
+	}
+
+	/**
+	 * Buffers the frame of a commit. Must be called in commit order.
+	 * @param removed the ids of the removed triples.
+	 * @param removedCount the number of removed triples.
+	 * @param added the ids of the added triples.
+	 * @param addedCount the number of added triples.
+	 * @param time the time of the commit.
+	 * @return the sequence number to wait for with awaitDurable.
+	 */
+	synchronized long append(int[] removed, int removedCount, int[] added, int addedCount, long time){
+		frame.reset();
+		try{
+			if(!knowledgeGraph.getHistory().isEmpty()){
+				writeTime(time);
+			}
+			for(int i = 0; i < removedCount; i++){
+				writeRecord(REMOVE, removed, i);
+			}
+			for(int i = 0; i < addedCount; i++){
+				writeRecord(ADD, added, i);
+			}
+		}catch(IOException e){
+			/** Writing to a ByteArrayOutputStream does not fail. */
+			throw new IllegalStateException(e);
+		}
+		recordCount += removedCount + addedCount;
+		return appendFrame();
+	}
+
+	/**
+	 * Buffers the frame that starts keeping the history of a predicate. Must be called in commit order.
+	 * @param predicate the id of the predicate.
+	 * @param time the time the history is kept from.
+	 * @return the sequence number to wait for with awaitDurable.
+	 */
+	synchronized long appendTrack(int predicate, long time){
+		frame.reset();
+		try{
+			writeTime(time);
+			definePredicate(predicate);
+			frame.write(TRACK);
+			writeVarInt(frame, predicate);
+		}catch(IOException e){
+			throw new IllegalStateException(e);
+		}
+		recordCount++;
+		return appendFrame();
+	}
+
+	private long appendFrame(){
+		byte[] contents = frame.toByteArray();
+		CRC32 crc = new CRC32();
+		crc.update(contents, 0, contents.length);
+		writeInt(pending, contents.length);
+		writeInt(pending, (int) crc.getValue());
+		pending.write(contents, 0, contents.length);
+		return ++appended;
+	}
+
+	/**
+	 * Waits until a frame is written and synced to disk, syncing the buffered frames itself if no
+	 * other writer is doing so.
+	 * @param sequence the sequence number returned by append.
+	 * @throws IOException if the log could not be written.
+	 */
+	void awaitDurable(long sequence) throws IOException {
+		boolean interrupted = false;
+		try{
+			while(true){
+				ByteArrayOutputStream batch;
+				long batchEnd;
+				FileOutputStream target;
+				synchronized(this){
+					while(durable < sequence && flushing && failure == null){
+						try{
+							wait();
+						}catch(InterruptedException e){
+							interrupted = true;
+						}
+					}
+					if(failure != null){
+						throw new IOException("The log could not be written.", failure);
+					}
+					if(durable >= sequence){
+						return;
+					}
+					flushing = true;
+					batch = pending;
+					pending = new ByteArrayOutputStream();
+					batchEnd = appended;
+					target = output;
+				}
+				IOException error = null;
+				try{
+					batch.writeTo(target);
+					target.getFD().sync();
+				}catch(IOException e){
+					error = e;
+				}
+				synchronized(this){
+					flushing = false;
+					if(error != null){
+						failure = error;
+					}else{
+						durable = batchEnd;
+					}
+					notifyAll();
+				}
+			}
+		}finally{
+			if(interrupted){
+				Thread.currentThread().interrupt();
+			}
+		}
+	}
+
+	/**
+	 * Syncs every buffered frame and starts the next segment. Must be called between commits.
+	 * @return the number of the new segment.
+	 * @throws IOException if the log could not be written or the segment created.
+	 */
+	synchronized long rotate() throws IOException {
+		flushAll();
+		output.close();
+		segment++;
+		output = new FileOutputStream(GraphStore.getLogFile(directory, segment));
+		definedNodes = new BitSet();
+		definedPredicates = new BitSet();
+		recordCount = 0;
+		time = 0;
+		return segment;
+	}
+
+	/**
+	 * Syncs every buffered frame and closes the segment.
+	 * @throws IOException if the log could not be written.
+	 */
+	synchronized void close() throws IOException {
+		try{
+			flushAll();
+		}finally{
+			output.close();
+		}
+	}
+
+	/**
+	 * @return the number of records appended to the current segment.
+	 */
+	synchronized long getRecordCount(){
+		return recordCount;
+	}
+
+	private void flushAll() throws IOException {
+		boolean interrupted = false;
+		while(flushing){
+			try{
+				wait();
+			}catch(InterruptedException e){
+				interrupted = true;
+			}
+		}
+		if(interrupted){
+			Thread.currentThread().interrupt();
+		}
+		if(failure != null){
+			throw new IOException("The log could not be written.", failure);
+		}
+		pending.writeTo(output);
+		output.getFD().sync();
+		pending.reset();
+		durable = appended;
+		notifyAll();
+	}
+
+	private void writeRecord(int type, int[] ids, int index) throws IOException {
+		int subject = ids[index * 3];
+		int predicate = ids[index * 3 + 1];
+		int object = ids[index * 3 + 2];
+		defineNode(subject);
+		definePredicate(predicate);
+		defineNode(object);
+		frame.write(type);
+		writeVarInt(frame, subject);
+		writeVarInt(frame, predicate);
+		writeVarInt(frame, object);
+	}
+
+	private void definePredicate(int id) throws IOException {
+		if(!definedPredicates.get(id)){
+			frame.write(DEFINE_PREDICATE);
+			writeVarInt(frame, id);
+			writeString(frame, knowledgeGraph.decodePredicate(id).getIdentifier());
+			definedPredicates.set(id);
+		}
+	}
+
+	private void writeTime(long next) throws IOException {
+		frame.write(TIME);
+		long difference = next - time;
+		writeVarLong(frame, (difference << 1) ^ (difference >> 63));
+		time = next;
+	}
+
+	private void defineNode(int id) throws IOException {
+		if(!definedNodes.get(id)){
+			frame.write(DEFINE_NODE);
+			writeVarInt(frame, id);
+			writeString(frame, knowledgeGraph.decodeNode(id).getIdentifier());
+			definedNodes.set(id);
+		}
+	}
+
+	/**
+	 * Replays a log segment into the KnowledgeGraph, stopping at the first incomplete or damaged frame.
+	 * The segment's ids are mapped to the graph's ids through the identifiers they define.
+	 * Consecutive additions made at the same time are committed together. Changes logged before any
+	 * history was tracked are committed at the current time.
+	 * @param knowledgeGraph the KnowledgeGraph to replay into.
+	 * @param file the segment file.
+	 * @return the number of frames replayed.
+	 * @throws IOException if the file cannot be read.
+	 */
+	static int replay(KnowledgeGraph knowledgeGraph, File file) throws IOException {
+		DataInputStream input = new DataInputStream(new BufferedInputStream(new FileInputStream(file), 1 << 16));
+		int[] nodes = new int[64];
+		int[] predicates = new int[16];
+		int[] removed = new int[3 * 16];
+		int[] added = new int[3 * TripleChunkParser.BATCH_SIZE];
+		int addedCount = 0;
+		int frames = 0;
+		long logged = 0;
+		long time = System.currentTimeMillis();
+		try{
+			while(true){
+				int length;
+				int checksum;
+				byte[] contents;
+				try{
+					length = input.readInt();
+					checksum = input.readInt();
+					if(length < 0){
+						break;
+					}
+					contents = new byte[length];
+					input.readFully(contents);
+				}catch(EOFException e){
+					break;
+				}
+				CRC32 crc = new CRC32();
+				crc.update(contents, 0, length);
+				if((int) crc.getValue() != checksum){
+					break;
+				}
+
+				InputStream records = new ByteArrayInputStream(contents);
+				int removedCount = 0;
+				int type;
+				while((type = records.read()) >= 0){
+					if(type == DEFINE_NODE){
+						int id = readVarInt(records);
+						nodes = grow(nodes, id);
+						nodes[id] = knowledgeGraph.internNode(readString(records));
+					}else if(type == DEFINE_PREDICATE){
+						int id = readVarInt(records);
+						predicates = grow(predicates, id);
+						predicates[id] = knowledgeGraph.internPredicate(readString(records));
+					}else if(type == TIME){
+						long difference = readVarLong(records);
+						logged += (difference >>> 1) ^ -(difference & 1);
+						if(logged != time && addedCount > 0){
+							knowledgeGraph.commit(null, 0, added, addedCount, time);
+							addedCount = 0;
+						}
+						time = logged;
+					}else if(type == TRACK){
+						int predicate = predicates[readVarInt(records)];
+						if(addedCount > 0){
+							knowledgeGraph.commit(null, 0, added, addedCount, time);
+							addedCount = 0;
+						}
+						knowledgeGraph.trackHistory(predicate, time);
+					}else{
+						int subject = nodes[readVarInt(records)];
+						int predicate = predicates[readVarInt(records)];
+						int object = nodes[readVarInt(records)];
+						if(type == REMOVE){
+							/** Keep the changes in log order: earlier additions first. */
+							if(addedCount > 0){
+								knowledgeGraph.commit(null, 0, added, addedCount, time);
+								addedCount = 0;
+							}
+							removed = grow(removed, removedCount * 3 + 2);
+							removed[removedCount * 3] = subject;
+							removed[removedCount * 3 + 1] = predicate;
+							removed[removedCount * 3 + 2] = object;
+							removedCount++;
+						}else{
+							if(removedCount > 0){
+								knowledgeGraph.commit(removed, removedCount, null, 0, time);
+								removedCount = 0;
+							}
+							if(addedCount == TripleChunkParser.BATCH_SIZE){
+								knowledgeGraph.commit(null, 0, added, addedCount, time);
+								addedCount = 0;
+							}
+							added[addedCount * 3] = subject;
+							added[addedCount * 3 + 1] = predicate;
+							added[addedCount * 3 + 2] = object;
+							addedCount++;
+						}
+					}
+				}
+				if(removedCount > 0){
+					knowledgeGraph.commit(removed, removedCount, null, 0, time);
+				}
+				frames++;
+			}
+			knowledgeGraph.commit(null, 0, added, addedCount, time);
+		}finally{
+			input.close();
+		}
+		return frames;
+	}
+
+	private static int[] grow(int[] array, int index){
+		if(index < array.length){
+			return array;
+		}
+		int[] grown = new int[Math.max(array.length * 2, index + 1)];
+		System.arraycopy(array, 0, grown, 0, array.length);
+		return grown;
+	}
+
+	static void writeVarInt(OutputStream output, int value) throws IOException {
+		while((value & ~0x7F) != 0){
+			output.write((value & 0x7F) | 0x80);
+			value >>>= 7;
+		}
+		output.write(value);
+	}
+
+	static int readVarInt(InputStream input) throws IOException {
+		int value = 0;
+		for(int shift = 0; shift < 35; shift += 7){
+			int b = input.read();
+			if(b < 0){
+				throw new EOFException();
+			}
+			value |= (b & 0x7F) << shift;
+			if((b & 0x80) == 0){
+				return value;
+			}
+		}
+		throw new IOException("Invalid variable length integer.");
+	}
+
+	static void writeVarLong(OutputStream output, long value) throws IOException {
+		while((value & ~0x7FL) != 0){
+			output.write((int) (value & 0x7F) | 0x80);
+			value >>>= 7;
+		}
+		output.write((int) value);
+	}
+
+	static long readVarLong(InputStream input) throws IOException {
+		long value = 0;
+		for(int shift = 0; shift < 70; shift += 7){
+			int b = input.read();
+			if(b < 0){
+				throw new EOFException();
+			}
+			value |= (long) (b & 0x7F) << shift;
+			if((b & 0x80) == 0){
+				return value;
+			}
+		}
+		throw new IOException("Invalid variable length integer.");
+	}
+
+	static void writeString(OutputStream output, String value) throws IOException {
+		byte[] bytes = value.getBytes(UTF_8);
+		writeVarInt(output, bytes.length);
+		output.write(bytes);
+	}
+
+	static String readString(InputStream input) throws IOException {
+		byte[] bytes = new byte[readVarInt(input)];
+		int read = 0;
+		while(read < bytes.length){
+			int count = input.read(bytes, read, bytes.length - read);
+			if(count < 0){
+				throw new EOFException();
+			}
+			read += count;
+		}
+		return new String(bytes, UTF_8);
+	}
+
+	private static void writeInt(ByteArrayOutputStream output, int value){
+		output.write(value >>> 24);
+		output.write(value >>> 16);
+		output.write(value >>> 8);
+		output.write(value);
+	}
+}